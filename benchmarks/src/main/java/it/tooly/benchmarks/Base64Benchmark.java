@@ -0,0 +1,93 @@
+package it.tooly.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.tooly.shared.common.Base64;
+
+/**
+ * Encoding and decoding with {@link Base64}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Base64Benchmark {
+
+	@Param({ "64", "65536" })
+	public int size;
+
+	private byte[] data;
+	private byte[] encoded;
+	private String text;
+	private String encodedText;
+	private byte[] mimeEncoded;
+	private ByteBuffer directData;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		this.data = new byte[this.size];
+		random.nextBytes(this.data);
+		this.encoded = Base64.encode(this.data);
+		this.mimeEncoded = Base64.MIME.encode(this.data);
+		this.directData = ByteBuffer.allocateDirect(this.size);
+		this.directData.put(this.data).flip();
+		StringBuilder sb = new StringBuilder(this.size);
+		for (int i = 0; i < this.size; i++) {
+			sb.append((char) ('a' + random.nextInt(26)));
+		}
+		this.text = sb.toString();
+		this.encodedText = Base64.encode(this.text);
+	}
+
+	@Benchmark
+	public byte[] encodeBytes() {
+		return Base64.encode(this.data);
+	}
+
+	@Benchmark
+	public byte[] decodeBytes() {
+		return Base64.decode(this.encoded);
+	}
+
+	@Benchmark
+	public byte[] encodeMime() {
+		return Base64.MIME.encode(this.data);
+	}
+
+	@Benchmark
+	public byte[] decodeMime() {
+		return Base64.MIME.decode(this.mimeEncoded);
+	}
+
+	@Benchmark
+	public ByteBuffer encodeDirectBuffer() {
+		return Base64.STANDARD.encode(this.directData.duplicate());
+	}
+
+	@Benchmark
+	public String encodeString() {
+		return Base64.encode(this.text);
+	}
+
+	@Benchmark
+	public String decodeString() {
+		return Base64.decode(this.encodedText);
+	}
+}
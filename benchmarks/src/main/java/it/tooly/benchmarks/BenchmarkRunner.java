@@ -0,0 +1,31 @@
+package it.tooly.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and writes the results as JSON, so they can be compared
+ * between releases. Accepts the normal JMH command line options, for example
+ * a regular expression to run only some benchmarks, or <code>-rff</code> to
+ * write the results to another file than {@value #DEFAULT_RESULT_FILE}.
+ */
+public class BenchmarkRunner {
+
+	public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		if (commandLine.getIncludes().isEmpty())
+			builder.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+		builder.resultFormat(commandLine.getResultFormat().orElse(ResultFormatType.JSON));
+		builder.result(commandLine.getResult().orElse(DEFAULT_RESULT_FILE));
+		Options options = builder.parent(commandLine).build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,76 @@
+package it.tooly.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import it.tooly.shared.common.FileUtils;
+
+/**
+ * {@link FileUtils#copyStream} between in-memory streams, so only the copy
+ * loop itself is measured
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CopyStreamBenchmark {
+
+	@Param({ "4096", "1048576" })
+	public int size;
+
+	private byte[] data;
+
+	@Setup
+	public void setup() {
+		this.data = new byte[this.size];
+		new Random(42).nextBytes(this.data);
+	}
+
+	@Benchmark
+	public long copyStream(final Blackhole blackhole) throws IOException {
+		return FileUtils.copyStream(new ByteArrayInputStream(this.data), new OutputStream() {
+			@Override
+			public void write(int b) {
+				blackhole.consume(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				blackhole.consume(b);
+			}
+		});
+	}
+
+	@Benchmark
+	public long copyStreamRange(final Blackhole blackhole) throws IOException {
+		return FileUtils.copyStream(new ByteArrayInputStream(this.data), new OutputStream() {
+			@Override
+			public void write(int b) {
+				blackhole.consume(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				blackhole.consume(b);
+			}
+		}, this.size / 4, this.size / 2);
+	}
+}
@@ -0,0 +1,188 @@
+package it.tooly.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.documentum.fc.client.IDfCollection;
+import com.documentum.fc.client.IDfTypedObject;
+import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.DfId;
+import com.documentum.fc.common.IDfAttr;
+import com.documentum.fc.common.IDfValue;
+
+/**
+ * An in-memory {@link IDfCollection} for benchmarking the mapping of query
+ * results without a repository. Only the methods used to read rows are
+ * implemented; all values are single valued. The object id is read from the
+ * r_object_id column.
+ */
+class FakeCollection implements InvocationHandler {
+
+	private final String[] names;
+	private final int[] dataTypes;
+	private final Object[][] rows;
+	private final Map<String, Integer> indexes;
+	private final IDfAttr[] attrs;
+	private int row;
+	private boolean closed;
+
+	/**
+	 * @param names
+	 *            The column names
+	 * @param dataTypes
+	 *            The data types of the columns, IDfAttr.DM_BOOLEAN,
+	 *            DM_INTEGER, DM_STRING or DM_DOUBLE
+	 * @param rows
+	 *            The values per row and column, as Boolean, Integer, String or
+	 *            Double
+	 */
+	FakeCollection(String[] names, int[] dataTypes, Object[][] rows) {
+		this.names = names;
+		this.dataTypes = dataTypes;
+		this.rows = rows;
+		this.indexes = new HashMap<>();
+		this.attrs = new IDfAttr[names.length];
+		for (int i = 0; i < names.length; i++) {
+			this.indexes.put(names[i], i);
+			this.attrs[i] = createAttr(names[i], dataTypes[i]);
+		}
+		this.row = -1;
+		this.closed = false;
+	}
+
+	/**
+	 * @return A new collection over the rows, positioned before the first row
+	 */
+	IDfCollection open() {
+		FakeCollection collection = new FakeCollection(this.names, this.dataTypes, this.rows);
+		return (IDfCollection) Proxy.newProxyInstance(FakeCollection.class.getClassLoader(),
+				new Class<?>[] { IDfCollection.class }, collection);
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		switch (name) {
+		case "next":
+			if (this.closed || this.row + 1 >= this.rows.length)
+				return false;
+			this.row++;
+			return true;
+		case "close":
+			this.closed = true;
+			return null;
+		case "getState":
+			return this.closed ? IDfCollection.DF_CLOSED_STATE : 1;
+		case "getAttrCount":
+			return this.names.length;
+		case "getAttr":
+			return this.attrs[(Integer) args[0]];
+		case "findAttrIndex":
+			return column(args[0]);
+		case "hasAttr":
+			return this.indexes.containsKey(args[0]);
+		case "isAttrRepeating":
+			return false;
+		case "getAttrDataType":
+			return this.dataTypes[column(args[0])];
+		case "getValueCount":
+			return 1;
+		case "getValueAt":
+			return createValue(value((Integer) args[0]), this.dataTypes[(Integer) args[0]]);
+		case "getValue":
+		case "getRepeatingValue":
+			return createValue(value(column(args[0])), this.dataTypes[column(args[0])]);
+		case "getString":
+		case "getRepeatingString":
+		case "getAllRepeatingStrings":
+			return String.valueOf(value(column(args[0])));
+		case "getInt":
+			return ((Number) value(column(args[0]))).intValue();
+		case "getDouble":
+			return ((Number) value(column(args[0]))).doubleValue();
+		case "getBoolean":
+			return value(column(args[0]));
+		case "getTypedObject":
+			return snapshot();
+		case "getObjectId":
+			return new DfId(String.valueOf(value(column("r_object_id"))));
+		case "hashCode":
+			return System.identityHashCode(proxy);
+		case "equals":
+			return proxy == args[0];
+		case "toString":
+			return "FakeCollection[row " + this.row + "]";
+		default:
+			throw new UnsupportedOperationException(name);
+		}
+	}
+
+	private int column(Object name) throws DfException {
+		Integer index = this.indexes.get(name);
+		if (index == null)
+			throw new DfException("Unknown attribute " + name);
+		return index;
+	}
+
+	private Object value(int column) {
+		return this.rows[this.row][column];
+	}
+
+	/**
+	 * @return A typed object with the values of the current row
+	 */
+	private IDfTypedObject snapshot() {
+		FakeCollection rowCollection = new FakeCollection(this.names, this.dataTypes,
+				new Object[][] { this.rows[this.row] });
+		rowCollection.row = 0;
+		return (IDfTypedObject) Proxy.newProxyInstance(FakeCollection.class.getClassLoader(),
+				new Class<?>[] { IDfTypedObject.class }, rowCollection);
+	}
+
+	private static IDfAttr createAttr(final String name, final int dataType) {
+		return (IDfAttr) Proxy.newProxyInstance(FakeCollection.class.getClassLoader(), new Class<?>[] { IDfAttr.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						switch (method.getName()) {
+						case "getName":
+							return name;
+						case "getDataType":
+							return dataType;
+						case "isRepeating":
+							return false;
+						case "getLength":
+							return 0;
+						default:
+							throw new UnsupportedOperationException(method.getName());
+						}
+					}
+				});
+	}
+
+	private static IDfValue createValue(final Object value, final int dataType) {
+		return (IDfValue) Proxy.newProxyInstance(FakeCollection.class.getClassLoader(), new Class<?>[] { IDfValue.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						switch (method.getName()) {
+						case "getDataType":
+							return dataType;
+						case "asString":
+							return String.valueOf(value);
+						case "asInteger":
+							return ((Number) value).intValue();
+						case "asDouble":
+							return ((Number) value).doubleValue();
+						case "asBoolean":
+							return value;
+						default:
+							throw new UnsupportedOperationException(method.getName());
+						}
+					}
+				});
+	}
+}
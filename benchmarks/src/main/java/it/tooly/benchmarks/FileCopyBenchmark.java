@@ -0,0 +1,82 @@
+package it.tooly.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.tooly.shared.common.FileUtils;
+
+/**
+ * Copying a file with {@link FileUtils#copyFile}, which transfers between
+ * file channels, compared with a plain copy loop over file streams. The
+ * results depend heavily on the file system and the page cache.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FileCopyBenchmark {
+
+	@Param({ "65536", "16777216" })
+	public int size;
+
+	private File source;
+	private File target;
+
+	@Setup
+	public void setup() throws IOException {
+		byte[] data = new byte[this.size];
+		new Random(42).nextBytes(data);
+		this.source = File.createTempFile("bench", ".src");
+		this.target = File.createTempFile("bench", ".dst");
+		FileUtils.saveFile(this.source.getPath(), data);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.source.delete();
+		this.target.delete();
+	}
+
+	@Benchmark
+	public long copyFile() throws IOException {
+		return FileUtils.copyFile(this.source, this.target);
+	}
+
+	@Benchmark
+	public long copyLoop() throws IOException {
+		FileInputStream in = new FileInputStream(this.source);
+		FileOutputStream out = new FileOutputStream(this.target);
+		try {
+			byte[] buffer = new byte[1024];
+			long total = 0;
+			int len;
+			while ((len = in.read(buffer)) > 0) {
+				out.write(buffer, 0, len);
+				total += len;
+			}
+			return total;
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package it.tooly.benchmarks;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.tooly.benchmarks.ModelObjectBenchmark.BenchmarkObject;
+import it.tooly.shared.model.util.ModelMap;
+import it.tooly.shared.model.util.StrictModelMap;
+
+/**
+ * Filling a {@link ModelMap} and a {@link StrictModelMap}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ModelMapBenchmark {
+
+	@Param({ "1000" })
+	public int nrObjects;
+
+	@Param({ "20" })
+	public int nrAttrs;
+
+	private BenchmarkObject[] objects;
+
+	@Setup
+	public void setup() {
+		Set<String> names = new LinkedHashSet<>();
+		for (int i = 0; i < this.nrAttrs; i++) {
+			names.add("attr_" + i);
+		}
+		this.objects = new BenchmarkObject[this.nrObjects];
+		for (int i = 0; i < this.nrObjects; i++) {
+			this.objects[i] = new BenchmarkObject(String.format("09000001%08x", i), names);
+		}
+	}
+
+	@Benchmark
+	public ModelMap<BenchmarkObject> putModelMap() {
+		ModelMap<BenchmarkObject> map = new ModelMap<>();
+		for (BenchmarkObject object : this.objects) {
+			map.put(object);
+		}
+		return map;
+	}
+
+	@Benchmark
+	public StrictModelMap<BenchmarkObject> putStrictModelMap() {
+		StrictModelMap<BenchmarkObject> map = new StrictModelMap<>(BenchmarkObject.class);
+		for (BenchmarkObject object : this.objects) {
+			map.put(object);
+		}
+		return map;
+	}
+}
@@ -0,0 +1,85 @@
+package it.tooly.benchmarks;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.tooly.shared.model.AbstractModelObject;
+import it.tooly.shared.model.attribute.IModelObjectAttribute;
+
+/**
+ * Attribute access of {@link AbstractModelObject}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ModelObjectBenchmark {
+
+	/**
+	 * Model object with string attributes only
+	 */
+	static class BenchmarkObject extends AbstractModelObject {
+		BenchmarkObject(String id, Set<String> strAttrs) {
+			super(id, "Object " + id, strAttrs);
+		}
+	}
+
+	@Param({ "10", "100" })
+	public int nrAttrs;
+
+	private BenchmarkObject object;
+	private String lastAttrName;
+	private IModelObjectAttribute<?> lastAttr;
+	private int counter;
+
+	@Setup
+	public void setup() {
+		Set<String> names = new LinkedHashSet<>();
+		for (int i = 0; i < this.nrAttrs; i++) {
+			names.add("attr_" + i);
+		}
+		this.lastAttrName = "attr_" + (this.nrAttrs - 1);
+		this.object = new BenchmarkObject("0900000180000001", names);
+		this.lastAttr = this.object.getAttr(this.lastAttrName);
+	}
+
+	@Benchmark
+	public Object getAttrValueByName() {
+		return this.object.getAttrValue(this.lastAttrName);
+	}
+
+	@Benchmark
+	public Object getAttrValueByAttribute() {
+		return this.object.getAttrValue(this.lastAttr);
+	}
+
+	@Benchmark
+	public Object getAttrValueAt() {
+		return this.object.getAttrValueAt(this.nrAttrs);
+	}
+
+	@Benchmark
+	public boolean setAttrValue() {
+		return this.object.setAttrValue(this.lastAttrName, (this.counter++ & 1) == 0 ? "a" : "b");
+	}
+
+	@Benchmark
+	public Object createObject() {
+		return new BenchmarkObject("0900000180000002", this.object.getAttrNames());
+	}
+}
@@ -0,0 +1,149 @@
+package it.tooly.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.documentum.fc.client.IDfCollection;
+import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.IDfAttr;
+
+import it.tooly.dctmclient.model.DctmObject;
+import it.tooly.dctmclient.util.DctmUtils;
+import it.tooly.dctmclient.util.QueryCursor;
+import it.tooly.dctmclient.util.QueryResult;
+import it.tooly.shared.common.ToolyException;
+
+/**
+ * Mapping query rows to maps, typed values and model objects, with a
+ * {@link FakeCollection} instead of a repository. The collection is
+ * implemented with a dynamic proxy, which adds the same overhead to every
+ * call; compare the results with each other and with earlier runs, not with
+ * real query times.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryMappingBenchmark {
+
+	@Param({ "1000" })
+	public int nrRows;
+
+	/**
+	 * Number of string columns besides the five fixed ones
+	 */
+	@Param({ "5", "100" })
+	public int nrExtraColumns;
+
+	private FakeCollection rows;
+
+	@Setup
+	public void setup() {
+		int nrColumns = 5 + this.nrExtraColumns;
+		String[] names = new String[nrColumns];
+		int[] dataTypes = new int[nrColumns];
+		names[0] = "r_object_id";
+		dataTypes[0] = IDfAttr.DM_STRING;
+		names[1] = "object_name";
+		dataTypes[1] = IDfAttr.DM_STRING;
+		names[2] = "r_content_size";
+		dataTypes[2] = IDfAttr.DM_INTEGER;
+		names[3] = "r_version";
+		dataTypes[3] = IDfAttr.DM_DOUBLE;
+		names[4] = "a_is_hidden";
+		dataTypes[4] = IDfAttr.DM_BOOLEAN;
+		for (int c = 5; c < nrColumns; c++) {
+			names[c] = "custom_attr_" + c;
+			dataTypes[c] = IDfAttr.DM_STRING;
+		}
+		Object[][] values = new Object[this.nrRows][nrColumns];
+		for (int r = 0; r < this.nrRows; r++) {
+			values[r][0] = String.format("09000001%08x", r);
+			values[r][1] = "Document " + r;
+			values[r][2] = r * 1024;
+			values[r][3] = 1.0 + r % 3;
+			values[r][4] = r % 2 == 0;
+			for (int c = 5; c < nrColumns; c++) {
+				values[r][c] = "value " + (r % 50);
+			}
+		}
+		this.rows = new FakeCollection(names, dataTypes, values);
+	}
+
+	@Benchmark
+	public List<Map<String, String>> mapOfProperties() throws DfException {
+		IDfCollection collection = this.rows.open();
+		List<Map<String, String>> result = new ArrayList<>(this.nrRows);
+		while (collection.next()) {
+			result.add(DctmUtils.getMapOfPropertiesFromCollection(collection));
+		}
+		collection.close();
+		return result;
+	}
+
+	@Benchmark
+	public void cursorTypedGetters(Blackhole blackhole) throws DfException {
+		try (QueryCursor cursor = new QueryCursor(this.rows.open())) {
+			while (cursor.next()) {
+				blackhole.consume(cursor.getString(1));
+				blackhole.consume(cursor.getInt(2));
+				blackhole.consume(cursor.getDouble(3));
+				blackhole.consume(cursor.getBoolean(4));
+			}
+		}
+	}
+
+	@Benchmark
+	public List<Map<String, String>> cursorToStringMaps() throws DfException {
+		List<Map<String, String>> result = new ArrayList<>(this.nrRows);
+		try (QueryCursor cursor = new QueryCursor(this.rows.open())) {
+			while (cursor.next()) {
+				result.add(cursor.toStringMap());
+			}
+		}
+		return result;
+	}
+
+	@Benchmark
+	public QueryResult queryResult() throws DfException {
+		return QueryResult.read(new QueryCursor(this.rows.open()));
+	}
+
+	@Benchmark
+	public List<DctmObject> dctmObjects() throws DfException, ToolyException {
+		IDfCollection collection = this.rows.open();
+		List<DctmObject> result = new ArrayList<>(this.nrRows);
+		while (collection.next()) {
+			result.add(new DctmObject(null, null, collection.getTypedObject()));
+		}
+		collection.close();
+		return result;
+	}
+
+	@Benchmark
+	public void lazyDctmObjects(Blackhole blackhole) throws DfException {
+		IDfCollection collection = this.rows.open();
+		while (collection.next()) {
+			DctmObject object = new DctmObject(null, collection.getTypedObject(), "object_name", "r_content_size");
+			blackhole.consume(object.getAttrValue("r_content_size"));
+		}
+		collection.close();
+	}
+}
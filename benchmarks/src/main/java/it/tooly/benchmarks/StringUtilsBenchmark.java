@@ -0,0 +1,107 @@
+package it.tooly.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.tooly.shared.common.StringUtils;
+
+/**
+ * The split, replace and join methods of {@link StringUtils}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StringUtilsBenchmark {
+
+	@Param({ "10", "1000" })
+	public int nrTokens;
+
+	private String csv;
+	private String[] tokens;
+	private List<String> tokenList;
+
+	@Setup
+	public void setup() {
+		this.tokens = new String[this.nrTokens];
+		this.tokenList = new ArrayList<>(this.nrTokens);
+		for (int i = 0; i < this.nrTokens; i++) {
+			this.tokens[i] = "value_" + i;
+			this.tokenList.add(this.tokens[i]);
+		}
+		// Every tenth value is empty, so the preserve-all-tokens variants differ
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < this.nrTokens; i++) {
+			if (i > 0)
+				sb.append(',');
+			if (i % 10 != 9)
+				sb.append(this.tokens[i]);
+		}
+		this.csv = sb.toString();
+	}
+
+	@Benchmark
+	public String[] splitChar() {
+		return StringUtils.split(this.csv, ',');
+	}
+
+	@Benchmark
+	public String[] splitChars() {
+		return StringUtils.split(this.csv, ",;");
+	}
+
+	@Benchmark
+	public String[] splitPreserveAllTokens() {
+		return StringUtils.splitPreserveAllTokens(this.csv, ',');
+	}
+
+	@Benchmark
+	public String[] splitByWholeSeparator() {
+		return StringUtils.splitByWholeSeparator(this.csv, "_1");
+	}
+
+	@Benchmark
+	public String replace() {
+		return StringUtils.replace(this.csv, "value", "v");
+	}
+
+	@Benchmark
+	public String replaceEach() {
+		return StringUtils.replaceEach(this.csv, new String[] { "value", "," }, new String[] { "v", ";" });
+	}
+
+	@Benchmark
+	public String replaceChars() {
+		return StringUtils.replaceChars(this.csv, ',', ';');
+	}
+
+	@Benchmark
+	public String joinChar() {
+		return StringUtils.join(this.tokens, ',');
+	}
+
+	@Benchmark
+	public String joinString() {
+		return StringUtils.join(this.tokens, ", ");
+	}
+
+	@Benchmark
+	public String toSingleQuotedCommaSeparatedString() {
+		return StringUtils.toSingleQuotedCommaSeparatedString(this.tokenList);
+	}
+}
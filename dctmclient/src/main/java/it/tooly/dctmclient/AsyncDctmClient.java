@@ -0,0 +1,539 @@
+package it.tooly.dctmclient;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.apache.log4j.Logger;
+
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.client.IDfSessionManager;
+import com.documentum.fc.client.search.IDfQueryProcessor;
+import com.documentum.fc.common.DfException;
+
+import it.tooly.dctmclient.model.ContentServer;
+import it.tooly.dctmclient.model.Docbroker;
+import it.tooly.dctmclient.model.IContentServer;
+import it.tooly.dctmclient.model.IRepository;
+import it.tooly.dctmclient.model.IUserAccount;
+import it.tooly.dctmclient.model.Repository;
+import it.tooly.dctmclient.session.SessionLease;
+import it.tooly.dctmclient.session.SessionPool;
+import it.tooly.shared.common.ThreadPools;
+import it.tooly.shared.model.util.ModelMap;
+
+/**
+ * Runs the operations of a {@link DctmClient} on an executor and returns
+ * {@link CompletableFuture}s, so a caller can have many repository calls
+ * running without waiting for each one. By default each call gets its own
+ * virtual thread when the JDK supports them (see {@link ThreadPools}), and
+ * otherwise runs on a pool of {@link #DEFAULT_MAX_THREADS} threads.
+ * <p>
+ * Cancelling a returned future interrupts the call if it is running. Calls
+ * can have a deadline, either per call or with
+ * {@link #setDefaultTimeout(long, TimeUnit)}: a call that has not completed
+ * by then completes with a {@link TimeoutException} and is interrupted. Calls
+ * that are started from within a call (for example in
+ * {@link #withSession(IContentServer, IUserAccount, SessionCallback)}) inherit
+ * its deadline, and {@link #getRemainingNanos()} tells a callback how much
+ * time it has left. They are cancelled (or time out) when that call is
+ * cancelled (or times out).
+ * <p>
+ * DFC calls that do not respond to interrupts keep their thread until they
+ * return; their result is then ignored.
+ */
+public class AsyncDctmClient implements AutoCloseable {
+	private static final Logger LOGGER = Logger.getLogger(AsyncDctmClient.class);
+
+	/**
+	 * Number of threads when the JDK does not support virtual threads
+	 */
+	public static final int DEFAULT_MAX_THREADS = 32;
+
+	private static final AtomicInteger CLIENT_NR = new AtomicInteger();
+
+	/**
+	 * The call that runs on the current thread
+	 */
+	private static final ThreadLocal<Call<?>> CURRENT_CALL = new ThreadLocal<Call<?>>();
+
+	/**
+	 * Work with a leased session
+	 */
+	public interface SessionCallback<T> {
+		T doWithSession(IDfSession session) throws DfException;
+	}
+
+	private final DctmClient client;
+	private final ExecutorService executor;
+	private final boolean ownExecutor;
+	private final int clientNr;
+	private ScheduledExecutorService timer;
+	private volatile long defaultTimeoutNanos;
+
+	/**
+	 * Use virtual threads if the JDK supports them, otherwise a pool of
+	 * {@link #DEFAULT_MAX_THREADS} threads
+	 *
+	 * @param client
+	 *            The client to call
+	 */
+	public AsyncDctmClient(DctmClient client) {
+		this(client, DEFAULT_MAX_THREADS);
+	}
+
+	/**
+	 * Use virtual threads if the JDK supports them, otherwise a pool of the
+	 * given number of threads
+	 *
+	 * @param client
+	 *            The client to call
+	 * @param maxThreads
+	 *            The number of threads without virtual threads
+	 */
+	public AsyncDctmClient(DctmClient client, int maxThreads) {
+		if (client == null)
+			throw new IllegalArgumentException("A client is required");
+		this.client = client;
+		this.clientNr = CLIENT_NR.incrementAndGet();
+		this.executor = ThreadPools.newIoExecutor("AsyncDctmClient-" + this.clientNr, maxThreads);
+		this.ownExecutor = true;
+	}
+
+	/**
+	 * @param client
+	 *            The client to call
+	 * @param executor
+	 *            The executor to run the calls on; it is not shut down when
+	 *            this client is closed
+	 */
+	public AsyncDctmClient(DctmClient client, ExecutorService executor) {
+		if (client == null || executor == null)
+			throw new IllegalArgumentException("A client and executor are required");
+		this.client = client;
+		this.clientNr = CLIENT_NR.incrementAndGet();
+		this.executor = executor;
+		this.ownExecutor = false;
+	}
+
+	public DctmClient getClient() {
+		return this.client;
+	}
+
+	/**
+	 * @return The timeout of calls without a timeout of their own, in
+	 *         milliseconds; 0 if they have no timeout
+	 */
+	public long getDefaultTimeoutMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(this.defaultTimeoutNanos);
+	}
+
+	/**
+	 * @param timeout
+	 *            The timeout of calls without a timeout of their own; 0 for no
+	 *            timeout
+	 * @param unit
+	 *            The unit of the timeout
+	 */
+	public void setDefaultTimeout(long timeout, TimeUnit unit) {
+		if (timeout < 0)
+			throw new IllegalArgumentException("Timeout cannot be negative");
+		this.defaultTimeoutNanos = unit.toNanos(timeout);
+	}
+
+	/**
+	 * @return The time left until the deadline of the call that runs on the
+	 *         current thread, in nanoseconds; {@link Long#MAX_VALUE} if there
+	 *         is no deadline or the current thread does not run a call
+	 */
+	public static long getRemainingNanos() {
+		Long deadline = getCurrentDeadline();
+		return deadline == null ? Long.MAX_VALUE : Math.max(0, deadline - System.nanoTime());
+	}
+
+	/**
+	 * @return The deadline (in {@link System#nanoTime()}) of the call that runs
+	 *         on the current thread, or null
+	 */
+	private static Long getCurrentDeadline() {
+		Call<?> call = CURRENT_CALL.get();
+		return call == null ? null : call.deadline;
+	}
+
+	/**
+	 * @return Whether the call that runs on the current thread was cancelled
+	 *         or timed out, or the thread was interrupted
+	 */
+	private static boolean isCurrentCallAbandoned() {
+		Call<?> call = CURRENT_CALL.get();
+		return (call != null && call.isDone()) || Thread.currentThread().isInterrupted();
+	}
+
+	public CompletableFuture<ModelMap<Docbroker>> getDocbrokerMap() {
+		return submit(new Callable<ModelMap<Docbroker>>() {
+			@Override
+			public ModelMap<Docbroker> call() throws DfException {
+				return client.getDocbrokerMap();
+			}
+		});
+	}
+
+	public CompletableFuture<ModelMap<Repository>> getRepositoryMap() {
+		return submit(new Callable<ModelMap<Repository>>() {
+			@Override
+			public ModelMap<Repository> call() throws DfException {
+				return client.getRepositoryMap();
+			}
+		});
+	}
+
+	public CompletableFuture<ModelMap<ContentServer>> getContentServerMap() {
+		return submit(new Callable<ModelMap<ContentServer>>() {
+			@Override
+			public ModelMap<ContentServer> call() throws DfException {
+				return client.getContentServerMap();
+			}
+		});
+	}
+
+	public CompletableFuture<ModelMap<ContentServer>> getContentServerMap(final IRepository repository) {
+		return submit(new Callable<ModelMap<ContentServer>>() {
+			@Override
+			public ModelMap<ContentServer> call() throws DfException {
+				return client.getContentServerMap(repository);
+			}
+		});
+	}
+
+	/**
+	 * @see DctmClient#getSession(IContentServer, IUserAccount)
+	 */
+	public CompletableFuture<IDfSession> getSession(final IContentServer cServer, final IUserAccount account) {
+		return submit(new Callable<IDfSession>() {
+			@Override
+			public IDfSession call() throws DfException {
+				return client.getSession(cServer, account);
+			}
+		});
+	}
+
+	/**
+	 * @see DctmClient#getSession(IRepository, IUserAccount)
+	 */
+	public CompletableFuture<IDfSession> getSession(final IRepository repository, final IUserAccount account) {
+		return submit(new Callable<IDfSession>() {
+			@Override
+			public IDfSession call() throws DfException {
+				return client.getSession(repository, account);
+			}
+		});
+	}
+
+	/**
+	 * Lease a session from a session pool. The wait for a free session ends at
+	 * the deadline of the call. If the future is cancelled or times out after
+	 * the session was leased, the lease is closed.
+	 *
+	 * @see DctmClient#leaseSession(IContentServer, IUserAccount)
+	 */
+	public CompletableFuture<SessionLease> leaseSession(final IContentServer cServer, final IUserAccount account) {
+		return submit(new Callable<SessionLease>() {
+			@Override
+			public SessionLease call() throws DfException {
+				return lease(cServer, account);
+			}
+		});
+	}
+
+	/**
+	 * Lease a session, call the callback with it, and return the session to
+	 * the pool. If the call is cancelled or times out while the callback runs,
+	 * the session is interrupted in an unknown state, so it is not returned to
+	 * the pool but closed.
+	 *
+	 * @return The result of the callback
+	 */
+	public <T> CompletableFuture<T> withSession(final IContentServer cServer, final IUserAccount account,
+			final SessionCallback<T> callback) {
+		return submit(new Callable<T>() {
+			@Override
+			public T call() throws DfException {
+				try (SessionLease lease = lease(cServer, account)) {
+					try {
+						return callback.doWithSession(lease.getSession());
+					} finally {
+						if (isCurrentCallAbandoned())
+							lease.invalidate();
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * @see DctmClient#releaseSessions(IRepository, boolean)
+	 */
+	public CompletableFuture<Integer> releaseSessions(final IRepository repository, final boolean alsoDisconnect) {
+		return submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws DfException {
+				return client.releaseSessions(repository, alsoDisconnect);
+			}
+		});
+	}
+
+	/**
+	 * @see DctmClient#releaseAllSessions(boolean)
+	 */
+	public CompletableFuture<Integer> releaseAllSessions(final boolean alsoDisconnect) {
+		return submit(new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				return client.releaseAllSessions(alsoDisconnect);
+			}
+		});
+	}
+
+	/**
+	 * @see DctmClient#getQueryProcessor(IDfSessionManager, String)
+	 */
+	public CompletableFuture<IDfQueryProcessor> getQueryProcessor(final IDfSessionManager sessMan, final String dql) {
+		return submit(new Callable<IDfQueryProcessor>() {
+			@Override
+			public IDfQueryProcessor call() throws DfException {
+				return client.getQueryProcessor(sessMan, dql);
+			}
+		});
+	}
+
+	/**
+	 * Run an operation with the {@link #setDefaultTimeout(long, TimeUnit)
+	 * default timeout}
+	 */
+	public <T> CompletableFuture<T> submit(Callable<T> operation) {
+		long timeout = this.defaultTimeoutNanos;
+		return submit(operation, timeout == 0 ? Long.MAX_VALUE : timeout, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Run an operation with a timeout. If it is submitted from within another
+	 * call, the deadline of that call applies as well, and the operation is
+	 * cancelled when that call is cancelled.
+	 *
+	 * @param operation
+	 *            The operation
+	 * @param timeout
+	 *            The time the operation may take, from now
+	 * @param unit
+	 *            The unit of the timeout
+	 * @return The future result; it completes with a {@link TimeoutException}
+	 *         if the operation did not complete in time
+	 */
+	public <T> CompletableFuture<T> submit(Callable<T> operation, long timeout, TimeUnit unit) {
+		long now = System.nanoTime();
+		long timeoutNanos = unit.toNanos(timeout);
+		Long deadline = timeoutNanos == Long.MAX_VALUE ? null : now + timeoutNanos;
+		Long inherited = getCurrentDeadline();
+		if (inherited != null && (deadline == null || inherited - deadline < 0))
+			deadline = inherited;
+
+		final Call<T> call = new Call<T>(operation, deadline);
+		// Published before the task can start, so a cancel or timeout always
+		// finds the task to interrupt
+		call.submitted = new CallTask(call);
+		Call<?> parent = CURRENT_CALL.get();
+		if (parent != null)
+			parent.addChild(call);
+		try {
+			this.executor.execute(call.submitted);
+		} catch (RejectedExecutionException e) {
+			call.completeExceptionally(e);
+			return call;
+		}
+		if (deadline != null) {
+			final ScheduledFuture<?> timeoutTask = getTimer().schedule(new Runnable() {
+				@Override
+				public void run() {
+					call.timeout();
+				}
+			}, deadline - now, TimeUnit.NANOSECONDS);
+			call.whenComplete(new BiConsumer<T, Throwable>() {
+				@Override
+				public void accept(T result, Throwable failure) {
+					timeoutTask.cancel(false);
+				}
+			});
+		}
+		return call;
+	}
+
+	/**
+	 * Shut down the executor (if it was created by this client) and the
+	 * timer. Running calls are interrupted, and calls that did not start
+	 * complete with a {@link CancellationException}.
+	 */
+	@Override
+	public void close() {
+		if (this.ownExecutor) {
+			for (Runnable notStarted : this.executor.shutdownNow()) {
+				if (notStarted instanceof CallTask)
+					((CallTask) notStarted).call.completeExceptionally(new CancellationException("Client was closed"));
+			}
+		}
+		synchronized (this) {
+			if (this.timer != null)
+				this.timer.shutdownNow();
+		}
+	}
+
+	/**
+	 * Lease a session, waiting at most the configured lease timeout or until
+	 * the deadline of the current call, whichever comes first
+	 */
+	private SessionLease lease(IContentServer cServer, IUserAccount account) throws DfException {
+		SessionPool pool = this.client.getSessionPool(cServer, account);
+		long timeout = TimeUnit.MILLISECONDS.toNanos(pool.getConfig().getLeaseTimeoutMillis());
+		return pool.lease(Math.min(timeout, getRemainingNanos()), TimeUnit.NANOSECONDS);
+	}
+
+	private synchronized ScheduledExecutorService getTimer() {
+		if (this.timer == null) {
+			final String name = "AsyncDctmClient-" + this.clientNr + "-timer";
+			ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, name);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			// Calls usually complete before their deadline
+			timer.setRemoveOnCancelPolicy(true);
+			this.timer = timer;
+		}
+		return this.timer;
+	}
+
+	/**
+	 * The task that runs a call on the executor, so the call of a task that
+	 * never ran can be completed
+	 */
+	private static class CallTask extends FutureTask<Void> {
+		final Call<?> call;
+
+		CallTask(Call<?> call) {
+			super(call, null);
+			this.call = call;
+		}
+	}
+
+	/**
+	 * A call and its future result
+	 */
+	private static class Call<T> extends CompletableFuture<T> implements Runnable {
+		private final Callable<T> operation;
+		private final Long deadline;
+		/** The calls submitted by this call that have not completed */
+		private final Set<Call<?>> children = Collections.newSetFromMap(new ConcurrentHashMap<Call<?>, Boolean>());
+		/** Set when this call was cancelled or timed out */
+		private volatile boolean abandoned;
+		private volatile boolean timedOut;
+		volatile CallTask submitted;
+
+		Call(Callable<T> operation, Long deadline) {
+			this.operation = operation;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public void run() {
+			if (isDone())
+				return;
+			Call<?> previousCall = CURRENT_CALL.get();
+			CURRENT_CALL.set(this);
+			try {
+				T result = this.operation.call();
+				if (!complete(result) && result instanceof SessionLease) {
+					// Cancelled or timed out: nobody gets the lease
+					((SessionLease) result).close();
+				}
+			} catch (Exception | Error e) {
+				completeExceptionally(e);
+			} finally {
+				if (previousCall == null)
+					CURRENT_CALL.remove();
+				else
+					CURRENT_CALL.set(previousCall);
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if (cancelled) {
+				abandon(false);
+				interrupt();
+			}
+			return cancelled;
+		}
+
+		void timeout() {
+			if (completeExceptionally(new TimeoutException("Call did not complete before its deadline"))) {
+				LOGGER.debug("Call timed out: " + this.operation);
+				abandon(true);
+				interrupt();
+			}
+		}
+
+		/**
+		 * Cancel (or time out) the child when this call is cancelled (or
+		 * times out), also if that already happened
+		 */
+		void addChild(final Call<?> child) {
+			this.children.add(child);
+			child.whenComplete(new BiConsumer<Object, Throwable>() {
+				@Override
+				public void accept(Object result, Throwable failure) {
+					children.remove(child);
+				}
+			});
+			if (this.abandoned)
+				abandon(child, this.timedOut);
+		}
+
+		private void abandon(boolean timedOut) {
+			this.timedOut = timedOut;
+			this.abandoned = true;
+			for (Call<?> child : this.children) {
+				abandon(child, timedOut);
+			}
+		}
+
+		private static void abandon(Call<?> child, boolean timedOut) {
+			if (timedOut)
+				child.timeout();
+			else
+				child.cancel(true);
+		}
+
+		private void interrupt() {
+			CallTask future = this.submitted;
+			if (future != null)
+				future.cancel(true);
+		}
+	}
+}
@@ -3,14 +3,18 @@
  */
 package it.tooly.dctmclient;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
+import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -41,7 +45,13 @@ import it.tooly.dctmclient.model.IDocbroker;
 import it.tooly.dctmclient.model.IRepository;
 import it.tooly.dctmclient.model.IUserAccount;
 import it.tooly.dctmclient.model.Repository;
+import it.tooly.dctmclient.session.SessionLease;
+import it.tooly.dctmclient.session.SessionPool;
+import it.tooly.dctmclient.session.SessionPoolConfig;
+import it.tooly.dctmclient.session.SessionPoolKey;
+import it.tooly.shared.common.TtlCache;
 import it.tooly.shared.model.util.ModelMap;
+import it.tooly.shared.model.util.ModelRegistry;
 
 
 /**
@@ -52,41 +62,95 @@ import it.tooly.shared.model.util.ModelMap;
  */
 public class DctmClient {
 
-	private static DctmClient instance = null;
+	/**
+	 * Default time after which cached docbroker, docbase and server maps are
+	 * refreshed
+	 */
+	public static final long DEFAULT_TOPOLOGY_TTL_MILLIS = 60 * 1000L;
+
+	/**
+	 * Default time after the TTL during which a cached map is still used while
+	 * it is refreshed in the background
+	 */
+	public static final long DEFAULT_TOPOLOGY_MAX_STALE_MILLIS = 10 * 60 * 1000L;
+
+	/**
+	 * Cache key of the maps of the default docbrokers (from dfc.properties)
+	 */
+	private static final String DEFAULT_DOCBROKERS_KEY = "";
+
+	private static volatile DctmClient instance = null;
 	private final Logger logger;
 	private IDfClientX clientx = null;
-	private IDfClient client = null;
+	private volatile IDfClient client = null;
 	private IDfDocbrokerClient docbrokerClient = null;
 
 	/**
 	 * Known content servers with the hostname as key
 	 */
-	private Map<String, ContentServer> hostsContentServers;
+	private ConcurrentMap<String, ContentServer> hostsContentServers;
 
 	/**
 	 * Known docbrokers
 	 */
-	private ModelMap<Docbroker> docbrokerMap;
+	private ModelRegistry<Docbroker> docbrokerMap;
 
 	/**
 	 * Known repositories with the repository id as key
 	 */
-	private ModelMap<Repository> repoMap;
+	private ModelRegistry<Repository> repoMap;
 
 	/**
 	 * Known content servers with the content server name as key
 	 */
-	private ModelMap<ContentServer> contentServerMap;
+	private ModelRegistry<ContentServer> contentServerMap;
 
 	/**
 	 * Session managers per content server
 	 */
-	private Map<IContentServer, IDfSessionManager> serverSessMans;
+	private ConcurrentMap<IContentServer, IDfSessionManager> serverSessMans;
 
 	/**
 	 * Sessions per content server
 	 */
-	private Map<IContentServer, IDfSession> serverSessions;
+	private ConcurrentMap<IContentServer, IDfSession> serverSessions;
+
+	/**
+	 * Session pools per content server and user
+	 */
+	private ConcurrentMap<SessionPoolKey, SessionPool> sessionPools;
+
+	/**
+	 * Settings for new session pools
+	 */
+	private volatile SessionPoolConfig sessionPoolConfig;
+
+	/**
+	 * Runs the idle session eviction of the session pools and the background
+	 * refresh of the topology caches
+	 */
+	private ScheduledExecutorService backgroundScheduler = null;
+
+	/**
+	 * Cached DFC docbase maps, with the docbroker ("host:port") as key, or
+	 * {@link #DEFAULT_DOCBROKERS_KEY} for the default docbrokers
+	 */
+	private TtlCache<String, IDfDocbaseMap, DfException> docbaseMapCache;
+
+	/**
+	 * Cached DFC docbroker map, with {@link #DEFAULT_DOCBROKERS_KEY} as key
+	 */
+	private TtlCache<String, DocbrokerMap, DfException> docbrokerMapCache;
+
+	/**
+	 * Cached DFC server maps, with the repository name as key
+	 */
+	private TtlCache<String, IDfServerMap, DfException> serverMapCache;
+
+	/**
+	 * Resolves docbase ids to repositories without docbroker round-trips
+	 */
+	private RepositoryResolver repositoryResolver;
 
 	public DctmClient() {
 		this.logger = Logger.getLogger(DctmClient.class);
@@ -95,29 +159,143 @@ public class DctmClient {
 
 	private void init() {
 		this.clientx = new DfClientX();
-		this.hostsContentServers = new HashMap<>();
-		this.docbrokerMap = new ModelMap<>();
-		this.repoMap = new ModelMap<>();
-		this.contentServerMap = new ModelMap<>();
-		this.serverSessMans = new HashMap<>();
-		this.serverSessions = new HashMap<>();
+		this.hostsContentServers = new ConcurrentHashMap<>();
+		this.docbrokerMap = new ModelRegistry<>();
+		this.repoMap = new ModelRegistry<>();
+		this.contentServerMap = new ModelRegistry<>();
+		this.serverSessMans = new ConcurrentHashMap<>();
+		this.serverSessions = new ConcurrentHashMap<>();
+		this.sessionPools = new ConcurrentHashMap<>();
+		this.sessionPoolConfig = new SessionPoolConfig();
+		initTopologyCaches();
 	}
 
-	public static synchronized DctmClient getInstance() {
-		if (instance == null) {
-			instance = new DctmClient();
+	private void initTopologyCaches() {
+		Executor refreshExecutor = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				getBackgroundScheduler().execute(command);
+			}
+		};
+		this.docbaseMapCache = new TtlCache<>(new TtlCache.Loader<String, IDfDocbaseMap, DfException>() {
+			@Override
+			public IDfDocbaseMap load(String docbroker) throws DfException {
+				initDFC();
+				if (DEFAULT_DOCBROKERS_KEY.equals(docbroker)) {
+					logger.debug("Loading docbase map");
+					return docbrokerClient.getDocbaseMap();
+				}
+				logger.debug("Loading docbase map from docbroker " + docbroker);
+				return docbrokerClient.getDocbaseMapFromSpecificDocbroker(null,
+						StringUtils.substringBeforeLast(docbroker, ":"), StringUtils.substringAfterLast(docbroker, ":"));
+			}
+		}, DEFAULT_TOPOLOGY_TTL_MILLIS, DEFAULT_TOPOLOGY_MAX_STALE_MILLIS, TimeUnit.MILLISECONDS, refreshExecutor);
+		this.docbrokerMapCache = new TtlCache<>(new TtlCache.Loader<String, DocbrokerMap, DfException>() {
+			@Override
+			public DocbrokerMap load(String key) throws DfException {
+				initDFC();
+				logger.debug("Loading docbroker map");
+				return (DocbrokerMap) docbrokerClient.getDocbrokerMap();
+			}
+		}, DEFAULT_TOPOLOGY_TTL_MILLIS, DEFAULT_TOPOLOGY_MAX_STALE_MILLIS, TimeUnit.MILLISECONDS, refreshExecutor);
+		this.serverMapCache = new TtlCache<>(new TtlCache.Loader<String, IDfServerMap, DfException>() {
+			@Override
+			public IDfServerMap load(String repositoryName) throws DfException {
+				initDFC();
+				logger.debug("Loading server map for repository " + repositoryName);
+				return (IDfServerMap) docbrokerClient.getServerMap(repositoryName);
+			}
+		}, DEFAULT_TOPOLOGY_TTL_MILLIS, DEFAULT_TOPOLOGY_MAX_STALE_MILLIS, TimeUnit.MILLISECONDS, refreshExecutor);
+		this.repositoryResolver = new RepositoryResolver(this, refreshExecutor);
+	}
+
+	/**
+	 * Set how long docbroker, docbase and server maps are cached. After the
+	 * TTL a cached map is refreshed in the background while the old map is
+	 * still used, until the maximum staleness has passed as well; after that
+	 * callers wait for the refresh.
+	 *
+	 * @param ttl
+	 *            Time after which cached maps are refreshed. Specify
+	 *            <code>0</code> to disable the cache.
+	 * @param maxStale
+	 *            Time after the TTL during which the old map is still used.
+	 *            Specify <code>0</code> to always refresh synchronously.
+	 * @param unit
+	 *            Unit of the TTL and maximum staleness
+	 */
+	public void setTopologyCacheTtl(long ttl, long maxStale, TimeUnit unit) {
+		this.docbaseMapCache.setTtl(ttl, maxStale, unit);
+		this.docbrokerMapCache.setTtl(ttl, maxStale, unit);
+		this.serverMapCache.setTtl(ttl, maxStale, unit);
+	}
+
+	/**
+	 * @return The time in milliseconds after which cached docbroker, docbase
+	 *         and server maps are refreshed
+	 */
+	public long getTopologyCacheTtlMillis() {
+		return this.docbaseMapCache.getTtlMillis();
+	}
+
+	/**
+	 * Remove all cached docbroker, docbase and server maps, so they are loaded
+	 * from the docbrokers the next time they are needed. Use this when
+	 * repositories or content servers have been added or removed.
+	 */
+	public void invalidateTopologyCache() {
+		logger.debug("Invalidating topology cache");
+		this.docbaseMapCache.invalidateAll();
+		this.docbrokerMapCache.invalidateAll();
+		this.serverMapCache.invalidateAll();
+		this.repositoryResolver.invalidate();
+	}
+
+	/**
+	 * Remove the cached server map of a repository
+	 *
+	 * @param repositoryName
+	 *            Name of the repository
+	 */
+	public void invalidateServerMap(String repositoryName) {
+		this.serverMapCache.invalidate(repositoryName);
+	}
+
+	/**
+	 * @return The resolver to find the repository of an object id, for
+	 *         example when creating many objects from query results
+	 */
+	public RepositoryResolver getRepositoryResolver() {
+		return this.repositoryResolver;
+	}
+
+	public static DctmClient getInstance() {
+		DctmClient client = instance;
+		if (client == null) {
+			synchronized (DctmClient.class) {
+				client = instance;
+				if (client == null) {
+					client = new DctmClient();
+					instance = client;
+				}
+			}
 		}
-		return instance;
+		return client;
 	}
 
 	/**
 	 * Initialize the DFC client if it's not already initialized
 	 * @throws DfException
 	 */
-	private synchronized void initDFC() throws DfException {
+	private void initDFC() throws DfException {
 		if (this.client == null) {
-			this.client = this.clientx.getLocalClient();
-			this.docbrokerClient = this.clientx.getDocbrokerClient();
+			synchronized (this) {
+				if (this.client == null) {
+					// The docbroker client must be set before the (volatile) client
+					this.docbrokerClient = this.clientx.getDocbrokerClient();
+					this.client = this.clientx.getLocalClient();
+				}
+			}
 		}
 	}
 
@@ -148,8 +326,10 @@ public class DctmClient {
 		}
 		ContentServer server = this.hostsContentServers.get(hostname);
 		if (server == null) {
-			server = new ContentServer(null, name, hostname, -1, null);
-			this.hostsContentServers.put(hostname, server);
+			ContentServer newServer = new ContentServer(null, name, hostname, -1, null);
+			server = this.hostsContentServers.putIfAbsent(hostname, newServer);
+			if (server == null)
+				server = newServer;
 		}
 		return server;
 	}
@@ -164,7 +344,7 @@ public class DctmClient {
 		initDFC();
 		logger.debug("Getting docbroker map");
 		ModelMap<Docbroker> docbrokerMap = new ModelMap<>();
-		DocbrokerMap dfDocbrokerMap = (DocbrokerMap) this.docbrokerClient.getDocbrokerMap();
+		DocbrokerMap dfDocbrokerMap = this.docbrokerMapCache.get(DEFAULT_DOCBROKERS_KEY);
 		for (int x = 0; x < dfDocbrokerMap.getDocbrokerCount(); x++) {
 			String attrName = dfDocbrokerMap.getAttr(x).getName();
 			String attrVals = dfDocbrokerMap.getAllRepeatingStrings(attrName, ",");
@@ -190,7 +370,7 @@ public class DctmClient {
 		initDFC();
 		logger.debug("Getting docbroker map for server " + hostname);
 		ModelMap<Docbroker> docbrokerMap = new ModelMap<>();
-		DocbrokerMap dfDocbrokerMap = (DocbrokerMap) this.docbrokerClient.getDocbrokerMap();
+		DocbrokerMap dfDocbrokerMap = this.docbrokerMapCache.get(DEFAULT_DOCBROKERS_KEY);
 		for (int x = 0; x < dfDocbrokerMap.getDocbrokerCount(); x++) {
 			String docbrokerHostname = dfDocbrokerMap.getHostName(x);
 			if (docbrokerHostname == null || !docbrokerHostname.equalsIgnoreCase(hostname)) {
@@ -221,8 +401,7 @@ public class DctmClient {
 		String docbrokerId = Docbroker.getId(contentServer, portNr);
 		Docbroker docbroker = this.docbrokerMap.get(docbrokerId);
 		if (docbroker == null) {
-			docbroker = new Docbroker(contentServer, docbrokerMap, index);
-			this.docbrokerMap.put(docbroker);
+			docbroker = this.docbrokerMap.putIfAbsent(new Docbroker(contentServer, docbrokerMap, index));
 		} else {
 			docbroker.setServer(contentServer);
 			docbroker.setPort(portNr);
@@ -241,7 +420,7 @@ public class DctmClient {
 	public ModelMap<Repository> getRepositoryMap() throws DfException {
 		logger.debug("Getting repository map");
 		initDFC();
-		IDfDocbaseMap dbm = this.docbrokerClient.getDocbaseMap();
+		IDfDocbaseMap dbm = this.docbaseMapCache.get(DEFAULT_DOCBROKERS_KEY);
 		ModelMap<Repository> repoMap = getRepositoryMapFromDocbaseMap(dbm);
 		logger.debug("Found " + this.repoMap.size() + " repositories");
 		return repoMap;
@@ -256,8 +435,7 @@ public class DctmClient {
 	public ModelMap<Repository> getRepositoryMap(IDocbroker docbroker) throws DfException {
 		logger.debug("Getting repository map for docbroker " + docbroker.getName());
 		initDFC();
-		IDfDocbaseMap dbm = this.docbrokerClient.getDocbaseMapFromSpecificDocbroker(null,
-				docbroker.getServer().getHostname(), Integer.toString(docbroker.getPort()));
+		IDfDocbaseMap dbm = this.docbaseMapCache.get(docbroker.getServer().getHostname() + ":" + docbroker.getPort());
 		ModelMap<Repository> repoMap = getRepositoryMapFromDocbaseMap(dbm);
 		logger.debug("Found " + this.repoMap.size() + " repositories");
 		return repoMap;
@@ -276,9 +454,8 @@ public class DctmClient {
 	private Repository createOrUpdateRepository(IDfDocbaseMap docbaseMap, int index) throws DfException {
 		Repository repo = this.repoMap.get(docbaseMap.getDocbaseId(index));
 		if (repo == null) {
-			repo = new Repository(docbaseMap.getDocbaseId(index), docbaseMap.getDocbaseName(index),
-					docbaseMap.getDocbaseDescription(index));
-			this.repoMap.put(repo);
+			repo = this.repoMap.putIfAbsent(new Repository(docbaseMap.getDocbaseId(index),
+					docbaseMap.getDocbaseName(index), docbaseMap.getDocbaseDescription(index)));
 		} else {
 			repo.setName(docbaseMap.getDocbaseName(index));
 			repo.setDescription(docbaseMap.getDocbaseDescription(index));
@@ -288,7 +465,8 @@ public class DctmClient {
 
 	/**
 	 * @return A list of known, cached, content servers (values from the content
-	 *         server map)
+	 *         server map). This is a snapshot which does not change when new
+	 *         servers become known.
 	 * @throws DfException
 	 */
 	public Collection<ContentServer> getContentServers() throws DfException {
@@ -303,9 +481,9 @@ public class DctmClient {
 		initDFC();
 		logger.debug("Getting content server map");
 		ModelMap<ContentServer> contentServerMap = new ModelMap<>();
-		IDfDocbaseMap docbaseMap = this.docbrokerClient.getDocbaseMap();
+		IDfDocbaseMap docbaseMap = this.docbaseMapCache.get(DEFAULT_DOCBROKERS_KEY);
 		for (int x = 0; x < docbaseMap.getDocbaseCount(); x++) {
-			IDfServerMap dfServerMap = (IDfServerMap) docbaseMap.getServerMap(x);
+			IDfServerMap dfServerMap = this.serverMapCache.get(docbaseMap.getDocbaseName(x));
 			Repository repository = createOrUpdateRepository(docbaseMap, x);
 			ModelMap<ContentServer> repoContentServerMap = getContentServerMapFromServerMap(repository, dfServerMap);
 			contentServerMap.putAll(repoContentServerMap);
@@ -323,17 +501,8 @@ public class DctmClient {
 	public ModelMap<ContentServer> getContentServerMap(IRepository repository) throws DfException {
 		initDFC();
 		logger.debug("Getting content server map for repository " + repository.getName());
-		IDfServerMap dfServerMap = (IDfServerMap) this.docbrokerClient.getServerMap(repository.getName());
-		ModelMap<ContentServer> serverMap = new ModelMap<>();
-		List<ContentServer> servers = new ArrayList<>();
-		for (int sx = 0; sx < dfServerMap.getServerCount(); sx++) {
-			ContentServer server;
-			server = new ContentServer(repository, dfServerMap, sx);
-			logger.debug(" - " + server);
-			servers.add(server);
-			this.hostsContentServers.put(server.getHostname(), server);
-		}
-		return serverMap;
+		IDfServerMap dfServerMap = this.serverMapCache.get(repository.getName());
+		return getContentServerMapFromServerMap(repository, dfServerMap);
 	}
 
 	/**
@@ -346,19 +515,24 @@ public class DctmClient {
 	public ModelMap<ContentServer> getContentServerMap(String repositoryName) throws DfException {
 		initDFC();
 		logger.debug("Getting content server map for repository " + repositoryName);
-		IDfServerMap dfServerMap = (IDfServerMap) this.docbrokerClient.getServerMap(repositoryName);
-		ModelMap<Repository> repoMap = getRepositoryMap();
-		Repository repository = repoMap.get(repositoryName);
+		Repository repository = getRepositoryByName(repositoryName);
 		if (repository == null) {
 			logger.warn("Unknown repository " + repositoryName);
 			return null;
 		}
-		ModelMap<ContentServer> serverMap = new ModelMap<>();
-		for (int sx = 0; sx < dfServerMap.getServerCount(); sx++) {
-			ContentServer server = createOrUpdateContentServer(repository, dfServerMap, sx);
-			serverMap.put(server);
+		IDfServerMap dfServerMap = this.serverMapCache.get(repositoryName);
+		return getContentServerMapFromServerMap(repository, dfServerMap);
+	}
+
+	/**
+	 * Find a repository by its name in the (cached) repository map
+	 */
+	private Repository getRepositoryByName(String repositoryName) throws DfException {
+		for (Repository repository : getRepositoryMap().values()) {
+			if (repositoryName.equals(repository.getName()))
+				return repository;
 		}
-		return serverMap;
+		return null;
 	}
 
 	public ModelMap<ContentServer> getContentServerMapFromServerMap(IRepository repository, IDfServerMap dfServerMap)
@@ -375,8 +549,7 @@ public class DctmClient {
 			throws DfException {
 		ContentServer server = this.contentServerMap.get(dfServerMap.getServerName(index));
 		if (server == null) {
-			server = new ContentServer(repository, dfServerMap, index);
-			this.contentServerMap.put(server);
+			server = this.contentServerMap.putIfAbsent(new ContentServer(repository, dfServerMap, index));
 		} else {
 			server.update(dfServerMap.getHostName(index), dfServerMap.getClientProximity(index),
 					dfServerMap.getLastStatus(index));
@@ -418,7 +591,7 @@ public class DctmClient {
 	 * @return A IDfSessionManager interface. Note that this session manager may contain an identity, if this has earlier been set.
 	 * @throws DfServiceException
 	 */
-	public synchronized IDfSessionManager getSessionManager(IContentServer cServer) throws DfServiceException {
+	public IDfSessionManager getSessionManager(IContentServer cServer) throws DfServiceException {
 		return getSessionManager(cServer, null);
 	}
 
@@ -438,20 +611,25 @@ public class DctmClient {
 	 * @return
 	 * @throws DfServiceException
 	 */
-	public synchronized IDfSessionManager getSessionManager(IContentServer cServer, IUserAccount account)
+	public IDfSessionManager getSessionManager(IContentServer cServer, IUserAccount account)
 			throws DfServiceException {
 		if (cServer==null) return null;
-		IDfSessionManager serverSM = null;
-		if (this.serverSessMans.containsKey(cServer)) {
-			serverSM = this.serverSessMans.get(cServer);
-		} else {
-			serverSM = this.client.newSessionManager();
-			this.serverSessMans.put(cServer, serverSM);
+		IDfSessionManager serverSM = this.serverSessMans.get(cServer);
+		if (serverSM == null) {
+			IDfSessionManager newSM = this.client.newSessionManager();
+			serverSM = this.serverSessMans.putIfAbsent(cServer, newSM);
+			if (serverSM == null)
+				serverSM = newSM;
 		}
 
-		if (!serverSM.hasIdentity(cServer.getConnectionString()) && account!=null) {
-			IDfLoginInfo loginInfo = createLoginInfo(account);
-			serverSM.setIdentity(cServer.getConnectionString(), loginInfo);
+		if (account!=null && !serverSM.hasIdentity(cServer.getConnectionString())) {
+			// Lock only this session manager, so the identity is set once
+			synchronized (serverSM) {
+				if (!serverSM.hasIdentity(cServer.getConnectionString())) {
+					IDfLoginInfo loginInfo = createLoginInfo(account);
+					serverSM.setIdentity(cServer.getConnectionString(), loginInfo);
+				}
+			}
 		}
 		return serverSM;
 	}
@@ -464,18 +642,21 @@ public class DctmClient {
 	 * @return An IDfSession interface, if a session exists or can be created
 	 * @throws DfServiceException
 	 */
-	public synchronized IDfSession getSession(IContentServer cServer) throws DfServiceException {
+	public IDfSession getSession(IContentServer cServer) throws DfServiceException {
 		return this.getSession(cServer, null);
 	}
 
 	/**
-	 * Get a Documentum session for the given content server.
+	 * Get a Documentum session for the given content server. All callers share
+	 * the session of the server; use
+	 * {@link #leaseSession(IContentServer, IUserAccount)} to get a session of
+	 * your own from a session pool.
 	 * @param cServer An IContentServer object
 	 * @param account An IUserAccount object
 	 * @return An IDfSession interface, if a session exists or can be created
 	 * @throws DfServiceException
 	 */
-	public synchronized IDfSession getSession(IContentServer cServer, IUserAccount account) throws DfServiceException {
+	public IDfSession getSession(IContentServer cServer, IUserAccount account) throws DfServiceException {
 		IDfSessionManager sesMan = getSessionManager(cServer, account);
 		if (sesMan==null) return null;
 		IDfSession session = sesMan.getSession(cServer.getConnectionString());
@@ -495,16 +676,118 @@ public class DctmClient {
 	 * @throws DfException
 	 * @throws DfServiceException
 	 */
-	public synchronized IDfSession getSession(IRepository repository, IUserAccount account) throws DfException {
+	public IDfSession getSession(IRepository repository, IUserAccount account) throws DfException {
 		ModelMap<ContentServer> servers = getContentServerMap(repository);
-		if (servers == null || servers.isEmpty())
+		Iterator<ContentServer> it = servers.values().iterator();
+		if (!it.hasNext())
 			return null;
-		IDfSessionManager sesMan = getSessionManager(servers.get(0), account);
-		if (sesMan == null)
-			return null;
-		IDfSession session = sesMan.getSession(servers.get(0).getConnectionString());
-		this.serverSessions.put(servers.get(0), session);
-		return session;
+		return getSession(it.next(), account);
+	}
+
+	/**
+	 * @return A copy of the settings used for new session pools
+	 */
+	public SessionPoolConfig getSessionPoolConfig() {
+		return new SessionPoolConfig(this.sessionPoolConfig);
+	}
+
+	/**
+	 * Set the settings for session pools. Only pools that are created after
+	 * this call use the new settings; call {@link #closeSessionPools()} first
+	 * to apply them to all pools.
+	 *
+	 * @param config
+	 *            The session pool settings
+	 * @throws IllegalArgumentException
+	 *             If the sizes of the config do not fit together
+	 */
+	public void setSessionPoolConfig(SessionPoolConfig config) {
+		SessionPoolConfig copy = new SessionPoolConfig(config);
+		copy.validate();
+		this.sessionPoolConfig = copy;
+	}
+
+	/**
+	 * Get the session pool for a content server and user account. The pool is
+	 * created (with its own session manager) if it doesn't exist yet.
+	 *
+	 * @param cServer
+	 *            The content server to connect to
+	 * @param account
+	 *            The account to connect with
+	 * @return The {@link SessionPool} for this server and account
+	 * @throws DfException
+	 */
+	public SessionPool getSessionPool(IContentServer cServer, IUserAccount account) throws DfException {
+		if (cServer == null || account == null)
+			throw new IllegalArgumentException("A content server and user account are required for a session pool");
+		SessionPoolKey key = new SessionPoolKey(cServer, account);
+		SessionPool pool = this.sessionPools.get(key);
+		if (pool != null)
+			return pool;
+
+		initDFC();
+		IDfSessionManager sessMan = this.client.newSessionManager();
+		sessMan.setIdentity(key.getConnectionString(), createLoginInfo(account));
+		SessionPool newPool = new SessionPool(key, sessMan, this.sessionPoolConfig, getBackgroundScheduler());
+		pool = this.sessionPools.putIfAbsent(key, newPool);
+		if (pool != null) {
+			// Another thread was first
+			newPool.close();
+			return pool;
+		}
+		logger.debug("Created session pool " + newPool);
+		return newPool;
+	}
+
+	/**
+	 * Lease a session from the session pool for a content server and user
+	 * account. Unlike {@link #getSession(IContentServer, IUserAccount)} this
+	 * does not share one session between all callers; each caller gets its own
+	 * session until the lease is closed.
+	 *
+	 * @param cServer
+	 *            The content server to connect to
+	 * @param account
+	 *            The account to connect with
+	 * @return A {@link SessionLease}, which must be closed to return the
+	 *         session to the pool
+	 * @throws DfException
+	 */
+	public SessionLease leaseSession(IContentServer cServer, IUserAccount account) throws DfException {
+		return getSessionPool(cServer, account).lease();
+	}
+
+	/**
+	 * Close all session pools. Idle pooled sessions are released immediately,
+	 * leased sessions when their lease is closed.
+	 *
+	 * @return The number of pools that have been closed
+	 */
+	public int closeSessionPools() {
+		int nrClosed = 0;
+		for (SessionPoolKey key : this.sessionPools.keySet()) {
+			SessionPool pool = this.sessionPools.remove(key);
+			if (pool != null) {
+				pool.close();
+				nrClosed++;
+			}
+		}
+		return nrClosed;
+	}
+
+	private synchronized ScheduledExecutorService getBackgroundScheduler() {
+		if (this.backgroundScheduler == null) {
+			this.backgroundScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "DctmClient-background");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return this.backgroundScheduler;
 	}
 
 	/**
@@ -517,7 +800,7 @@ public class DctmClient {
 	 * @return The number sessions that have been released
 	 * @throws DfException
 	 */
-	public synchronized int releaseSessions(IRepository repository, boolean alsoDisconnect) throws DfException {
+	public int releaseSessions(IRepository repository, boolean alsoDisconnect) throws DfException {
 		ModelMap<ContentServer> servers = getContentServerMap(repository);
 		Set<IContentServer> disconnectedServers = new HashSet<>();
 
@@ -557,7 +840,7 @@ public class DctmClient {
 	 *            {@code true} to also do a session disconnect
 	 * @return The number sessions that have been released
 	 */
-	public synchronized int releaseAllSessions(boolean alsoDisconnect) {
+	public int releaseAllSessions(boolean alsoDisconnect) {
 		Set<Entry<IContentServer, IDfSession>> serverSessions = this.serverSessions.entrySet();
 		Set<IContentServer> disconnectedServers = new HashSet<>();
 		int nrReleasedSessions = 0;
@@ -592,7 +875,9 @@ public class DctmClient {
 	}
 
 	/**
-	 * Get a query processor with all content servers as sources
+	 * Get a query processor with all content servers as sources. See
+	 * {@link it.tooly.dctmclient.query.FanOutQueryExecutor} to query several
+	 * content servers in parallel and stream the merged rows.
 	 * @param sessMan
 	 * @param dql
 	 * @return
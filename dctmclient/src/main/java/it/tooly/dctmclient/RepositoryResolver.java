@@ -0,0 +1,219 @@
+package it.tooly.dctmclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.IDfId;
+
+import it.tooly.dctmclient.model.Repository;
+
+/**
+ * Resolves docbase ids, such as the docbase part of an object id, to
+ * repositories without asking the docbrokers for every lookup. The
+ * repositories are loaded once from {@link DctmClient#getRepositoryMap()} into
+ * an immutable map with primitive <code>long</code> keys. A lookup only reads
+ * that map. When the map is older than the topology cache TTL (see
+ * {@link DctmClient#setTopologyCacheTtl}), or when an id is not found, the map
+ * is rebuilt in the background, and lookups keep using the old map until the
+ * new one is ready.
+ * <p>
+ * Get the resolver of a client with {@link DctmClient#getRepositoryResolver()}.
+ */
+public class RepositoryResolver {
+	private static final Logger LOGGER = Logger.getLogger(RepositoryResolver.class);
+
+	/**
+	 * Minimum time between two refreshes caused by an unknown docbase id, so
+	 * looking up many objects of an unknown repository does not keep the
+	 * docbrokers busy
+	 */
+	private static final long MIN_MISS_REFRESH_MILLIS = 5 * 1000L;
+
+	private final DctmClient client;
+	private final Executor refreshExecutor;
+	private final AtomicBoolean refreshing;
+	private volatile RepositoryTable table;
+
+	RepositoryResolver(DctmClient client, Executor refreshExecutor) {
+		this.client = client;
+		this.refreshExecutor = refreshExecutor;
+		this.refreshing = new AtomicBoolean(false);
+		this.table = null;
+	}
+
+	/**
+	 * Get the repository of an object id
+	 *
+	 * @param objectId
+	 *            The object id
+	 * @return The repository, or null if the repository is not known (yet)
+	 * @throws DfException
+	 *             If the repositories could not be loaded the first time
+	 */
+	public Repository resolve(IDfId objectId) throws DfException {
+		return resolve(objectId.getNumericDocbaseId());
+	}
+
+	/**
+	 * Get the repository with a docbase id. Only the first call waits for the
+	 * repositories to be loaded.
+	 *
+	 * @param docbaseId
+	 *            The numeric docbase id
+	 * @return The repository, or null if the repository is not known (yet)
+	 * @throws DfException
+	 *             If the repositories could not be loaded the first time
+	 */
+	public Repository resolve(long docbaseId) throws DfException {
+		RepositoryTable current = getTable();
+		long age = System.currentTimeMillis() - current.loadedAt;
+		Repository repository = current.get(docbaseId);
+		if (age >= this.client.getTopologyCacheTtlMillis()
+				|| (repository == null && age >= MIN_MISS_REFRESH_MILLIS)) {
+			refreshAsync();
+		}
+		return repository;
+	}
+
+	/**
+	 * @return The number of repositories in the current map
+	 * @throws DfException
+	 *             If the repositories could not be loaded the first time
+	 */
+	public int size() throws DfException {
+		return getTable().size;
+	}
+
+	/**
+	 * Reload the repositories now
+	 *
+	 * @throws DfException
+	 */
+	public void refresh() throws DfException {
+		this.table = load();
+	}
+
+	/**
+	 * Make the next lookup start a background refresh
+	 */
+	public void invalidate() {
+		RepositoryTable current = this.table;
+		if (current != null)
+			this.table = new RepositoryTable(current, 0);
+	}
+
+	private RepositoryTable getTable() throws DfException {
+		RepositoryTable current = this.table;
+		if (current == null) {
+			synchronized (this) {
+				current = this.table;
+				if (current == null) {
+					current = load();
+					this.table = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	private void refreshAsync() {
+		if (!this.refreshing.compareAndSet(false, true))
+			return;
+		try {
+			this.refreshExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						RepositoryResolver.this.table = load();
+					} catch (DfException | RuntimeException e) {
+						LOGGER.warn("Could not refresh the repositories, keeping the old ones", e);
+					} finally {
+						RepositoryResolver.this.refreshing.set(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			this.refreshing.set(false);
+			LOGGER.warn("Could not start refreshing the repositories", e);
+		}
+	}
+
+	private RepositoryTable load() throws DfException {
+		List<Repository> repositories = new ArrayList<>(this.client.getRepositoryMap().values());
+		long[] docbaseIds = new long[repositories.size()];
+		int nrValid = 0;
+		for (Repository repository : repositories) {
+			try {
+				docbaseIds[nrValid] = Long.parseLong(repository.getId());
+				repositories.set(nrValid++, repository);
+			} catch (NumberFormatException e) {
+				LOGGER.warn("Ignoring repository " + repository.getName() + " with invalid docbase id "
+						+ repository.getId());
+			}
+		}
+		LOGGER.debug("Loaded " + nrValid + " repositories");
+		return new RepositoryTable(docbaseIds, repositories, nrValid, System.currentTimeMillis());
+	}
+
+	/**
+	 * Immutable open addressing hash map from docbase id to repository
+	 */
+	private static final class RepositoryTable {
+		private final long[] keys;
+		private final Repository[] values;
+		private final int mask;
+		private final int size;
+		private final long loadedAt;
+
+		private RepositoryTable(long[] docbaseIds, List<Repository> repositories, int size, long loadedAt) {
+			int capacity = Integer.highestOneBit(Math.max(size, 1) * 2 + 1);
+			this.keys = new long[capacity];
+			this.values = new Repository[capacity];
+			this.mask = capacity - 1;
+			this.size = size;
+			this.loadedAt = loadedAt;
+			for (int i = 0; i < size; i++) {
+				int slot = slot(docbaseIds[i]);
+				while (this.values[slot] != null && this.keys[slot] != docbaseIds[i]) {
+					slot = (slot + 1) & this.mask;
+				}
+				this.keys[slot] = docbaseIds[i];
+				this.values[slot] = repositories.get(i);
+			}
+		}
+
+		/**
+		 * Copy of a table with another load time
+		 */
+		private RepositoryTable(RepositoryTable table, long loadedAt) {
+			this.keys = table.keys;
+			this.values = table.values;
+			this.mask = table.mask;
+			this.size = table.size;
+			this.loadedAt = loadedAt;
+		}
+
+		private Repository get(long docbaseId) {
+			int slot = slot(docbaseId);
+			Repository value;
+			while ((value = this.values[slot]) != null) {
+				if (this.keys[slot] == docbaseId)
+					return value;
+				slot = (slot + 1) & this.mask;
+			}
+			return null;
+		}
+
+		private int slot(long key) {
+			// Docbase ids are often close together, so spread them
+			long hash = key * 0x9E3779B97F4A7C15L;
+			return (int) (hash ^ (hash >>> 32)) & this.mask;
+		}
+	}
+}
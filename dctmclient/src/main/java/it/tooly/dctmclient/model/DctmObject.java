@@ -9,21 +9,35 @@ import org.apache.log4j.Logger;
 import com.documentum.fc.client.IDfSysObject;
 import com.documentum.fc.client.IDfTypedObject;
 import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.DfRuntimeException;
 import com.documentum.fc.common.DfValue;
 import com.documentum.fc.common.IDfAttr;
 import com.documentum.fc.common.IDfValue;
 
 import it.tooly.dctmclient.DctmClient;
+import it.tooly.dctmclient.util.TypeMetadata;
 import it.tooly.shared.common.ToolyException;
 import it.tooly.shared.model.AbstractModelContentObject;
 import it.tooly.shared.model.attribute.AttrType;
 
-
+/**
+ * A Documentum object as a model object. The attributes are either copied from
+ * a typed object when the object is created, or, with
+ * {@link #DctmObject(IRepository, IDfTypedObject, String...)}, copied lazily
+ * when they are first accessed.
+ */
 public class DctmObject extends AbstractModelContentObject implements IDctmObject {
 	private static final Logger LOGGER = Logger.getLogger(DctmObject.class);
 	protected IRepository repository;
 	protected IDfTypedObject typedObject;
 
+	/**
+	 * The typed object to copy the attributes from on first access; null once
+	 * they have been copied
+	 */
+	private volatile IDfTypedObject pendingAttrs;
+	private String[] projection;
+
 	public DctmObject(String id) {
 		super(id);
 		this.repository = null;
@@ -49,8 +63,7 @@ public class DctmObject extends AbstractModelContentObject implements IDctmObjec
 		} else if (typedObject.hasAttr("name")) {
 			this.setName(typedObject.getString("name"));
 		}
-		long docbaseId = typedObject.getObjectId().getNumericDocbaseId();
-		this.repository = DctmClient.getInstance().getRepositoryMap().get(docbaseId);
+		this.repository = DctmClient.getInstance().getRepositoryResolver().resolve(typedObject.getObjectId());
 	}
 
 	public DctmObject(IRepository repo, String id, IDfTypedObject typedObject) throws DfException, ToolyException {
@@ -59,33 +72,130 @@ public class DctmObject extends AbstractModelContentObject implements IDctmObjec
 		addAttrsFromTypedObject(typedObject);
 	}
 
-	private void addAttrsFromTypedObject(IDfTypedObject typedObject) throws DfException, ToolyException {
-		for (int x = 0; x < typedObject.getAttrCount(); x++) {
-			IDfAttr attr = typedObject.getAttr(x);
-			IDfValue val = typedObject.getValueAt(x);
-			int dataType = val.getDataType();
-			switch (dataType) {
-			case IDfValue.DF_BOOLEAN:
-				addAttribute(attr.getName(), AttrType.BOOLEAN, val.asBoolean());
-				break;
-			case IDfValue.DF_INTEGER:
-				addAttribute(attr.getName(), AttrType.INTEGRAL, val.asInteger());
-				break;
-			case IDfValue.DF_ID:
-				addAttribute(attr.getName(), AttrType.OBJECTID, val.asId().toString());
-				break;
-			case IDfValue.DF_TIME:
-				addAttribute(attr.getName(), AttrType.DATETIME, val.asTime().getDate());
-				break;
-			case IDfValue.DF_DOUBLE:
-				addAttribute(attr.getName(), AttrType.FLOATING_POINT, val.asDouble());
-				break;
-			case IDfValue.DF_STRING:
-
-			default:
-				addAttribute(attr.getName(), AttrType.STRING, val.asString());
+	/**
+	 * Create an object whose attributes are copied from the typed object when
+	 * they are first accessed, instead of now. The id and name are available
+	 * right away. The typed object is kept (see {@link #getTypedObject()}), so
+	 * it must not change afterwards: for the rows of a collection, pass
+	 * {@link com.documentum.fc.client.IDfCollection#getTypedObject()} and not
+	 * the collection itself.
+	 *
+	 * @param repo
+	 *            The repository of the object
+	 * @param typedObject
+	 *            The typed object to copy the attributes from
+	 * @param projection
+	 *            The attributes to copy, in this order; attributes that the
+	 *            typed object does not have are skipped. If empty, all
+	 *            attributes are copied.
+	 * @throws DfException
+	 */
+	public DctmObject(IRepository repo, IDfTypedObject typedObject, String... projection) throws DfException {
+		super(getObjectId(typedObject), getObjectName(typedObject));
+		this.repository = repo;
+		this.typedObject = typedObject;
+		this.projection = projection.length == 0 ? null : projection.clone();
+		this.pendingAttrs = typedObject;
+	}
+
+	private static String getObjectId(IDfTypedObject typedObject) throws DfException {
+		if (typedObject.getObjectId().isNull()) {
+			if (typedObject.hasAttr("r_object_id")) {
+				return typedObject.getString("r_object_id");
+			} else if (typedObject.hasAttr("id")) {
+				return typedObject.getString("id");
 			}
+		}
+		return typedObject.getObjectId().getId();
+	}
+
+	private static String getObjectName(IDfTypedObject typedObject) throws DfException {
+		if (typedObject.hasAttr("object_name")) {
+			return typedObject.getString("object_name");
+		} else if (typedObject.hasAttr("name")) {
+			return typedObject.getString("name");
+		}
+		return "Object[" + getObjectId(typedObject) + "]";
+	}
+
+	/**
+	 * @return Whether the attributes of this object have not been copied from
+	 *         its typed object yet
+	 */
+	public boolean isLazy() {
+		return this.pendingAttrs != null;
+	}
+
+	/**
+	 * Copy the attributes from the typed object if this object was created
+	 * lazily and they have not been copied yet.
+	 *
+	 * @throws DfRuntimeException
+	 *             If the attributes could not be read from the typed object
+	 */
+	@Override
+	protected void loadAttributes() {
+		if (this.pendingAttrs == null)
+			return;
+		synchronized (this) {
+			IDfTypedObject source = this.pendingAttrs;
+			if (source == null)
+				return;
+			try {
+				if (this.projection == null) {
+					addAttrsFromTypedObject(source);
+				} else {
+					TypeMetadata metadata = TypeMetadata.forObject(source);
+					for (String attrName : this.projection) {
+						if (metadata != null) {
+							int index = metadata.indexOf(attrName);
+							if (index >= 0)
+								addAttrFromTypedObject(source, attrName, index);
+						} else if (source.hasAttr(attrName)) {
+							addAttrFromTypedObject(source, attrName, source.findAttrIndex(attrName));
+						}
+					}
+				}
+			} catch (DfException e) {
+				throw new DfRuntimeException("Could not copy the attributes of object " + this.id, e);
+			}
+			this.projection = null;
+			this.pendingAttrs = null;
+		}
+	}
+
+	private void addAttrsFromTypedObject(IDfTypedObject typedObject) throws DfException {
+		TypeMetadata metadata = TypeMetadata.forObject(typedObject);
+		int count = metadata != null ? metadata.getAttributeCount() : typedObject.getAttrCount();
+		for (int x = 0; x < count; x++) {
+			String attrName = metadata != null ? metadata.getAttribute(x).getName() : typedObject.getAttr(x).getName();
+			addAttrFromTypedObject(typedObject, attrName, x);
+		}
+	}
+
+	private void addAttrFromTypedObject(IDfTypedObject typedObject, String attrName, int index) throws DfException {
+		IDfValue val = typedObject.getValueAt(index);
+		int dataType = val.getDataType();
+		switch (dataType) {
+		case IDfValue.DF_BOOLEAN:
+			addAttribute(attrName, AttrType.BOOLEAN, val.asBoolean());
+			break;
+		case IDfValue.DF_INTEGER:
+			addAttribute(attrName, AttrType.INTEGRAL, val.asInteger());
+			break;
+		case IDfValue.DF_ID:
+			addAttribute(attrName, AttrType.OBJECTID, val.asId().toString());
+			break;
+		case IDfValue.DF_TIME:
+			addAttribute(attrName, AttrType.DATETIME, val.asTime().getDate());
+			break;
+		case IDfValue.DF_DOUBLE:
+			addAttribute(attrName, AttrType.FLOATING_POINT, val.asDouble());
+			break;
+		case IDfValue.DF_STRING:
 
+		default:
+			addAttribute(attrName, AttrType.STRING, val.asString());
 		}
 	}
 
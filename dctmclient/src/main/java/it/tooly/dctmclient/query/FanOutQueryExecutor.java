@@ -0,0 +1,222 @@
+package it.tooly.dctmclient.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.documentum.fc.common.DfException;
+
+import it.tooly.dctmclient.DctmClient;
+import it.tooly.dctmclient.model.ContentServer;
+import it.tooly.dctmclient.model.IContentServer;
+import it.tooly.dctmclient.model.IRepository;
+import it.tooly.dctmclient.model.IUserAccount;
+import it.tooly.dctmclient.session.SessionLease;
+import it.tooly.dctmclient.util.DctmUtils;
+import it.tooly.dctmclient.util.QueryCursor;
+import it.tooly.dctmclient.util.RowMapper;
+
+/**
+ * Runs one DQL query on several content servers at the same time and merges
+ * the rows into one stream (see {@link FanOutResult}). Each query runs on a
+ * session leased from the session pool of its server (see
+ * {@link DctmClient#leaseSession(IContentServer, IUserAccount)}), on a thread
+ * pool with a fixed maximum number of threads. A query over many repositories
+ * therefore takes about as long as the slowest repository, instead of the sum
+ * of all of them.
+ * <p>
+ * Unlike {@link DctmClient#getQueryProcessor}, which uses the DFC search
+ * service, this streams the rows as they come in and reports failing servers
+ * separately instead of failing the whole query.
+ */
+public class FanOutQueryExecutor implements AutoCloseable {
+	private static final Logger LOGGER = Logger.getLogger(FanOutQueryExecutor.class);
+
+	/**
+	 * Default maximum number of rows per source (or, for an unordered result,
+	 * in total) waiting to be consumed
+	 */
+	public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+	private static final AtomicInteger EXECUTOR_NR = new AtomicInteger();
+
+	private final DctmClient client;
+	private final IUserAccount account;
+	private final ExecutorService executor;
+	private int queueCapacity;
+	private int batchSize;
+
+	/**
+	 * @param client
+	 *            The client to get the sessions from
+	 * @param account
+	 *            The account to run the queries with
+	 * @param maxParallel
+	 *            Maximum number of queries that run at the same time
+	 */
+	public FanOutQueryExecutor(DctmClient client, IUserAccount account, int maxParallel) {
+		if (maxParallel < 1)
+			throw new IllegalArgumentException("At least one parallel query is required");
+		this.client = client;
+		this.account = account;
+		final int executorNr = EXECUTOR_NR.incrementAndGet();
+		this.executor = Executors.newFixedThreadPool(maxParallel, new ThreadFactory() {
+			private final AtomicInteger threadNr = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "FanOutQuery-" + executorNr + "-" + this.threadNr.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.queueCapacity = DEFAULT_QUEUE_CAPACITY;
+		this.batchSize = 0;
+	}
+
+	public int getQueueCapacity() {
+		return this.queueCapacity;
+	}
+
+	/**
+	 * @param queueCapacity
+	 *            Maximum number of rows per source (or, for an unordered
+	 *            result, in total) waiting to be consumed
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		if (queueCapacity < 1)
+			throw new IllegalArgumentException("Queue capacity must be at least 1");
+		this.queueCapacity = queueCapacity;
+	}
+
+	public int getBatchSize() {
+		return this.batchSize;
+	}
+
+	/**
+	 * @param batchSize
+	 *            The DFC batch size of the queries; 0 for the default
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Get the content servers to query for a set of repositories: the first
+	 * content server of each repository.
+	 *
+	 * @param repositories
+	 *            The repositories
+	 * @return One content server per repository that has a content server
+	 * @throws DfException
+	 */
+	public List<IContentServer> getContentServers(Collection<? extends IRepository> repositories)
+			throws DfException {
+		List<IContentServer> servers = new ArrayList<>(repositories.size());
+		for (IRepository repository : repositories) {
+			Iterator<ContentServer> it = this.client.getContentServerMap(repository).values().iterator();
+			if (it.hasNext()) {
+				servers.add(it.next());
+			} else {
+				LOGGER.warn("No content server found for repository " + repository.getName());
+			}
+		}
+		return servers;
+	}
+
+	/**
+	 * Run a query on several content servers.
+	 *
+	 * @param dql
+	 *            The query
+	 * @param servers
+	 *            The content servers to run the query on
+	 * @param mapper
+	 *            Maps each row; called on the query threads
+	 * @param timeout
+	 *            Maximum time each server may spend on its query, from the
+	 *            moment it starts; the time it waits for its rows to be
+	 *            consumed does not count
+	 * @param unit
+	 *            Unit of the timeout
+	 * @param ordered
+	 *            If true, the rows are returned per server, in the order of
+	 *            the servers. If false, rows are returned as soon as they are
+	 *            available.
+	 * @return The merged result, which should be closed when it is not
+	 *         consumed completely
+	 */
+	public <T> FanOutResult<T> execute(final String dql, Collection<? extends IContentServer> servers,
+			final RowMapper<T> mapper, long timeout, TimeUnit unit, boolean ordered) {
+		List<IContentServer> sources = new ArrayList<IContentServer>(servers);
+		final FanOutResult<T> result = new FanOutResult<>(sources, ordered, timeout, unit, this.queueCapacity);
+		for (int i = 0; i < sources.size(); i++) {
+			final int source = i;
+			final IContentServer server = sources.get(i);
+			result.addFuture(this.executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					runQuery(result, source, server, dql, mapper);
+				}
+			}));
+		}
+		return result;
+	}
+
+	private <T> void runQuery(FanOutResult<T> result, int source, IContentServer server, String dql,
+			RowMapper<T> mapper) {
+		if (result.isStopped(source))
+			return;
+		result.started(source);
+		try {
+			try (SessionLease lease = this.client.leaseSession(server, this.account)) {
+				boolean completed = false;
+				try (QueryCursor cursor = DctmUtils.openQueryCursor(lease.getSession(), dql, this.batchSize)) {
+					while (cursor.next()) {
+						if (!result.offer(source, mapper.mapRow(cursor)))
+							break;
+					}
+					completed = true;
+				} finally {
+					// A query that was cancelled (interrupted) in the middle of a
+					// DFC call may have left the session in an unknown state
+					if (!completed && result.isStopped(source))
+						lease.invalidate();
+				}
+			} catch (DfException | RuntimeException e) {
+				if (!result.isStopped(source))
+					LOGGER.warn("Query on " + server + " failed", e);
+				result.fail(source, e);
+			} catch (Error e) {
+				LOGGER.error("Query on " + server + " failed", e);
+				result.fail(source, e);
+				throw e;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			// Always end the source, or an ordered result waits for it
+			try {
+				result.end(source);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Stop the query threads. Running queries are interrupted.
+	 */
+	@Override
+	public void close() {
+		this.executor.shutdownNow();
+	}
+}
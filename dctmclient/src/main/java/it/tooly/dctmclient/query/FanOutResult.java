@@ -0,0 +1,431 @@
+package it.tooly.dctmclient.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.documentum.fc.common.DfRuntimeException;
+
+import it.tooly.dctmclient.model.IContentServer;
+
+/**
+ * The merged, streaming result of a {@link FanOutQueryExecutor} query. The
+ * queries of all sources run in the background and put their rows in bounded
+ * queues, from which {@link #stream()} (or {@link #iterator()}) takes them. A
+ * source that produces rows faster than they are consumed blocks until there
+ * is room in its queue.
+ * <p>
+ * A source that fails or spends more than its timeout on its query is skipped;
+ * its error is reported by {@link #getFailures()}. The time a source waits for
+ * room in its queue does not count, and a source that has read all its rows
+ * does not time out anymore. The query of a source that times out is
+ * cancelled. Rows it produced before the timeout may already have been
+ * returned. Closing the result (or its stream) stops all queries that are
+ * still running.
+ * <p>
+ * A result must be consumed by one thread.
+ *
+ * @param <T>
+ *            Type of the mapped rows
+ */
+public class FanOutResult<T> implements Iterable<FanOutResult.SourcedValue<T>>, AutoCloseable {
+
+	/**
+	 * A row value together with the content server it came from
+	 */
+	public static final class SourcedValue<T> {
+		private final IContentServer source;
+		private final int sourceIndex;
+		private final T value;
+
+		SourcedValue(IContentServer source, int sourceIndex, T value) {
+			this.source = source;
+			this.sourceIndex = sourceIndex;
+			this.value = value;
+		}
+
+		public IContentServer getSource() {
+			return this.source;
+		}
+
+		public T getValue() {
+			return this.value;
+		}
+
+		@Override
+		public String toString() {
+			return this.source + ": " + this.value;
+		}
+	}
+
+	/**
+	 * Put in the queue of a source when its query has finished
+	 */
+	private static final class SourceEnd {
+		private final int source;
+
+		private SourceEnd(int source) {
+			this.source = source;
+		}
+	}
+
+	/**
+	 * The time a source has spent on its query, without the time it waited
+	 * for room in its queue
+	 */
+	private static final class SourceClock {
+		private boolean started;
+		private boolean running;
+		private boolean ended;
+		private long runningSince;
+		private long runNanos;
+
+		synchronized void start(long now) {
+			if (this.started)
+				return;
+			this.started = true;
+			this.running = true;
+			this.runningSince = now;
+		}
+
+		synchronized void pause(long now) {
+			if (this.running) {
+				this.runNanos += now - this.runningSince;
+				this.running = false;
+			}
+		}
+
+		synchronized void resume(long now) {
+			if (this.started && !this.ended && !this.running) {
+				this.running = true;
+				this.runningSince = now;
+			}
+		}
+
+		/**
+		 * The source has read all its rows; it can not time out anymore
+		 */
+		synchronized void end(long now) {
+			pause(now);
+			this.ended = true;
+		}
+
+		/**
+		 * @return The time left before the timeout, or Long.MAX_VALUE if the
+		 *         source has not started or has ended
+		 */
+		synchronized long remaining(long now, long timeoutNanos) {
+			if (!this.started || this.ended)
+				return Long.MAX_VALUE;
+			return timeoutNanos - this.runNanos - (this.running ? now - this.runningSince : 0);
+		}
+	}
+
+	/**
+	 * Maximum time to wait for a row before checking whether the result has
+	 * been closed
+	 */
+	private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final List<IContentServer> sources;
+	private final boolean ordered;
+	private final long timeoutNanos;
+	private final BlockingQueue<Object>[] queues;
+	private final AtomicBoolean[] stopped;
+	private final SourceClock[] clocks;
+	private final boolean[] finished;
+	private final Map<IContentServer, Throwable> failures;
+	private final List<Future<?>> futures;
+	private int nrFinished;
+	private int currentSource;
+	/**
+	 * No source can time out before this time (System.nanoTime)
+	 */
+	private long nextDeadlineCheck;
+	private volatile boolean closed;
+
+	@SuppressWarnings("unchecked")
+	FanOutResult(List<IContentServer> sources, boolean ordered, long timeout, TimeUnit unit, int queueCapacity) {
+		int nrSources = sources.size();
+		this.sources = sources;
+		this.ordered = ordered;
+		this.timeoutNanos = unit.toNanos(timeout);
+		this.queues = new BlockingQueue[nrSources];
+		this.stopped = new AtomicBoolean[nrSources];
+		this.clocks = new SourceClock[nrSources];
+		this.finished = new boolean[nrSources];
+		this.failures = Collections.synchronizedMap(new LinkedHashMap<IContentServer, Throwable>());
+		this.futures = new ArrayList<>(nrSources);
+		BlockingQueue<Object> shared = ordered ? null : new LinkedBlockingQueue<>(queueCapacity);
+		for (int i = 0; i < nrSources; i++) {
+			this.queues[i] = ordered ? new LinkedBlockingQueue<>(queueCapacity) : shared;
+			this.stopped[i] = new AtomicBoolean(false);
+			this.clocks[i] = new SourceClock();
+		}
+		this.nrFinished = 0;
+		this.currentSource = 0;
+		this.nextDeadlineCheck = System.nanoTime();
+		this.closed = false;
+	}
+
+	void addFuture(Future<?> future) {
+		this.futures.add(future);
+	}
+
+	/**
+	 * Called by the query of a source when it starts running; its timeout
+	 * starts now
+	 */
+	void started(int source) {
+		this.clocks[source].start(System.nanoTime());
+	}
+
+	/**
+	 * @return Whether the query of a source should stop, because it timed out
+	 *         or the result has been closed
+	 */
+	boolean isStopped(int source) {
+		return this.stopped[source].get();
+	}
+
+	/**
+	 * Called by the query of a source for every row
+	 *
+	 * @return false if the source has been stopped and the row was discarded
+	 */
+	boolean offer(int source, T value) throws InterruptedException {
+		if (isStopped(source))
+			return false;
+		SourcedValue<T> row = new SourcedValue<>(this.sources.get(source), source, value);
+		if (this.queues[source].offer(row))
+			return true;
+		// The queue is full: waiting for the consumer does not count for the
+		// timeout
+		SourceClock clock = this.clocks[source];
+		clock.pause(System.nanoTime());
+		try {
+			while (!isStopped(source)) {
+				if (this.queues[source].offer(row, 100, TimeUnit.MILLISECONDS))
+					return true;
+			}
+			return false;
+		} finally {
+			clock.resume(System.nanoTime());
+		}
+	}
+
+	/**
+	 * Called by the query of a source when it failed
+	 */
+	void fail(int source, Throwable error) {
+		if (!isStopped(source)) {
+			this.failures.put(this.sources.get(source), error);
+		}
+	}
+
+	/**
+	 * Called by the query of a source when it has finished, successfully or not
+	 */
+	void end(int source) throws InterruptedException {
+		this.clocks[source].end(System.nanoTime());
+		SourceEnd end = new SourceEnd(source);
+		// Without waiting first, so an interrupted query can still end
+		if (this.queues[source].offer(end))
+			return;
+		while (!isStopped(source)) {
+			if (this.queues[source].offer(end, 100, TimeUnit.MILLISECONDS))
+				return;
+		}
+	}
+
+	/**
+	 * @return The sources that failed or timed out, with the reason. This is
+	 *         only complete once all rows have been consumed.
+	 */
+	public Map<IContentServer, Throwable> getFailures() {
+		synchronized (this.failures) {
+			return new LinkedHashMap<>(this.failures);
+		}
+	}
+
+	public boolean hasFailures() {
+		return !this.failures.isEmpty();
+	}
+
+	/**
+	 * @return The sources of this query, in the order used for an ordered
+	 *         result
+	 */
+	public List<IContentServer> getSources() {
+		return Collections.unmodifiableList(this.sources);
+	}
+
+	public boolean isOrdered() {
+		return this.ordered;
+	}
+
+	/**
+	 * @return An iterator which blocks until the next row is available.
+	 *         Iterating it completely closes this result.
+	 */
+	@Override
+	public Iterator<SourcedValue<T>> iterator() {
+		return new Iterator<SourcedValue<T>>() {
+			private SourcedValue<T> next = null;
+
+			@Override
+			public boolean hasNext() {
+				if (this.next == null) {
+					this.next = take();
+				}
+				return this.next != null;
+			}
+
+			@Override
+			public SourcedValue<T> next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				SourcedValue<T> value = this.next;
+				this.next = null;
+				return value;
+			}
+		};
+	}
+
+	/**
+	 * @return A sequential stream of the rows of all sources. Closing the
+	 *         stream closes this result.
+	 */
+	public Stream<SourcedValue<T>> stream() {
+		Spliterator<SourcedValue<T>> spliterator = Spliterators.spliteratorUnknownSize(iterator(),
+				this.ordered ? Spliterator.ORDERED | Spliterator.NONNULL : Spliterator.NONNULL);
+		return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+			@Override
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	/**
+	 * @return The next row, or null when all sources have finished
+	 */
+	@SuppressWarnings("unchecked")
+	private SourcedValue<T> take() {
+		try {
+			while (!this.closed) {
+				stopTimedOutSources();
+				while (this.ordered && this.currentSource < this.sources.size()
+						&& this.finished[this.currentSource]) {
+					this.currentSource++;
+				}
+				if (this.ordered) {
+					if (this.currentSource >= this.sources.size())
+						break;
+				} else if (this.nrFinished >= this.sources.size()) {
+					break;
+				}
+
+				Object element = this.queues[this.ordered ? this.currentSource : 0].poll(waitNanos(),
+						TimeUnit.NANOSECONDS);
+				if (element instanceof SourceEnd) {
+					finish(((SourceEnd) element).source);
+				} else if (element != null) {
+					SourcedValue<T> row = (SourcedValue<T>) element;
+					if (!this.finished[row.sourceIndex])
+						return row;
+					// Row of a source that has already timed out
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new DfRuntimeException("Interrupted while waiting for query results", e);
+		}
+		close();
+		return null;
+	}
+
+	/**
+	 * @return How long to wait for the next row: until the next time a source
+	 *         may time out
+	 */
+	private long waitNanos() {
+		return Math.max(Math.min(IDLE_POLL_NANOS, this.nextDeadlineCheck - System.nanoTime()), 0);
+	}
+
+	/**
+	 * Stop the sources that have spent more than the timeout on their query.
+	 * The sources are only checked once the first possible deadline has
+	 * passed: a source can not run out of time faster than the time passes.
+	 */
+	private void stopTimedOutSources() {
+		long now = System.nanoTime();
+		if (now - this.nextDeadlineCheck < 0)
+			return;
+		long nextCheckIn = this.timeoutNanos;
+		for (int i = 0; i < this.sources.size(); i++) {
+			if (this.finished[i])
+				continue;
+			long remaining = this.clocks[i].remaining(now, this.timeoutNanos);
+			if (remaining <= 0) {
+				timeOut(i);
+			} else if (remaining < nextCheckIn) {
+				nextCheckIn = remaining;
+			}
+		}
+		this.nextDeadlineCheck = now + nextCheckIn;
+	}
+
+	private void timeOut(int source) {
+		this.failures.put(this.sources.get(source), new TimeoutException("Query on " + this.sources.get(source)
+				+ " did not finish within " + TimeUnit.NANOSECONDS.toMillis(this.timeoutNanos) + " ms"));
+		this.stopped[source].set(true);
+		if (source < this.futures.size())
+			this.futures.get(source).cancel(true);
+		if (this.ordered)
+			this.queues[source].clear();
+		finish(source);
+	}
+
+	private void finish(int source) {
+		if (!this.finished[source]) {
+			this.finished[source] = true;
+			this.nrFinished++;
+		}
+	}
+
+	/**
+	 * Stop all queries that are still running and discard their rows. Closing
+	 * a result more than once has no effect.
+	 */
+	@Override
+	public void close() {
+		if (this.closed)
+			return;
+		this.closed = true;
+		for (AtomicBoolean stop : this.stopped) {
+			stop.set(true);
+		}
+		for (Future<?> future : this.futures) {
+			future.cancel(true);
+		}
+		for (BlockingQueue<Object> queue : this.queues) {
+			queue.clear();
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package it.tooly.dctmclient.session;
+
+import com.documentum.fc.client.IDfSession;
+
+/**
+ * A session owned by a {@link SessionPool}, either idle or handed out through
+ * a {@link SessionLease}.
+ */
+class PooledSession {
+	private final IDfSession session;
+	private final long createdAt;
+	private volatile long lastUsed;
+
+	PooledSession(IDfSession session) {
+		this.session = session;
+		this.createdAt = System.currentTimeMillis();
+		this.lastUsed = this.createdAt;
+	}
+
+	IDfSession getSession() {
+		return this.session;
+	}
+
+	long getCreatedAt() {
+		return this.createdAt;
+	}
+
+	long getLastUsed() {
+		return this.lastUsed;
+	}
+
+	void touch() {
+		this.lastUsed = System.currentTimeMillis();
+	}
+
+	boolean isConnected() {
+		try {
+			return this.session.isConnected();
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+}
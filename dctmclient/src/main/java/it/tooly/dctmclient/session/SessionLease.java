@@ -0,0 +1,68 @@
+package it.tooly.dctmclient.session;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.documentum.fc.client.IDfSession;
+
+/**
+ * A session that has been leased from a {@link SessionPool}. Closing the lease
+ * returns the session to the pool, so the normal way of using it is:
+ *
+ * <pre>
+ * try (SessionLease lease = pool.lease()) {
+ * 	IDfSession session = lease.getSession();
+ * 	...
+ * }
+ * </pre>
+ *
+ * The session must not be released or disconnected by the caller, and must not
+ * be used anymore after the lease has been closed.
+ */
+public class SessionLease implements AutoCloseable {
+	private final SessionPool pool;
+	private final PooledSession pooledSession;
+	private final AtomicBoolean closed;
+	private volatile boolean invalid;
+
+	SessionLease(SessionPool pool, PooledSession pooledSession) {
+		this.pool = pool;
+		this.pooledSession = pooledSession;
+		this.closed = new AtomicBoolean(false);
+		this.invalid = false;
+	}
+
+	/**
+	 * @return The leased Documentum session
+	 */
+	public IDfSession getSession() {
+		if (this.closed.get())
+			throw new IllegalStateException("Session lease has already been closed");
+		return this.pooledSession.getSession();
+	}
+
+	/**
+	 * @return The pool this session belongs to
+	 */
+	public SessionPool getPool() {
+		return this.pool;
+	}
+
+	/**
+	 * Mark the session as broken, so it will be released instead of being put
+	 * back in the pool when this lease is closed.
+	 */
+	public void invalidate() {
+		this.invalid = true;
+	}
+
+	/**
+	 * Return the session to the pool. Closing a lease more than once has no
+	 * effect.
+	 */
+	@Override
+	public void close() {
+		if (this.closed.compareAndSet(false, true)) {
+			this.pool.returnSession(this.pooledSession, this.invalid);
+		}
+	}
+}
@@ -0,0 +1,287 @@
+package it.tooly.dctmclient.session;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.client.IDfSessionManager;
+import com.documentum.fc.common.DfException;
+
+/**
+ * A bounded pool of Documentum sessions for one content server and one user
+ * (see {@link SessionPoolKey}). Sessions are leased with {@link #lease()} and
+ * returned by closing the {@link SessionLease}. Leasing and returning do not
+ * take a lock: the number of concurrently leased sessions is bounded by a
+ * semaphore and idle sessions are kept in a lock-free deque. The most recently
+ * returned session is handed out first, so that sessions that are not needed
+ * anymore become idle and can be evicted.
+ */
+public class SessionPool {
+	private static final Logger LOGGER = Logger.getLogger(SessionPool.class);
+
+	private final SessionPoolKey key;
+	private final IDfSessionManager sessionManager;
+	private final SessionPoolConfig config;
+	private final Semaphore leasePermits;
+	private final ConcurrentLinkedDeque<PooledSession> idleSessions;
+	private final AtomicInteger totalSessions;
+	private final AtomicInteger leasedSessions;
+	private final ScheduledFuture<?> evictionTask;
+	private volatile boolean closed;
+
+	/**
+	 * Create a session pool
+	 *
+	 * @param key
+	 *            The content server and user this pool is for
+	 * @param sessionManager
+	 *            A session manager which has an identity for the connection
+	 *            string of the key
+	 * @param config
+	 *            The pool settings. The pool keeps its own copy.
+	 * @param scheduler
+	 *            Executor to run the idle session eviction on. May be null, in
+	 *            which case idle sessions are only evicted when
+	 *            {@link #evictIdleSessions()} is called.
+	 * @throws IllegalArgumentException
+	 *             If the sizes of the config do not fit together
+	 */
+	public SessionPool(SessionPoolKey key, IDfSessionManager sessionManager, SessionPoolConfig config,
+			ScheduledExecutorService scheduler) {
+		this.key = key;
+		this.sessionManager = sessionManager;
+		this.config = new SessionPoolConfig(config);
+		this.config.validate();
+		this.leasePermits = new Semaphore(this.config.getMaxSize(), true);
+		this.idleSessions = new ConcurrentLinkedDeque<>();
+		this.totalSessions = new AtomicInteger();
+		this.leasedSessions = new AtomicInteger();
+		this.closed = false;
+
+		long interval = this.config.getEvictionIntervalMillis();
+		if (scheduler != null && interval > 0) {
+			this.evictionTask = scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					evictIdleSessions();
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		} else {
+			this.evictionTask = null;
+		}
+	}
+
+	/**
+	 * Lease a session, waiting at most the configured lease timeout for one to
+	 * become available.
+	 *
+	 * @return A lease which must be closed to return the session to the pool
+	 * @throws DfException
+	 *             If no session became available in time, or a new session
+	 *             could not be created
+	 */
+	public SessionLease lease() throws DfException {
+		return lease(this.config.getLeaseTimeoutMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Lease a session, waiting at most the given time for one to become
+	 * available.
+	 *
+	 * @param timeout
+	 *            Maximum time to wait
+	 * @param unit
+	 *            Unit of the timeout
+	 * @return A lease which must be closed to return the session to the pool
+	 * @throws DfException
+	 *             If no session became available in time, or a new session
+	 *             could not be created
+	 */
+	public SessionLease lease(long timeout, TimeUnit unit) throws DfException {
+		if (this.closed)
+			throw new DfException("Session pool " + this.key + " has been closed");
+		try {
+			if (!this.leasePermits.tryAcquire(timeout, unit)) {
+				throw new DfException("Timed out waiting for a session from pool " + this.key + " ("
+						+ this.config.getMaxSize() + " sessions in use)");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DfException("Interrupted while waiting for a session from pool " + this.key, e);
+		}
+
+		PooledSession pooledSession = null;
+		try {
+			pooledSession = takeIdleSession();
+			if (pooledSession == null) {
+				pooledSession = createSession();
+			}
+		} finally {
+			if (pooledSession == null) {
+				this.leasePermits.release();
+			}
+		}
+		this.leasedSessions.incrementAndGet();
+		return new SessionLease(this, pooledSession);
+	}
+
+	/**
+	 * Take the most recently used idle session that is still connected
+	 */
+	private PooledSession takeIdleSession() {
+		PooledSession pooledSession;
+		while ((pooledSession = this.idleSessions.pollFirst()) != null) {
+			if (!this.config.isValidateOnLease() || pooledSession.isConnected()) {
+				pooledSession.touch();
+				return pooledSession;
+			}
+			LOGGER.debug("Discarding disconnected session from pool " + this.key);
+			destroySession(pooledSession);
+		}
+		return null;
+	}
+
+	private PooledSession createSession() throws DfException {
+		LOGGER.debug("Creating new session for pool " + this.key);
+		IDfSession session = this.sessionManager.newSession(this.key.getConnectionString());
+		this.totalSessions.incrementAndGet();
+		return new PooledSession(session);
+	}
+
+	private void destroySession(PooledSession pooledSession) {
+		this.totalSessions.decrementAndGet();
+		try {
+			this.sessionManager.release(pooledSession.getSession());
+		} catch (RuntimeException e) {
+			LOGGER.warn("Could not release session of pool " + this.key, e);
+		}
+	}
+
+	/**
+	 * Called by {@link SessionLease#close()}
+	 */
+	void returnSession(PooledSession pooledSession, boolean invalid) {
+		this.leasedSessions.decrementAndGet();
+		try {
+			if (this.closed || invalid || !pooledSession.isConnected()) {
+				destroySession(pooledSession);
+			} else {
+				pooledSession.touch();
+				this.idleSessions.offerFirst(pooledSession);
+				if (this.closed) {
+					// The pool was closed while we were returning the session
+					drainIdleSessions();
+				}
+			}
+		} finally {
+			this.leasePermits.release();
+		}
+	}
+
+	/**
+	 * Release idle sessions which have not been used for longer than the
+	 * configured maximum idle time or which are no longer connected, and then
+	 * top up the pool to its minimum size. This is the health check of the
+	 * pool and is normally run periodically.
+	 */
+	public void evictIdleSessions() {
+		if (this.closed)
+			return;
+		long idleBefore = System.currentTimeMillis() - this.config.getMaxIdleMillis();
+		int evicted = 0;
+		// Least recently used sessions are at the end of the deque
+		Iterator<PooledSession> it = this.idleSessions.descendingIterator();
+		while (it.hasNext()) {
+			PooledSession pooledSession = it.next();
+			boolean connected = pooledSession.isConnected();
+			boolean expired = pooledSession.getLastUsed() < idleBefore
+					&& this.totalSessions.get() > this.config.getMinSize();
+			if ((!connected || expired) && this.idleSessions.removeFirstOccurrence(pooledSession)) {
+				destroySession(pooledSession);
+				evicted++;
+			}
+		}
+		if (evicted > 0) {
+			LOGGER.debug("Evicted " + evicted + " idle sessions from pool " + this.key);
+		}
+		ensureMinimumSize();
+	}
+
+	private void ensureMinimumSize() {
+		while (!this.closed && this.totalSessions.get() < this.config.getMinSize()) {
+			try {
+				this.idleSessions.offerLast(createSession());
+			} catch (DfException e) {
+				LOGGER.warn("Could not create session to fill pool " + this.key, e);
+				return;
+			}
+		}
+	}
+
+	private void drainIdleSessions() {
+		PooledSession pooledSession;
+		while ((pooledSession = this.idleSessions.pollFirst()) != null) {
+			destroySession(pooledSession);
+		}
+	}
+
+	/**
+	 * Close the pool. Idle sessions are released immediately, leased sessions
+	 * are released when their lease is closed.
+	 */
+	public void close() {
+		this.closed = true;
+		if (this.evictionTask != null) {
+			this.evictionTask.cancel(false);
+		}
+		drainIdleSessions();
+	}
+
+	public boolean isClosed() {
+		return this.closed;
+	}
+
+	public SessionPoolKey getKey() {
+		return this.key;
+	}
+
+	/**
+	 * @return A copy of the settings of this pool
+	 */
+	public SessionPoolConfig getConfig() {
+		return new SessionPoolConfig(this.config);
+	}
+
+	/**
+	 * @return The number of sessions currently leased
+	 */
+	public int getLeasedCount() {
+		return this.leasedSessions.get();
+	}
+
+	/**
+	 * @return The number of idle sessions in the pool
+	 */
+	public int getIdleCount() {
+		return this.idleSessions.size();
+	}
+
+	/**
+	 * @return The number of open sessions owned by this pool (leased and idle)
+	 */
+	public int getTotalCount() {
+		return this.totalSessions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "SessionPool[" + this.key + ", leased=" + getLeasedCount() + ", total=" + getTotalCount() + "]";
+	}
+}
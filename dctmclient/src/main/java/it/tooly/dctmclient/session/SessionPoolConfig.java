@@ -0,0 +1,133 @@
+/**
+ *
+ */
+package it.tooly.dctmclient.session;
+
+/**
+ * Settings for a {@link SessionPool}. The defaults allow up to 8 concurrent
+ * sessions per content server and user, keep no sessions open when they are
+ * not used and close idle sessions after 5 minutes.
+ */
+public class SessionPoolConfig {
+	public static final int DEFAULT_MIN_SIZE = 0;
+	public static final int DEFAULT_MAX_SIZE = 8;
+	public static final long DEFAULT_LEASE_TIMEOUT_MILLIS = 30 * 1000L;
+	public static final long DEFAULT_MAX_IDLE_MILLIS = 5 * 60 * 1000L;
+	public static final long DEFAULT_EVICTION_INTERVAL_MILLIS = 60 * 1000L;
+
+	private int minSize;
+	private int maxSize;
+	private long leaseTimeoutMillis;
+	private long maxIdleMillis;
+	private long evictionIntervalMillis;
+	private boolean validateOnLease;
+
+	public SessionPoolConfig() {
+		this.minSize = DEFAULT_MIN_SIZE;
+		this.maxSize = DEFAULT_MAX_SIZE;
+		this.leaseTimeoutMillis = DEFAULT_LEASE_TIMEOUT_MILLIS;
+		this.maxIdleMillis = DEFAULT_MAX_IDLE_MILLIS;
+		this.evictionIntervalMillis = DEFAULT_EVICTION_INTERVAL_MILLIS;
+		this.validateOnLease = true;
+	}
+
+	public SessionPoolConfig(SessionPoolConfig other) {
+		this.minSize = other.minSize;
+		this.maxSize = other.maxSize;
+		this.leaseTimeoutMillis = other.leaseTimeoutMillis;
+		this.maxIdleMillis = other.maxIdleMillis;
+		this.evictionIntervalMillis = other.evictionIntervalMillis;
+		this.validateOnLease = other.validateOnLease;
+	}
+
+	/**
+	 * @return The number of sessions the pool keeps open, even when idle
+	 */
+	public int getMinSize() {
+		return this.minSize;
+	}
+
+	public void setMinSize(int minSize) {
+		if (minSize < 0)
+			throw new IllegalArgumentException("Minimum pool size can not be negative");
+		this.minSize = minSize;
+	}
+
+	/**
+	 * @return The maximum number of sessions that can be leased at the same
+	 *         time
+	 */
+	public int getMaxSize() {
+		return this.maxSize;
+	}
+
+	public void setMaxSize(int maxSize) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("Maximum pool size must be at least 1");
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return How long (in milliseconds) a caller waits for a free session
+	 *         before the lease fails
+	 */
+	public long getLeaseTimeoutMillis() {
+		return this.leaseTimeoutMillis;
+	}
+
+	public void setLeaseTimeoutMillis(long leaseTimeoutMillis) {
+		this.leaseTimeoutMillis = leaseTimeoutMillis;
+	}
+
+	/**
+	 * @return How long (in milliseconds) a session may stay idle before it is
+	 *         released. Sessions below the minimum size are kept.
+	 */
+	public long getMaxIdleMillis() {
+		return this.maxIdleMillis;
+	}
+
+	public void setMaxIdleMillis(long maxIdleMillis) {
+		this.maxIdleMillis = maxIdleMillis;
+	}
+
+	/**
+	 * @return The interval (in milliseconds) at which idle sessions are
+	 *         checked and evicted. Specify <code>0</code> to disable eviction.
+	 */
+	public long getEvictionIntervalMillis() {
+		return this.evictionIntervalMillis;
+	}
+
+	public void setEvictionIntervalMillis(long evictionIntervalMillis) {
+		this.evictionIntervalMillis = evictionIntervalMillis;
+	}
+
+	/**
+	 * @return <code>true</code> if a session is checked to be still connected
+	 *         before it is handed out
+	 */
+	public boolean isValidateOnLease() {
+		return this.validateOnLease;
+	}
+
+	public void setValidateOnLease(boolean validateOnLease) {
+		this.validateOnLease = validateOnLease;
+	}
+
+	/**
+	 * Check the settings that depend on each other, which the setters can not
+	 * do because they may be called in any order
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the minimum size is larger than the maximum size
+	 */
+	public void validate() {
+		if (this.maxSize < 1)
+			throw new IllegalArgumentException("Maximum pool size must be at least 1");
+		if (this.minSize > this.maxSize)
+			throw new IllegalArgumentException("Minimum pool size (" + this.minSize + ") can not be larger than the maximum pool size ("
+					+ this.maxSize + ")");
+	}
+
+}
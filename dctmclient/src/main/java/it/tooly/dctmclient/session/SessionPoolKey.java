@@ -0,0 +1,114 @@
+package it.tooly.dctmclient.session;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import it.tooly.dctmclient.model.IContentServer;
+import it.tooly.dctmclient.model.IUserAccount;
+
+/**
+ * Identifies a {@link SessionPool}: one pool exists per content server
+ * (connection string) and user credentials (login name, domain and password).
+ * The password itself is not kept, only a salted SHA-256 fingerprint of it, so
+ * accounts that only differ in their password do not share sessions.
+ */
+public final class SessionPoolKey {
+	/** Salt of the password fingerprints, new for every run */
+	private static final byte[] SALT = newSalt();
+
+	private final String connectionString;
+	private final String loginName;
+	private final String domain;
+	private final byte[] credentialFingerprint;
+	private final int hash;
+
+	public SessionPoolKey(IContentServer server, IUserAccount account) {
+		this(server.getConnectionString(), account.getLoginName(), null, account.getPassword());
+	}
+
+	public SessionPoolKey(String connectionString, String loginName) {
+		this(connectionString, loginName, null, null);
+	}
+
+	/**
+	 * @param connectionString
+	 *            The connection string of the content server
+	 * @param loginName
+	 *            The login name of the user
+	 * @param domain
+	 *            The domain of the user, may be null
+	 * @param password
+	 *            The password of the user, may be null
+	 */
+	public SessionPoolKey(String connectionString, String loginName, String domain, String password) {
+		if (connectionString == null || loginName == null)
+			throw new IllegalArgumentException("Connection string and login name are required");
+		this.connectionString = connectionString;
+		this.loginName = loginName;
+		this.domain = domain;
+		this.credentialFingerprint = fingerprint(password);
+		int result = connectionString.hashCode();
+		result = 31 * result + loginName.hashCode();
+		result = 31 * result + (domain == null ? 0 : domain.hashCode());
+		this.hash = 31 * result + Arrays.hashCode(this.credentialFingerprint);
+	}
+
+	public String getConnectionString() {
+		return this.connectionString;
+	}
+
+	public String getLoginName() {
+		return this.loginName;
+	}
+
+	/**
+	 * @return The domain of the user, or null
+	 */
+	public String getDomain() {
+		return this.domain;
+	}
+
+	private static byte[] newSalt() {
+		byte[] salt = new byte[16];
+		new SecureRandom().nextBytes(salt);
+		return salt;
+	}
+
+	private static byte[] fingerprint(String password) {
+		if (password == null)
+			return null;
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(SALT);
+			return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			// Every JRE has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return this.hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof SessionPoolKey))
+			return false;
+		SessionPoolKey other = (SessionPoolKey) obj;
+		return this.connectionString.equals(other.connectionString) && this.loginName.equals(other.loginName)
+				&& (this.domain == null ? other.domain == null : this.domain.equals(other.domain))
+				&& Arrays.equals(this.credentialFingerprint, other.credentialFingerprint);
+	}
+
+	@Override
+	public String toString() {
+		return (this.domain == null ? "" : this.domain + "\\") + this.loginName + "@" + this.connectionString;
+	}
+}
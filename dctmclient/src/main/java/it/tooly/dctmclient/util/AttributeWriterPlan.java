@@ -0,0 +1,282 @@
+package it.tooly.dctmclient.util;
+
+import java.util.Map;
+
+import com.documentum.fc.client.IDfTypedObject;
+import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.IDfAttr;
+
+/**
+ * The attributes of an object type with a writer per attribute that converts
+ * values to the data type of the attribute (see
+ * {@link DctmUtils#setObjectAttributes(IDfTypedObject, Map, boolean)}). The
+ * plan is made once per {@link TypeMetadata type}, so setting the attributes
+ * of many objects of the same type does not ask every object for the data
+ * type and length of every attribute.
+ * <p>
+ * Objects that are not persistent objects, like query results, get an empty
+ * plan: their attributes are described one at a time.
+ * <p>
+ * Plans are immutable and thread safe.
+ */
+public final class AttributeWriterPlan {
+
+	private static final AttributeWriterPlan EMPTY = new AttributeWriterPlan();
+
+	private final TypeMetadata metadata;
+	private final Attribute[] attributes;
+
+	private AttributeWriterPlan() {
+		this.metadata = null;
+		this.attributes = new Attribute[0];
+	}
+
+	AttributeWriterPlan(final TypeMetadata metadata) {
+		this.metadata = metadata;
+		this.attributes = new Attribute[metadata.getAttributeCount()];
+		for (int i = 0; i < this.attributes.length; i++) {
+			TypeMetadata.Attribute attribute = metadata.getAttribute(i);
+			this.attributes[i] = new Attribute(attribute.getAttr(), attribute.getName(), attribute.getLength(), attribute.getDataType(), attribute.isRepeating());
+		}
+	}
+
+	/**
+	 * @return The plan for the type of the object, or an empty plan if it is
+	 *         not a persistent object
+	 * @throws DfException
+	 *             If the attributes cannot be read
+	 */
+	public static AttributeWriterPlan forObject(final IDfTypedObject obj) throws DfException {
+		TypeMetadata metadata = TypeMetadata.forObject(obj);
+		return metadata == null ? EMPTY : metadata.getWriterPlan();
+	}
+
+	/**
+	 * @return The metadata of the type, or null for the empty plan
+	 */
+	public TypeMetadata getMetadata() {
+		return this.metadata;
+	}
+
+	/**
+	 * @return The attribute, or null if the type does not have it
+	 */
+	public Attribute getAttribute(final String attrName) {
+		int index = this.metadata == null ? -1 : this.metadata.indexOf(attrName);
+		return index < 0 ? null : this.attributes[index];
+	}
+
+	public int getAttributeCount() {
+		return this.attributes.length;
+	}
+
+	/**
+	 * Describe one attribute of an object without reading the other
+	 * attributes, for attributes that are not in the plan
+	 *
+	 * @throws DfException
+	 *             If the object does not have the attribute
+	 */
+	static Attribute describe(final IDfTypedObject obj, final String attrName) throws DfException {
+		return new Attribute(null, attrName, -1, obj.getAttrDataType(attrName), obj.isAttrRepeating(attrName));
+	}
+
+	/**
+	 * An attribute of the type and the writer for its data type
+	 */
+	public static final class Attribute {
+		private final IDfAttr attr;
+		private final String name;
+		private final int length;
+		private final int dataType;
+		private final boolean repeating;
+		private final ValueWriter writer;
+
+		Attribute(final IDfAttr attr, final String name, final int length, final int dataType, final boolean repeating) {
+			this.attr = attr;
+			this.name = name;
+			this.length = length;
+			this.dataType = dataType;
+			this.repeating = repeating;
+			this.writer = ValueWriter.forDataType(dataType);
+		}
+
+		/**
+		 * @return The attribute definition, or null if the attribute was
+		 *         {@link AttributeWriterPlan#describe(IDfTypedObject, String) described}
+		 *         without it
+		 */
+		public IDfAttr getAttr() {
+			return this.attr;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return The maximum length of a string attribute, or -1 if unknown
+		 */
+		public int getLength() {
+			return this.length;
+		}
+
+		/**
+		 * @return The data type, one of the <code>IDfAttr.DM_*</code> constants
+		 */
+		public int getDataType() {
+			return this.dataType;
+		}
+
+		public boolean isRepeating() {
+			return this.repeating;
+		}
+
+		/**
+		 * Set the (first) value of the attribute
+		 *
+		 * @throws DfException
+		 *             the df exception
+		 */
+		public void set(final IDfTypedObject obj, final Object value, final boolean truncLengthIfLonger) throws DfException {
+			this.writer.set(obj, this.name, value, truncLengthIfLonger ? getMaxLength(obj) : 0);
+		}
+
+		/**
+		 * Append a value to the repeating attribute
+		 *
+		 * @throws DfException
+		 *             the df exception
+		 */
+		public void append(final IDfTypedObject obj, final Object value, final boolean truncLengthIfLonger) throws DfException {
+			this.writer.append(obj, this.name, value, truncLengthIfLonger ? getMaxLength(obj) : 0);
+		}
+
+		private int getMaxLength(final IDfTypedObject obj) throws DfException {
+			if (this.length >= 0 || this.dataType != IDfAttr.DM_STRING)
+				return this.length;
+			// Described attributes are not in the metadata of the type
+			return DctmUtils.findAttr(obj, this.name).getLength();
+		}
+	}
+
+	/**
+	 * Converts values to one data type and sets them
+	 */
+	abstract static class ValueWriter {
+
+		private static final ValueWriter BOOLEAN = new ValueWriter() {
+			@Override
+			void set(IDfTypedObject obj, String attrName, Object value, int maxLength) throws DfException {
+				obj.setBoolean(attrName, DctmUtils.getValueAsBoolean(value));
+			}
+
+			@Override
+			void append(IDfTypedObject obj, String attrName, Object value, int maxLength) throws DfException {
+				obj.appendBoolean(attrName, DctmUtils.getValueAsBoolean(value));
+			}
+		};
+
+		private static final ValueWriter INTEGER = new ValueWriter() {
+			@Override
+			void set(IDfTypedObject obj, String attrName, Object value, int maxLength) throws DfException {
+				obj.setInt(attrName, DctmUtils.getValueAsInt(value));
+			}
+
+			@Override
+			void append(IDfTypedObject obj, String attrName, Object value, int maxLength) throws DfException {
+				obj.appendInt(attrName, DctmUtils.getValueAsInt(value));
+			}
+		};
+
+		private static final ValueWriter STRING = new ValueWriter() {
+			@Override
+			void set(IDfTypedObject obj, String attrName, Object value, int maxLength) throws DfException {
+				obj.setString(attrName, DctmUtils.getValueAsString(value, maxLength));
+			}
+
+			@Override
+			void append(IDfTypedObject obj, String attrName, Object value, int maxLength) throws DfException {
+				obj.appendString(attrName, DctmUtils.getValueAsString(value, maxLength));
+			}
+		};
+
+		private static final ValueWriter ID = new ValueWriter() {
+			@Override
+			void set(IDfTypedObject obj, String attrName, Object value, int maxLength) throws DfException {
+				obj.setId(attrName, DctmUtils.getValueAsDfId(value));
+			}
+
+			@Override
+			void append(IDfTypedObject obj, String attrName, Object value, int maxLength) throws DfException {
+				obj.appendId(attrName, DctmUtils.getValueAsDfId(value));
+			}
+		};
+
+		private static final ValueWriter TIME = new ValueWriter() {
+			@Override
+			void set(IDfTypedObject obj, String attrName, Object value, int maxLength) throws DfException {
+				obj.setTime(attrName, DctmUtils.getValueAsDfTime(value));
+			}
+
+			@Override
+			void append(IDfTypedObject obj, String attrName, Object value, int maxLength) throws DfException {
+				obj.appendTime(attrName, DctmUtils.getValueAsDfTime(value));
+			}
+		};
+
+		private static final ValueWriter DOUBLE = new ValueWriter() {
+			@Override
+			void set(IDfTypedObject obj, String attrName, Object value, int maxLength) throws DfException {
+				obj.setDouble(attrName, DctmUtils.getValueAsDouble(value));
+			}
+
+			@Override
+			void append(IDfTypedObject obj, String attrName, Object value, int maxLength) throws DfException {
+				obj.appendDouble(attrName, DctmUtils.getValueAsDouble(value));
+			}
+		};
+
+		/** For undefined data types: ignores the value */
+		private static final ValueWriter NONE = new ValueWriter() {
+			@Override
+			void set(IDfTypedObject obj, String attrName, Object value, int maxLength) {
+			}
+
+			@Override
+			void append(IDfTypedObject obj, String attrName, Object value, int maxLength) {
+			}
+		};
+
+		static ValueWriter forDataType(final int dataType) {
+			switch (dataType) {
+			case IDfAttr.DM_BOOLEAN:
+				return BOOLEAN;
+			case IDfAttr.DM_INTEGER:
+				return INTEGER;
+			case IDfAttr.DM_STRING:
+				return STRING;
+			case IDfAttr.DM_ID:
+				return ID;
+			case IDfAttr.DM_TIME:
+				return TIME;
+			case IDfAttr.DM_DOUBLE:
+				return DOUBLE;
+			default:
+				return NONE;
+			}
+		}
+
+		/**
+		 * @param maxLength
+		 *            The maximum length of strings, 0 to not truncate them
+		 */
+		abstract void set(IDfTypedObject obj, String attrName, Object value, int maxLength) throws DfException;
+
+		/**
+		 * @param maxLength
+		 *            The maximum length of strings, 0 to not truncate them
+		 */
+		abstract void append(IDfTypedObject obj, String attrName, Object value, int maxLength) throws DfException;
+	}
+}
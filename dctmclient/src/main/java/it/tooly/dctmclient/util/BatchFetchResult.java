@@ -0,0 +1,93 @@
+package it.tooly.dctmclient.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.IDfId;
+
+/**
+ * The result of an {@link ObjectBatchFetcher} fetch: the fetched objects in
+ * the order of the requested ids, and the errors for the ids that could not be
+ * fetched.
+ *
+ * @param <T>
+ *            Type of the fetched objects
+ */
+public class BatchFetchResult<T> {
+	private final List<IDfId> ids;
+	private final List<T> objects;
+	private final Map<IDfId, DfException> errors;
+
+	BatchFetchResult(List<IDfId> ids, List<T> objects, Map<IDfId, DfException> errors) {
+		this.ids = ids;
+		this.objects = objects;
+		this.errors = errors;
+	}
+
+	/**
+	 * @return The requested ids
+	 */
+	public List<IDfId> getIds() {
+		return Collections.unmodifiableList(this.ids);
+	}
+
+	/**
+	 * @return The fetched objects, in the same order as the requested ids. For
+	 *         ids that could not be fetched (see {@link #getErrors()}) or
+	 *         whose object is not of the requested type, the list contains
+	 *         null.
+	 */
+	public List<T> getObjectsWithNulls() {
+		return Collections.unmodifiableList(this.objects);
+	}
+
+	/**
+	 * @return The fetched objects in the order of the requested ids, without
+	 *         the ids that could not be fetched
+	 */
+	public List<T> getObjects() {
+		List<T> found = new ArrayList<>(this.objects.size());
+		for (T object : this.objects) {
+			if (object != null)
+				found.add(object);
+		}
+		return found;
+	}
+
+	/**
+	 * @return The object for the id at the given position, or null
+	 */
+	public T get(int index) {
+		return this.objects.get(index);
+	}
+
+	/**
+	 * @return The ids that could not be fetched with the reason, in the order
+	 *         of the requested ids
+	 */
+	public Map<IDfId, DfException> getErrors() {
+		return Collections.unmodifiableMap(this.errors);
+	}
+
+	public boolean hasErrors() {
+		return !this.errors.isEmpty();
+	}
+
+	/**
+	 * Throw the error of the first id that could not be fetched, if any
+	 *
+	 * @throws DfException
+	 */
+	public void throwFirstError() throws DfException {
+		if (hasErrors())
+			throw this.errors.values().iterator().next();
+	}
+
+	static Map<IDfId, DfException> newErrorMap() {
+		return new LinkedHashMap<>();
+	}
+}
@@ -0,0 +1,397 @@
+package it.tooly.dctmclient.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+
+import com.documentum.fc.client.IDfFolder;
+import com.documentum.fc.client.IDfPersistentObject;
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.client.IDfSysObject;
+import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.IDfId;
+
+import it.tooly.dctmclient.session.SessionLease;
+import it.tooly.dctmclient.session.SessionPool;
+import it.tooly.shared.common.ThreadPools;
+
+/**
+ * Runs the per-object helpers of {@link DctmUtils} for many objects at the
+ * same time, with sessions leased from a {@link SessionPool}. A number of
+ * workers (see {@link #setParallelism(int)}) each lease one session and take
+ * the next object until all objects are done, so the waits for the
+ * repository overlap instead of adding up. A worker that gets no session
+ * leaves the objects to the others; the operation only fails for lack of
+ * sessions if no worker gets one.
+ * <p>
+ * The workers run on virtual threads when the JDK supports them, and
+ * otherwise on a pool of as many threads as there are workers (see
+ * {@link ThreadPools}); an executor of your own can be set with
+ * {@link #setExecutor(ExecutorService)}.
+ * <p>
+ * The results are in the order of the objects, like the results of calling
+ * the sequential helper for each object. If an object fails, the error of the
+ * first failing object is thrown, which is the error the sequential calls
+ * would have stopped at; objects after it may or may not have been processed.
+ * <p>
+ * The workers only have the ids of the objects: they fetch an object again in
+ * their own session where the helper needs it. Those copies do not have the
+ * changes that were not saved yet, so for objects with unsaved changes the
+ * results can differ from those of the sequential helpers. The returned
+ * objects are loaded (in batches, see {@link ObjectBatchFetcher}) in the
+ * session of the object they belong to, not in the sessions of the pool,
+ * which are returned to the pool when the operation ends.
+ */
+public class BulkOperations {
+	private static final Logger LOGGER = Logger.getLogger(BulkOperations.class);
+
+	private static final AtomicInteger OPERATIONS_NR = new AtomicInteger();
+
+	/**
+	 * An operation on one object
+	 */
+	public interface BulkTask<S, R> {
+		/**
+		 * @param session
+		 *            The leased session of the worker
+		 * @param item
+		 *            The object to process
+		 * @return The result for the object
+		 * @throws DfException
+		 */
+		R apply(IDfSession session, S item) throws DfException;
+	}
+
+	private final SessionPool pool;
+	private int parallelism;
+	private ExecutorService executor;
+
+	/**
+	 * @param pool
+	 *            The pool to lease the sessions from; by default there are as
+	 *            many workers as the pool has sessions
+	 */
+	public BulkOperations(SessionPool pool) {
+		if (pool == null)
+			throw new IllegalArgumentException("A session pool is required");
+		this.pool = pool;
+		this.parallelism = pool.getConfig().getMaxSize();
+	}
+
+	public SessionPool getPool() {
+		return this.pool;
+	}
+
+	public int getParallelism() {
+		return this.parallelism;
+	}
+
+	/**
+	 * @param parallelism
+	 *            Maximum number of workers, and so of leased sessions
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Parallelism must be at least 1");
+		this.parallelism = parallelism;
+	}
+
+	public ExecutorService getExecutor() {
+		return this.executor;
+	}
+
+	/**
+	 * @param executor
+	 *            The executor to run the workers on, which is not shut down by
+	 *            this class; null (the default) to create one per operation
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Fetch sysobjects again in parallel chunks with the sessions of the pool.
+	 * The chunks are fetched on the {@link #setExecutor(ExecutorService)
+	 * executor} if one is set, and each object is fetched with the attributes
+	 * of its own type, see {@link ObjectBatchFetcher}.
+	 *
+	 * @param objectList
+	 *            The sysobjects to re-fetch
+	 * @param throwException
+	 *            Set to true to throw the first error, or to false to only log
+	 *            the errors
+	 * @return The fetched objects in the order of the list
+	 * @throws DfException
+	 * @see DctmUtils#fetchSysObjectListWithSession(IDfSession, List, boolean)
+	 */
+	public List<IDfSysObject> fetchSysObjectList(List<IDfSysObject> objectList, boolean throwException) throws DfException {
+		ObjectBatchFetcher fetcher = new ObjectBatchFetcher();
+		fetcher.setParallelism(this.parallelism);
+		fetcher.setExecutor(this.executor);
+		BatchFetchResult<IDfSysObject> result = fetcher.fetch(this.pool, DctmUtils.getObjectIds(objectList), IDfSysObject.class);
+		DctmUtils.handleFetchErrors(result, throwException);
+		return result.getObjects();
+	}
+
+	/**
+	 * Get the related objects of each object. The relations are read in the
+	 * sessions of the workers; the related objects are loaded in the session
+	 * of the object.
+	 *
+	 * @return The related objects per object
+	 * @throws DfException
+	 * @see DctmUtils#getRelatedObjects(IDfPersistentObject, String, boolean)
+	 */
+	public List<List<IDfPersistentObject>> getRelatedObjects(List<? extends IDfPersistentObject> objects, final String relationName,
+			final boolean getChildren) throws DfException {
+		List<List<IDfId>> relativeIds = map(objects, new BulkTask<IDfPersistentObject, List<IDfId>>() {
+			@Override
+			public List<IDfId> apply(IDfSession session, IDfPersistentObject object) throws DfException {
+				return DctmUtils.getRelatedObjectIds(session.getObject(object.getObjectId()), relationName, getChildren);
+			}
+		});
+		return loadInObjectSessions(objects, relativeIds, IDfPersistentObject.class, true);
+	}
+
+	/**
+	 * Get the folders that each object is linked to. The folder ids are read
+	 * from the objects themselves, including unsaved links, and the folders
+	 * are loaded in batches in the session of the object, so no sessions of
+	 * the pool are used.
+	 *
+	 * @return The folders per object
+	 * @throws DfException
+	 * @see DctmUtils#getObjectFolders(IDfSysObject)
+	 */
+	public List<List<IDfFolder>> getObjectFolders(List<? extends IDfSysObject> objects) throws DfException {
+		List<List<IDfId>> folderIds = new ArrayList<List<IDfId>>(objects.size());
+		for (IDfSysObject object : objects) {
+			List<IDfId> ids = new ArrayList<IDfId>(object.getFolderIdCount());
+			for (int x = 0; x < object.getFolderIdCount(); x++) {
+				ids.add(object.getFolderId(x));
+			}
+			folderIds.add(ids);
+		}
+		// Like the sequential helper, skip the folders that are not found
+		return loadInObjectSessions(objects, folderIds, IDfFolder.class, false);
+	}
+
+	/**
+	 * Get the rendition formats of each object
+	 *
+	 * @return The formats per object
+	 * @throws DfException
+	 * @see DctmUtils#getDocumentRenditions(IDfSysObject)
+	 */
+	public List<List<String>> getDocumentRenditions(List<? extends IDfSysObject> objects) throws DfException {
+		return map(objects, new BulkTask<IDfSysObject, List<String>>() {
+			@Override
+			public List<String> apply(IDfSession session, IDfSysObject object) throws DfException {
+				if (object == null)
+					return DctmUtils.getDocumentRenditions(null);
+				return DctmUtils.getDocumentRenditions((IDfSysObject) session.getObject(object.getObjectId()));
+			}
+		});
+	}
+
+	/**
+	 * Load the objects of the ids per object in the session of that object,
+	 * with one batch per session
+	 *
+	 * @param throwException
+	 *            Whether to throw the error of the first id that is not found,
+	 *            or to leave it out
+	 */
+	private static <T extends IDfPersistentObject> List<List<T>> loadInObjectSessions(List<? extends IDfPersistentObject> objects,
+			List<List<IDfId>> idsPerObject, Class<T> objType, boolean throwException) throws DfException {
+		Map<IDfSession, List<IDfId>> idsPerSession = new IdentityHashMap<IDfSession, List<IDfId>>();
+		for (int i = 0; i < objects.size(); i++) {
+			if (idsPerObject.get(i).isEmpty())
+				continue;
+			IDfSession session = objects.get(i).getSession();
+			List<IDfId> ids = idsPerSession.get(session);
+			if (ids == null) {
+				ids = new ArrayList<IDfId>();
+				idsPerSession.put(session, ids);
+			}
+			ids.addAll(idsPerObject.get(i));
+		}
+
+		ObjectBatchFetcher fetcher = new ObjectBatchFetcher();
+		Map<IDfSession, Iterator<T>> loaded = new IdentityHashMap<IDfSession, Iterator<T>>();
+		for (Map.Entry<IDfSession, List<IDfId>> entry : idsPerSession.entrySet()) {
+			BatchFetchResult<T> result = fetcher.fetch(entry.getKey(), entry.getValue(), objType);
+			DctmUtils.handleFetchErrors(result, throwException);
+			loaded.put(entry.getKey(), result.getObjectsWithNulls().iterator());
+		}
+
+		List<List<T>> results = new ArrayList<List<T>>(objects.size());
+		for (int i = 0; i < objects.size(); i++) {
+			List<IDfId> ids = idsPerObject.get(i);
+			List<T> objectsOfIds = new ArrayList<T>(ids.size());
+			if (!ids.isEmpty()) {
+				Iterator<T> iterator = loaded.get(objects.get(i).getSession());
+				for (int x = 0; x < ids.size(); x++) {
+					T object = iterator.next();
+					if (object != null)
+						objectsOfIds.add(object);
+				}
+			}
+			results.add(objectsOfIds);
+		}
+		return Collections.unmodifiableList(results);
+	}
+
+	/**
+	 * Run a task for each item
+	 *
+	 * @param items
+	 *            The items
+	 * @param task
+	 *            The task, which is called on the worker threads
+	 * @return The results in the order of the items
+	 * @throws DfException
+	 *             The error of the first item that failed, or if the workers
+	 *             were interrupted
+	 */
+	public <S, R> List<R> map(List<? extends S> items, final BulkTask<S, R> task) throws DfException {
+		final List<S> input = new ArrayList<S>(items);
+		final Object[] results = new Object[input.size()];
+		final Throwable[] failures = new Throwable[input.size()];
+		final AtomicInteger nextIndex = new AtomicInteger();
+		final AtomicInteger firstFailure = new AtomicInteger(input.size());
+		final AtomicInteger startedWorkers = new AtomicInteger();
+		final AtomicReference<DfException> leaseFailure = new AtomicReference<DfException>();
+		Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				// The first worker waits for a session, so there is always one
+				// worker that processes the items unless the pool has none
+				boolean waitForSession = startedWorkers.getAndIncrement() == 0;
+				runWorker(input, task, results, failures, nextIndex, firstFailure, waitForSession, leaseFailure);
+			}
+		};
+
+		int nrWorkers = Math.min(this.parallelism, input.size());
+		if (nrWorkers <= 1) {
+			worker.run();
+		} else {
+			runWorkers(worker, nrWorkers);
+		}
+
+		int failed = firstFailure.get();
+		if (failed < input.size())
+			rethrow(failures[failed]);
+		if (nextIndex.get() < input.size()) {
+			// No worker had a session for the remaining items
+			DfException e = leaseFailure.get();
+			throw e != null ? e : new DfException("No session to process item " + nextIndex.get());
+		}
+		@SuppressWarnings("unchecked")
+		List<R> list = (List<R>) Arrays.asList(results);
+		return Collections.unmodifiableList(list);
+	}
+
+	private void runWorkers(Runnable worker, int nrWorkers) throws DfException {
+		ExecutorService workers = this.executor != null ? this.executor
+				: ThreadPools.newIoExecutor("BulkOperations-" + OPERATIONS_NR.incrementAndGet(), nrWorkers);
+		List<Future<?>> futures = new ArrayList<Future<?>>(nrWorkers);
+		try {
+			for (int i = 0; i < nrWorkers; i++) {
+				futures.add(workers.submit(worker));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			for (Future<?> future : futures) {
+				future.cancel(true);
+			}
+			throw new DfException("Interrupted while waiting for the workers", e);
+		} catch (ExecutionException e) {
+			// The workers catch the errors of the tasks
+			throw new DfException("Worker failed", e.getCause());
+		} finally {
+			if (workers != this.executor)
+				workers.shutdownNow();
+		}
+	}
+
+	/**
+	 * Lease a session and process items with it until there are none left. A
+	 * worker only takes an item when it has a session; if it cannot get one,
+	 * it stops and leaves the items to the other workers.
+	 *
+	 * @param waitForSession
+	 *            Whether to wait for a session, or to stop if none is free
+	 */
+	private <S, R> void runWorker(List<S> input, BulkTask<S, R> task, Object[] results, Throwable[] failures,
+			AtomicInteger nextIndex, AtomicInteger firstFailure, boolean waitForSession, AtomicReference<DfException> leaseFailure) {
+		SessionLease lease = null;
+		try {
+			while (true) {
+				if (nextIndex.get() >= input.size() || nextIndex.get() > firstFailure.get())
+					return;
+				if (lease == null) {
+					try {
+						lease = waitForSession ? this.pool.lease() : this.pool.lease(0, TimeUnit.MILLISECONDS);
+					} catch (DfException e) {
+						leaseFailure.compareAndSet(null, e);
+						return;
+					}
+				}
+				int index = nextIndex.getAndIncrement();
+				// Stop after a failure, like a sequential loop would
+				if (index >= input.size() || index > firstFailure.get())
+					return;
+				try {
+					if (Thread.currentThread().isInterrupted())
+						throw new DfException("Interrupted before processing item " + index);
+					results[index] = task.apply(lease.getSession(), input.get(index));
+				} catch (Throwable e) {
+					if (e instanceof RuntimeException) {
+						lease.invalidate();
+						lease.close();
+						lease = null;
+					}
+					failures[index] = e;
+					setFirstFailure(firstFailure, index);
+				}
+			}
+		} finally {
+			if (lease != null)
+				lease.close();
+		}
+	}
+
+	private static void setFirstFailure(AtomicInteger firstFailure, int index) {
+		int current = firstFailure.get();
+		while (index < current && !firstFailure.compareAndSet(current, index)) {
+			current = firstFailure.get();
+		}
+	}
+
+	private static void rethrow(Throwable failure) throws DfException {
+		if (failure instanceof DfException)
+			throw (DfException) failure;
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure instanceof Error)
+			throw (Error) failure;
+		LOGGER.debug("Unexpected failure", failure);
+		throw new DfException("Bulk operation failed", failure);
+	}
+}
@@ -0,0 +1,379 @@
+package it.tooly.dctmclient.util;
+
+import java.text.ParsePosition;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.documentum.fc.common.DfTime;
+import com.documentum.fc.common.IDfTime;
+
+/**
+ * Parses and formats dates with a list of patterns, like
+ * {@link DctmUtils#parseDate(String, String...)}, but with
+ * <code>java.time</code> formatters that are compiled once and can be shared
+ * between threads.
+ * <p>
+ * Patterns that only contain numeric fields and literals, like
+ * <code>dd-MM-yyyy HH:mm:ss</code>, get a shape (digits and separators at
+ * fixed positions) that is checked before the formatter is tried, so a value
+ * is only parsed with the patterns it can match.
+ * <p>
+ * Parsing is strict, unlike {@link java.text.SimpleDateFormat}: a pattern has
+ * to match the whole value (after trimming), every field has to have the width
+ * of its pattern letters (<code>dd</code> does not match <code>5</code>),
+ * values out of range (like <code>31-02-2020</code>) are rejected instead of
+ * rolled over, and the date and time fields of a pattern have to give a full
+ * date and time of day (<code>hh</code> needs <code>a</code>, use
+ * <code>HH</code> for 24-hour times). As in <code>SimpleDateFormat</code>, <code>y</code> is the
+ * year unless the pattern has an era (<code>G</code>). Values without a zone
+ * are parsed in the time zone of the codec. Use
+ * {@link DctmUtils#parseDate(String, String...)} for the lenient
+ * <code>SimpleDateFormat</code> semantics.
+ * <p>
+ * Instances are immutable and thread safe.
+ */
+public final class DateCodec {
+
+	/**
+	 * The time that stands for a null date, see {@link #toEpochMillis(IDfTime)}
+	 */
+	public static final long NULL_TIME = Long.MIN_VALUE;
+
+	/**
+	 * The date format of Documentum
+	 */
+	public static final String DOCUMENTUM_PATTERN = "dd-MM-yyyy HH:mm:ss";
+
+	/**
+	 * Compiled patterns are shared by all codecs; patterns beyond this number
+	 * are compiled every time they are used
+	 */
+	private static final int MAX_CACHED_FORMATS = 256;
+
+	private static final ConcurrentHashMap<String, Format> FORMATS = new ConcurrentHashMap<String, Format>();
+
+	/**
+	 * Parses the date formats that are used in imports, formats with
+	 * {@link #DOCUMENTUM_PATTERN}
+	 */
+	public static final DateCodec DEFAULT = forPatterns(DOCUMENTUM_PATTERN, "dd-MM-yyyy", "yyyyMMdd HHmmss");
+
+	private final Format[] formats;
+	private final ZoneId zone;
+	/** The first pattern in the zone of the codec */
+	private final DateTimeFormatter formatter;
+
+	private DateCodec(final Format[] formats, final ZoneId zone) {
+		this.formats = formats;
+		this.zone = zone;
+		this.formatter = formats[0].formatter.withZone(zone);
+	}
+
+	/**
+	 * @param patterns
+	 *            The patterns, see {@link DateTimeFormatter}; values are
+	 *            parsed with the first pattern that matches, and formatted
+	 *            with the first pattern
+	 * @return A codec for the patterns in the default time zone
+	 * @throws IllegalArgumentException
+	 *             If there are no patterns, or a pattern is invalid
+	 */
+	public static DateCodec forPatterns(final String... patterns) {
+		if (patterns == null || patterns.length == 0)
+			throw new IllegalArgumentException("At least one pattern is required");
+		Format[] formats = new Format[patterns.length];
+		for (int i = 0; i < patterns.length; i++) {
+			formats[i] = getFormat(patterns[i]);
+		}
+		return new DateCodec(formats, ZoneId.systemDefault());
+	}
+
+	/**
+	 * @return A codec with the same patterns that parses and formats in the
+	 *         given time zone
+	 */
+	public DateCodec withZone(final ZoneId zone) {
+		if (zone == null)
+			throw new IllegalArgumentException("Zone cannot be null");
+		return new DateCodec(this.formats, zone);
+	}
+
+	public ZoneId getZone() {
+		return this.zone;
+	}
+
+	/**
+	 * @return The date, or null if the value is empty or does not match any
+	 *         of the patterns
+	 */
+	public Date parse(final String value) {
+		long time = parseEpochMillis(value);
+		return time == NULL_TIME ? null : new Date(time);
+	}
+
+	/**
+	 * @return The value as milliseconds since the epoch, or {@link #NULL_TIME}
+	 *         if the value is empty or does not match any of the patterns
+	 */
+	public long parseEpochMillis(final CharSequence value) {
+		if (value == null)
+			return NULL_TIME;
+		int start = 0;
+		int end = value.length();
+		while (start < end && value.charAt(start) <= ' ')
+			start++;
+		while (end > start && value.charAt(end - 1) <= ' ')
+			end--;
+		if (start == end)
+			return NULL_TIME;
+		CharSequence text = start == 0 && end == value.length() ? value : value.subSequence(start, end);
+		for (Format format : this.formats) {
+			if (format.mayMatch(text)) {
+				long time = format.parse(text, this.zone);
+				if (time != NULL_TIME)
+					return time;
+			}
+		}
+		return NULL_TIME;
+	}
+
+	/**
+	 * @return The value as a Documentum time, or null if the value is empty or
+	 *         does not match any of the patterns
+	 */
+	public IDfTime parseTime(final String value) {
+		long time = parseEpochMillis(value);
+		return time == NULL_TIME ? null : fromEpochMillis(time);
+	}
+
+	/**
+	 * @return The date formatted with the first pattern, or null if the date is
+	 *         null
+	 */
+	public String format(final Date date) {
+		return date == null ? null : formatEpochMillis(date.getTime());
+	}
+
+	/**
+	 * @return The time formatted with the first pattern, or null if it is
+	 *         {@link #NULL_TIME}
+	 */
+	public String formatEpochMillis(final long time) {
+		if (time == NULL_TIME)
+			return null;
+		return this.formatter.format(Instant.ofEpochMilli(time));
+	}
+
+	/**
+	 * @return The time formatted with the first pattern, or null if it is null
+	 *         or the null date
+	 */
+	public String format(final IDfTime time) {
+		return formatEpochMillis(toEpochMillis(time));
+	}
+
+	/**
+	 * @return The time in milliseconds since the epoch, or {@link #NULL_TIME}
+	 *         if it is null, the null date or invalid
+	 */
+	public static long toEpochMillis(final IDfTime time) {
+		if (time == null || time.isNullDate() || !time.isValid())
+			return NULL_TIME;
+		Date date = time.getDate();
+		return date == null ? NULL_TIME : date.getTime();
+	}
+
+	/**
+	 * @return The Documentum time, or the null date for {@link #NULL_TIME}
+	 */
+	public static IDfTime fromEpochMillis(final long time) {
+		return time == NULL_TIME ? DfTime.DF_NULLDATE : new DfTime(new Date(time));
+	}
+
+	private static Format getFormat(final String pattern) {
+		if (pattern == null)
+			throw new IllegalArgumentException("Pattern cannot be null");
+		Format format = FORMATS.get(pattern);
+		if (format == null) {
+			format = new Format(pattern);
+			if (FORMATS.size() < MAX_CACHED_FORMATS) {
+				Format existing = FORMATS.putIfAbsent(pattern, format);
+				if (existing != null)
+					format = existing;
+			}
+		}
+		return format;
+	}
+
+	/**
+	 * A compiled pattern
+	 */
+	private static final class Format {
+		/** Stands for a digit in a shape */
+		private static final char DIGIT = '\0';
+
+		final DateTimeFormatter formatter;
+		/**
+		 * What the start of a matching value looks like, or null if the
+		 * pattern has text fields
+		 */
+		final String shape;
+		/** Whether the pattern has fields of the date */
+		final boolean hasDate;
+		/** Whether the pattern has fields of the time of day */
+		final boolean hasTime;
+
+		Format(final String pattern) {
+			this.formatter = toFormatter(toYearPattern(pattern));
+			this.shape = toShape(pattern);
+			this.hasDate = hasLetter(pattern, "GuyYDMLdQqwWEecF");
+			this.hasTime = hasLetter(pattern, "aHhKkmsSAnN");
+		}
+
+		boolean mayMatch(final CharSequence text) {
+			if (this.shape == null)
+				return true;
+			int length = this.shape.length();
+			if (text.length() < length)
+				return false;
+			for (int i = 0; i < length; i++) {
+				char expected = this.shape.charAt(i);
+				char c = text.charAt(i);
+				if (expected == DIGIT ? c < '0' || c > '9' : c != expected)
+					return false;
+			}
+			return true;
+		}
+
+		long parse(final CharSequence text, final ZoneId defaultZone) {
+			ParsePosition position = new ParsePosition(0);
+			TemporalAccessor parsed;
+			try {
+				parsed = this.formatter.parse(text, position);
+			} catch (DateTimeParseException e) {
+				// Right shape, but an invalid value like month 13
+				return NULL_TIME;
+			}
+			if (position.getIndex() < text.length())
+				return NULL_TIME;
+			LocalDate date = parsed.query(TemporalQueries.localDate());
+			LocalTime time = parsed.query(TemporalQueries.localTime());
+			// Fields that do not add up to a date or time, like a month
+			// without a day or an hour without AM/PM, do not match
+			if ((date == null && this.hasDate) || (time == null && this.hasTime))
+				return NULL_TIME;
+			ZoneId zone = parsed.query(TemporalQueries.zone());
+			return (date == null ? LocalDate.of(1970, 1, 1) : date).atTime(time == null ? LocalTime.MIDNIGHT : time)
+					.atZone(zone == null ? defaultZone : zone).toInstant().toEpochMilli();
+		}
+
+		/**
+		 * @return The strict formatter of the pattern, in which two-digit years
+		 *         (<code>uu</code>) are within 80 years before and 20 years
+		 *         after now, like in {@link java.text.SimpleDateFormat}
+		 */
+		private static DateTimeFormatter toFormatter(final String pattern) {
+			DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder().parseCaseInsensitive();
+			boolean quoted = false;
+			int start = 0;
+			int i = 0;
+			while (i < pattern.length()) {
+				char c = pattern.charAt(i);
+				int count = 1;
+				if (c == '\'') {
+					quoted = !quoted;
+				} else if (!quoted) {
+					while (i + count < pattern.length() && pattern.charAt(i + count) == c)
+						count++;
+					if (c == 'u' && count == 2) {
+						builder.appendPattern(pattern.substring(start, i));
+						builder.appendValueReduced(ChronoField.YEAR, 2, 2, LocalDate.now().minusYears(80));
+						start = i + count;
+					}
+				}
+				i += count;
+			}
+			builder.appendPattern(pattern.substring(start));
+			return builder.toFormatter().withResolverStyle(ResolverStyle.STRICT);
+		}
+
+		/**
+		 * @return The pattern with <code>y</code> (year of era) replaced by
+		 *         <code>u</code> (year) if it has no era, because the strict
+		 *         resolver cannot make a date of a year of era without an era
+		 */
+		private static String toYearPattern(final String pattern) {
+			if (!hasLetter(pattern, "y") || hasLetter(pattern, "G"))
+				return pattern;
+			StringBuilder result = new StringBuilder(pattern.length());
+			boolean quoted = false;
+			for (int i = 0; i < pattern.length(); i++) {
+				char c = pattern.charAt(i);
+				if (c == '\'')
+					quoted = !quoted;
+				result.append(c == 'y' && !quoted ? 'u' : c);
+			}
+			return result.toString();
+		}
+
+		/**
+		 * @return Whether the pattern has one of the letters outside of quoted
+		 *         text
+		 */
+		private static boolean hasLetter(final String pattern, final String letters) {
+			boolean quoted = false;
+			for (int i = 0; i < pattern.length(); i++) {
+				char c = pattern.charAt(i);
+				if (c == '\'')
+					quoted = !quoted;
+				else if (!quoted && letters.indexOf(c) >= 0)
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * @return The shape of the pattern, or null if it has fields that are
+		 *         not numbers or other constructs that have no fixed shape
+		 */
+		private static String toShape(final String pattern) {
+			StringBuilder shape = new StringBuilder(pattern.length());
+			int i = 0;
+			while (i < pattern.length()) {
+				char c = pattern.charAt(i);
+				int count = 1;
+				while (i + count < pattern.length() && pattern.charAt(i + count) == c)
+					count++;
+				if ("yudDMLHhKkmsSn".indexOf(c) >= 0) {
+					if ((c == 'M' || c == 'L') && count > 2)
+						return null;
+					// A single letter allows more digits, so only its first
+					// digit is certain
+					if (count == 1 && i + count < pattern.length())
+						return null;
+					for (int j = 0; j < count; j++)
+						shape.append(DIGIT);
+				} else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '\'' || c == '[' || c == ']'
+						|| c == '#' || c == '{' || c == '}') {
+					return null;
+				} else {
+					for (int j = 0; j < count; j++)
+						shape.append(c);
+				}
+				i += count;
+			}
+			return shape.toString();
+		}
+	}
+}
@@ -5,8 +5,10 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.text.ParseException;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
@@ -14,6 +16,8 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
+import java.util.stream.Stream;
 
 import org.apache.log4j.Logger;
 
@@ -43,6 +47,7 @@ import com.documentum.fc.common.IDfValue;
 import it.tooly.dctmclient.DctmClient;
 import it.tooly.dctmclient.model.DctmObject;
 import it.tooly.dctmclient.model.IRepository;
+import it.tooly.shared.common.CharEscaper;
 import it.tooly.shared.common.FileUtils;
 import it.tooly.shared.common.StringUtils;
 import it.tooly.shared.common.ToolyException;
@@ -74,18 +79,55 @@ public class DctmUtils {
 		void initFromCollection(IDfCollection collection) throws DfException;
 	}
 
-	/** The Constant DATE_FORMAT_DOCUMENTUM. */
-	public static final SimpleDateFormat DATE_FORMAT_DOCUMENTUM = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss");
+	/**
+	 * The Constant DATE_FORMAT_DOCUMENTUM.
+	 *
+	 * @deprecated Not thread safe, use {@link DateCodec#DEFAULT}
+	 */
+	@Deprecated
+	public static final SimpleDateFormat DATE_FORMAT_DOCUMENTUM = new SimpleDateFormat(DateCodec.DOCUMENTUM_PATTERN);
 
-	/** The Constant KNOWN_DATE_FORMATS. */
-	private static final String[] KNOWN_DATE_FORMATS = { "dd-MM-yyyy hh:mm:ss", "dd-MM-yyyy", "yyyyMMdd HHmmss" };
+	/**
+	 * The formats of {@link DateCodec#DEFAULT}, parsed leniently for values
+	 * that it does not accept, like single digit days or text after the date
+	 */
+	private static final String[] KNOWN_DATE_FORMATS = { DateCodec.DOCUMENTUM_PATTERN, "dd-MM-yyyy", "yyyyMMdd HHmmss" };
+
+	/** Date formats per thread and pattern, as SimpleDateFormat is not thread safe */
+	private static final ThreadLocal<Map<String, SimpleDateFormat>> DATE_FORMATS = new ThreadLocal<Map<String, SimpleDateFormat>>() {
+		@Override
+		protected Map<String, SimpleDateFormat> initialValue() {
+			return new HashMap<String, SimpleDateFormat>();
+		}
+	};
+
+	/** Patterns beyond this number are compiled every time they are used */
+	private static final int MAX_CACHED_DATE_FORMATS = 32;
 
 	/** The Constant STRING_TO_INT_IGNORED_CHARACTERS. */
 	private static final String[] STRING_TO_INT_IGNORED_CHARACTERS = { "\\.", "-", ",.*" };
 
+	/**
+	 * Numbers up to this value convert to a double without rounding, so they
+	 * can be parsed as a long.
+	 */
+	private static final long MAX_EXACT_DIGITS = 1L << 53;
+
 	/** The Constant STRING_TO_DOUBLE_IGNORED_CHARACTERS. */
 	private static final String[] STRING_TO_DOUBLE_IGNORED_CHARACTERS = { "\\.", "-" };
 
+	/** Doubles single quotes for DQL string literals. */
+	public static final CharEscaper DQL_ESCAPER = new CharEscaper().with("'", "''");
+
+	/** Removes double quotes. */
+	private static final CharEscaper DOUBLE_QUOTE_REMOVER = new CharEscaper().with("\"", "");
+
+	/** Replaces slashes, which are not allowed in object names. */
+	private static final CharEscaper OBJECT_NAME_ESCAPER = new CharEscaper().with("/", " & ");
+
+	/** Removes percent signs. */
+	private static final CharEscaper PERCENT_REMOVER = new CharEscaper().with("%", "");
+
 	/**
 	 * Append object attribute repeating value.
 	 *
@@ -102,40 +144,7 @@ public class DctmUtils {
 	 */
 	protected static void appendObjectAttributeRepeatingValue(final IDfTypedObject obj, final String attrName, final Object value, final boolean truncLengthIfLonger)
 			throws DfException {
-
-		int attrType = obj.getAttrDataType(attrName);
-
-		switch (attrType) {
-		case 0: // '\0'
-			obj.appendBoolean(attrName, getValueAsBoolean(value));
-			break;
-
-		case 1: // '\001'
-			obj.appendInt(attrName, getValueAsInt(value));
-			break;
-
-		case 2: // '\002'
-			if (truncLengthIfLonger) {
-				IDfAttr attrInfo = getAttributeTypeDefinition(obj, attrName);
-				int maxLength = attrInfo.getLength();
-				obj.appendString(attrName, getValueAsString(value, maxLength));
-			} else {
-				obj.appendString(attrName, getValueAsString(value));
-			}
-			break;
-
-		case 3: // '\003'
-			obj.appendId(attrName, getValueAsDfId(value));
-			break;
-
-		case 4: // '\004'
-			obj.appendTime(attrName, getValueAsDfTime(value));
-			break;
-
-		case 5: // '\005'
-			obj.appendDouble(attrName, getValueAsDouble(value));
-			break;
-		}
+		getAttribute(AttributeWriterPlan.forObject(obj), obj, attrName).append(obj, value, truncLengthIfLonger);
 	}
 
 	/**
@@ -380,16 +389,50 @@ public class DctmUtils {
 	 */
 	public static String encodeForDql(final String string) {
 		if (string != null) {
-			String newStr = string;
-			newStr = newStr.replaceAll("''", "-------QuotQuot------");
-			newStr = newStr.replaceAll("'", "''");
-			newStr = newStr.replaceAll("-------QuotQuot------", "''");
-
-			return newStr;
+			int first = string.indexOf('\'');
+			if (first < 0) {
+				return string;
+			}
+			StringBuilder result = new StringBuilder(string.length() + 16);
+			result.append(string, 0, first);
+			appendEncodedForDql(string, first, result);
+			return result.toString();
 		}
 		return null;
 	}
 
+	/**
+	 * Appends the string to a builder like {@link #encodeForDql(String)}
+	 * encodes it, without creating a temporary string. Use this to build
+	 * large statements, like long IN lists.
+	 *
+	 * @param string
+	 *            the string
+	 * @param dql
+	 *            the builder to append to
+	 * @return the builder
+	 */
+	public static StringBuilder encodeForDql(final CharSequence string, final StringBuilder dql) {
+		appendEncodedForDql(string, 0, dql);
+		return dql;
+	}
+
+	private static void appendEncodedForDql(final CharSequence string, final int fromIndex, final StringBuilder dql) {
+		int length = string.length();
+		int start = fromIndex;
+		for (int i = fromIndex; i < length; i++) {
+			if (string.charAt(i) == '\'') {
+				dql.append(string, start, i).append("''");
+				// A pair of quotes is already encoded, keep it
+				if (i + 1 < length && string.charAt(i + 1) == '\'') {
+					i++;
+				}
+				start = i + 1;
+			}
+		}
+		dql.append(string, start, length);
+	}
+
 	/**
 	 * Ensure documentum folder path convention.<br>
 	 * Replaces all "\\" to "/"
@@ -400,7 +443,7 @@ public class DctmUtils {
 	 */
 	public static String ensureDocumentumFolderPathConvention(final String path) {
 		if (path != null) {
-			String result = path.replaceAll("\\\\", "/");
+			String result = path.replace('\\', '/');
 			if (result.endsWith("/")) {
 				result = result.substring(0, result.length() - 1);
 			}
@@ -419,7 +462,7 @@ public class DctmUtils {
 	public static String ensureObjectNameConvention(final String value) {
 		if (StringUtils.isNotEmpty(value)) {
 			String newValue = value.trim();
-			newValue = newValue.replaceAll("/", " & ");
+			newValue = OBJECT_NAME_ESCAPER.escape(newValue);
 
 			// Truncate if longer than 255
 			newValue = StringUtils.ensureUTF8StringLength(newValue, 255);
@@ -658,21 +701,11 @@ public class DctmUtils {
 	public static List<Map<String, String>> executeQueryReturnListOfMaps(final IDfSession session, final String dql) throws DfException {
 		List<Map<String, String>> result = new ArrayList<Map<String, String>>();
 
-		IDfCollection collection = null;
-		try {
-			collection = executeQuery(session, dql);
-			if (collection != null) {
-
-				while (collection.next()) {
-					Map<String, String> rowMap = getMapOfPropertiesFromCollection(collection);
-					result.add(rowMap);
-				}
+		try (QueryCursor cursor = openQueryCursor(session, dql)) {
+			while (cursor.next()) {
+				result.add(cursor.toStringMap());
 			}
 			return result;
-		} finally {
-			if (collection != null) {
-				collection.close();
-			}
 		}
 	}
 
@@ -739,21 +772,12 @@ public class DctmUtils {
 	public static Map<String, Map<String, String>> executeQueryReturnMaps(final IDfSession session, final String dql, String keyAttribute) throws DfException {
 		Map<String, Map<String, String>> result = new HashMap<String, Map<String, String>>();
 
-		IDfCollection collection = null;
-		try {
-			collection = executeQuery(session, dql);
-			if (collection != null) {
-
-				while (collection.next()) {
-					Map<String, String> rowMap = getMapOfPropertiesFromCollection(collection);
-					result.put(rowMap.get(keyAttribute), rowMap);
-				}
+		try (QueryCursor cursor = openQueryCursor(session, dql)) {
+			while (cursor.next()) {
+				Map<String, String> rowMap = cursor.toStringMap();
+				result.put(rowMap.get(keyAttribute), rowMap);
 			}
 			return result;
-		} finally {
-			if (collection != null) {
-				collection.close();
-			}
 		}
 	}
 
@@ -887,6 +911,27 @@ public class DctmUtils {
 		}
 	}
 
+	/**
+	 * Executes DQL query and returns the whole result in a column oriented
+	 * {@link QueryResult}, which needs far less memory than a list of maps.
+	 *
+	 * @param session
+	 *            the session
+	 * @param dql
+	 *            the dql
+	 * @param batchSize
+	 *            the number of rows DFC fetches from the server at a time.
+	 *            See {@link DfQuery#setBatchSize}. Only used when > 0.
+	 * @return the query result
+	 * @throws DfException
+	 *             the df exception
+	 */
+	public static QueryResult executeQueryReturnResult(final IDfSession session, final String dql, final int batchSize) throws DfException {
+		try (QueryCursor cursor = openQueryCursor(session, dql, batchSize)) {
+			return QueryResult.read(cursor);
+		}
+	}
+
 	/**
 	 * Executes DQL query and returns the value of a first returned column.
 	 *
@@ -996,28 +1041,11 @@ public class DctmUtils {
 	 */
 	public static List<String[]> executeQueryReturnStringArrays(final IDfSession session, final String dql) throws DfException {
 		List<String[]> result = new ArrayList<String[]>();
-		IDfCollection collection = null;
-		try {
-			collection = executeQuery(session, dql);
-			if (collection != null) {
-				while (collection.next()) {
-					String[] values = new String[collection.getAttrCount()];
-					for (int i = 0; i < collection.getAttrCount(); i++) {
-						String attrName = collection.getAttr(i).getName();
-						if (collection.getAttr(i).isRepeating()) {
-							values[i] = collection.getAllRepeatingStrings(attrName, ",");
-						} else {
-							values[i] = collection.getString(attrName);
-						}
-					}
-					result.add(values);
-				}
+		try (QueryCursor cursor = openQueryCursor(session, dql)) {
+			while (cursor.next()) {
+				result.add(cursor.toStringArray());
 			}
 			return result;
-		} finally {
-			if (collection != null) {
-				collection.close();
-			}
 		}
 	}
 
@@ -1035,19 +1063,11 @@ public class DctmUtils {
 	 */
 	public static List<String> executeQueryReturnStrings(final IDfSession session, final String dql) throws DfException {
 		List<String> result = new ArrayList<String>();
-		IDfCollection collection = null;
-		try {
-			collection = executeQuery(session, dql);
-			if (collection != null) {
-				while (collection.next()) {
-					result.add(collection.getString(collection.getAttr(0).getName()));
-				}
+		try (QueryCursor cursor = openQueryCursor(session, dql)) {
+			while (cursor.next()) {
+				result.add(cursor.getString(0));
 			}
 			return result;
-		} finally {
-			if (collection != null) {
-				collection.close();
-			}
 		}
 	}
 
@@ -1117,20 +1137,9 @@ public class DctmUtils {
 	 *             the df exception
 	 */
 	public static List<IDfPersistentObject> fetchPersistObjectListWithSession(IDfSession session, List<IDfPersistentObject> objectList, boolean throwException) throws DfException {
-		List<IDfPersistentObject> newList = new ArrayList<>(objectList.size());
-		for (IDfPersistentObject obj : objectList) {
-			try {
-				IDfPersistentObject fetchedObject = session.getObject(obj.getObjectId());
-				newList.add(fetchedObject);
-			} catch (DfException e) {
-				if (throwException) {
-					throw e;
-				} else {
-					LOGGER.error("Error while getting an object", e);
-				}
-			}
-		}
-		return newList;
+		BatchFetchResult<IDfPersistentObject> result = fetchObjects(session, getObjectIds(objectList), IDfPersistentObject.class);
+		handleFetchErrors(result, throwException);
+		return result.getObjects();
 	}
 
 	/**
@@ -1165,22 +1174,47 @@ public class DctmUtils {
 	 * @return A list of sysobjects with the given session
 	 * @throws DfException
 	 *             the df exception
+	 * @see BulkOperations#fetchSysObjectList(List, boolean)
 	 */
 	public static List<IDfSysObject> fetchSysObjectListWithSession(IDfSession session, List<IDfSysObject> objectList, boolean throwException) throws DfException {
-		List<IDfSysObject> newList = new ArrayList<>(objectList.size());
-		for (IDfSysObject obj : objectList) {
-			try {
-				IDfSysObject fetchedObject = (IDfSysObject) session.getObject(obj.getObjectId());
-				newList.add(fetchedObject);
-			} catch (DfException e) {
-				if (throwException) {
-					throw e;
-				} else {
-					LOGGER.error("Error while getting an object", e);
-				}
-			}
+		BatchFetchResult<IDfSysObject> result = fetchObjects(session, getObjectIds(objectList), IDfSysObject.class);
+		handleFetchErrors(result, throwException);
+		return result.getObjects();
+	}
+
+	/**
+	 * Fetch objects by id in batches (see {@link ObjectBatchFetcher}), with
+	 * the default chunk size.
+	 *
+	 * @param <T>
+	 *            the type of the objects
+	 * @param session
+	 *            the session
+	 * @param ids
+	 *            the ids of the objects
+	 * @param objType
+	 *            the type of the objects to return
+	 * @return the objects in the order of the ids, and the errors per id
+	 */
+	public static <T extends IDfPersistentObject> BatchFetchResult<T> fetchObjects(IDfSession session, List<IDfId> ids, Class<T> objType) {
+		return new ObjectBatchFetcher().fetch(session, ids, objType);
+	}
+
+	static List<IDfId> getObjectIds(List<? extends IDfPersistentObject> objectList) throws DfException {
+		List<IDfId> ids = new ArrayList<>(objectList.size());
+		for (IDfPersistentObject obj : objectList) {
+			ids.add(obj.getObjectId());
+		}
+		return ids;
+	}
+
+	static void handleFetchErrors(BatchFetchResult<?> result, boolean throwException) throws DfException {
+		if (throwException) {
+			result.throwFirstError();
+		}
+		for (DfException e : result.getErrors().values()) {
+			LOGGER.error("Error while getting an object", e);
 		}
-		return newList;
 	}
 
 	/**
@@ -1195,6 +1229,40 @@ public class DctmUtils {
 	 *             the df exception
 	 */
 	public static IDfAttr getAttributeTypeDefinition(final IDfTypedObject typedObject, final String attrName) throws DfException {
+		if (typedObject == null || attrName == null) {
+			return null;
+		}
+		return getAttributeTypeDefinition(TypeMetadata.forObject(typedObject), typedObject, attrName);
+	}
+
+	/**
+	 * Gets the atribute type, with the metadata of the type of the object
+	 * that the caller already looked up.
+	 *
+	 * @param metadata
+	 *            the metadata of the type of the object, or null to ask the
+	 *            object
+	 * @param typedObject
+	 *            the typed object
+	 * @param attrName
+	 *            the attr name
+	 * @return the atribute type
+	 * @throws DfException
+	 *             the df exception
+	 */
+	public static IDfAttr getAttributeTypeDefinition(final TypeMetadata metadata, final IDfTypedObject typedObject, final String attrName)
+			throws DfException {
+		TypeMetadata.Attribute attribute = metadata == null || attrName == null ? null : metadata.getAttribute(attrName);
+		if (attribute != null) {
+			return attribute.getAttr();
+		}
+		return findAttr(typedObject, attrName);
+	}
+
+	/**
+	 * Finds the attribute by asking the object for all its attributes.
+	 */
+	static IDfAttr findAttr(final IDfTypedObject typedObject, final String attrName) throws DfException {
 		if (typedObject != null && attrName != null && typedObject.hasAttr(attrName)) {
 			for (int i = 0; i < typedObject.getAttrCount(); i++) {
 				IDfAttr dfAttr = typedObject.getAttr(i);
@@ -1251,8 +1319,11 @@ public class DctmUtils {
 	 *             the df exception
 	 */
 	public static byte[] getContentAsByteArray(IDfSysObject sysObject) throws IOException, DfException {
-		if (sysObject != null && sysObject.getLong("r_content_size") > 0) {
-			return FileUtils.copyStreamToByteArray(sysObject.getContent());
+		if (sysObject != null) {
+			long contentSize = sysObject.getLong("r_content_size");
+			if (contentSize > 0) {
+				return FileUtils.copyStreamToByteArray(sysObject.getContent(), contentSize);
+			}
 		}
 
 		return null;
@@ -1285,6 +1356,7 @@ public class DctmUtils {
 	 * @return the document renditions
 	 * @throws DfException
 	 *             the df exception
+	 * @see BulkOperations#getDocumentRenditions(List)
 	 */
 	public static List<String> getDocumentRenditions(final IDfSysObject sysObject) throws DfException {
 		List<String> result = new ArrayList<String>();
@@ -1342,9 +1414,11 @@ public class DctmUtils {
 	public static Map<String, String> getMapOfPropertiesFromCollection(IDfCollection collection) throws DfException {
 		Map<String, String> result = new HashMap<String, String>();
 
-		for (int i = 0; i < collection.getAttrCount(); i++) {
-			String attrName = collection.getAttr(i).getName();
-			if (collection.getAttr(i).isRepeating()) {
+		int nrAttrs = collection.getAttrCount();
+		for (int i = 0; i < nrAttrs; i++) {
+			IDfAttr attr = collection.getAttr(i);
+			String attrName = attr.getName();
+			if (attr.isRepeating()) {
 				result.put(attrName, collection.getAllRepeatingStrings(attrName, ","));
 			} else {
 				result.put(attrName, collection.getString(attrName));
@@ -1361,8 +1435,7 @@ public class DctmUtils {
 
 	public static DctmObject getObject(IDfTypedObject typedObject, boolean fetchFromDctm)
 			throws NumberFormatException, DfException, ToolyException {
-		String docbaseId = typedObject.getObjectId().getDocbaseId();
-		IRepository repo = DctmClient.getInstance().getRepositoryMap().get(docbaseId);
+		IRepository repo = DctmClient.getInstance().getRepositoryResolver().resolve(typedObject.getObjectId());
 		IDfTypedObject typedDctmObject;
 		if (fetchFromDctm) {
 			IDfSession session = typedObject.getObjectSession();
@@ -1373,6 +1446,23 @@ public class DctmUtils {
 		return new DctmObject(repo, typedObject.getObjectId().getId(), typedDctmObject);
 	}
 
+	/**
+	 * Create an object that copies only the given attributes from the typed
+	 * object, and only when they are first accessed (see
+	 * {@link DctmObject#DctmObject(IRepository, IDfTypedObject, String...)}).
+	 *
+	 * @param typedObject
+	 *            The typed object, which must not change afterwards
+	 * @param projection
+	 *            The attributes to copy; all attributes if empty
+	 * @return The object
+	 * @throws DfException
+	 */
+	public static DctmObject getLazyObject(IDfTypedObject typedObject, String... projection) throws DfException {
+		IRepository repo = DctmClient.getInstance().getRepositoryResolver().resolve(typedObject.getObjectId());
+		return new DctmObject(repo, typedObject, projection);
+	}
+
 	public static IDfPersistentObject getObjectByAttr(IDfSession session, String dctmObjectType, String attrName, String attrValue) throws DfException {
 		List<IDfPersistentObject> objects = executeQueryReturnDfObjects(session, "select r_object_id from " + dctmObjectType + " where " + attrName + " = '" + attrValue + "'");
 		if (objects == null || objects.isEmpty())
@@ -1390,11 +1480,28 @@ public class DctmUtils {
 	 * @return List<IDfFolder> containing IDfFolder objects
 	 * @throws DfException
 	 *             the df exception
+	 * @see BulkOperations#getObjectFolders(List)
 	 */
 	public static List<IDfFolder> getObjectFolders(IDfSysObject obj) throws DfException {
+		return getObjectFolders(obj.getObjectSession(), obj);
+	}
+
+	/**
+	 * Returns all folders that the given object is linked to, fetched with the
+	 * given session.
+	 *
+	 * @param session
+	 *            - The session to fetch the folders with
+	 * @param obj
+	 *            - The IDfSysObject to be examined
+	 * @return List<IDfFolder> containing IDfFolder objects
+	 * @throws DfException
+	 *             the df exception
+	 */
+	public static List<IDfFolder> getObjectFolders(IDfSession session, IDfSysObject obj) throws DfException {
 		List<IDfFolder> folders = new LinkedList<>();
 		for (int x = 0; x < obj.getFolderIdCount(); x++) {
-			IDfFolder folder = obj.getObjectSession().getFolderBySpecification(obj.getFolderId(x).toString());
+			IDfFolder folder = session.getFolderBySpecification(obj.getFolderId(x).toString());
 			if (folder != null)
 				folders.add(folder);
 		}
@@ -1431,12 +1538,9 @@ public class DctmUtils {
 	 * @see {@link IDfSession#getObject(IDfId)}
 	 */
 	public static List<IDfPersistentObject> getObjects(IDfSession session, List<IDfId> ids) throws DfException {
-		List<IDfPersistentObject> objects = new ArrayList<>();
-		for (IDfId id : ids) {
-			IDfPersistentObject obj = session.getObject(id);
-			objects.add(obj);
-		}
-		return objects;
+		BatchFetchResult<IDfPersistentObject> result = fetchObjects(session, ids, IDfPersistentObject.class);
+		result.throwFirstError();
+		return result.getObjects();
 	}
 
 	/**
@@ -1451,14 +1555,9 @@ public class DctmUtils {
 	 *             the df exception
 	 */
 	public static List<IDfSysObject> getSysObjects(IDfSession session, List<IDfId> ids) throws DfException {
-		List<IDfSysObject> objects = new ArrayList<>();
-		for (IDfId id : ids) {
-			IDfPersistentObject obj = session.getObject(id);
-			if (obj instanceof IDfSysObject) {
-				objects.add((IDfSysObject) obj);
-			}
-		}
-		return objects;
+		BatchFetchResult<IDfSysObject> result = fetchObjects(session, ids, IDfSysObject.class);
+		result.throwFirstError();
+		return result.getObjects();
 	}
 
 	/**
@@ -1489,9 +1588,25 @@ public class DctmUtils {
 	 * @return ArrayList of IDfPersistentObject
 	 * @throws DfException
 	 *             the df exception
+	 * @see BulkOperations#getRelatedObjects(List, String, boolean)
 	 */
 	public static List<IDfPersistentObject> getRelatedObjects(IDfPersistentObject object, String relationName, boolean getChildren) throws DfException {
 		List<IDfPersistentObject> relatives = new ArrayList<>();
+		for (IDfId relativeId : getRelatedObjectIds(object, relationName, getChildren)) {
+			IDfPersistentObject relative = object.getSession().getObject(relativeId);
+			if (relative != null) {
+				relatives.add(relative);
+			}
+		}
+		return relatives;
+	}
+
+	/**
+	 * Get the ids of the related objects, see
+	 * {@link #getRelatedObjects(IDfPersistentObject, String, boolean)}.
+	 */
+	static List<IDfId> getRelatedObjectIds(IDfPersistentObject object, String relationName, boolean getChildren) throws DfException {
+		List<IDfId> relativeIds = new ArrayList<>();
 		IDfCollection relations;
 		if (getChildren) {
 			relations = object.getChildRelatives(relationName);
@@ -1502,16 +1617,13 @@ public class DctmUtils {
 			while (relations.next()) {
 				IDfId relativeId = relations.getId(getChildren ? "child_id" : "parent_id");
 				if (relativeId != null) {
-					IDfPersistentObject relative = object.getSession().getObject(relativeId);
-					if (relative != null) {
-						relatives.add(relative);
-					}
+					relativeIds.add(relativeId);
 				}
 			}
 		} finally {
 			DctmUtils.closeCollection(relations);
 		}
-		return relatives;
+		return relativeIds;
 	}
 
 	/**
@@ -1527,8 +1639,9 @@ public class DctmUtils {
 	 */
 	public static String getRepeatingValuesAsString(final IDfSysObject sysObject, final String attributeName) throws DfException {
 		StringBuffer result = new StringBuffer();
-		if (sysObject != null && attributeName != null && sysObject.hasAttr(attributeName) && sysObject.isAttrRepeating(attributeName)) {
-			for (int i = 0; i < sysObject.getValueCount(attributeName); i++) {
+		if (sysObject != null && attributeName != null && isRepeatingAttr(sysObject, attributeName)) {
+			int count = sysObject.getValueCount(attributeName);
+			for (int i = 0; i < count; i++) {
 				result.append(sysObject.getRepeatingString(attributeName, i)).append(", ");
 			}
 		}
@@ -1603,8 +1716,9 @@ public class DctmUtils {
 	public static List<String> getRepeatingValuesAsStringList(final IDfPersistentObject sysObject, final String attributeName) throws DfException {
 		List<String> result = new ArrayList<String>();
 
-		if (sysObject != null && attributeName != null && sysObject.hasAttr(attributeName) && sysObject.isAttrRepeating(attributeName)) {
-			for (int i = 0; i < sysObject.getValueCount(attributeName); i++) {
+		if (sysObject != null && attributeName != null && isRepeatingAttr(sysObject, attributeName)) {
+			int count = sysObject.getValueCount(attributeName);
+			for (int i = 0; i < count; i++) {
 				result.add(sysObject.getRepeatingString(attributeName, i));
 			}
 		}
@@ -1612,6 +1726,15 @@ public class DctmUtils {
 		return result;
 	}
 
+	/**
+	 * Checks if the object has the attribute and it is repeating. Asking the
+	 * object is cheaper than looking up the {@link TypeMetadata} of its type
+	 * for one attribute.
+	 */
+	private static boolean isRepeatingAttr(final IDfTypedObject obj, final String attrName) throws DfException {
+		return obj.hasAttr(attrName) && obj.isAttrRepeating(attrName);
+	}
+
 	/**
 	 * Gets the user privileges.
 	 *
@@ -1683,22 +1806,31 @@ public class DctmUtils {
 	}
 
 	/**
-	 * Gets the value as df time.
+	 * Gets the value as df time. Strings are parsed with
+	 * {@link DateCodec#DEFAULT}, and if that fails leniently with the same
+	 * formats (see {@link #parseDate(String, String...)}).
 	 *
 	 * @param value
 	 *            the value
-	 * @return the value as df time
+	 * @return the value as df time, or null if it is empty or not a date
 	 */
 	public static IDfTime getValueAsDfTime(final Object value) {
 		if (value != null) {
 			if (value instanceof Date) {
 				return new DfTime((Date) value);
 			} else if (value instanceof String) {
-				String str = ((String) value).trim().toLowerCase();
-				Date date = parseDate(str, KNOWN_DATE_FORMATS);
+				String str = (String) value;
+				IDfTime time = DateCodec.DEFAULT.parseTime(str);
+				if (time != null) {
+					return time;
+				}
+				Date date = parseDate(str.trim().toLowerCase(), KNOWN_DATE_FORMATS);
 				if (date != null) {
 					return new DfTime(date);
 				}
+				if (str.trim().length() > 0) {
+					LOGGER.warn("Value \"" + str + "\" is not a date in one of the formats " + Arrays.toString(KNOWN_DATE_FORMATS));
+				}
 			} else if (value instanceof List) {
 				List list = (List) value;
 				if (list.size() > 0 && list.get(0) != null) {
@@ -1723,6 +1855,10 @@ public class DctmUtils {
 			if (value instanceof Double) {
 				return (Double) value;
 			} else if (value instanceof String) {
+				long digits = parseDigits((String) value, false, MAX_EXACT_DIGITS);
+				if (digits >= 0) {
+					return digits;
+				}
 				String str = ((String) value).trim().toLowerCase();
 				return StringUtils.parseDouble(str, -100, STRING_TO_DOUBLE_IGNORED_CHARACTERS);
 				// return Double.parseDouble(str);
@@ -1750,7 +1886,11 @@ public class DctmUtils {
 			if (value instanceof Integer) {
 				return (Integer) value;
 			} else if (value instanceof String) {
-				String str = ((String) value).trim().toLowerCase().replaceAll("\\%", "");
+				long digits = parseDigits((String) value, true, Integer.MAX_VALUE);
+				if (digits >= 0) {
+					return (int) digits;
+				}
+				String str = PERCENT_REMOVER.escape(((String) value).trim().toLowerCase());
 				return StringUtils.parseInt(str, 0, STRING_TO_INT_IGNORED_CHARACTERS);
 				// return Integer.parseInt(str);
 
@@ -1766,6 +1906,47 @@ public class DctmUtils {
 		return 0;
 	}
 
+	/**
+	 * Parses the digits of a number, skipping the characters that
+	 * {@link #getValueAsInt(Object)} and {@link #getValueAsDouble(Object)}
+	 * ignore, without creating strings. Values with other characters are left
+	 * to the full conversion.
+	 *
+	 * @param value
+	 *            the value
+	 * @param integer
+	 *            true to also skip percent signs and stop at a comma, like
+	 *            {@link #getValueAsInt(Object)}
+	 * @param max
+	 *            the largest number to parse
+	 * @return the number, or -1 if the value needs the full conversion
+	 */
+	private static long parseDigits(final String value, final boolean integer, final long max) {
+		int start = 0;
+		int end = value.length();
+		while (start < end && value.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && value.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		long result = -1;
+		for (int i = start; i < end; i++) {
+			char c = value.charAt(i);
+			if (c >= '0' && c <= '9') {
+				result = (result < 0 ? 0 : result * 10) + (c - '0');
+				if (result > max) {
+					return -1;
+				}
+			} else if (c == ',' && integer) {
+				break;
+			} else if (c != '.' && c != '-' && (c != '%' || !integer)) {
+				return -1;
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Gets the value as string.
 	 *
@@ -1879,7 +2060,47 @@ public class DctmUtils {
 	}
 
 	/**
-	 * Safely parses a date with given date formats.
+	 * Executes a DQL query and returns a cursor over the result, which reads
+	 * the rows one at a time instead of collecting them in memory.
+	 *
+	 * @param session
+	 *            the session
+	 * @param dql
+	 *            the dql
+	 * @return the cursor, which must be closed
+	 * @throws DfException
+	 *             the df exception
+	 */
+	public static QueryCursor openQueryCursor(final IDfSession session, final String dql) throws DfException {
+		return openQueryCursor(session, dql, 0);
+	}
+
+	/**
+	 * Executes a DQL query and returns a cursor over the result, which reads
+	 * the rows one at a time instead of collecting them in memory.
+	 *
+	 * @param session
+	 *            the session
+	 * @param dql
+	 *            the dql
+	 * @param batchSize
+	 *            the number of rows DFC fetches from the server at a time.
+	 *            See {@link DfQuery#setBatchSize}. Only used when > 0.
+	 * @return the cursor, which must be closed
+	 * @throws DfException
+	 *             the df exception
+	 */
+	public static QueryCursor openQueryCursor(final IDfSession session, final String dql, final int batchSize) throws DfException {
+		IDfQuery dfQuery = new DfQuery(dql);
+		if (batchSize > 0)
+			dfQuery.setBatchSize(batchSize);
+		return new QueryCursor(dfQuery.execute(session, IDfQuery.DF_QUERY));
+	}
+
+	/**
+	 * Safely parses a date with given date formats. The formats are
+	 * {@link SimpleDateFormat} patterns with its lenient parsing; use
+	 * {@link DateCodec} for strict parsing.
 	 *
 	 * @param dateStr
 	 *            the date str
@@ -1890,13 +2111,12 @@ public class DctmUtils {
 	public static Date parseDate(final String dateStr, final String... formats) {
 		if (dateStr != null && dateStr.trim().length() > 0 && formats != null && formats.length > 0) {
 			for (String format : formats) {
-				try {
-					Date result = parseDateEx(dateStr, format);
+				if (format != null && format.trim().length() > 0) {
+					// Returns null instead of throwing if the format does not match
+					Date result = getDateFormat(format).parse(dateStr, new ParsePosition(0));
 					if (result != null) {
 						return result;
 					}
-				} catch (ParseException e) {
-					// TODO Auto-generated catch block
 				}
 			}
 		}
@@ -1916,13 +2136,33 @@ public class DctmUtils {
 	 */
 	protected static Date parseDateEx(final String dateStr, final String format) throws ParseException {
 		if (dateStr != null && dateStr.trim().length() > 0 && format != null && format.trim().length() > 0) {
-			SimpleDateFormat simpleDateFormat = new SimpleDateFormat(format);
-			return simpleDateFormat.parse(dateStr);
+			return getDateFormat(format).parse(dateStr);
 		}
 
 		return null;
 	}
 
+	/**
+	 * @return The date format of this thread for the pattern, in the current
+	 *         default time zone
+	 */
+	private static SimpleDateFormat getDateFormat(final String format) {
+		Map<String, SimpleDateFormat> formats = DATE_FORMATS.get();
+		SimpleDateFormat dateFormat = formats.get(format);
+		if (dateFormat == null) {
+			dateFormat = new SimpleDateFormat(format);
+			if (formats.size() < MAX_CACHED_DATE_FORMATS) {
+				formats.put(format, dateFormat);
+			}
+		} else {
+			TimeZone zone = TimeZone.getDefault();
+			if (!zone.equals(dateFormat.getTimeZone())) {
+				dateFormat.setTimeZone(zone);
+			}
+		}
+		return dateFormat;
+	}
+
 	/**
 	 * Prepare a given string for use as a value in a DQL query.
 	 * <p>
@@ -1935,7 +2175,7 @@ public class DctmUtils {
 	 */
 	public static String prepareStringForDql(final String string) {
 		if (string != null) {
-			return string.replaceAll("'", "''");
+			return DQL_ESCAPER.escape(string);
 		}
 		return null;
 	}
@@ -2038,7 +2278,7 @@ public class DctmUtils {
 	 */
 	public static String removeDoubleQuotes(final String string) {
 		if (string != null) {
-			return string.replaceAll("\"", "");
+			return DOUBLE_QUOTE_REMOVER.escape(string);
 		}
 		return null;
 	}
@@ -2073,39 +2313,43 @@ public class DctmUtils {
 	public static void setObjectAttribute(final IDfTypedObject obj, final String attrName, final Object value, final boolean truncLengthIfLonger) throws DfException {
 		if (obj != null && attrName != null) {
 			try {
-				if (!obj.isAttrRepeating(attrName)) {
-					setObjectAttributeSingleValue(obj, attrName, value, truncLengthIfLonger);
-				} else {
-					obj.removeAll(attrName);
+				setObjectAttribute(obj, AttributeWriterPlan.forObject(obj), attrName, value, truncLengthIfLonger);
+			} catch (Exception e) {
+				throw new DfException("Error setting value '" + (value != null ? value.toString() : "NULL") + "' to attribute '" + attrName + "'" + e.getMessage(), e);
+			}
+		}
+	}
 
-					if (value != null) {
-						if (value instanceof Collection) {
-							Collection list = (Collection) value;
-							for (Object listValue : list) {
-								appendObjectAttributeRepeatingValue(obj, attrName, listValue, truncLengthIfLonger);
-							}
-						} else if (value instanceof Object[]) {
-							Object[] array = (Object[]) value;
-							for (Object arrayValue : array) {
-								appendObjectAttributeRepeatingValue(obj, attrName, arrayValue, truncLengthIfLonger);
-							}
-						} else if (value instanceof Iterable) {
-							Iterable iterable = (Iterable) value;
-							for (Object listValue : iterable) {
-								appendObjectAttributeRepeatingValue(obj, attrName, listValue, truncLengthIfLonger);
-							}
-						} else {
-							appendObjectAttributeRepeatingValue(obj, attrName, value, truncLengthIfLonger);
-						}
+	private static void setObjectAttribute(final IDfTypedObject obj, final AttributeWriterPlan plan, final String attrName, final Object value, final boolean truncLengthIfLonger)
+			throws DfException {
+		AttributeWriterPlan.Attribute attribute = getAttribute(plan, obj, attrName);
+		if (!attribute.isRepeating()) {
+			attribute.set(obj, value, truncLengthIfLonger);
+		} else {
+			obj.removeAll(attrName);
 
-					} else {
-						setObjectAttributeSingleValue(obj, attrName, (String) null, truncLengthIfLonger);
+			if (value != null) {
+				if (value instanceof Collection) {
+					Collection list = (Collection) value;
+					for (Object listValue : list) {
+						attribute.append(obj, listValue, truncLengthIfLonger);
 					}
-
+				} else if (value instanceof Object[]) {
+					Object[] array = (Object[]) value;
+					for (Object arrayValue : array) {
+						attribute.append(obj, arrayValue, truncLengthIfLonger);
+					}
+				} else if (value instanceof Iterable) {
+					Iterable iterable = (Iterable) value;
+					for (Object listValue : iterable) {
+						attribute.append(obj, listValue, truncLengthIfLonger);
+					}
+				} else {
+					attribute.append(obj, value, truncLengthIfLonger);
 				}
 
-			} catch (Exception e) {
-				throw new DfException("Error setting value '" + (value != null ? value.toString() : "NULL") + "' to attribute '" + attrName + "'" + e.getMessage(), e);
+			} else {
+				attribute.set(obj, null, truncLengthIfLonger);
 			}
 		}
 	}
@@ -2124,9 +2368,19 @@ public class DctmUtils {
 	 */
 	public static void setObjectAttributes(final IDfTypedObject obj, final Map<String, Object> attributes, final boolean truncLengthIfLonger) throws DfException {
 		if (obj != null && attributes != null) {
-			for (String attrName : attributes.keySet()) {
+			AttributeWriterPlan plan = null;
+			for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+				String attrName = attribute.getKey();
 				if (!attrName.startsWith("_")) {
-					setObjectAttribute(obj, attrName, attributes.get(attrName), truncLengthIfLonger);
+					Object value = attribute.getValue();
+					try {
+						if (plan == null) {
+							plan = AttributeWriterPlan.forObject(obj);
+						}
+						setObjectAttribute(obj, plan, attrName, value, truncLengthIfLonger);
+					} catch (Exception e) {
+						throw new DfException("Error setting value '" + (value != null ? value.toString() : "NULL") + "' to attribute '" + attrName + "'" + e.getMessage(), e);
+					}
 				}
 			}
 		}
@@ -2147,38 +2401,38 @@ public class DctmUtils {
 	 *             the df exception
 	 */
 	protected static void setObjectAttributeSingleValue(final IDfTypedObject obj, final String attrName, final Object value, final boolean truncLengthIfLonger) throws DfException {
-		int attrType = obj.getAttrDataType(attrName);
-		switch (attrType) {
-		case 0: // Boolean
-			obj.setBoolean(attrName, getValueAsBoolean(value));
-			break;
-
-		case 1: // Integer
-			obj.setInt(attrName, getValueAsInt(value));
-			break;
-
-		case 2: // String
-			if (truncLengthIfLonger) {
-				IDfAttr attrInfo = getAttributeTypeDefinition(obj, attrName);
-				int maxLength = attrInfo.getLength();
-				obj.setString(attrName, getValueAsString(value, maxLength));
-			} else {
-				obj.setString(attrName, getValueAsString(value));
-			}
-			break;
-
-		case 3: // Id
-			obj.setId(attrName, getValueAsDfId(value));
-			break;
+		getAttribute(AttributeWriterPlan.forObject(obj), obj, attrName).set(obj, value, truncLengthIfLonger);
+	}
 
-		case 4: // Time
-			obj.setTime(attrName, getValueAsDfTime(value));
-			break;
+	/**
+	 * Gets an attribute from the plan, or describes it if the plan does not
+	 * have it.
+	 */
+	private static AttributeWriterPlan.Attribute getAttribute(final AttributeWriterPlan plan, final IDfTypedObject obj, final String attrName) throws DfException {
+		AttributeWriterPlan.Attribute attribute = plan.getAttribute(attrName);
+		return attribute != null ? attribute : AttributeWriterPlan.describe(obj, attrName);
+	}
 
-		case 5: // Double
-			obj.setDouble(attrName, getValueAsDouble(value));
-			break;
-		}
+	/**
+	 * Executes a DQL query and returns the rows as a lazily read stream. The
+	 * stream must be closed (e.g. with try-with-resources) to close the
+	 * underlying collection, unless it is consumed completely.
+	 *
+	 * @param <T>
+	 *            the type of the mapped rows
+	 * @param session
+	 *            the session
+	 * @param dql
+	 *            the dql
+	 * @param mapper
+	 *            maps each row to an object
+	 * @return the stream of mapped rows
+	 * @throws DfException
+	 *             the df exception
+	 * @see QueryCursor#stream(RowMapper)
+	 */
+	public static <T> Stream<T> streamQuery(final IDfSession session, final String dql, final RowMapper<T> mapper) throws DfException {
+		return openQueryCursor(session, dql).stream(mapper);
 	}
 
 	/**
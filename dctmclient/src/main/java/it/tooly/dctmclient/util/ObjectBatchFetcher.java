@@ -0,0 +1,428 @@
+package it.tooly.dctmclient.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.documentum.fc.client.DfQuery;
+import com.documentum.fc.client.IDfCollection;
+import com.documentum.fc.client.IDfEnumeration;
+import com.documentum.fc.client.IDfPersistentObject;
+import com.documentum.fc.client.IDfQuery;
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.IDfId;
+
+import it.tooly.dctmclient.session.SessionLease;
+import it.tooly.dctmclient.session.SessionPool;
+import it.tooly.shared.common.ThreadPools;
+
+/**
+ * Fetches many objects by id with few round-trips. The ids are split in chunks.
+ * For each chunk one query reads the type of the objects from the query type
+ * (see {@link #setQueryType(String)}), and then one
+ * <code>select * from &lt;object type&gt; where r_object_id in (...)</code>
+ * query per object type fetches the objects (see
+ * {@link IDfSession#getObjectsByQuery(String, String)}), so objects of
+ * subtypes get all attributes of their own type. Objects with aspects, whose
+ * aspect attributes are not returned by such a query, and ids that the
+ * queries do not return, for example because the object is not of the query
+ * type, are fetched one by one with {@link IDfSession#getObject(IDfId)}.
+ * <p>
+ * With a {@link SessionPool} the chunks are fetched in parallel, each on its
+ * own leased session. The objects then belong to different sessions of the
+ * pool.
+ */
+public class ObjectBatchFetcher {
+	private static final Logger LOGGER = Logger.getLogger(ObjectBatchFetcher.class);
+
+	/**
+	 * Default number of ids per query. Keeps the DQL well below the statement
+	 * length limits of the supported databases.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 250;
+
+	/**
+	 * Default type to query: all versions of all sysobjects
+	 */
+	public static final String DEFAULT_QUERY_TYPE = "dm_sysobject (all)";
+
+	private static final AtomicInteger FETCH_NR = new AtomicInteger();
+
+	private int chunkSize;
+	private String queryType;
+	private boolean fetchMissingSingly;
+	private int parallelism;
+	private ExecutorService executor;
+	/**
+	 * Whether the query type has the r_aspect_name attribute; cleared when the
+	 * type query fails with it
+	 */
+	private volatile boolean queryAspects = true;
+
+	public ObjectBatchFetcher() {
+		this.chunkSize = DEFAULT_CHUNK_SIZE;
+		this.queryType = DEFAULT_QUERY_TYPE;
+		this.fetchMissingSingly = true;
+		this.parallelism = 4;
+	}
+
+	public int getChunkSize() {
+		return this.chunkSize;
+	}
+
+	/**
+	 * @param chunkSize
+	 *            Maximum number of ids per query
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("Chunk size must be at least 1");
+		this.chunkSize = chunkSize;
+	}
+
+	public String getQueryType() {
+		return this.queryType;
+	}
+
+	/**
+	 * @param queryType
+	 *            The type (and optional "(all)" or "(deleted)" modifiers) to
+	 *            look the objects up in, such as "dm_document (all)". The
+	 *            modifiers are also used for the queries per object type.
+	 */
+	public void setQueryType(String queryType) {
+		if (queryType == null || queryType.trim().isEmpty())
+			throw new IllegalArgumentException("Query type is required");
+		this.queryType = queryType;
+		this.queryAspects = true;
+	}
+
+	public boolean isFetchMissingSingly() {
+		return this.fetchMissingSingly;
+	}
+
+	/**
+	 * @param fetchMissingSingly
+	 *            Whether to fetch ids that are not found in the query type
+	 *            one by one (the default). If false, they are reported as
+	 *            errors.
+	 */
+	public void setFetchMissingSingly(boolean fetchMissingSingly) {
+		this.fetchMissingSingly = fetchMissingSingly;
+	}
+
+	public int getParallelism() {
+		return this.parallelism;
+	}
+
+	/**
+	 * @param parallelism
+	 *            Maximum number of chunks fetched at the same time when
+	 *            fetching with a session pool
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Parallelism must be at least 1");
+		this.parallelism = parallelism;
+	}
+
+	public ExecutorService getExecutor() {
+		return this.executor;
+	}
+
+	/**
+	 * @param executor
+	 *            The executor to fetch the chunks on when fetching with a
+	 *            session pool, which is not shut down by this class; null (the
+	 *            default) to create one per fetch (see
+	 *            {@link ThreadPools#newIoExecutor(String, int)})
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Fetch objects with one session
+	 *
+	 * @param session
+	 *            The session to fetch the objects with
+	 * @param ids
+	 *            The ids of the objects
+	 * @param objType
+	 *            The type of the objects to return; objects of another type are
+	 *            returned as null
+	 * @return The objects in the order of the ids, and the errors per id
+	 */
+	public <T extends IDfPersistentObject> BatchFetchResult<T> fetch(IDfSession session, List<IDfId> ids,
+			Class<T> objType) {
+		Map<String, IDfPersistentObject> fetched = new HashMap<>(ids.size() * 2);
+		Map<String, DfException> errors = new HashMap<>();
+		for (List<IDfId> chunk : chunk(ids)) {
+			fetchChunk(session, chunk, fetched, errors);
+		}
+		return createResult(ids, objType, fetched, errors);
+	}
+
+	/**
+	 * Fetch objects in parallel with sessions from a session pool
+	 *
+	 * @param pool
+	 *            The pool to lease the sessions from
+	 * @param ids
+	 *            The ids of the objects
+	 * @param objType
+	 *            The type of the objects to return; objects of another type are
+	 *            returned as null
+	 * @return The objects in the order of the ids, and the errors per id
+	 */
+	public <T extends IDfPersistentObject> BatchFetchResult<T> fetch(final SessionPool pool, List<IDfId> ids,
+			Class<T> objType) {
+		final List<List<IDfId>> chunks = chunk(ids);
+		final Map<String, IDfPersistentObject> fetched = new HashMap<>(ids.size() * 2);
+		final Map<String, DfException> errors = new HashMap<>();
+		int nrWorkers = Math.min(this.parallelism, chunks.size());
+		if (nrWorkers <= 1) {
+			for (List<IDfId> chunk : chunks) {
+				fetchChunk(pool, chunk, fetched, errors);
+			}
+			return createResult(ids, objType, fetched, errors);
+		}
+
+		// Each worker fetches the next chunk until all chunks are fetched, so
+		// no more than nrWorkers sessions are leased at the same time
+		final AtomicInteger nextChunk = new AtomicInteger();
+		Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				int index;
+				while ((index = nextChunk.getAndIncrement()) < chunks.size()) {
+					List<IDfId> chunk = chunks.get(index);
+					Map<String, IDfPersistentObject> objects = new HashMap<>(chunk.size() * 2);
+					Map<String, DfException> chunkErrors = new HashMap<>();
+					try {
+						fetchChunk(pool, chunk, objects, chunkErrors);
+					} catch (RuntimeException e) {
+						DfException error = new DfException("Could not fetch chunk of objects", e);
+						for (IDfId id : chunk) {
+							if (!objects.containsKey(id.getId()))
+								chunkErrors.put(id.getId(), error);
+						}
+					}
+					synchronized (fetched) {
+						fetched.putAll(objects);
+						errors.putAll(chunkErrors);
+					}
+				}
+			}
+		};
+
+		ExecutorService workers = this.executor != null ? this.executor
+				: ThreadPools.newIoExecutor("ObjectBatchFetcher-" + FETCH_NR.incrementAndGet(), nrWorkers);
+		List<Future<?>> futures = new ArrayList<>(nrWorkers);
+		DfException failure = null;
+		try {
+			for (int i = 0; i < nrWorkers; i++) {
+				futures.add(workers.submit(worker));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					failure = new DfException("Could not fetch chunk of objects", e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			for (Future<?> future : futures) {
+				future.cancel(true);
+			}
+			failure = new DfException("Interrupted while fetching objects", e);
+		} finally {
+			if (workers != this.executor)
+				workers.shutdownNow();
+		}
+		synchronized (fetched) {
+			if (failure != null) {
+				for (IDfId id : ids) {
+					if (!fetched.containsKey(id.getId()) && !errors.containsKey(id.getId()))
+						errors.put(id.getId(), failure);
+				}
+			}
+			return createResult(ids, objType, fetched, errors);
+		}
+	}
+
+	private void fetchChunk(SessionPool pool, List<IDfId> chunk, Map<String, IDfPersistentObject> fetched,
+			Map<String, DfException> errors) {
+		try (SessionLease lease = pool.lease()) {
+			try {
+				fetchChunk(lease.getSession(), chunk, fetched, errors);
+			} catch (RuntimeException e) {
+				lease.invalidate();
+				throw e;
+			}
+		} catch (DfException e) {
+			for (IDfId id : chunk) {
+				errors.put(id.getId(), e);
+			}
+		}
+	}
+
+	private void fetchChunk(IDfSession session, List<IDfId> chunk, Map<String, IDfPersistentObject> fetched,
+			Map<String, DfException> errors) {
+		Map<String, Boolean> found = new HashMap<>(chunk.size() * 2);
+		try {
+			Map<String, List<IDfId>> idsByType = queryTypes(session, chunk, found);
+			for (Map.Entry<String, List<IDfId>> entry : idsByType.entrySet()) {
+				String objectType = entry.getKey();
+				IDfEnumeration objects = session.getObjectsByQuery(buildQuery(objectType + getTypeModifiers(), entry.getValue()),
+						objectType);
+				while (objects.hasMoreElements()) {
+					IDfPersistentObject object = (IDfPersistentObject) objects.nextElement();
+					fetched.put(object.getObjectId().getId(), object);
+				}
+			}
+		} catch (DfException e) {
+			LOGGER.warn("Could not fetch a chunk of " + chunk.size() + " objects, fetching them one by one", e);
+			found.clear();
+		}
+		for (IDfId id : chunk) {
+			if (fetched.containsKey(id.getId()))
+				continue;
+			if (!this.fetchMissingSingly && !found.containsKey(id.getId())) {
+				errors.put(id.getId(), new DfException("Object " + id.getId() + " not found in " + this.queryType));
+				continue;
+			}
+			try {
+				fetched.put(id.getId(), session.getObject(id));
+			} catch (DfException e) {
+				errors.put(id.getId(), e);
+			}
+		}
+	}
+
+	/**
+	 * Read the object type of the ids of a chunk
+	 *
+	 * @param found
+	 *            Gets the ids that the query type has
+	 * @return The ids per object type, without the ids of objects with
+	 *         aspects
+	 */
+	private Map<String, List<IDfId>> queryTypes(IDfSession session, List<IDfId> chunk, Map<String, Boolean> found)
+			throws DfException {
+		boolean aspects = this.queryAspects;
+		IDfCollection collection;
+		try {
+			collection = new DfQuery(buildTypeQuery(chunk, aspects)).execute(session, IDfQuery.DF_READ_QUERY);
+		} catch (DfException e) {
+			if (!aspects)
+				throw e;
+			LOGGER.debug("Could not query r_aspect_name of " + this.queryType + ", querying without it", e);
+			this.queryAspects = false;
+			aspects = false;
+			collection = new DfQuery(buildTypeQuery(chunk, aspects)).execute(session, IDfQuery.DF_READ_QUERY);
+		}
+		Map<String, List<IDfId>> idsByType = new LinkedHashMap<>();
+		try {
+			while (collection.next()) {
+				IDfId id = collection.getId("r_object_id");
+				found.put(id.getId(), Boolean.TRUE);
+				if (aspects && collection.getValueCount("r_aspect_name") > 0
+						&& collection.getRepeatingString("r_aspect_name", 0).length() > 0)
+					continue;
+				String objectType = collection.getString("r_object_type");
+				List<IDfId> typeIds = idsByType.get(objectType);
+				if (typeIds == null) {
+					typeIds = new ArrayList<>();
+					idsByType.put(objectType, typeIds);
+				}
+				typeIds.add(id);
+			}
+		} finally {
+			collection.close();
+		}
+		return idsByType;
+	}
+
+	/**
+	 * @return The modifiers of the query type, such as " (all)", or an empty
+	 *         string
+	 */
+	private String getTypeModifiers() {
+		int index = this.queryType.indexOf('(');
+		return index < 0 ? "" : " " + this.queryType.substring(index).trim();
+	}
+
+	private String buildTypeQuery(List<IDfId> chunk, boolean aspects) {
+		StringBuilder dql = new StringBuilder(96 + chunk.size() * 20);
+		dql.append("select r_object_id, r_object_type");
+		if (aspects)
+			dql.append(", r_aspect_name");
+		dql.append(" from ").append(this.queryType);
+		return appendIdCondition(dql, chunk).toString();
+	}
+
+	private String buildQuery(String type, List<IDfId> chunk) {
+		StringBuilder dql = new StringBuilder(64 + chunk.size() * 20);
+		dql.append("select * from ").append(type);
+		return appendIdCondition(dql, chunk).toString();
+	}
+
+	private static StringBuilder appendIdCondition(StringBuilder dql, List<IDfId> chunk) {
+		dql.append(" where r_object_id in (");
+		for (int i = 0; i < chunk.size(); i++) {
+			if (i > 0)
+				dql.append(',');
+			DctmUtils.encodeForDql(chunk.get(i).getId(), dql.append('\'')).append('\'');
+		}
+		return dql.append(')');
+	}
+
+	private List<List<IDfId>> chunk(List<IDfId> ids) {
+		List<List<IDfId>> chunks = new ArrayList<>(ids.size() / this.chunkSize + 1);
+		List<IDfId> chunk = null;
+		Map<String, Boolean> seen = new HashMap<>(ids.size() * 2);
+		for (IDfId id : ids) {
+			// Fetch every id once, even if it is requested more than once
+			if (seen.put(id.getId(), Boolean.TRUE) != null)
+				continue;
+			if (chunk == null || chunk.size() == this.chunkSize) {
+				chunk = new ArrayList<>(this.chunkSize);
+				chunks.add(chunk);
+			}
+			chunk.add(id);
+		}
+		return chunks;
+	}
+
+	private static <T extends IDfPersistentObject> BatchFetchResult<T> createResult(List<IDfId> ids, Class<T> objType,
+			Map<String, IDfPersistentObject> fetched, Map<String, DfException> errors) {
+		List<T> objects = new ArrayList<>(ids.size());
+		Map<IDfId, DfException> resultErrors = BatchFetchResult.newErrorMap();
+		for (IDfId id : ids) {
+			IDfPersistentObject object = fetched.get(id.getId());
+			if (objType.isInstance(object)) {
+				objects.add(objType.cast(object));
+			} else {
+				objects.add(null);
+				DfException error = errors.get(id.getId());
+				if (error != null) {
+					resultErrors.put(id, error);
+				} else if (object != null) {
+					LOGGER.info("Not returning object " + id.getId() + " because it's not a " + objType.getSimpleName());
+				}
+			}
+		}
+		return new BatchFetchResult<>(new ArrayList<>(ids), objects, resultErrors);
+	}
+}
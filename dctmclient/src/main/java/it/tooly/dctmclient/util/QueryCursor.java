@@ -0,0 +1,358 @@
+package it.tooly.dctmclient.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.log4j.Logger;
+
+import com.documentum.fc.client.IDfCollection;
+import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.DfRuntimeException;
+import com.documentum.fc.common.IDfAttr;
+import com.documentum.fc.common.IDfId;
+import com.documentum.fc.common.IDfTime;
+import com.documentum.fc.common.IDfValue;
+
+/**
+ * A forward-only cursor over the rows of an {@link IDfCollection}. Rows are
+ * pulled from the collection one at a time when {@link #next()} is called, so
+ * only the current row (and the batch DFC fetches from the server) is held in
+ * memory, however large the result is.
+ * <p>
+ * The columns are resolved once, from the first row, after which values can
+ * be read by column index or name with the typed getters. The collection is
+ * closed when the last row has been read or when the cursor is closed,
+ * whichever comes first, so the normal way of using a cursor is:
+ *
+ * <pre>
+ * try (QueryCursor cursor = DctmUtils.openQueryCursor(session, dql)) {
+ * 	while (cursor.next()) {
+ * 		String name = cursor.getString(0);
+ * 		...
+ * 	}
+ * }
+ * </pre>
+ *
+ * A cursor is not thread-safe.
+ */
+public class QueryCursor implements AutoCloseable {
+	private static final Logger LOGGER = Logger.getLogger(QueryCursor.class);
+
+	private final IDfCollection collection;
+	private String[] columnNames;
+	private boolean[] repeating;
+	private int[] dataTypes;
+	private Map<String, Integer> columnIndexes;
+	private boolean closed;
+	private long rowCount;
+
+	/**
+	 * Create a cursor over a collection. The cursor takes ownership of the
+	 * collection and will close it.
+	 *
+	 * @param collection
+	 *            The collection; may be null for an empty result
+	 */
+	public QueryCursor(IDfCollection collection) {
+		this.collection = collection;
+		this.closed = collection == null;
+		this.rowCount = 0;
+	}
+
+	/**
+	 * Move to the next row. When there are no more rows, the collection is
+	 * closed.
+	 *
+	 * @return true if the cursor is on a new row, false if there are no more
+	 *         rows
+	 * @throws DfException
+	 */
+	public boolean next() throws DfException {
+		if (this.closed)
+			return false;
+		boolean hasNext;
+		try {
+			hasNext = this.collection.next();
+		} catch (DfException e) {
+			close();
+			throw e;
+		}
+		if (!hasNext) {
+			close();
+			return false;
+		}
+		if (this.columnNames == null) {
+			resolveColumns();
+		}
+		this.rowCount++;
+		return true;
+	}
+
+	private void resolveColumns() throws DfException {
+		int nrColumns = this.collection.getAttrCount();
+		this.columnNames = new String[nrColumns];
+		this.repeating = new boolean[nrColumns];
+		this.dataTypes = new int[nrColumns];
+		this.columnIndexes = new HashMap<>(nrColumns * 2);
+		for (int i = 0; i < nrColumns; i++) {
+			IDfAttr attr = this.collection.getAttr(i);
+			this.columnNames[i] = attr.getName();
+			this.repeating[i] = attr.isRepeating();
+			this.dataTypes[i] = attr.getDataType();
+			this.columnIndexes.put(attr.getName(), i);
+		}
+	}
+
+	private void checkRow() {
+		if (this.columnNames == null)
+			throw new IllegalStateException("Cursor is not on a row; call next() first");
+	}
+
+	/**
+	 * @return The number of columns. Only known once the cursor is on a row.
+	 */
+	public int getColumnCount() {
+		checkRow();
+		return this.columnNames.length;
+	}
+
+	public String getColumnName(int column) {
+		checkRow();
+		return this.columnNames[column];
+	}
+
+	/**
+	 * @return The names of the columns, in query order. The array must not be
+	 *         modified.
+	 */
+	public String[] getColumnNames() {
+		checkRow();
+		return this.columnNames;
+	}
+
+	public boolean isRepeating(int column) {
+		checkRow();
+		return this.repeating[column];
+	}
+
+	/**
+	 * @return The data type of a column, one of the IDfAttr.DM_* constants
+	 */
+	public int getDataType(int column) {
+		checkRow();
+		return this.dataTypes[column];
+	}
+
+	/**
+	 * @param name
+	 *            Column name
+	 * @return The index of the column, or -1 if there is no such column
+	 */
+	public int getColumnIndex(String name) {
+		checkRow();
+		Integer index = this.columnIndexes.get(name);
+		return index == null ? -1 : index.intValue();
+	}
+
+	private String name(int column) {
+		checkRow();
+		return this.columnNames[column];
+	}
+
+	private int index(String name) {
+		int index = getColumnIndex(name);
+		if (index < 0)
+			throw new IllegalArgumentException("Unknown column " + name);
+		return index;
+	}
+
+	public String getString(int column) throws DfException {
+		return this.collection.getString(name(column));
+	}
+
+	public String getString(String name) throws DfException {
+		return getString(index(name));
+	}
+
+	public int getInt(int column) throws DfException {
+		return this.collection.getInt(name(column));
+	}
+
+	public int getInt(String name) throws DfException {
+		return getInt(index(name));
+	}
+
+	public double getDouble(int column) throws DfException {
+		return this.collection.getDouble(name(column));
+	}
+
+	public double getDouble(String name) throws DfException {
+		return getDouble(index(name));
+	}
+
+	public boolean getBoolean(int column) throws DfException {
+		return this.collection.getBoolean(name(column));
+	}
+
+	public boolean getBoolean(String name) throws DfException {
+		return getBoolean(index(name));
+	}
+
+	public IDfTime getTime(int column) throws DfException {
+		return this.collection.getTime(name(column));
+	}
+
+	public IDfTime getTime(String name) throws DfException {
+		return getTime(index(name));
+	}
+
+	public IDfId getId(int column) throws DfException {
+		return this.collection.getId(name(column));
+	}
+
+	public IDfId getId(String name) throws DfException {
+		return getId(index(name));
+	}
+
+	public IDfValue getValue(int column) throws DfException {
+		return this.collection.getValue(name(column));
+	}
+
+	public IDfValue getValue(String name) throws DfException {
+		return getValue(index(name));
+	}
+
+	public int getValueCount(int column) throws DfException {
+		return this.collection.getValueCount(name(column));
+	}
+
+	public String getRepeatingString(int column, int valueIndex) throws DfException {
+		return this.collection.getRepeatingString(name(column), valueIndex);
+	}
+
+	public IDfValue getRepeatingValue(int column, int valueIndex) throws DfException {
+		return this.collection.getRepeatingValue(name(column), valueIndex);
+	}
+
+	/**
+	 * @return The value of a column as a String; the values of a repeating
+	 *         column are joined with the separator
+	 */
+	public String getAllRepeatingStrings(int column, String separator) throws DfException {
+		return this.collection.getAllRepeatingStrings(name(column), separator);
+	}
+
+	/**
+	 * @return The value of a column as a String, with the values of repeating
+	 *         columns separated by commas (as in
+	 *         {@link DctmUtils#getMapOfPropertiesFromCollection(IDfCollection)})
+	 */
+	public String getDisplayString(int column) throws DfException {
+		checkRow();
+		if (this.repeating[column])
+			return this.collection.getAllRepeatingStrings(this.columnNames[column], ",");
+		return this.collection.getString(this.columnNames[column]);
+	}
+
+	/**
+	 * @return The current row as an array of Strings (see
+	 *         {@link #getDisplayString(int)})
+	 */
+	public String[] toStringArray() throws DfException {
+		String[] values = new String[getColumnCount()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = getDisplayString(i);
+		}
+		return values;
+	}
+
+	/**
+	 * @return The current row as a map of column names and Strings (see
+	 *         {@link #getDisplayString(int)})
+	 */
+	public Map<String, String> toStringMap() throws DfException {
+		Map<String, String> values = new HashMap<>(getColumnCount() * 2);
+		for (int i = 0; i < this.columnNames.length; i++) {
+			values.put(this.columnNames[i], getDisplayString(i));
+		}
+		return values;
+	}
+
+	/**
+	 * @return The underlying collection, positioned on the current row
+	 */
+	public IDfCollection getCollection() {
+		return this.collection;
+	}
+
+	/**
+	 * @return The number of rows read so far
+	 */
+	public long getRowCount() {
+		return this.rowCount;
+	}
+
+	public boolean isClosed() {
+		return this.closed;
+	}
+
+	/**
+	 * Close the collection. Closing a cursor more than once has no effect.
+	 */
+	@Override
+	public void close() {
+		if (this.closed)
+			return;
+		this.closed = true;
+		try {
+			this.collection.close();
+		} catch (DfException e) {
+			LOGGER.warn("Could not close collection", e);
+		}
+	}
+
+	/**
+	 * Get a sequential stream of the remaining rows, mapped with the given
+	 * mapper. Rows are only read from the collection when the stream pulls
+	 * them. Closing the stream closes this cursor, so use the stream in a
+	 * try-with-resources block unless it is always consumed completely.
+	 * Exceptions of the mapper, the collection or the stream operations close
+	 * the cursor; a {@link DfException} is rethrown as a
+	 * {@link DfRuntimeException}, other exceptions as they are.
+	 *
+	 * @param mapper
+	 *            Maps each row to an object
+	 * @return The stream of mapped rows
+	 */
+	public <T> Stream<T> stream(final RowMapper<T> mapper) {
+		Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE,
+				Spliterator.ORDERED) {
+			@Override
+			public boolean tryAdvance(Consumer<? super T> action) {
+				try {
+					if (!next())
+						return false;
+					action.accept(mapper.mapRow(QueryCursor.this));
+					return true;
+				} catch (DfException e) {
+					close();
+					throw new DfRuntimeException("Could not read query result after row " + getRowCount(), e);
+				} catch (RuntimeException e) {
+					close();
+					throw e;
+				}
+			}
+		};
+		return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+			@Override
+			public void run() {
+				close();
+			}
+		});
+	}
+}
@@ -0,0 +1,633 @@
+package it.tooly.dctmclient.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.IDfAttr;
+import com.documentum.fc.common.IDfTime;
+
+/**
+ * An in-memory, column oriented query result. The columns are resolved once
+ * per query and the values are stored per column in primitive arrays: int,
+ * double and boolean columns as such, time columns as milliseconds since the
+ * epoch and string and id columns as codes into a dictionary that is shared by
+ * all columns, so a value that occurs in many rows is stored once. The
+ * strings of double, boolean and time values are formatted when they are read,
+ * with one format per column that is checked against the text DFC gives while
+ * the rows are read, so they are the same as those of
+ * {@link DctmUtils#executeQueryReturnListOfMaps}; only a column with a value
+ * that DFC formats differently keeps the DFC texts as dictionary codes.
+ * Repeating columns store all values of all rows in one array, with an offset
+ * per row.
+ * <p>
+ * Compared to a list of maps this needs no objects per row or cell. Rows can
+ * be read directly with the getters that take a row and column index, or
+ * through a {@link Row} view. Iterating with {@link #iterator()} reuses one
+ * {@link Row} instance (a flyweight), so rows must not be kept between
+ * iterations; use {@link #getRow(int)} to get a row view of your own.
+ * <p>
+ * A query result is immutable after it has been read and can be shared
+ * between threads.
+ */
+public class QueryResult implements Iterable<QueryResult.Row> {
+
+	/**
+	 * Time value used for empty (null) dates
+	 */
+	public static final long NULL_TIME = DateCodec.NULL_TIME;
+
+	/**
+	 * Dictionary code of a null string
+	 */
+	private static final int NULL_CODE = -1;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final Column[] columns;
+	private final Map<String, Integer> columnIndexes;
+	private final String[] dictionary;
+	private final int rowCount;
+
+	private QueryResult(Column[] columns, String[] dictionary, int rowCount) {
+		this.columns = columns;
+		this.dictionary = dictionary;
+		this.rowCount = rowCount;
+		this.columnIndexes = new HashMap<>(columns.length * 2);
+		for (int i = 0; i < columns.length; i++) {
+			this.columnIndexes.put(columns[i].name, i);
+		}
+	}
+
+	/**
+	 * Read all remaining rows of a cursor. The cursor is exhausted (and thereby
+	 * closed) afterwards.
+	 *
+	 * @param cursor
+	 *            The cursor to read
+	 * @return The query result
+	 * @throws DfException
+	 */
+	public static QueryResult read(QueryCursor cursor) throws DfException {
+		Column[] columns = null;
+		Map<String, Integer> dictionaryCodes = new HashMap<>();
+		List<String> dictionary = new ArrayList<>();
+		int rowCount = 0;
+		while (cursor.next()) {
+			if (columns == null) {
+				columns = new Column[cursor.getColumnCount()];
+				for (int c = 0; c < columns.length; c++) {
+					columns[c] = new Column(cursor.getColumnName(c), cursor.getDataType(c), cursor.isRepeating(c));
+				}
+			}
+			for (int c = 0; c < columns.length; c++) {
+				columns[c].read(cursor, c, dictionaryCodes, dictionary);
+			}
+			rowCount++;
+		}
+		if (columns == null) {
+			columns = new Column[0];
+		}
+		for (Column column : columns) {
+			column.trim(rowCount);
+		}
+		return new QueryResult(columns, dictionary.toArray(new String[dictionary.size()]), rowCount);
+	}
+
+	public int getRowCount() {
+		return this.rowCount;
+	}
+
+	/**
+	 * @return The number of columns; 0 if the query returned no rows
+	 */
+	public int getColumnCount() {
+		return this.columns.length;
+	}
+
+	public String getColumnName(int column) {
+		return this.columns[column].name;
+	}
+
+	/**
+	 * @return The data type of a column, one of the IDfAttr.DM_* constants
+	 */
+	public int getDataType(int column) {
+		return this.columns[column].dataType;
+	}
+
+	public boolean isRepeating(int column) {
+		return this.columns[column].repeating;
+	}
+
+	/**
+	 * @param name
+	 *            Column name
+	 * @return The index of the column, or -1 if there is no such column
+	 */
+	public int getColumnIndex(String name) {
+		Integer index = this.columnIndexes.get(name);
+		return index == null ? -1 : index.intValue();
+	}
+
+	/**
+	 * @return The number of values of a cell; always 1 for single columns
+	 */
+	public int getValueCount(int row, int column) {
+		return this.columns[column].valueCount(row);
+	}
+
+	public String getString(int row, int column) {
+		return getRepeatingString(row, column, 0);
+	}
+
+	/**
+	 * @return A value as a String, as DFC formats it (see
+	 *         {@link com.documentum.fc.client.IDfTypedObject#getString(String)})
+	 */
+	public String getRepeatingString(int row, int column, int valueIndex) {
+		Column col = this.columns[column];
+		int position = col.position(row, valueIndex);
+		switch (col.dataType) {
+		case IDfAttr.DM_STRING:
+		case IDfAttr.DM_ID:
+			return decode(col.ints[position]);
+		case IDfAttr.DM_INTEGER:
+			return Integer.toString(col.ints[position]);
+		case IDfAttr.DM_DOUBLE:
+		case IDfAttr.DM_BOOLEAN:
+		case IDfAttr.DM_TIME:
+			return col.texts != null ? decode(col.texts[position]) : col.format(position);
+		default:
+			return null;
+		}
+	}
+
+	private String decode(int code) {
+		return code == NULL_CODE ? null : this.dictionary[code];
+	}
+
+	/**
+	 * @return The value of a cell as a String, with the values of repeating
+	 *         columns separated by commas (like
+	 *         {@link DctmUtils#getMapOfPropertiesFromCollection})
+	 */
+	public String getDisplayString(int row, int column) {
+		if (!this.columns[column].repeating)
+			return getString(row, column);
+		int count = getValueCount(row, column);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				sb.append(',');
+			sb.append(getRepeatingString(row, column, i));
+		}
+		return sb.toString();
+	}
+
+	public int getInt(int row, int column) {
+		return getRepeatingInt(row, column, 0);
+	}
+
+	public int getRepeatingInt(int row, int column, int valueIndex) {
+		Column col = this.columns[column].checkType(IDfAttr.DM_INTEGER);
+		return col.ints[col.position(row, valueIndex)];
+	}
+
+	public double getDouble(int row, int column) {
+		return getRepeatingDouble(row, column, 0);
+	}
+
+	public double getRepeatingDouble(int row, int column, int valueIndex) {
+		Column col = this.columns[column];
+		if (col.dataType == IDfAttr.DM_INTEGER)
+			return col.ints[col.position(row, valueIndex)];
+		col.checkType(IDfAttr.DM_DOUBLE);
+		return col.doubles[col.position(row, valueIndex)];
+	}
+
+	public boolean getBoolean(int row, int column) {
+		return getRepeatingBoolean(row, column, 0);
+	}
+
+	public boolean getRepeatingBoolean(int row, int column, int valueIndex) {
+		Column col = this.columns[column].checkType(IDfAttr.DM_BOOLEAN);
+		return col.booleans[col.position(row, valueIndex)];
+	}
+
+	/**
+	 * @return The time in milliseconds since the epoch, or {@link #NULL_TIME}
+	 *         for an empty date
+	 */
+	public long getTimeMillis(int row, int column) {
+		return getRepeatingTimeMillis(row, column, 0);
+	}
+
+	public long getRepeatingTimeMillis(int row, int column, int valueIndex) {
+		Column col = this.columns[column].checkType(IDfAttr.DM_TIME);
+		return col.longs[col.position(row, valueIndex)];
+	}
+
+	/**
+	 * @return The date, or null for an empty date
+	 */
+	public Date getDate(int row, int column) {
+		long time = getTimeMillis(row, column);
+		return time == NULL_TIME ? null : new Date(time);
+	}
+
+	/**
+	 * @return A new view of a row
+	 */
+	public Row getRow(int row) {
+		Row view = new Row();
+		view.moveTo(row);
+		return view;
+	}
+
+	/**
+	 * Iterate over the rows. The iterator returns the same {@link Row}
+	 * instance for every row.
+	 */
+	@Override
+	public Iterator<Row> iterator() {
+		return new Iterator<Row>() {
+			private final Row row = new Row();
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return this.next < QueryResult.this.rowCount;
+			}
+
+			@Override
+			public Row next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				this.row.moveTo(this.next++);
+				return this.row;
+			}
+		};
+	}
+
+	/**
+	 * Convert this result to the row maps returned by
+	 * {@link DctmUtils#executeQueryReturnListOfMaps}. Only use this for small
+	 * results or for compatibility with code that needs maps.
+	 */
+	public List<Map<String, String>> toListOfMaps() {
+		List<Map<String, String>> rows = new ArrayList<>(this.rowCount);
+		for (int r = 0; r < this.rowCount; r++) {
+			Map<String, String> map = new HashMap<>(this.columns.length * 2);
+			for (int c = 0; c < this.columns.length; c++) {
+				map.put(this.columns[c].name, getDisplayString(r, c));
+			}
+			rows.add(map);
+		}
+		return rows;
+	}
+
+	/**
+	 * A view of one row of a {@link QueryResult}. It holds no values itself;
+	 * all getters read from the columns of the result.
+	 */
+	public final class Row {
+		private int row;
+
+		private Row() {
+		}
+
+		private void moveTo(int row) {
+			if (row < 0 || row >= QueryResult.this.rowCount)
+				throw new IndexOutOfBoundsException("Row " + row + " of " + QueryResult.this.rowCount);
+			this.row = row;
+		}
+
+		public int getRowIndex() {
+			return this.row;
+		}
+
+		private int index(String name) {
+			int index = getColumnIndex(name);
+			if (index < 0)
+				throw new IllegalArgumentException("Unknown column " + name);
+			return index;
+		}
+
+		public String getString(int column) {
+			return QueryResult.this.getString(this.row, column);
+		}
+
+		public String getString(String name) {
+			return getString(index(name));
+		}
+
+		public String getDisplayString(int column) {
+			return QueryResult.this.getDisplayString(this.row, column);
+		}
+
+		public String getDisplayString(String name) {
+			return getDisplayString(index(name));
+		}
+
+		public int getInt(int column) {
+			return QueryResult.this.getInt(this.row, column);
+		}
+
+		public int getInt(String name) {
+			return getInt(index(name));
+		}
+
+		public double getDouble(int column) {
+			return QueryResult.this.getDouble(this.row, column);
+		}
+
+		public double getDouble(String name) {
+			return getDouble(index(name));
+		}
+
+		public boolean getBoolean(int column) {
+			return QueryResult.this.getBoolean(this.row, column);
+		}
+
+		public boolean getBoolean(String name) {
+			return getBoolean(index(name));
+		}
+
+		public long getTimeMillis(int column) {
+			return QueryResult.this.getTimeMillis(this.row, column);
+		}
+
+		public long getTimeMillis(String name) {
+			return getTimeMillis(index(name));
+		}
+
+		public Date getDate(int column) {
+			return QueryResult.this.getDate(this.row, column);
+		}
+
+		public Date getDate(String name) {
+			return getDate(index(name));
+		}
+
+		public int getValueCount(int column) {
+			return QueryResult.this.getValueCount(this.row, column);
+		}
+
+		public String getRepeatingString(int column, int valueIndex) {
+			return QueryResult.this.getRepeatingString(this.row, column, valueIndex);
+		}
+	}
+
+	/**
+	 * The values of one column. Only the array that matches the data type is
+	 * used; string and id values are stored as dictionary codes in
+	 * {@link #ints}. Double, boolean and time values are formatted with
+	 * {@link #format(int)}, unless the column has {@link #texts}.
+	 */
+	private static final class Column {
+		private final String name;
+		private final int dataType;
+		private final boolean repeating;
+		private int[] ints;
+		private double[] doubles;
+		private boolean[] booleans;
+		private long[] longs;
+		/**
+		 * The DFC text of each double, boolean or time value, as dictionary
+		 * codes; only if DFC formatted a value of the column differently than
+		 * {@link #format(int)}
+		 */
+		private int[] texts;
+		/** The DFC text of true and false, or of the null date */
+		private String trueText;
+		private String falseText;
+		private String nullText;
+		/**
+		 * For repeating columns: the position of the first value of each row,
+		 * plus the end position of the last row
+		 */
+		private int[] offsets;
+		private int rowsRead;
+		private int size;
+
+		private Column(String name, int dataType, boolean repeating) {
+			this.name = name;
+			this.dataType = dataType;
+			this.repeating = repeating;
+			this.rowsRead = 0;
+			this.size = 0;
+			switch (dataType) {
+			case IDfAttr.DM_DOUBLE:
+				this.doubles = new double[INITIAL_CAPACITY];
+				break;
+			case IDfAttr.DM_BOOLEAN:
+				this.booleans = new boolean[INITIAL_CAPACITY];
+				break;
+			case IDfAttr.DM_TIME:
+				this.longs = new long[INITIAL_CAPACITY];
+				break;
+			default:
+				this.ints = new int[INITIAL_CAPACITY];
+				break;
+			}
+			if (repeating) {
+				this.offsets = new int[INITIAL_CAPACITY];
+			}
+		}
+
+		private Column checkType(int type) {
+			if (this.dataType != type)
+				throw new IllegalStateException("Column " + this.name + " has data type " + this.dataType
+						+ ", not " + type);
+			return this;
+		}
+
+		private int position(int row, int valueIndex) {
+			if (!this.repeating) {
+				if (valueIndex != 0)
+					throw new IndexOutOfBoundsException("Column " + this.name + " is not repeating");
+				return row;
+			}
+			int position = this.offsets[row] + valueIndex;
+			if (valueIndex < 0 || position >= this.offsets[row + 1])
+				throw new IndexOutOfBoundsException("Value " + valueIndex + " of " + valueCount(row));
+			return position;
+		}
+
+		private int valueCount(int row) {
+			return this.repeating ? this.offsets[row + 1] - this.offsets[row] : 1;
+		}
+
+		private void read(QueryCursor cursor, int column, Map<String, Integer> dictionaryCodes,
+				List<String> dictionary) throws DfException {
+			if (!this.repeating) {
+				ensureCapacity(this.size + 1);
+				readValue(cursor, column, -1, dictionaryCodes, dictionary);
+				return;
+			}
+			int count = cursor.getValueCount(column);
+			if (this.rowsRead + 2 > this.offsets.length) {
+				this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+			}
+			ensureCapacity(this.size + count);
+			for (int i = 0; i < count; i++) {
+				readValue(cursor, column, i, dictionaryCodes, dictionary);
+			}
+			this.rowsRead++;
+			this.offsets[this.rowsRead] = this.size;
+		}
+
+		/**
+		 * Read one value and store it at the end of the column
+		 *
+		 * @param valueIndex
+		 *            Index of the value of a repeating column, or -1 for a
+		 *            single value
+		 */
+		private void readValue(QueryCursor cursor, int column, int valueIndex, Map<String, Integer> dictionaryCodes,
+				List<String> dictionary) throws DfException {
+			switch (this.dataType) {
+			case IDfAttr.DM_INTEGER:
+				this.ints[this.size] = valueIndex < 0 ? cursor.getInt(column)
+						: cursor.getRepeatingValue(column, valueIndex).asInteger();
+				break;
+			case IDfAttr.DM_DOUBLE:
+				this.doubles[this.size] = valueIndex < 0 ? cursor.getDouble(column)
+						: cursor.getRepeatingValue(column, valueIndex).asDouble();
+				break;
+			case IDfAttr.DM_BOOLEAN:
+				this.booleans[this.size] = valueIndex < 0 ? cursor.getBoolean(column)
+						: cursor.getRepeatingValue(column, valueIndex).asBoolean();
+				break;
+			case IDfAttr.DM_TIME:
+				IDfTime time = valueIndex < 0 ? cursor.getTime(column)
+						: cursor.getRepeatingValue(column, valueIndex).asTime();
+				this.longs[this.size] = DateCodec.toEpochMillis(time);
+				break;
+			default:
+				this.ints[this.size] = encode(readString(cursor, column, valueIndex), dictionaryCodes, dictionary);
+				this.size++;
+				return;
+			}
+			String text = readString(cursor, column, valueIndex);
+			if (this.texts == null && !learnFormat(this.size, text)) {
+				// Keep the texts of this column from now on; the earlier values
+				// matched the format
+				this.texts = new int[capacity()];
+				for (int i = 0; i < this.size; i++) {
+					this.texts[i] = encode(format(i), dictionaryCodes, dictionary);
+				}
+			}
+			if (this.texts != null)
+				this.texts[this.size] = encode(text, dictionaryCodes, dictionary);
+			this.size++;
+		}
+
+		/**
+		 * Check that {@link #format(int)} gives the DFC text of a value, and
+		 * learn the texts of booleans and the null date from their first value
+		 *
+		 * @return Whether the value is formatted like DFC does
+		 */
+		private boolean learnFormat(int position, String text) {
+			if (text == null)
+				return false;
+			if (this.dataType == IDfAttr.DM_BOOLEAN) {
+				if (this.booleans[position]) {
+					if (this.trueText == null)
+						this.trueText = text;
+				} else if (this.falseText == null) {
+					this.falseText = text;
+				}
+			} else if (this.dataType == IDfAttr.DM_TIME && this.longs[position] == NULL_TIME && this.nullText == null) {
+				this.nullText = text;
+			}
+			return text.equals(format(position));
+		}
+
+		/**
+		 * @return A double, boolean or time value as DFC formats it
+		 */
+		private String format(int position) {
+			switch (this.dataType) {
+			case IDfAttr.DM_DOUBLE:
+				return Double.toString(this.doubles[position]);
+			case IDfAttr.DM_BOOLEAN:
+				return this.booleans[position] ? this.trueText : this.falseText;
+			case IDfAttr.DM_TIME:
+				long time = this.longs[position];
+				return time == NULL_TIME ? this.nullText : DateCodec.fromEpochMillis(time).toString();
+			default:
+				return null;
+			}
+		}
+
+		private static String readString(QueryCursor cursor, int column, int valueIndex) throws DfException {
+			return valueIndex < 0 ? cursor.getString(column) : cursor.getRepeatingString(column, valueIndex);
+		}
+
+		private static int encode(String value, Map<String, Integer> dictionaryCodes, List<String> dictionary) {
+			if (value == null)
+				return NULL_CODE;
+			Integer code = dictionaryCodes.get(value);
+			if (code == null) {
+				code = dictionary.size();
+				dictionary.add(value);
+				dictionaryCodes.put(value, code);
+			}
+			return code.intValue();
+		}
+
+		private void ensureCapacity(int capacity) {
+			int current = capacity();
+			if (capacity <= current)
+				return;
+			int newCapacity = Math.max(capacity, current * 2);
+			if (this.ints != null)
+				this.ints = Arrays.copyOf(this.ints, newCapacity);
+			if (this.doubles != null)
+				this.doubles = Arrays.copyOf(this.doubles, newCapacity);
+			if (this.booleans != null)
+				this.booleans = Arrays.copyOf(this.booleans, newCapacity);
+			if (this.longs != null)
+				this.longs = Arrays.copyOf(this.longs, newCapacity);
+			if (this.texts != null)
+				this.texts = Arrays.copyOf(this.texts, newCapacity);
+		}
+
+		private int capacity() {
+			if (this.ints != null)
+				return this.ints.length;
+			if (this.doubles != null)
+				return this.doubles.length;
+			if (this.booleans != null)
+				return this.booleans.length;
+			return this.longs.length;
+		}
+
+		/**
+		 * Shrink the arrays to their used size once all rows have been read
+		 */
+		private void trim(int rowCount) {
+			if (this.ints != null)
+				this.ints = Arrays.copyOf(this.ints, this.size);
+			if (this.doubles != null)
+				this.doubles = Arrays.copyOf(this.doubles, this.size);
+			if (this.booleans != null)
+				this.booleans = Arrays.copyOf(this.booleans, this.size);
+			if (this.longs != null)
+				this.longs = Arrays.copyOf(this.longs, this.size);
+			if (this.texts != null)
+				this.texts = Arrays.copyOf(this.texts, this.size);
+			if (this.offsets != null)
+				this.offsets = Arrays.copyOf(this.offsets, rowCount + 1);
+		}
+	}
+}
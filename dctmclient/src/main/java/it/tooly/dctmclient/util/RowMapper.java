@@ -0,0 +1,23 @@
+package it.tooly.dctmclient.util;
+
+import com.documentum.fc.common.DfException;
+
+/**
+ * Maps the current row of a {@link QueryCursor} to an object.
+ *
+ * @param <T>
+ *            Type of the mapped objects
+ */
+public interface RowMapper<T> {
+
+	/**
+	 * Map the current row of the cursor. Implementations must not move the
+	 * cursor.
+	 *
+	 * @param cursor
+	 *            The cursor, positioned on the row to map
+	 * @return The mapped object
+	 * @throws DfException
+	 */
+	T mapRow(QueryCursor cursor) throws DfException;
+}
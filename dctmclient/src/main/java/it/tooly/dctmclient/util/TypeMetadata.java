@@ -0,0 +1,409 @@
+package it.tooly.dctmclient.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.documentum.fc.client.IDfPersistentObject;
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.client.IDfType;
+import com.documentum.fc.client.IDfTypedObject;
+import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.IDfAttr;
+
+/**
+ * The attributes of an object type: name, position, data type, length and
+ * whether they are repeating. The attributes are read from the first object
+ * of the type and shared by the whole process, so the helpers in
+ * {@link DctmUtils} find an attribute of an object with a hash lookup instead
+ * of asking the object.
+ * <p>
+ * The metadata is cached by repository, type name, version stamp
+ * (<code>i_vstamp</code>) of the type and number of attributes of the object,
+ * so an altered type gets new metadata; the metadata of the old version is
+ * dropped. Objects with aspects have the attributes of their aspects after
+ * the attributes of the type, with qualified names
+ * (<code>aspect.attribute</code>), so they have more attributes than objects
+ * without aspects. Objects with different aspects but the same number of
+ * attributes are told apart by the names of their aspect attributes. The
+ * cache holds the most recently used types, up to a maximum. Objects that are
+ * not persistent objects, like query results, have no metadata.
+ * <p>
+ * Looking up the metadata of an object asks the object for its type and
+ * number of attributes. Code that reads many attributes of an object should
+ * look it up once and pass it on.
+ * <p>
+ * Instances are immutable and thread safe.
+ */
+public final class TypeMetadata {
+
+	/**
+	 * Number of types (and numbers of attributes) that are cached; the least
+	 * recently used quarter is dropped when there are more
+	 */
+	private static final int MAX_CACHED_TYPES = 1024;
+
+	/**
+	 * Number of combinations of aspects with the same number of attributes
+	 * that are cached per type; metadata of other combinations is read every
+	 * time it is used
+	 */
+	private static final int MAX_CACHED_VARIANTS = 16;
+
+	/** The cached metadata; read without locking */
+	private static final ConcurrentHashMap<Key, Variants> TYPES = new ConcurrentHashMap<Key, Variants>();
+
+	/** The newest version stamp per type; keys have no version or count */
+	private static final ConcurrentHashMap<Key, Integer> VSTAMPS = new ConcurrentHashMap<Key, Integer>();
+
+	/** Counts the additions to the cache, to find the least recently used */
+	private static final AtomicInteger CLOCK = new AtomicInteger();
+
+	/** Guards the removal of entries from the cache */
+	private static final Object EVICTION_LOCK = new Object();
+
+	private final Key key;
+	private final Attribute[] attributes;
+	private final Map<String, Attribute> attributesByName;
+	/** Position of the first attribute of an aspect */
+	private final int aspectStart;
+	private volatile AttributeWriterPlan writerPlan;
+
+	private TypeMetadata(final Key key, final IDfTypedObject obj) throws DfException {
+		this.key = key;
+		this.attributes = new Attribute[key.attrCount];
+		Map<String, Attribute> byName = new HashMap<String, Attribute>(key.attrCount * 4 / 3 + 1);
+		int firstAspect = key.attrCount;
+		for (int i = 0; i < this.attributes.length; i++) {
+			this.attributes[i] = new Attribute(obj.getAttr(i), i);
+			if (!byName.containsKey(this.attributes[i].name))
+				byName.put(this.attributes[i].name, this.attributes[i]);
+			if (firstAspect == key.attrCount && this.attributes[i].name.indexOf('.') >= 0)
+				firstAspect = i;
+		}
+		this.attributesByName = Collections.unmodifiableMap(byName);
+		this.aspectStart = firstAspect;
+	}
+
+	/**
+	 * @return The metadata of the type of the object, or null if it is not a
+	 *         persistent object
+	 * @throws DfException
+	 *             If the type or attributes cannot be read
+	 */
+	public static TypeMetadata forObject(final IDfTypedObject obj) throws DfException {
+		if (!(obj instanceof IDfPersistentObject))
+			return null;
+		IDfPersistentObject object = (IDfPersistentObject) obj;
+		String typeName = object.getTypeName();
+		if (typeName == null)
+			return null;
+		IDfType type = object.getType();
+		IDfSession session = object.getSession();
+		Key key = new Key(session == null ? null : session.getDocbaseName(), typeName, type == null ? 0 : type.getVStamp(),
+				object.getAttrCount());
+
+		Variants variants = TYPES.get(key);
+		if (variants != null) {
+			variants.touch();
+			TypeMetadata[] cached = variants.metadata;
+			for (int i = 0; i < cached.length; i++) {
+				if (cached[i].matches(object))
+					return cached[i];
+			}
+		}
+
+		TypeMetadata metadata = new TypeMetadata(key, object);
+		if (variants == null) {
+			// An object of an older version (of a session that has not seen
+			// the change yet) gets metadata that is not cached
+			if (!isNewestVersion(key))
+				return metadata;
+			variants = new Variants();
+			Variants existing = TYPES.putIfAbsent(key, variants);
+			if (existing != null) {
+				variants = existing;
+			} else if (TYPES.size() > MAX_CACHED_TYPES) {
+				evictLeastRecentlyUsed();
+			}
+		}
+		return variants.add(metadata);
+	}
+
+	/**
+	 * Record the version stamp of the key as the newest of its type if it is
+	 * not older, and drop the metadata of older versions if it is newer
+	 *
+	 * @return Whether the version is the newest
+	 */
+	private static boolean isNewestVersion(final Key key) {
+		Key typeKey = new Key(key.repositoryName, key.typeName, 0, 0);
+		while (true) {
+			Integer current = VSTAMPS.get(typeKey);
+			if (current != null && current.intValue() >= key.vstamp)
+				return current.intValue() == key.vstamp;
+			if (current == null ? VSTAMPS.putIfAbsent(typeKey, key.vstamp) == null : VSTAMPS.replace(typeKey, current, key.vstamp)) {
+				if (current != null) {
+					for (Key cached : TYPES.keySet()) {
+						if (cached.vstamp < key.vstamp && cached.isSameType(key))
+							TYPES.remove(cached);
+					}
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Drop the least recently used quarter of the cache
+	 */
+	private static void evictLeastRecentlyUsed() {
+		synchronized (EVICTION_LOCK) {
+			int size = TYPES.size();
+			if (size <= MAX_CACHED_TYPES)
+				return;
+			int[] used = new int[size];
+			int count = 0;
+			for (Variants variants : TYPES.values()) {
+				if (count == used.length)
+					break;
+				used[count++] = variants.lastUsed;
+			}
+			Arrays.sort(used, 0, count);
+			int oldest = used[count / 4];
+			for (Map.Entry<Key, Variants> entry : TYPES.entrySet()) {
+				if (entry.getValue().lastUsed <= oldest)
+					TYPES.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Forget the metadata of all types
+	 */
+	public static void clearCache() {
+		TYPES.clear();
+		VSTAMPS.clear();
+	}
+
+	/**
+	 * @return Whether the object has the aspect attributes of this metadata;
+	 *         the type, version and number of attributes are the same
+	 */
+	private boolean matches(final IDfTypedObject obj) throws DfException {
+		for (int i = this.aspectStart; i < this.attributes.length; i++) {
+			if (!this.attributes[i].name.equals(obj.getAttr(i).getName()))
+				return false;
+		}
+		return true;
+	}
+
+	private boolean hasSameAspectAttributes(final TypeMetadata other) {
+		if (other.aspectStart != this.aspectStart)
+			return false;
+		for (int i = this.aspectStart; i < this.attributes.length; i++) {
+			if (!this.attributes[i].name.equals(other.attributes[i].name))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return The name of the repository, or null if the object had no session
+	 */
+	public String getRepositoryName() {
+		return this.key.repositoryName;
+	}
+
+	public String getTypeName() {
+		return this.key.typeName;
+	}
+
+	/**
+	 * @return The version stamp of the type
+	 */
+	public int getVStamp() {
+		return this.key.vstamp;
+	}
+
+	/**
+	 * @return Whether the objects of this metadata have attributes of aspects
+	 */
+	public boolean hasAspectAttributes() {
+		return this.aspectStart < this.attributes.length;
+	}
+
+	public int getAttributeCount() {
+		return this.attributes.length;
+	}
+
+	/**
+	 * @return The attribute at the given position, like
+	 *         {@link IDfTypedObject#getAttr(int)}
+	 */
+	public Attribute getAttribute(final int index) {
+		return this.attributes[index];
+	}
+
+	/**
+	 * @return The attribute, or null if the type does not have it
+	 */
+	public Attribute getAttribute(final String attrName) {
+		return this.attributesByName.get(attrName);
+	}
+
+	/**
+	 * @return The position of the attribute, or -1 if the type does not have
+	 *         it
+	 */
+	public int indexOf(final String attrName) {
+		Attribute attribute = this.attributesByName.get(attrName);
+		return attribute == null ? -1 : attribute.index;
+	}
+
+	/**
+	 * @return The plan to set the attributes of objects of this type
+	 */
+	AttributeWriterPlan getWriterPlan() {
+		AttributeWriterPlan plan = this.writerPlan;
+		if (plan == null) {
+			plan = new AttributeWriterPlan(this);
+			this.writerPlan = plan;
+		}
+		return plan;
+	}
+
+	private static boolean equal(final String s1, final String s2) {
+		return s1 == null ? s2 == null : s1.equals(s2);
+	}
+
+	/**
+	 * An attribute of the type
+	 */
+	public static final class Attribute {
+		private final IDfAttr attr;
+		private final String name;
+		private final int index;
+		private final int dataType;
+		private final int length;
+		private final boolean repeating;
+
+		Attribute(final IDfAttr attr, final int index) {
+			this.attr = attr;
+			this.name = attr.getName();
+			this.index = index;
+			this.dataType = attr.getDataType();
+			this.length = attr.getLength();
+			this.repeating = attr.isRepeating();
+		}
+
+		public IDfAttr getAttr() {
+			return this.attr;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return The position of the attribute in the objects of the type
+		 */
+		public int getIndex() {
+			return this.index;
+		}
+
+		/**
+		 * @return The data type, one of the <code>IDfAttr.DM_*</code> constants
+		 */
+		public int getDataType() {
+			return this.dataType;
+		}
+
+		/**
+		 * @return The maximum length of a string attribute
+		 */
+		public int getLength() {
+			return this.length;
+		}
+
+		public boolean isRepeating() {
+			return this.repeating;
+		}
+	}
+
+	/**
+	 * The metadata of one type, version and number of attributes, per
+	 * combination of aspect attributes
+	 */
+	private static final class Variants {
+		/** Copied on write; guarded by this for writes */
+		volatile TypeMetadata[] metadata = new TypeMetadata[0];
+		volatile int lastUsed = CLOCK.get();
+
+		void touch() {
+			// Only written once per addition to the cache, so that lookups of
+			// the same type do not keep writing the same field
+			int now = CLOCK.get();
+			if (this.lastUsed != now)
+				this.lastUsed = now;
+		}
+
+		/**
+		 * @return The added metadata, or the same metadata that another
+		 *         thread added first
+		 */
+		synchronized TypeMetadata add(final TypeMetadata added) {
+			TypeMetadata[] current = this.metadata;
+			for (int i = 0; i < current.length; i++) {
+				if (current[i].hasSameAspectAttributes(added))
+					return current[i];
+			}
+			if (current.length >= MAX_CACHED_VARIANTS)
+				return added;
+			TypeMetadata[] copy = Arrays.copyOf(current, current.length + 1);
+			copy[current.length] = added;
+			this.metadata = copy;
+			this.lastUsed = CLOCK.incrementAndGet();
+			return added;
+		}
+	}
+
+	private static final class Key {
+		private final String repositoryName;
+		private final String typeName;
+		private final int vstamp;
+		private final int attrCount;
+
+		Key(final String repositoryName, final String typeName, final int vstamp, final int attrCount) {
+			this.repositoryName = repositoryName;
+			this.typeName = typeName;
+			this.vstamp = vstamp;
+			this.attrCount = attrCount;
+		}
+
+		boolean isSameType(final Key other) {
+			return this.typeName.equals(other.typeName) && equal(this.repositoryName, other.repositoryName);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = this.typeName.hashCode();
+			result = 31 * result + (this.repositoryName == null ? 0 : this.repositoryName.hashCode());
+			result = 31 * result + this.vstamp;
+			return 31 * result + this.attrCount;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return this.vstamp == other.vstamp && this.attrCount == other.attrCount && isSameType(other);
+		}
+	}
+}
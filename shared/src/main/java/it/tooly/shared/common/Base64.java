@@ -26,31 +26,71 @@ package it.tooly.shared.common;
  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
 /**
- * Custom Base64 encode/decode implementation suitable for use in GWT applications (uses only translatable classes).
+ * Base64 encoding and decoding (RFC 4648), table driven and directly between
+ * byte arrays, {@link ByteBuffer}s and streams.
+ * <p>
+ * The static methods use the standard alphabet with padding and are lenient:
+ * invalid input decodes to an empty result. For the other variants use one of
+ * the {@link Codec}s: {@link #STANDARD}, {@link #URL_SAFE} or {@link #MIME}.
+ * Their decode methods throw an {@link IllegalArgumentException} for invalid
+ * input. To encode or decode data in pieces, use {@link Codec#newEncoder()}
+ * and {@link Codec#newDecoder()}, or, for streams and channels,
+ * {@link Base64InputStream}, {@link Base64OutputStream},
+ * {@link Base64ReadableByteChannel} and {@link Base64WritableByteChannel}.
  */
 public final class Base64 {
 
-	/** The Constant HEX_3F. */
-	private static final int HEX_3F = 0x3f;
+	/**
+	 * Maximum line length of MIME encoded data (RFC 2045)
+	 */
+	public static final int MIME_LINE_LENGTH = 76;
 
-	/** The Constant DEC_6. */
-	private static final int DEC_6 = 6;
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
 
-	/** The Constant HEX_03. */
-	private static final int HEX_03 = 0x03;
+	private static final byte[] STANDARD_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+			.getBytes(ISO_8859_1);
+	private static final byte[] URL_SAFE_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+			.getBytes(ISO_8859_1);
+	private static final byte[] CRLF = { '\r', '\n' };
 
-	/** The Constant HEX_0F. */
-	private static final int HEX_0F = 0x0f;
+	private static final byte PAD = '=';
 
-	/** The Constant DEC_4. */
-	private static final int DEC_4 = 4;
+	/**
+	 * Decode table value of characters that are not in the alphabet
+	 */
+	private static final int INVALID = -1;
 
-	/** The Constant DEC_64. */
-	private static final int DEC_64 = 64;
+	/**
+	 * Decode table value of whitespace, which the MIME decoder skips
+	 */
+	private static final int WHITESPACE = -2;
 
-	/** The Constant HEX_7F. */
-	private static final int HEX_7F = 0x7f;
+	/**
+	 * The standard alphabet with padding, without line breaks
+	 */
+	public static final Codec STANDARD = new Codec(STANDARD_ALPHABET, true, 0, false);
+
+	/**
+	 * The URL and file name safe alphabet ('-' and '_' instead of '+' and '/')
+	 * with padding. Use {@link Codec#withoutPadding()} for URLs without '='.
+	 */
+	public static final Codec URL_SAFE = new Codec(URL_SAFE_ALPHABET, true, 0, false);
+
+	/**
+	 * The standard alphabet with padding and CRLF line breaks after every
+	 * {@value #MIME_LINE_LENGTH} characters. Decoding skips whitespace.
+	 */
+	public static final Codec MIME = new Codec(STANDARD_ALPHABET, true, MIME_LINE_LENGTH, true);
 
 	/**
 	 * Private default constructor.
@@ -59,221 +99,658 @@ public final class Base64 {
 
 	}
 
-	/** The Constant etab. */
-	private static final String ETAB = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/=";
-
-	/** The dtab. */
-	private static final byte[] DTAB =
-	        { -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-	                        -1, -1, -1, -1, -1,
-	                        -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 62, -1, -1, -1, 63, 52, 53, 54, 55, 56, 57,
-	                        58, 59, 60, 61, -1, -1, -1,
-	                        64, -1, -1, -1, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20,
-	                        21, 22, 23, 24, 25, -1, -1,
-	                        -1, -1, -1, -1, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35, 36, 37, 38, 39, 40, 41, 42, 43, 44,
-	                        45, 46, 47, 48, 49, 50, 51,
-	                        -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 };
-
 	/**
-	 * Decode.
-	 * 
-	 * @param data the data
-	 * @return the string
+	 * Decode with the standard alphabet.
+	 *
+	 * @param data
+	 *            the Base64 encoded data
+	 * @return the decoded data, an empty array if the data is not valid Base64,
+	 *         or null if the data is null
 	 */
 	public static byte[] decode(final byte[] data) {
-		StringBuffer out = new StringBuffer();
-
-		if (data != null) {
-			// length must be multiple of 4 (with padding)
-			if (data.length % DEC_4 != 0) {
-				return new byte[0];
-			}
+		if (data == null)
+			return null;
+		try {
+			return STANDARD.decode(data);
+		} catch (IllegalArgumentException e) {
+			return new byte[0];
+		}
+	}
 
-			for (int i = 0; i < data.length;) {
-				byte e0 = DTAB[data[i++] & HEX_7F];
-				byte e1 = DTAB[data[i++] & HEX_7F];
-				byte e2 = DTAB[data[i++] & HEX_7F];
-				byte e3 = DTAB[data[i++] & HEX_7F];
+	/**
+	 * Decode with the standard alphabet to an UTF-8 string.
+	 *
+	 * @param data
+	 *            the Base64 encoded data
+	 * @return the decoded string, an empty string if the data is not valid
+	 *         Base64, or null if the data is null
+	 */
+	public static String decode(final String data) {
+		if (data == null)
+			return null;
+		try {
+			return new String(STANDARD.decode(data), UTF_8);
+		} catch (IllegalArgumentException e) {
+			return "";
+		}
+	}
 
-				// Invalid characters in input
-				if (e0 == -1 || e1 == -1 || e2 == -1 || e3 == -1) {
-					return new byte[0];
-				}
+	/**
+	 * Encode the UTF-8 bytes of a string with the standard alphabet.
+	 *
+	 * @param data
+	 *            the string
+	 * @return the encoded string, or null if the string is null
+	 */
+	public static String encode(final String data) {
+		if (data == null)
+			return null;
+		return STANDARD.encodeToString(data.getBytes(UTF_8));
+	}
 
-				byte d0 = (byte) ((e0 << 2) + (e1 >>> DEC_4 & HEX_03));
-				byte d1 = (byte) ((e1 << DEC_4) + (e2 >>> 2 & HEX_0F));
-				byte d2 = (byte) ((e2 << DEC_6) + (e3 & HEX_3F));
+	/**
+	 * Encode with the standard alphabet.
+	 *
+	 * @param data
+	 *            the data
+	 * @return the encoded data (ASCII), or null if the data is null
+	 */
+	public static byte[] encode(final byte[] data) {
+		if (data == null)
+			return null;
+		return STANDARD.encode(data);
+	}
 
-				out.append(Character.toString((char) d0));
-				if (e2 != DEC_64) {
-					out.append(Character.toString((char) d1));
-				}
-				if (e3 != DEC_64) {
-					out.append(Character.toString((char) d2));
-				}
-			}
-			return out.toString().getBytes();
+	private static int[] createDecodeTable(byte[] alphabet, boolean skipWhitespace) {
+		int[] table = new int[256];
+		Arrays.fill(table, INVALID);
+		for (int i = 0; i < alphabet.length; i++) {
+			table[alphabet[i]] = i;
 		}
-
-		return null;
+		if (skipWhitespace) {
+			table[' '] = WHITESPACE;
+			table['\t'] = WHITESPACE;
+			table['\r'] = WHITESPACE;
+			table['\n'] = WHITESPACE;
+		}
+		return table;
 	}
 
 	/**
-	 * Decode.
-	 * 
-	 * @param data the data
-	 * @return the string
+	 * A Base64 variant: alphabet, padding and line length. Codecs are
+	 * immutable and thread-safe.
 	 */
-	public static String decode(final String data) {
-		StringBuffer out = new StringBuffer();
+	public static final class Codec {
+		private final byte[] alphabet;
+		private final int[] decodeTable;
+		private final boolean padding;
+		private final int lineLength;
+		private final boolean skipWhitespace;
+
+		private Codec(byte[] alphabet, boolean padding, int lineLength, boolean skipWhitespace) {
+			this.alphabet = alphabet;
+			this.decodeTable = createDecodeTable(alphabet, skipWhitespace);
+			this.padding = padding;
+			this.lineLength = lineLength;
+			this.skipWhitespace = skipWhitespace;
+		}
+
+		/**
+		 * @return A codec like this one which does not add '=' padding when
+		 *         encoding. Decoding accepts data with and without padding.
+		 */
+		public Codec withoutPadding() {
+			return new Codec(this.alphabet, false, this.lineLength, this.skipWhitespace);
+		}
+
+		/**
+		 * @param lineLength
+		 *            The maximum number of characters per line, a multiple of
+		 *            4, or 0 for no line breaks
+		 * @return A codec like this one which adds a CRLF line break after
+		 *         every lineLength characters when encoding, and which skips
+		 *         whitespace when decoding
+		 */
+		public Codec withLineLength(int lineLength) {
+			if (lineLength < 0 || lineLength % 4 != 0)
+				throw new IllegalArgumentException("Line length must be a multiple of 4");
+			return new Codec(this.alphabet, this.padding, lineLength, this.skipWhitespace || lineLength > 0);
+		}
+
+		public boolean isPadding() {
+			return this.padding;
+		}
+
+		public int getLineLength() {
+			return this.lineLength;
+		}
+
+		/**
+		 * @return The number of characters (bytes) that encoding the given
+		 *         number of bytes results in
+		 */
+		public long getEncodedLength(long length) {
+			long encoded = length / 3 * 4;
+			int remainder = (int) (length % 3);
+			if (remainder > 0)
+				encoded += this.padding ? 4 : remainder + 1;
+			if (this.lineLength > 0 && encoded > 0)
+				encoded += (encoded - 1) / this.lineLength * CRLF.length;
+			return encoded;
+		}
+
+		public byte[] encode(byte[] data) {
+			return encode(data, 0, data.length);
+		}
+
+		public byte[] encode(byte[] data, int offset, int length) {
+			long encodedLength = getEncodedLength(length);
+			if (encodedLength > Integer.MAX_VALUE - 8)
+				throw new IllegalArgumentException("Data too large to encode into an array: " + length + " bytes");
+			byte[] encoded = new byte[(int) encodedLength];
+			Encoder encoder = newEncoder();
+			int written = encoder.update(data, offset, length, encoded, 0);
+			encoder.finish(encoded, written);
+			return encoded;
+		}
+
+		/**
+		 * @return The encoded data as a string
+		 */
+		public String encodeToString(byte[] data) {
+			return new String(encode(data), ISO_8859_1);
+		}
+
+		/**
+		 * Encode the remaining bytes of a buffer. The position of the buffer
+		 * is moved to its limit.
+		 *
+		 * @return A new buffer with the encoded data, ready to be read
+		 */
+		public ByteBuffer encode(ByteBuffer data) {
+			if (data.hasArray()) {
+				byte[] encoded = encode(data.array(), data.arrayOffset() + data.position(), data.remaining());
+				data.position(data.limit());
+				return ByteBuffer.wrap(encoded);
+			}
+			long encodedLength = getEncodedLength(data.remaining());
+			if (encodedLength > Integer.MAX_VALUE - 8)
+				throw new IllegalArgumentException("Data too large to encode into a buffer: " + data.remaining()
+						+ " bytes");
+			byte[] encoded = new byte[(int) encodedLength];
+			byte[] chunk = new byte[Math.min(data.remaining(), 3 * 8192)];
+			Encoder encoder = newEncoder();
+			int written = 0;
+			while (data.hasRemaining()) {
+				int length = Math.min(data.remaining(), chunk.length);
+				data.get(chunk, 0, length);
+				written += encoder.update(chunk, 0, length, encoded, written);
+			}
+			encoder.finish(encoded, written);
+			return ByteBuffer.wrap(encoded);
+		}
 
-		if (data != null) {
-			// length must be multiple of 4 (with padding)
-			if (data.length() % DEC_4 != 0) {
-				return "";
+		/**
+		 * Encode all bytes of an input stream to an output stream. Neither
+		 * stream is closed.
+		 *
+		 * @return The number of encoded bytes written
+		 * @throws IOException
+		 */
+		public long encode(InputStream in, OutputStream out) throws IOException {
+			byte[] buffer = new byte[3 * 8192];
+			Encoder encoder = newEncoder();
+			byte[] encoded = new byte[encoder.getMaxOutputLength(buffer.length)];
+			long total = 0;
+			int length;
+			while ((length = in.read(buffer)) >= 0) {
+				int written = encoder.update(buffer, 0, length, encoded, 0);
+				out.write(encoded, 0, written);
+				total += written;
 			}
+			int written = encoder.finish(encoded, 0);
+			out.write(encoded, 0, written);
+			return total + written;
+		}
 
-			for (int i = 0; i < data.length();) {
-				byte e0 = DTAB[data.charAt(i++) & HEX_7F];
-				byte e1 = DTAB[data.charAt(i++) & HEX_7F];
-				byte e2 = DTAB[data.charAt(i++) & HEX_7F];
-				byte e3 = DTAB[data.charAt(i++) & HEX_7F];
+		/**
+		 * @throws IllegalArgumentException
+		 *             If the data is not valid Base64 of this variant
+		 */
+		public byte[] decode(byte[] data) {
+			return decode(data, 0, data.length);
+		}
 
-				// Invalid characters in input
-				if (e0 == -1 || e1 == -1 || e2 == -1 || e3 == -1) {
-					return "";
-				}
+		/**
+		 * @throws IllegalArgumentException
+		 *             If the data is not valid Base64 of this variant
+		 */
+		public byte[] decode(byte[] data, int offset, int length) {
+			byte[] decoded = new byte[getMaxDecodedLength(data, offset, length)];
+			Decoder decoder = newDecoder();
+			int written = decoder.update(data, offset, length, decoded, 0);
+			written += decoder.finish(decoded, written);
+			return written == decoded.length ? decoded : Arrays.copyOf(decoded, written);
+		}
 
-				byte d0 = (byte) ((e0 << 2) + (e1 >>> DEC_4 & HEX_03));
-				byte d1 = (byte) ((e1 << DEC_4) + (e2 >>> 2 & HEX_0F));
-				byte d2 = (byte) ((e2 << DEC_6) + (e3 & HEX_3F));
+		/**
+		 * @throws IllegalArgumentException
+		 *             If the string is not valid Base64 of this variant
+		 */
+		public byte[] decode(String data) {
+			return decode(data.getBytes(ISO_8859_1));
+		}
 
-				out.append(Character.toString((char) d0));
-				if (e2 != DEC_64) {
-					out.append(Character.toString((char) d1));
-				}
-				if (e3 != DEC_64) {
-					out.append(Character.toString((char) d2));
+		/**
+		 * Decode the remaining bytes of a buffer. The position of the buffer
+		 * is moved to its limit.
+		 *
+		 * @return A new buffer with the decoded data, ready to be read
+		 * @throws IllegalArgumentException
+		 *             If the data is not valid Base64 of this variant
+		 */
+		public ByteBuffer decode(ByteBuffer data) {
+			if (data.hasArray()) {
+				byte[] decoded = decode(data.array(), data.arrayOffset() + data.position(), data.remaining());
+				data.position(data.limit());
+				return ByteBuffer.wrap(decoded);
+			}
+			byte[] decoded = new byte[data.remaining() / 4 * 3 + 3];
+			byte[] chunk = new byte[Math.min(data.remaining(), 4 * 8192)];
+			Decoder decoder = newDecoder();
+			int written = 0;
+			while (data.hasRemaining()) {
+				int length = Math.min(data.remaining(), chunk.length);
+				data.get(chunk, 0, length);
+				written += decoder.update(chunk, 0, length, decoded, written);
+			}
+			written += decoder.finish(decoded, written);
+			return ByteBuffer.wrap(decoded, 0, written).slice();
+		}
+
+		/**
+		 * Decode all bytes of an input stream to an output stream. Neither
+		 * stream is closed.
+		 *
+		 * @return The number of decoded bytes written
+		 * @throws IOException
+		 * @throws IllegalArgumentException
+		 *             If the data is not valid Base64 of this variant
+		 */
+		public long decode(InputStream in, OutputStream out) throws IOException {
+			byte[] buffer = new byte[4 * 8192];
+			Decoder decoder = newDecoder();
+			byte[] decoded = new byte[decoder.getMaxOutputLength(buffer.length)];
+			long total = 0;
+			int length;
+			while ((length = in.read(buffer)) >= 0) {
+				int written = decoder.update(buffer, 0, length, decoded, 0);
+				out.write(decoded, 0, written);
+				total += written;
+			}
+			int written = decoder.finish(decoded, 0);
+			out.write(decoded, 0, written);
+			return total + written;
+		}
+
+		/**
+		 * Decode Base64 characters, such as a large string, to an output stream
+		 * without converting all characters to bytes first. The stream is not
+		 * closed.
+		 *
+		 * @return The number of decoded bytes written
+		 * @throws IOException
+		 * @throws IllegalArgumentException
+		 *             If the data is not valid Base64 of this variant
+		 */
+		public long decode(CharSequence data, OutputStream out) throws IOException {
+			byte[] buffer = new byte[Math.min(data.length(), 4 * 8192)];
+			Decoder decoder = newDecoder();
+			byte[] decoded = new byte[decoder.getMaxOutputLength(buffer.length)];
+			long total = 0;
+			for (int start = 0; start < data.length(); start += buffer.length) {
+				int length = Math.min(buffer.length, data.length() - start);
+				for (int i = 0; i < length; i++) {
+					char c = data.charAt(start + i);
+					// Characters outside ISO-8859-1 are invalid anyway
+					buffer[i] = c < 256 ? (byte) c : (byte) '?';
 				}
+				int written = decoder.update(buffer, 0, length, decoded, 0);
+				out.write(decoded, 0, written);
+				total += written;
+			}
+			int written = decoder.finish(decoded, 0);
+			out.write(decoded, 0, written);
+			return total + written;
+		}
+
+		/**
+		 * @return The length of the decoded data if it is valid and has no
+		 *         whitespace, otherwise an upper bound
+		 */
+		private int getMaxDecodedLength(byte[] data, int offset, int length) {
+			int end = offset + length;
+			int pads = 0;
+			while (pads < 2 && end - pads > offset && data[end - pads - 1] == PAD) {
+				pads++;
 			}
-			return out.toString();
+			return (int) ((length - pads) * 3L / 4);
+		}
+
+		/**
+		 * @return A new encoder, to encode data in pieces
+		 */
+		public Encoder newEncoder() {
+			return new Encoder(this);
+		}
+
+		/**
+		 * @return A new decoder, to decode data in pieces
+		 */
+		public Decoder newDecoder() {
+			return new Decoder(this);
 		}
 
-		return null;
+		/**
+		 * @return A new encoder if encode is true, otherwise a new decoder
+		 */
+		public Converter newConverter(boolean encode) {
+			return encode ? newEncoder() : newDecoder();
+		}
 	}
 
 	/**
-	 * Encode.
-	 * 
-	 * @param data the data
-	 * @return the string
+	 * Converts data that comes in pieces: an {@link Encoder} or a
+	 * {@link Decoder}
 	 */
-	public static String encode(final String data) {
-		if (data != null) {
-			StringBuffer out = new StringBuffer();
-
-			int i = 0;
-			int r = data.length();
-			while (r > 0) {
-				byte d0, d1, d2;
-				byte e0, e1, e2, e3;
-
-				d0 = (byte) data.charAt(i++);
-				--r;
-				e0 = safeUnsignedRightShift(d0, 2);
-				e1 = (byte) ((d0 & HEX_03) << DEC_4);
-
-				if (r > 0) {
-					d1 = (byte) data.charAt(i++);
-					--r;
-					e1 += safeUnsignedRightShift(d1, DEC_4);
-					e2 = (byte) ((d1 & HEX_0F) << 2);
-				} else {
-					e2 = DEC_64;
-				}
+	public abstract static class Converter {
 
-				if (r > 0) {
-					d2 = (byte) data.charAt(i++);
-					--r;
-					e2 += safeUnsignedRightShift(d2, DEC_6);
-					e3 = (byte) (d2 & HEX_3F);
-				} else {
-					e3 = DEC_64;
-				}
-				out.append(ETAB.charAt(e0));
-				out.append(ETAB.charAt(e1));
-				out.append(ETAB.charAt(e2));
-				out.append(ETAB.charAt(e3));
-			}
-
-			return out.toString();
+		private Converter() {
 		}
-		return null;
+
+		/**
+		 * @return The maximum number of bytes {@link #update} or
+		 *         {@link #finish} writes for the given number of input bytes
+		 */
+		public abstract int getMaxOutputLength(int length);
+
+		/**
+		 * Convert a piece of data. Input that does not make a complete group
+		 * is kept until the next piece or {@link #finish}.
+		 *
+		 * @param dst
+		 *            The array to write to, which must have room for
+		 *            {@link #getMaxOutputLength(int)} bytes
+		 * @return The number of bytes written
+		 * @throws IllegalArgumentException
+		 *             If decoding and the data is not valid Base64
+		 */
+		public abstract int update(byte[] src, int offset, int length, byte[] dst, int dstOffset);
+
+		/**
+		 * Write the output of the last, incomplete group and reset the
+		 * converter, so it can be used again
+		 *
+		 * @return The number of bytes written
+		 * @throws IllegalArgumentException
+		 *             If decoding and the data ended in the middle of a group
+		 */
+		public abstract int finish(byte[] dst, int dstOffset);
 	}
 
 	/**
-	 * Encode.
-	 * 
-	 * @param data the data
-	 * @return the string
+	 * Encodes data that comes in pieces. Call {@link #update} for each piece
+	 * and {@link #finish} at the end; the encoder can then be used again. An
+	 * encoder is not thread-safe.
 	 */
-	public static byte[] encode(final byte[] data) {
-		if (data != null) {
-			StringBuffer out = new StringBuffer();
-
-			int i = 0;
-			int r = data.length;
-			while (r > 0) {
-				byte d0, d1, d2;
-				byte e0, e1, e2, e3;
-
-				d0 = data[i++];
-				--r;
-				e0 = safeUnsignedRightShift(d0, 2);
-				e1 = (byte) ((d0 & HEX_03) << DEC_4);
-
-				if (r > 0) {
-					d1 = data[i++];
-					--r;
-					e1 += safeUnsignedRightShift(d1, DEC_4);
-					e2 = (byte) ((d1 & HEX_0F) << 2);
-				} else {
-					e2 = DEC_64;
+	public static final class Encoder extends Converter {
+		private final byte[] alphabet;
+		private final boolean padding;
+		private final int lineLength;
+
+		/**
+		 * Bytes of the last piece that did not make a group of 3
+		 */
+		private final byte[] pending;
+		private int pendingCount;
+
+		/**
+		 * Characters on the current line
+		 */
+		private int column;
+
+		private Encoder(Codec codec) {
+			this.alphabet = codec.alphabet;
+			this.padding = codec.padding;
+			this.lineLength = codec.lineLength;
+			this.pending = new byte[2];
+			this.pendingCount = 0;
+			this.column = 0;
+		}
+
+		@Override
+		public int getMaxOutputLength(int length) {
+			long groups = (length + 2L) / 3 + 1;
+			long encoded = groups * 4;
+			if (this.lineLength > 0)
+				encoded += (encoded / this.lineLength + 1) * CRLF.length;
+			return (int) Math.min(encoded, Integer.MAX_VALUE - 8);
+		}
+
+		/**
+		 * Encode a piece of data. Up to 2 bytes are kept until the next piece
+		 * or {@link #finish}.
+		 */
+		@Override
+		public int update(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+			int sp = offset;
+			int end = offset + length;
+			int dp = dstOffset;
+			if (this.pendingCount > 0) {
+				while (this.pendingCount < 2 && sp < end) {
+					this.pending[this.pendingCount++] = src[sp++];
 				}
+				if (sp == end)
+					return 0;
+				int bits = (this.pending[0] & 0xff) << 16 | (this.pending[1] & 0xff) << 8 | (src[sp++] & 0xff);
+				this.pendingCount = 0;
+				dp = newLineIfFull(dst, dp);
+				dst[dp++] = this.alphabet[bits >>> 18];
+				dst[dp++] = this.alphabet[(bits >>> 12) & 0x3f];
+				dst[dp++] = this.alphabet[(bits >>> 6) & 0x3f];
+				dst[dp++] = this.alphabet[bits & 0x3f];
+				this.column += 4;
+			}
+			int groups = (end - sp) / 3;
+			dp = writeGroups(src, sp, groups, dst, dp);
+			sp += groups * 3;
+			while (sp < end) {
+				this.pending[this.pendingCount++] = src[sp++];
+			}
+			return dp - dstOffset;
+		}
 
-				if (r > 0) {
-					d2 = data[i++];
-					--r;
-					e2 += safeUnsignedRightShift(d2, DEC_6);
-					e3 = (byte) (d2 & HEX_3F);
+		/**
+		 * Write the last bytes, with padding if enabled, and reset the encoder
+		 */
+		@Override
+		public int finish(byte[] dst, int dstOffset) {
+			int dp = dstOffset;
+			if (this.pendingCount > 0) {
+				dp = newLineIfFull(dst, dp);
+				int b0 = this.pending[0] & 0xff;
+				dst[dp++] = this.alphabet[b0 >>> 2];
+				if (this.pendingCount == 1) {
+					dst[dp++] = this.alphabet[(b0 << 4) & 0x3f];
+					if (this.padding) {
+						dst[dp++] = PAD;
+						dst[dp++] = PAD;
+					}
 				} else {
-					e3 = DEC_64;
+					int b1 = this.pending[1] & 0xff;
+					dst[dp++] = this.alphabet[(b0 << 4 | b1 >>> 4) & 0x3f];
+					dst[dp++] = this.alphabet[(b1 << 2) & 0x3f];
+					if (this.padding)
+						dst[dp++] = PAD;
 				}
-				out.append(ETAB.charAt(e0));
-				out.append(ETAB.charAt(e1));
-				out.append(ETAB.charAt(e2));
-				out.append(ETAB.charAt(e3));
 			}
+			this.pendingCount = 0;
+			this.column = 0;
+			return dp - dstOffset;
+		}
 
-			return out.toString().getBytes();
+		/**
+		 * Encode complete groups of 3 bytes, breaking lines where needed
+		 */
+		private int writeGroups(byte[] src, int sp, int groups, byte[] dst, int dp) {
+			byte[] table = this.alphabet;
+			while (groups > 0) {
+				int lineGroups = groups;
+				if (this.lineLength > 0) {
+					dp = newLineIfFull(dst, dp);
+					lineGroups = Math.min(groups, (this.lineLength - this.column) / 4);
+					this.column += lineGroups * 4;
+				}
+				for (int g = 0; g < lineGroups; g++) {
+					int bits = (src[sp++] & 0xff) << 16 | (src[sp++] & 0xff) << 8 | (src[sp++] & 0xff);
+					dst[dp++] = table[bits >>> 18];
+					dst[dp++] = table[(bits >>> 12) & 0x3f];
+					dst[dp++] = table[(bits >>> 6) & 0x3f];
+					dst[dp++] = table[bits & 0x3f];
+				}
+				groups -= lineGroups;
+			}
+			return dp;
+		}
+
+		/**
+		 * Start a new line if the current line is full. Line breaks are only
+		 * written before data, so the output never ends with one.
+		 */
+		private int newLineIfFull(byte[] dst, int dp) {
+			if (this.lineLength > 0 && this.column >= this.lineLength) {
+				dst[dp++] = CRLF[0];
+				dst[dp++] = CRLF[1];
+				this.column = 0;
+			}
+			return dp;
 		}
-		return null;
 	}
 
 	/**
-	 * Safe unsigned right shift (>>> is unsafe with bytes and shorts) .
-	 * 
-	 * @param b the b
-	 * @param offset the offset
-	 * @return the byte
+	 * Decodes data that comes in pieces. Call {@link #update} for each piece
+	 * and {@link #finish} at the end; the decoder can then be used again. A
+	 * decoder is not thread-safe.
 	 */
-	private static byte safeUnsignedRightShift(final byte b, final int offset) {
-		byte b2;
-		if (b >= 0) {
-			b2 = (byte) (b >> offset);
-		} else {
-			b2 = (byte) ((b >> offset) + (2 << ~offset));
-		}
-		return b2;
+	public static final class Decoder extends Converter {
+		private final int[] table;
+
+		/**
+		 * Bits of the characters of the current, incomplete group
+		 */
+		private int bits;
+
+		/**
+		 * Number of characters in the current group
+		 */
+		private int count;
+
+		/**
+		 * Whether padding has been read, after which only padding and
+		 * whitespace may follow
+		 */
+		private boolean padded;
+
+		/**
+		 * Total number of characters read, for error messages
+		 */
+		private long position;
+
+		private Decoder(Codec codec) {
+			this.table = codec.decodeTable;
+			this.bits = 0;
+			this.count = 0;
+			this.padded = false;
+			this.position = 0;
+		}
+
+		@Override
+		public int getMaxOutputLength(int length) {
+			return (int) Math.min((length + 3L) / 4 * 3, Integer.MAX_VALUE - 8);
+		}
+
+		/**
+		 * Decode a piece of data. Characters that do not make a complete group
+		 * of 4 are kept until the next piece or {@link #finish}.
+		 */
+		@Override
+		public int update(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+			int[] decode = this.table;
+			int sp = offset;
+			int end = offset + length;
+			int dp = dstOffset;
+			while (sp < end) {
+				if (this.count == 0 && !this.padded) {
+					// Fast path for complete groups
+					while (sp + 4 <= end) {
+						int b0 = decode[src[sp] & 0xff];
+						int b1 = decode[src[sp + 1] & 0xff];
+						int b2 = decode[src[sp + 2] & 0xff];
+						int b3 = decode[src[sp + 3] & 0xff];
+						if ((b0 | b1 | b2 | b3) < 0)
+							break;
+						int group = b0 << 18 | b1 << 12 | b2 << 6 | b3;
+						dst[dp++] = (byte) (group >> 16);
+						dst[dp++] = (byte) (group >> 8);
+						dst[dp++] = (byte) group;
+						sp += 4;
+					}
+					if (sp == end)
+						break;
+				}
+				int c = src[sp++] & 0xff;
+				int value = decode[c];
+				if (value >= 0 && !this.padded) {
+					this.bits = this.bits << 6 | value;
+					if (++this.count == 4) {
+						dst[dp++] = (byte) (this.bits >> 16);
+						dst[dp++] = (byte) (this.bits >> 8);
+						dst[dp++] = (byte) this.bits;
+						this.bits = 0;
+						this.count = 0;
+					}
+				} else if (c == PAD && this.count >= 2) {
+					this.padded = true;
+				} else if (value != WHITESPACE) {
+					throw new IllegalArgumentException("Illegal Base64 character '" + (char) c + "' at position "
+							+ (this.position + sp - 1 - offset));
+				}
+			}
+			this.position += length;
+			return dp - dstOffset;
+		}
+
+		/**
+		 * Write the bytes of the last, incomplete group and reset the decoder
+		 */
+		@Override
+		public int finish(byte[] dst, int dstOffset) {
+			int dp = dstOffset;
+			int lastCount = this.count;
+			int lastBits = this.bits;
+			this.bits = 0;
+			this.count = 0;
+			this.padded = false;
+			this.position = 0;
+			if (lastCount == 1) {
+				throw new IllegalArgumentException("Base64 data ends with an incomplete group");
+			} else if (lastCount == 2) {
+				dst[dp++] = (byte) (lastBits >> 4);
+			} else if (lastCount == 3) {
+				dst[dp++] = (byte) (lastBits >> 10);
+				dst[dp++] = (byte) (lastBits >> 2);
+			}
+			return dp - dstOffset;
+		}
 	}
 }
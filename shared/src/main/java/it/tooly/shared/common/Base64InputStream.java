@@ -0,0 +1,136 @@
+package it.tooly.shared.common;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads another input stream and returns its data Base64 encoded (or
+ * decoded), a fixed-size buffer at a time. For example, to upload a Base64
+ * payload as content without holding it in memory:
+ *
+ * <pre>
+ * InputStream content = new Base64InputStream(payload, Base64.MIME, false);
+ * </pre>
+ */
+public class Base64InputStream extends FilterInputStream {
+
+	/**
+	 * Number of bytes read from the underlying stream at a time
+	 */
+	private static final int CHUNK_SIZE = 3 * 4 * 2048;
+
+	private final Base64.Converter converter;
+	private final byte[] input;
+	private final byte[] output;
+	private int outputPos;
+	private int outputLimit;
+	private boolean eof;
+
+	/**
+	 * Create a stream that encodes with the standard alphabet
+	 */
+	public Base64InputStream(InputStream in) {
+		this(in, Base64.STANDARD, true);
+	}
+
+	/**
+	 * @param in
+	 *            The stream to read the data from
+	 * @param codec
+	 *            The Base64 variant
+	 * @param encode
+	 *            true to encode the data that is read, false to decode it
+	 */
+	public Base64InputStream(InputStream in, Base64.Codec codec, boolean encode) {
+		super(in);
+		this.converter = codec.newConverter(encode);
+		this.input = new byte[CHUNK_SIZE];
+		this.output = new byte[this.converter.getMaxOutputLength(CHUNK_SIZE)];
+		this.outputPos = 0;
+		this.outputLimit = 0;
+		this.eof = false;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill())
+			return -1;
+		return this.output[this.outputPos++] & 0xff;
+	}
+
+	/**
+	 * @throws IOException
+	 *             Also if decoding and the data is not valid Base64
+	 */
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!fill())
+			return -1;
+		int length = Math.min(len, this.outputLimit - this.outputPos);
+		System.arraycopy(this.output, this.outputPos, b, off, length);
+		this.outputPos += length;
+		return length;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n && fill()) {
+			int length = (int) Math.min(n - skipped, this.outputLimit - this.outputPos);
+			this.outputPos += length;
+			skipped += length;
+		}
+		return skipped;
+	}
+
+	/**
+	 * @return The number of converted bytes that can be read without reading
+	 *         the underlying stream
+	 */
+	@Override
+	public int available() throws IOException {
+		return this.outputLimit - this.outputPos;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		throw new IOException("Mark and reset are not supported");
+	}
+
+	/**
+	 * Make sure there are converted bytes to read
+	 *
+	 * @return false at the end of the data
+	 */
+	private boolean fill() throws IOException {
+		try {
+			while (this.outputPos == this.outputLimit) {
+				if (this.eof)
+					return false;
+				int length = this.in.read(this.input);
+				this.outputPos = 0;
+				if (length < 0) {
+					this.eof = true;
+					this.outputLimit = this.converter.finish(this.output, 0);
+				} else {
+					this.outputLimit = this.converter.update(this.input, 0, length, this.output, 0);
+				}
+			}
+			return true;
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid Base64 data", e);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package it.tooly.shared.common;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes (or decodes) everything written to it as Base64 and writes the
+ * result to another output stream, a fixed-size buffer at a time. The last
+ * bytes are only written by {@link #finish()} or {@link #close()}.
+ * <p>
+ * For example, to decode a Base64 payload to a file while it is received:
+ *
+ * <pre>
+ * try (OutputStream out = new Base64OutputStream(new FileOutputStream(file), Base64.MIME, false)) {
+ * 	FileUtils.copyStream(payload, out);
+ * }
+ * </pre>
+ */
+public class Base64OutputStream extends FilterOutputStream {
+
+	/**
+	 * Number of bytes converted at a time
+	 */
+	private static final int CHUNK_SIZE = 3 * 4 * 2048;
+
+	private final Base64.Converter converter;
+	private final byte[] buffer;
+	/** Reused by {@link #write(int)} */
+	private final byte[] oneByte = new byte[1];
+	private boolean finished;
+
+	/**
+	 * Create a stream that encodes with the standard alphabet
+	 */
+	public Base64OutputStream(OutputStream out) {
+		this(out, Base64.STANDARD, true);
+	}
+
+	/**
+	 * @param out
+	 *            The stream to write the result to
+	 * @param codec
+	 *            The Base64 variant
+	 * @param encode
+	 *            true to encode the written data, false to decode it
+	 */
+	public Base64OutputStream(OutputStream out, Base64.Codec codec, boolean encode) {
+		super(out);
+		this.converter = codec.newConverter(encode);
+		this.buffer = new byte[this.converter.getMaxOutputLength(CHUNK_SIZE)];
+		this.finished = false;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		this.oneByte[0] = (byte) b;
+		write(this.oneByte, 0, 1);
+	}
+
+	/**
+	 * @throws IOException
+	 *             Also if decoding and the data is not valid Base64
+	 */
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (this.finished)
+			throw new IOException("Stream is finished");
+		try {
+			for (int start = off; start < off + len; start += CHUNK_SIZE) {
+				int written = this.converter.update(b, start, Math.min(CHUNK_SIZE, off + len - start), this.buffer, 0);
+				this.out.write(this.buffer, 0, written);
+			}
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid Base64 data", e);
+		}
+	}
+
+	/**
+	 * Write the last bytes, without closing the underlying stream. Nothing can
+	 * be written after this.
+	 *
+	 * @throws IOException
+	 *             Also if decoding and the data ended in the middle of a group
+	 */
+	public void finish() throws IOException {
+		if (this.finished)
+			return;
+		this.finished = true;
+		try {
+			int written = this.converter.finish(this.buffer, 0);
+			this.out.write(this.buffer, 0, written);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid Base64 data", e);
+		}
+	}
+
+	/**
+	 * Write the last bytes and close the underlying stream
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			this.out.close();
+		}
+	}
+}
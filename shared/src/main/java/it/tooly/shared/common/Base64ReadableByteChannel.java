@@ -0,0 +1,103 @@
+package it.tooly.shared.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads another channel and returns its data Base64 encoded (or decoded), a
+ * fixed-size buffer at a time. The channel equivalent of
+ * {@link Base64InputStream}.
+ */
+public class Base64ReadableByteChannel implements ReadableByteChannel {
+
+	/**
+	 * Number of bytes read from the source channel at a time
+	 */
+	private static final int CHUNK_SIZE = 3 * 4 * 2048;
+
+	private final ReadableByteChannel source;
+	private final Base64.Converter converter;
+	private final ByteBuffer input;
+	private final ByteBuffer output;
+	private boolean eof;
+	private boolean open;
+
+	/**
+	 * Create a channel that encodes with the standard alphabet
+	 */
+	public Base64ReadableByteChannel(ReadableByteChannel source) {
+		this(source, Base64.STANDARD, true);
+	}
+
+	/**
+	 * @param source
+	 *            The channel to read the data from
+	 * @param codec
+	 *            The Base64 variant
+	 * @param encode
+	 *            true to encode the data that is read, false to decode it
+	 */
+	public Base64ReadableByteChannel(ReadableByteChannel source, Base64.Codec codec, boolean encode) {
+		this.source = source;
+		this.converter = codec.newConverter(encode);
+		this.input = ByteBuffer.allocate(CHUNK_SIZE);
+		this.output = ByteBuffer.allocate(this.converter.getMaxOutputLength(CHUNK_SIZE));
+		this.output.limit(0);
+		this.eof = false;
+		this.open = true;
+	}
+
+	/**
+	 * @throws IOException
+	 *             Also if decoding and the data is not valid Base64
+	 */
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if (!this.open)
+			throw new ClosedChannelException();
+		if (!dst.hasRemaining())
+			return 0;
+		try {
+			while (!this.output.hasRemaining()) {
+				if (this.eof)
+					return -1;
+				this.input.clear();
+				int length = this.source.read(this.input);
+				if (length == 0)
+					return 0;
+				int written;
+				if (length < 0) {
+					this.eof = true;
+					written = this.converter.finish(this.output.array(), 0);
+				} else {
+					written = this.converter.update(this.input.array(), 0, length, this.output.array(), 0);
+				}
+				this.output.clear().limit(written);
+			}
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid Base64 data", e);
+		}
+		int length = Math.min(dst.remaining(), this.output.remaining());
+		dst.put(this.output.array(), this.output.position(), length);
+		this.output.position(this.output.position() + length);
+		return length;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	/**
+	 * Close the source channel
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!this.open)
+			return;
+		this.open = false;
+		this.source.close();
+	}
+}
@@ -0,0 +1,131 @@
+package it.tooly.shared.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Encodes (or decodes) everything written to it as Base64 and writes the
+ * result to another channel, a fixed-size buffer at a time. The channel
+ * equivalent of {@link Base64OutputStream}; the last bytes are only written
+ * by {@link #finish()} or {@link #close()}.
+ */
+public class Base64WritableByteChannel implements WritableByteChannel {
+
+	/**
+	 * Number of bytes converted at a time
+	 */
+	private static final int CHUNK_SIZE = 3 * 4 * 2048;
+
+	private final WritableByteChannel target;
+	private final Base64.Converter converter;
+	private final byte[] input;
+	private final ByteBuffer output;
+	private boolean finished;
+	private boolean open;
+
+	/**
+	 * Create a channel that encodes with the standard alphabet
+	 */
+	public Base64WritableByteChannel(WritableByteChannel target) {
+		this(target, Base64.STANDARD, true);
+	}
+
+	/**
+	 * @param target
+	 *            The channel to write the result to
+	 * @param codec
+	 *            The Base64 variant
+	 * @param encode
+	 *            true to encode the written data, false to decode it
+	 */
+	public Base64WritableByteChannel(WritableByteChannel target, Base64.Codec codec, boolean encode) {
+		this.target = target;
+		this.converter = codec.newConverter(encode);
+		this.input = new byte[CHUNK_SIZE];
+		this.output = ByteBuffer.allocate(this.converter.getMaxOutputLength(CHUNK_SIZE));
+		this.finished = false;
+		this.open = true;
+	}
+
+	/**
+	 * Converts all remaining bytes of src; blocks until the result is written
+	 *
+	 * @throws IOException
+	 *             Also if decoding and the data is not valid Base64
+	 */
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		if (!this.open)
+			throw new ClosedChannelException();
+		if (this.finished)
+			throw new IOException("Channel is finished");
+		int total = src.remaining();
+		try {
+			while (src.hasRemaining()) {
+				int length;
+				int written;
+				if (src.hasArray()) {
+					length = Math.min(CHUNK_SIZE, src.remaining());
+					written = this.converter.update(src.array(), src.arrayOffset() + src.position(), length,
+							this.output.array(), 0);
+					src.position(src.position() + length);
+				} else {
+					length = Math.min(this.input.length, src.remaining());
+					src.get(this.input, 0, length);
+					written = this.converter.update(this.input, 0, length, this.output.array(), 0);
+				}
+				writeOutput(written);
+			}
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid Base64 data", e);
+		}
+		return total;
+	}
+
+	/**
+	 * Write the last bytes, without closing the target channel. Nothing can be
+	 * written after this.
+	 *
+	 * @throws IOException
+	 *             Also if decoding and the data ended in the middle of a group
+	 */
+	public void finish() throws IOException {
+		if (this.finished)
+			return;
+		this.finished = true;
+		try {
+			writeOutput(this.converter.finish(this.output.array(), 0));
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid Base64 data", e);
+		}
+	}
+
+	private void writeOutput(int length) throws IOException {
+		this.output.clear().limit(length);
+		while (this.output.hasRemaining()) {
+			this.target.write(this.output);
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	/**
+	 * Write the last bytes and close the target channel
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!this.open)
+			return;
+		try {
+			finish();
+		} finally {
+			this.open = false;
+			this.target.close();
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package it.tooly.shared.common;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Replaces characters with strings in a single pass, using a table indexed
+ * by character. For example, to double single quotes and remove double
+ * quotes:
+ *
+ * <pre>
+ * CharEscaper escaper = new CharEscaper().with("'", "''").with("\"", "");
+ * </pre>
+ *
+ * A string without characters to replace is returned as it is, without a
+ * copy, and {@link #escape(CharSequence, StringBuilder)} appends to a builder
+ * the caller already has, so building a large statement from many values does
+ * not create a temporary string per value.
+ * <p>
+ * Instances are immutable and thread safe.
+ */
+public final class CharEscaper {
+
+	private static final String[] EMPTY_TABLE = new String[0];
+
+	/**
+	 * The replacement for each character, or null to keep it; characters
+	 * beyond the end of the table are kept
+	 */
+	private final String[] table;
+
+	/**
+	 * Create an escaper that does not replace anything; add replacements with
+	 * {@link #with(String, String)}
+	 */
+	public CharEscaper() {
+		this(EMPTY_TABLE);
+	}
+
+	private CharEscaper(final String[] table) {
+		this.table = table;
+	}
+
+	/**
+	 * @param chars
+	 *            The characters to replace
+	 * @param replacement
+	 *            The string to replace each of them with; empty to remove them
+	 * @return A new escaper that also replaces the given characters
+	 */
+	public CharEscaper with(final String chars, final String replacement) {
+		if (replacement == null)
+			throw new IllegalArgumentException("Replacement cannot be null");
+		int size = this.table.length;
+		for (int i = 0; i < chars.length(); i++) {
+			size = Math.max(size, chars.charAt(i) + 1);
+		}
+		String[] newTable = Arrays.copyOf(this.table, size);
+		for (int i = 0; i < chars.length(); i++) {
+			newTable[chars.charAt(i)] = replacement;
+		}
+		return new CharEscaper(newTable);
+	}
+
+	/**
+	 * @return The index of the first character that is replaced, or -1 if
+	 *         there is none
+	 */
+	public int indexOfEscapable(final CharSequence string, final int fromIndex) {
+		String[] replacements = this.table;
+		int length = string.length();
+		for (int i = fromIndex; i < length; i++) {
+			char c = string.charAt(i);
+			if (c < replacements.length && replacements[c] != null)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The escaped string; the same instance if nothing is replaced, or
+	 *         null if the string is null
+	 */
+	public String escape(final String string) {
+		if (string == null)
+			return null;
+		int first = indexOfEscapable(string, 0);
+		if (first < 0)
+			return string;
+		StringBuilder result = new StringBuilder(string.length() + 16);
+		result.append(string, 0, first);
+		appendFrom(string, first, result);
+		return result.toString();
+	}
+
+	/**
+	 * Append the escaped string to a builder
+	 *
+	 * @return The builder
+	 */
+	public StringBuilder escape(final CharSequence string, final StringBuilder out) {
+		appendFrom(string, 0, out);
+		return out;
+	}
+
+	/**
+	 * Append the escaped string to an appendable, like a writer
+	 *
+	 * @return The appendable
+	 * @throws IOException
+	 *             If the appendable throws it
+	 */
+	public Appendable escape(final CharSequence string, final Appendable out) throws IOException {
+		appendFrom(string, 0, out);
+		return out;
+	}
+
+	private void appendFrom(final CharSequence string, final int fromIndex, final StringBuilder out) {
+		try {
+			appendFrom(string, fromIndex, (Appendable) out);
+		} catch (IOException e) {
+			// A StringBuilder does not throw it
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void appendFrom(final CharSequence string, final int fromIndex, final Appendable out) throws IOException {
+		String[] replacements = this.table;
+		int length = string.length();
+		int start = fromIndex;
+		for (int i = fromIndex; i < length; i++) {
+			char c = string.charAt(i);
+			if (c < replacements.length && replacements[c] != null) {
+				out.append(string, start, i).append(replacements[c]);
+				start = i + 1;
+			}
+		}
+		out.append(string, start, length);
+	}
+}
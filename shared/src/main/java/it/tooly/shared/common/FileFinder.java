@@ -0,0 +1,480 @@
+package it.tooly.shared.common;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiPredicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Finds files and folders under a folder. The filter (a glob, a regular
+ * expression or any predicate) is prepared once, and the attributes of each
+ * entry are read once.
+ * <p>
+ * The files of a folder are returned before its subfolders, and both before
+ * the entries of the subfolders, which are visited in listing order (or name
+ * order, see {@link #setSorted(boolean)}). Folders that cannot be read are
+ * skipped.
+ * <p>
+ * By default the folders are walked on the calling thread while the result
+ * stream is consumed, so the first matches are available immediately and
+ * only one folder listing is held at a time. With {@link #setParallel(boolean)}
+ * the subfolders are listed at the same time on a fork-join pool, ahead of the
+ * consumer; the stream returns the matches in the same order, each folder as
+ * soon as it has been listed. Closing the stream stops the walk.
+ * <p>
+ * A finder can be used by several threads at the same time, as long as its
+ * settings are not changed.
+ */
+public class FileFinder {
+	private static final Logger LOGGER = Logger.getLogger(FileFinder.class);
+
+	private static final LinkOption[] NO_FOLLOW_LINKS = new LinkOption[] { LinkOption.NOFOLLOW_LINKS };
+	private static final LinkOption[] FOLLOW_LINKS = new LinkOption[0];
+
+	private static final BiPredicate<Path, BasicFileAttributes> ACCEPT_ALL = new BiPredicate<Path, BasicFileAttributes>() {
+		@Override
+		public boolean test(Path path, BasicFileAttributes attributes) {
+			return true;
+		}
+	};
+
+	private BiPredicate<Path, BasicFileAttributes> filter;
+	private int maxDepth;
+	private boolean includeFiles;
+	private boolean includeFolders;
+	private boolean followLinks;
+	private boolean sorted;
+	private boolean parallel;
+	private ForkJoinPool pool;
+
+	/**
+	 * Create a finder for all files (not folders) in the whole tree
+	 */
+	public FileFinder() {
+		this.filter = ACCEPT_ALL;
+		this.maxDepth = Integer.MAX_VALUE;
+		this.includeFiles = true;
+		this.includeFolders = false;
+		this.followLinks = false;
+		this.sorted = false;
+		this.parallel = false;
+		this.pool = null;
+	}
+
+	/**
+	 * Only return entries whose name matches a glob pattern, like
+	 * <code>*.{xml,pdf}</code>; see {@link java.nio.file.FileSystem#getPathMatcher}.
+	 * Case sensitivity depends on the file system.
+	 */
+	public void setGlob(final String glob) {
+		setMatcher(FileSystems.getDefault().getPathMatcher("glob:" + glob), true);
+	}
+
+	/**
+	 * Only return entries whose whole name matches a regular expression
+	 */
+	public void setRegex(final String regex) {
+		final Pattern pattern = Pattern.compile(regex);
+		this.filter = new BiPredicate<Path, BasicFileAttributes>() {
+			@Override
+			public boolean test(Path path, BasicFileAttributes attributes) {
+				Path name = path.getFileName();
+				return name != null && pattern.matcher(name.toString()).matches();
+			}
+		};
+	}
+
+	/**
+	 * Only return entries that match a path matcher
+	 *
+	 * @param matcher
+	 *            The matcher
+	 * @param fileNameOnly
+	 *            true to match the name of the entry, false to match the path
+	 *            (the folder that is searched resolved with the relative path
+	 *            of the entry)
+	 */
+	public void setMatcher(final PathMatcher matcher, final boolean fileNameOnly) {
+		this.filter = new BiPredicate<Path, BasicFileAttributes>() {
+			@Override
+			public boolean test(Path path, BasicFileAttributes attributes) {
+				Path matched = fileNameOnly ? path.getFileName() : path;
+				return matched != null && matcher.matches(matched);
+			}
+		};
+	}
+
+	/**
+	 * Only return entries that match a predicate, which also gets the
+	 * attributes of the entry; null to return all entries
+	 */
+	public void setFilter(final BiPredicate<Path, BasicFileAttributes> filter) {
+		this.filter = filter == null ? ACCEPT_ALL : filter;
+	}
+
+	public int getMaxDepth() {
+		return this.maxDepth;
+	}
+
+	/**
+	 * @param maxDepth
+	 *            The maximum number of folder levels to visit: 1 for only the
+	 *            entries of the folder that is searched
+	 */
+	public void setMaxDepth(final int maxDepth) {
+		if (maxDepth < 1)
+			throw new IllegalArgumentException("Maximum depth must be at least 1");
+		this.maxDepth = maxDepth;
+	}
+
+	public boolean isIncludeFiles() {
+		return this.includeFiles;
+	}
+
+	/**
+	 * @param includeFiles
+	 *            Whether to return files (and other entries that are not
+	 *            folders)
+	 */
+	public void setIncludeFiles(final boolean includeFiles) {
+		this.includeFiles = includeFiles;
+	}
+
+	public boolean isIncludeFolders() {
+		return this.includeFolders;
+	}
+
+	/**
+	 * @param includeFolders
+	 *            Whether to return folders; the folder that is searched itself
+	 *            is never returned
+	 */
+	public void setIncludeFolders(final boolean includeFolders) {
+		this.includeFolders = includeFolders;
+	}
+
+	public boolean isFollowLinks() {
+		return this.followLinks;
+	}
+
+	/**
+	 * @param followLinks
+	 *            Whether to follow symbolic links. Each folder is visited only
+	 *            once, so links that form a cycle are not followed forever.
+	 */
+	public void setFollowLinks(final boolean followLinks) {
+		this.followLinks = followLinks;
+	}
+
+	public boolean isSorted() {
+		return this.sorted;
+	}
+
+	/**
+	 * @param sorted
+	 *            Whether to sort the entries of each folder by name; this costs
+	 *            little, because only one folder is sorted at a time
+	 */
+	public void setSorted(final boolean sorted) {
+		this.sorted = sorted;
+	}
+
+	public boolean isParallel() {
+		return this.parallel;
+	}
+
+	/**
+	 * @param parallel
+	 *            Whether to walk subfolders at the same time
+	 */
+	public void setParallel(final boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * @param pool
+	 *            The pool to walk the folders on in parallel; null for the
+	 *            common pool
+	 */
+	public void setPool(final ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Find the matching entries under a folder
+	 *
+	 * @param folder
+	 *            The folder to search; if it does not exist or cannot be read,
+	 *            the result is empty
+	 * @return The matching entries, each resolved against the folder
+	 */
+	public Stream<Path> find(final Path folder) {
+		if (!this.parallel) {
+			Iterator<Path> iterator = new FolderIterator(folder, newVisitedSet(folder));
+			return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+		}
+		ForkJoinPool forkJoinPool = this.pool == null ? ForkJoinPool.commonPool() : this.pool;
+		final AtomicBoolean stopped = new AtomicBoolean(false);
+		FolderTask root = new FolderTask(folder, 1, newVisitedSet(folder), stopped);
+		forkJoinPool.execute(root);
+		Iterator<Path> iterator = new TaskIterator(root);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(new Runnable() {
+					@Override
+					public void run() {
+						stopped.set(true);
+					}
+				});
+	}
+
+	/**
+	 * @return The first matching entry under a folder, or null. Only the
+	 *         folders up to the first match are listed.
+	 */
+	public Path findFirst(final Path folder) {
+		Iterator<Path> iterator = new FolderIterator(folder, newVisitedSet(folder));
+		return iterator.hasNext() ? iterator.next() : null;
+	}
+
+	/**
+	 * @return The set of file keys of visited folders when following links,
+	 *         otherwise null
+	 */
+	private Set<Object> newVisitedSet(final Path folder) {
+		if (!this.followLinks)
+			return null;
+		Set<Object> visited = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+		try {
+			Object fileKey = Files.readAttributes(folder, BasicFileAttributes.class).fileKey();
+			if (fileKey != null)
+				visited.add(fileKey);
+		} catch (IOException e) {
+			// Then the folder cannot be listed either
+		}
+		return visited;
+	}
+
+	/**
+	 * List one folder
+	 *
+	 * @param folder
+	 *            The folder
+	 * @param depth
+	 *            The depth of the entries
+	 * @param matches
+	 *            Gets the matching entries: the files, then the folders
+	 * @param subfolders
+	 *            Gets the subfolders to visit, if depth is below the maximum
+	 */
+	private void listFolder(final Path folder, final int depth, final Set<Object> visited, final List<Path> matches,
+			final List<Path> subfolders) {
+		List<Path> entries = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+			for (Path entry : stream) {
+				entries.add(entry);
+			}
+		} catch (IOException | SecurityException e) {
+			LOGGER.debug("Skipping folder " + folder + ": " + e);
+			return;
+		}
+		if (this.sorted) {
+			Collections.sort(entries);
+		}
+		LinkOption[] linkOptions = this.followLinks ? FOLLOW_LINKS : NO_FOLLOW_LINKS;
+		List<Path> folderMatches = null;
+		for (Path entry : entries) {
+			BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(entry, BasicFileAttributes.class, linkOptions);
+			} catch (IOException e) {
+				try {
+					// A link to a file that does not exist
+					attributes = Files.readAttributes(entry, BasicFileAttributes.class, NO_FOLLOW_LINKS);
+				} catch (IOException e2) {
+					LOGGER.debug("Skipping " + entry + ": " + e2);
+					continue;
+				}
+			}
+			boolean isFolder = attributes.isDirectory();
+			if ((isFolder ? this.includeFolders : this.includeFiles) && this.filter.test(entry, attributes)) {
+				if (!isFolder) {
+					matches.add(entry);
+				} else {
+					if (folderMatches == null)
+						folderMatches = new ArrayList<Path>();
+					folderMatches.add(entry);
+				}
+			}
+			if (isFolder && depth < this.maxDepth && (visited == null || attributes.fileKey() == null || visited.add(attributes.fileKey()))) {
+				subfolders.add(entry);
+			}
+		}
+		if (folderMatches != null) {
+			matches.addAll(folderMatches);
+		}
+	}
+
+	/**
+	 * Walks the tree while the results are consumed
+	 */
+	private class FolderIterator implements Iterator<Path> {
+
+		private final Set<Object> visited;
+		/**
+		 * The folders still to visit; the first one on top
+		 */
+		private final Deque<Path> pending;
+		/**
+		 * The depth of the entries of each pending folder
+		 */
+		private final Deque<Integer> pendingDepths;
+		private Iterator<Path> current;
+
+		FolderIterator(final Path folder, final Set<Object> visited) {
+			this.visited = visited;
+			this.pending = new ArrayDeque<Path>();
+			this.pendingDepths = new ArrayDeque<Integer>();
+			this.pending.push(folder);
+			this.pendingDepths.push(Integer.valueOf(1));
+			this.current = Collections.<Path> emptyList().iterator();
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!this.current.hasNext()) {
+				Path folder = this.pending.poll();
+				if (folder == null)
+					return false;
+				int depth = this.pendingDepths.pop().intValue();
+				List<Path> matches = new ArrayList<Path>();
+				List<Path> subfolders = new ArrayList<Path>();
+				listFolder(folder, depth, this.visited, matches, subfolders);
+				for (int i = subfolders.size() - 1; i >= 0; i--) {
+					this.pending.push(subfolders.get(i));
+					this.pendingDepths.push(Integer.valueOf(depth + 1));
+				}
+				this.current = matches.iterator();
+			}
+			return true;
+		}
+
+		@Override
+		public Path next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return this.current.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Lists one folder and forks a task per subfolder. A task is done when its
+	 * folder has been listed, not when its subfolders have; the tasks keep
+	 * their matches, so the results are not copied from level to level.
+	 */
+	private class FolderTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Path folder;
+		private final int depth;
+		private final Set<Object> visited;
+		private final AtomicBoolean stopped;
+		private final List<Path> matches;
+		private final List<FolderTask> subtasks;
+
+		FolderTask(final Path folder, final int depth, final Set<Object> visited, final AtomicBoolean stopped) {
+			this.folder = folder;
+			this.depth = depth;
+			this.visited = visited;
+			this.stopped = stopped;
+			this.matches = new ArrayList<Path>();
+			this.subtasks = new ArrayList<FolderTask>();
+		}
+
+		@Override
+		protected void compute() {
+			if (this.stopped.get())
+				return;
+			List<Path> subfolders = new ArrayList<Path>();
+			listFolder(this.folder, this.depth, this.visited, this.matches, subfolders);
+			for (Path subfolder : subfolders) {
+				this.subtasks.add(new FolderTask(subfolder, this.depth + 1, this.visited, this.stopped));
+			}
+			// Published to the consumer by the completion of this task
+			for (FolderTask subtask : this.subtasks) {
+				subtask.fork();
+			}
+		}
+	}
+
+	/**
+	 * Returns the matches of a tree of tasks in walk order, waiting for each
+	 * folder to be listed
+	 */
+	private static class TaskIterator implements Iterator<Path> {
+
+		private final Deque<FolderTask> pending;
+		private Iterator<Path> current;
+
+		TaskIterator(final FolderTask root) {
+			this.pending = new ArrayDeque<FolderTask>();
+			this.pending.push(root);
+			this.current = Collections.<Path> emptyList().iterator();
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!this.current.hasNext()) {
+				FolderTask task = this.pending.poll();
+				if (task == null)
+					return false;
+				task.join();
+				for (int i = task.subtasks.size() - 1; i >= 0; i--) {
+					this.pending.push(task.subtasks.get(i));
+				}
+				this.current = task.matches.iterator();
+			}
+			return true;
+		}
+
+		@Override
+		public Path next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return this.current.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
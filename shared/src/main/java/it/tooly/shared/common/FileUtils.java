@@ -4,7 +4,6 @@ import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
@@ -18,14 +17,24 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.function.BiPredicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
@@ -44,6 +53,9 @@ public class FileUtils {
 	/** The logger instance. */
 	private final static Logger LOGGER = Logger.getLogger(FileUtils.class);
 
+	/** Replaces the characters that are not allowed in file names. */
+	private static final CharEscaper FILE_NAME_ESCAPER = new CharEscaper().with("\\/", "-").with("\t\n\r", " ").with(":\"", ";");
+
 	/**
 	 * Returns a List with the files with specified suffix and before a certain
 	 * time somewhere under a directory.
@@ -131,24 +143,111 @@ public class FileUtils {
 		String resultPath = null;
 		File targetFile = new File(targetFolder + File.separator + srcFile.getName());
 
-		// read the file
-		InputStream in = new FileInputStream(srcFile);
-
 		// For Overwrite the file.
-		OutputStream out = new FileOutputStream(targetFile);
-
-		byte[] buf = new byte[1024];
-		int len;
-		while ((len = in.read(buf)) > 0) {
-			out.write(buf, 0, len);
-		}
-		in.close();
-		out.close();
+		copyFile(srcFile, targetFile);
 		LOGGER.debug("File copied.");
 
 		return resultPath;
 	}
 
+	/**
+	 * Copies a file, overwriting the target file if it exists. The operating
+	 * system copies the data directly where it can.
+	 *
+	 * @param srcFile
+	 *            the src file
+	 * @param targetFile
+	 *            the target file
+	 * @return The number of bytes that were copied
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static long copyFile(final File srcFile, final File targetFile) throws IOException {
+		return copyFile(srcFile, 0, Long.MAX_VALUE, targetFile);
+	}
+
+	/**
+	 * Copies a range of a file to another file, overwriting the target file if
+	 * it exists.
+	 *
+	 * @param srcFile
+	 *            the src file
+	 * @param offset
+	 *            The position in the src file to start copying at
+	 * @param length
+	 *            The maximum number of bytes to copy
+	 * @param targetFile
+	 *            the target file
+	 * @return The number of bytes that were copied
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static long copyFile(final File srcFile, final long offset, final long length, final File targetFile) throws IOException {
+		FileInputStream in = new FileInputStream(srcFile);
+		try {
+			FileOutputStream out = new FileOutputStream(targetFile);
+			try {
+				return TransferUtils.transfer(in.getChannel(), offset, length, out.getChannel());
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Sends a range of a file to a channel, for example a socket channel,
+	 * without copying it through the Java heap where the operating system
+	 * supports it.
+	 *
+	 * @param file
+	 *            the file
+	 * @param offset
+	 *            The position in the file to start sending at
+	 * @param length
+	 *            The maximum number of bytes to send
+	 * @param target
+	 *            The channel to send to; it is not closed
+	 * @return The number of bytes that were sent
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static long sendFile(final File file, final long offset, final long length, final WritableByteChannel target) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return TransferUtils.transfer(in.getChannel(), offset, length, target);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Saves the data from a channel, for example a socket channel, into a
+	 * file, overwriting it if it exists.
+	 *
+	 * @param filename
+	 *            The name of the file where the data will be stored
+	 * @param source
+	 *            The channel to read from; it is not closed
+	 * @param length
+	 *            The maximum number of bytes to read, or
+	 *            {@link Long#MAX_VALUE} to read up to the end of the channel
+	 * @return the file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static File saveFile(final String filename, final ReadableByteChannel source, final long length) throws IOException {
+		File file = new File(filename);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			TransferUtils.transfer(source, out.getChannel(), 0, length);
+			return file;
+		} finally {
+			out.close();
+		}
+	}
+
 	/**
 	 * Gets the host name.
 	 *
@@ -277,13 +376,11 @@ public class FileUtils {
 	 * @return the file
 	 */
 	public static File findFirstFile(final String path, final String filter) {
-		FileFilter fileFilter = new WildcardFileFilter(filter, IOCase.SYSTEM);
-		List<File> files = findFiles(path, fileFilter, true);
-		if (files != null && files.size() > 0) {
-			return files.get(0);
-		} else {
-			return null;
-		}
+		FileFinder finder = new FileFinder();
+		finder.setFilter(toFinderFilter(new WildcardFileFilter(filter, IOCase.SYSTEM), false));
+		finder.setFollowLinks(true);
+		Path file = finder.findFirst(Paths.get(path));
+		return file == null ? null : file.toFile();
 	}
 
 	/**
@@ -305,26 +402,31 @@ public class FileUtils {
 			} else {
 				File parentFolder = templateFile.getParentFile();
 				if (parentFolder != null && parentFolder.exists()) {
-					final String fileName = templateFile.getName();
-					System.out.print("  Scaning for files like '" + fileNameRegEx + "'... ");
-
-					List<File> foundFiles = FileUtils.findFiles(parentFolder.getAbsolutePath(), new FileFilter() {
-
-						public boolean accept(final File f) {
-							return StringUtils.matchesPattern(f.getAbsolutePath(), fileName);
+					final Pattern fileNamePattern = Pattern.compile(templateFile.getName());
+					LOGGER.info("Scanning for files like '" + fileNameRegEx + "'");
+
+					FileFinder finder = new FileFinder();
+					finder.setMatcher(new PathMatcher() {
+						@Override
+						public boolean matches(final Path path) {
+							return fileNamePattern.matcher(path.toString()).find();
 						}
-					}, true);
-
-					Collections.sort(foundFiles);
-
-					for (File file : foundFiles) {
-						result.add(file.getAbsolutePath());
+					}, false);
+					finder.setFollowLinks(true);
+					// The result is sorted, so it is only returned once the
+					// whole tree has been walked; walking it in parallel
+					// still lists the folders at the same time
+					finder.setParallel(true);
+
+					Iterator<Path> foundFiles = finder.find(parentFolder.getAbsoluteFile().toPath()).sorted().iterator();
+					while (foundFiles.hasNext()) {
+						result.add(foundFiles.next().toString());
 					}
 
-					System.out.println(foundFiles.size() + " found");
+					LOGGER.info(result.size() + " files found like '" + fileNameRegEx + "'");
 
 				} else {
-					System.err.println("ERROR: Unable to determine parent folder for file '" + fileNameRegEx + "'");
+					LOGGER.error("Unable to determine parent folder for file '" + fileNameRegEx + "'");
 
 				}
 			}
@@ -349,7 +451,8 @@ public class FileUtils {
 	}
 
 	/**
-	 * Find files.
+	 * Find files. The files of a folder come before its subfolders, and both
+	 * before the contents of the subfolders.
 	 *
 	 * @param path
 	 *            the path
@@ -362,45 +465,15 @@ public class FileUtils {
 	 * @return the list
 	 */
 	public static List<File> findFiles(final String path, final FileFilter fileFilter, final boolean returnSubfolders, final boolean parseSubfolders) {
-
-		List<File> result = new ArrayList<File>();
-
-		File filePath = new File(path);
-
-		File[] files = filePath.listFiles(fileFilter);
-		if (files != null) {
-			for (File file : files) {
-				if (!file.isDirectory()) {
-					result.add(file);
-				}
-			}
-		}
-
-		if (returnSubfolders || parseSubfolders) {
-			File[] subFolders = filePath.listFiles(new FileFilter() {
-				public boolean accept(final File pathname) {
-					return pathname.isDirectory();
-				}
-			});
-
-			if (subFolders != null) {
-				// Add subfolders to the result
-				if (returnSubfolders) {
-					for (File subFolder : subFolders) {
-						result.add(subFolder);
-					}
-				}
-
-				// Add the content of subfolders to the result
-				if (parseSubfolders) {
-					for (File subFolder : subFolders) {
-						result.addAll(findFiles(subFolder.getAbsolutePath(), fileFilter, returnSubfolders));
-					}
-				}
-			}
+		FileFinder finder = new FileFinder();
+		// The filter only applies to files, subfolders are returned anyway
+		finder.setFilter(toFinderFilter(fileFilter, returnSubfolders));
+		finder.setIncludeFolders(returnSubfolders);
+		finder.setFollowLinks(true);
+		if (!parseSubfolders) {
+			finder.setMaxDepth(1);
 		}
-
-		return result;
+		return toFileList(finder.find(Paths.get(path)));
 	}
 
 	/**
@@ -433,44 +506,81 @@ public class FileUtils {
 	 * @return the list
 	 */
 	public static List<File> findFolders(final String path, final FileFilter folderFilter, final boolean parseSubfolders) {
-
-		List<File> result = new ArrayList<File>();
-
-		File filePath = new File(path);
-
-		File[] subFolders = filePath.listFiles(folderFilter);
-		for (File file : subFolders) {
-			if (file.isDirectory()) {
-				result.add(file);
-			}
+		FileFinder finder = new FileFinder();
+		finder.setFilter(toFinderFilter(folderFilter, false));
+		finder.setIncludeFiles(false);
+		finder.setIncludeFolders(true);
+		finder.setFollowLinks(true);
+		if (!parseSubfolders) {
+			finder.setMaxDepth(1);
 		}
+		return toFileList(finder.find(Paths.get(path)));
+	}
 
-		// Add the content of subfolders to the result
-		if (parseSubfolders) {
-			for (File subFolder : subFolders) {
-				result.addAll(findFolders(subFolder.getAbsolutePath(), folderFilter, true));
-			}
+	/**
+	 * Adapts a file filter for a {@link FileFinder}
+	 *
+	 * @param fileFilter
+	 *            the file filter; null to accept all
+	 * @param acceptFolders
+	 *            accept folders without asking the file filter
+	 * @return the finder filter
+	 */
+	private static BiPredicate<Path, BasicFileAttributes> toFinderFilter(final FileFilter fileFilter, final boolean acceptFolders) {
+		if (fileFilter == null) {
+			return null;
 		}
+		return new BiPredicate<Path, BasicFileAttributes>() {
+			@Override
+			public boolean test(final Path path, final BasicFileAttributes attributes) {
+				return (acceptFolders && attributes.isDirectory()) || fileFilter.accept(path.toFile());
+			}
+		};
+	}
 
+	private static List<File> toFileList(final Stream<Path> paths) {
+		List<File> result = new ArrayList<File>();
+		Iterator<Path> iterator = paths.iterator();
+		while (iterator.hasNext()) {
+			result.add(iterator.next().toFile());
+		}
 		return result;
 	}
 
 	/**
-	 * Loads a file into the byte array;.
+	 * Loads a file into the byte array;. The array is allocated once with the
+	 * size of the file; use {@link #mapFile(File)} for large files.
 	 *
 	 * @param filename
 	 *            The name of the file to be lodaded
 	 * @return Content of the file as a byte array
 	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 *             Signals that an I/O exception has occurred, or the file is
+	 *             too large for an array.
 	 */
 	public static byte[] loadFile(final String filename) throws IOException {
 
 		FileInputStream fis = new FileInputStream(filename);
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		copyStream(fis, baos);
+		try {
+			return copyStreamToByteArray(fis);
+		} finally {
+			fis.close();
+		}
+	}
 
-		return baos.toByteArray();
+	/**
+	 * Maps a file read-only into memory, so its content can be hashed,
+	 * scanned or uploaded without loading it on the Java heap. The result
+	 * should be closed.
+	 *
+	 * @param file
+	 *            the file
+	 * @return the mapped file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static MappedFile mapFile(final File file) throws IOException {
+		return MappedFile.open(file);
 	}
 
 	/**
@@ -490,14 +600,15 @@ public class FileUtils {
 	 */
 	public static File saveFile(final String filename, final InputStream inputStream) throws IOException {
 		File file = new File(filename);
-		BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(file));
+		// Not buffered: copyStream writes large blocks, or transfers directly
+		// from a file input stream
+		FileOutputStream fos = new FileOutputStream(file);
 		try {
-			copyStream(inputStream, bos);
+			copyStream(inputStream, fos);
 			return file;
 		} finally {
 			inputStream.close();
-			bos.flush();
-			bos.close();
+			fos.close();
 		}
 	}
 
@@ -599,7 +710,10 @@ public class FileUtils {
 
 	/**
 	 * Copies the given number of bytes (starting at a given offset) from the
-	 * input stream (source) into the output stream (destination).
+	 * input stream (source) into the output stream (destination). Exactly
+	 * <code>offset</code> bytes are skipped and at most <code>length</code>
+	 * bytes are copied; file streams are copied through their channels (see
+	 * {@link TransferUtils}).
 	 *
 	 * @param inputStream
 	 *            The source stream from which the data will be copied into the
@@ -616,21 +730,13 @@ public class FileUtils {
 	 *             Signals that an I/O exception has occurred.
 	 */
 	public static long copyStream(final InputStream inputStream, final OutputStream outputStream, final long offset, final long length) throws IOException {
-		byte[] buff = new byte[1024];
-		int len = 0;
-		long total = 0;
-		inputStream.skip(offset);
-		len = inputStream.read(buff);
-		while (len > 0 && total < length) {
-			outputStream.write(buff, 0, len);
-			total += len;
-			len = inputStream.read(buff);
-		}
-		return total;
+		return TransferUtils.copy(inputStream, outputStream, offset, length);
 	}
 
 	/**
 	 * Reads all bytes from the input stream and generates a byte array of it.
+	 * The size of a file input stream is known up front, so its array is
+	 * allocated once.
 	 *
 	 * @param inputStream
 	 *            The source stream to copy the bytes from.
@@ -639,9 +745,26 @@ public class FileUtils {
 	 *             Signals that an I/O exception has occurred.
 	 */
 	public static byte[] copyStreamToByteArray(final InputStream inputStream) throws IOException {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		copyStream(inputStream, baos);
-		return baos.toByteArray();
+		return copyStreamToByteArray(inputStream, -1);
+	}
+
+	/**
+	 * Reads all bytes from the input stream and generates a byte array of it.
+	 * If the expected length is right, the bytes are read straight into the
+	 * result without any intermediate copy.
+	 *
+	 * @param inputStream
+	 *            The source stream to copy the bytes from.
+	 * @param expectedLength
+	 *            The expected number of bytes, for example the content size;
+	 *            -1 if unknown
+	 * @return Byte array with all bytes copied from the input source
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred, or there are too
+	 *             many bytes for an array.
+	 */
+	public static byte[] copyStreamToByteArray(final InputStream inputStream, final long expectedLength) throws IOException {
+		return TransferUtils.readAll(inputStream, expectedLength);
 	}
 
 	/**
@@ -738,8 +861,11 @@ public class FileUtils {
 	}
 
 	/**
-	 * Given the string that is Base64 encoded, this method will first decode it
-	 * (to binary) and then save it to a binary file.
+	 * Given the string that is Base64 encoded, this method will decode it (to
+	 * binary) and save it to a binary file. The string is decoded a buffer at a
+	 * time while the file is written; line breaks are ignored. The data is
+	 * written to a temporary file first, so the file is only created (or
+	 * replaced) when all data was valid.
 	 *
 	 * @param filename
 	 *            The name of the file where the string will be stored
@@ -747,11 +873,78 @@ public class FileUtils {
 	 *            the base64 encoded string
 	 * @return the file
 	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 *             Signals that an I/O exception has occurred, or that the
+	 *             string is not valid Base64.
 	 */
 	public static File saveBase64StringToFile(final String filename, final String base64EncodedString) throws IOException {
-		byte[] byteArray = Base64.decode(base64EncodedString.getBytes());
-		return saveFile(filename, byteArray);
+		File file = new File(filename);
+		File tempFile = createTempFileFor(file);
+		boolean saved = false;
+		try {
+			try (OutputStream bos = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+				Base64.MIME.decode(base64EncodedString, bos);
+				bos.flush();
+			}
+			moveIntoPlace(tempFile, file);
+			saved = true;
+			return file;
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid Base64 data", e);
+		} finally {
+			if (!saved)
+				tempFile.delete();
+		}
+	}
+
+	/**
+	 * Decodes the Base64 data from the input stream and saves it to a binary
+	 * file, without holding the data in memory. Line breaks are ignored. Like
+	 * {@link #saveBase64StringToFile(String, String)} the file is only created
+	 * (or replaced) when all data was valid.
+	 *
+	 * @param filename
+	 *            The name of the file where the data will be stored
+	 * @param base64InputStream
+	 *            Input stream to read the Base64 data from. It is closed by
+	 *            this method.
+	 * @return the file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred, or that the data
+	 *             is not valid Base64.
+	 */
+	public static File saveBase64StreamToFile(final String filename, final InputStream base64InputStream) throws IOException {
+		File file = new File(filename);
+		File tempFile = createTempFileFor(file);
+		boolean saved = false;
+		try {
+			saveFile(tempFile.getPath(), new Base64InputStream(base64InputStream, Base64.MIME, false));
+			moveIntoPlace(tempFile, file);
+			saved = true;
+			return file;
+		} finally {
+			if (!saved)
+				tempFile.delete();
+		}
+	}
+
+	/**
+	 * @return A new temporary file in the directory of the file, so it can be
+	 *         moved into its place
+	 */
+	private static File createTempFileFor(final File file) throws IOException {
+		return File.createTempFile("." + file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+	}
+
+	/**
+	 * Replace the file with the temporary file, atomically if the file system
+	 * supports it
+	 */
+	private static void moveIntoPlace(final File tempFile, final File file) throws IOException {
+		try {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
 	}
 
 	public static void savePasswordToFile(File file, String password) throws NoSuchAlgorithmException, NoSuchPaddingException, IOException {
@@ -787,16 +980,15 @@ public class FileUtils {
 	 */
 	public static String escapeFileName(final String fileName) {
 		if (fileName != null) {
-			String result = fileName.replaceAll("\\\\", "-").replaceAll("/", "-").replaceAll("\\t", " ").replaceAll("\\n", " ").replaceAll("\\r", " ").replaceAll("\\:", ";")
-					.replaceAll("\\\"", ";");
-			return result;
+			return FILE_NAME_ESCAPER.escape(fileName);
 		}
 		return null;
 	}
 
 	/**
 	 * Creates an ZIP archive out of given files. The zip archive will be flat
-	 * i.e. all files will be in the root of the archive.
+	 * i.e. all files will be in the root of the archive. The files are
+	 * compressed in parallel, see {@link ZipArchiver}.
 	 *
 	 * @param zipFile
 	 *            the zip file
@@ -807,30 +999,25 @@ public class FileUtils {
 	 */
 	public static void zipFiles(File zipFile, File... sourceFiles) throws IOException {
 
-		BufferedOutputStream fos = new BufferedOutputStream(new FileOutputStream(zipFile));
-		ZipOutputStream zos = new ZipOutputStream(fos);
-
-		if (sourceFiles != null && sourceFiles.length > 0) {
-			for (File sourceFile : sourceFiles) {
-				if (!sourceFile.isDirectory()) {
-					ZipEntry ze = new ZipEntry(sourceFile.getName());
-					zos.putNextEntry(ze);
-
-					FileInputStream fis = new FileInputStream(sourceFile);
-					copyStream(fis, zos);
-					fis.close();
-					zos.closeEntry();
+		ZipArchiver archiver = new ZipArchiver(new BufferedOutputStream(new FileOutputStream(zipFile)));
+		try {
+			if (sourceFiles != null && sourceFiles.length > 0) {
+				for (File sourceFile : sourceFiles) {
+					if (!sourceFile.isDirectory()) {
+						archiver.addFile(sourceFile, sourceFile.getName());
+					}
 				}
 			}
+		} finally {
+			archiver.close();
 		}
-		zos.close();
-		fos.close();
 
 	}
 
 	/**
 	 * Zip the contents of a folder, possibly including sub folders
-	 * (recursively).
+	 * (recursively). The files are compressed in parallel, see
+	 * {@link ZipArchiver}.
 	 *
 	 * @param zipFile
 	 *            the zip file
@@ -851,31 +1038,20 @@ public class FileUtils {
 
 			List<File> sourceFiles = findFiles(folder.getAbsolutePath(), null, false, zipSubfolders);
 
-			BufferedOutputStream fos = new BufferedOutputStream(new FileOutputStream(zipFile));
-			ZipOutputStream zos = new ZipOutputStream(fos);
-
-			if (sourceFiles != null && sourceFiles.size() > 0) {
+			ZipArchiver archiver = new ZipArchiver(new BufferedOutputStream(new FileOutputStream(zipFile)));
+			try {
 				for (File sourceFile : sourceFiles) {
-					if (!sourceFile.isDirectory()) {
-
-						String zippeddFilePath = null;
-						if (preserveFolderTree) {
-							zippeddFilePath = sourceFile.getAbsolutePath().substring(rootPath.length() + 1);
-						} else {
-							zippeddFilePath = sourceFile.getName();
-						}
-						ZipEntry ze = new ZipEntry(zippeddFilePath);
-						zos.putNextEntry(ze);
-
-						FileInputStream fis = new FileInputStream(sourceFile);
-						copyStream(fis, zos);
-						fis.close();
-						zos.closeEntry();
+					String zippeddFilePath = null;
+					if (preserveFolderTree) {
+						zippeddFilePath = sourceFile.getAbsolutePath().substring(rootPath.length() + 1).replace(File.separatorChar, '/');
+					} else {
+						zippeddFilePath = sourceFile.getName();
 					}
+					archiver.addFile(sourceFile, zippeddFilePath);
 				}
+			} finally {
+				archiver.close();
 			}
-			zos.close();
-			fos.close();
 			// LOGGER.debug("ZIP archive created!");
 		}
 	}
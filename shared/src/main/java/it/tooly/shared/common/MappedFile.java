@@ -0,0 +1,258 @@
+package it.tooly.shared.common;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * A local file mapped read-only into memory, so its content can be hashed,
+ * scanned or uploaded without copying it to the Java heap. A buffer can hold
+ * at most 2 GB, so the file is mapped in chunks (of 1 GB by default), each
+ * mapped the first time it is used.
+ * <p>
+ * Typical use:
+ *
+ * <pre>
+ * try (MappedFile mapped = MappedFile.open(file)) {
+ * 	mapped.update(digest);
+ * }
+ * </pre>
+ *
+ * Closing the file releases the channel; the operating system keeps the
+ * mappings until the buffers are garbage collected, so buffers that were
+ * handed out stay readable. Instances are thread safe, but the buffers they
+ * return are not: use one per thread, or {@link ByteBuffer#duplicate()} them.
+ */
+public class MappedFile implements Closeable {
+
+	/**
+	 * The default chunk size
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 30;
+
+	private final FileChannel channel;
+	private final long size;
+	private final int chunkSize;
+	private final MappedByteBuffer[] chunks;
+
+	private MappedFile(final FileChannel channel, final int chunkSize) throws IOException {
+		this.channel = channel;
+		this.size = channel.size();
+		this.chunkSize = chunkSize;
+		long nrChunks = (this.size + chunkSize - 1) / chunkSize;
+		if (nrChunks > Integer.MAX_VALUE)
+			throw new IOException("File of " + this.size + " bytes has too many chunks of " + chunkSize + " bytes");
+		this.chunks = new MappedByteBuffer[(int) nrChunks];
+	}
+
+	/**
+	 * Map a file in chunks of {@link #DEFAULT_CHUNK_SIZE} bytes
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static MappedFile open(final File file) throws IOException {
+		return open(file, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Map a file in chunks of the given size
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static MappedFile open(final File file, final int chunkSize) throws IOException {
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			return new MappedFile(channel, chunkSize);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The size of the file when it was opened
+	 */
+	public long size() {
+		return this.size;
+	}
+
+	public int getChunkSize() {
+		return this.chunkSize;
+	}
+
+	public int getChunkCount() {
+		return this.chunks.length;
+	}
+
+	/**
+	 * @return A new read-only buffer over the chunk with the given index; its
+	 *         position is zero and its limit is the chunk length
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public ByteBuffer getChunk(final int index) throws IOException {
+		if (index < 0 || index >= this.chunks.length)
+			throw new IndexOutOfBoundsException("Chunk " + index + " of " + this.chunks.length);
+		return mapChunk(index).duplicate();
+	}
+
+	/**
+	 * @return The whole file as one read-only buffer
+	 * @throws IOException
+	 *             If the file is larger than one chunk, or an I/O exception
+	 *             has occurred.
+	 */
+	public ByteBuffer asByteBuffer() throws IOException {
+		if (this.chunks.length > 1)
+			throw new IOException("File of " + this.size + " bytes does not fit in one buffer; use the chunks");
+		return this.chunks.length == 0 ? ByteBuffer.allocate(0).asReadOnlyBuffer() : getChunk(0);
+	}
+
+	/**
+	 * Returns a read-only view of a range of the file. A range within one
+	 * chunk shares the chunk's mapping; a range that spans two chunks is
+	 * mapped separately.
+	 *
+	 * @param position
+	 *            The position in the file where the range starts
+	 * @param length
+	 *            The length of the range
+	 * @return A buffer with position zero and limit length
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public ByteBuffer slice(final long position, final int length) throws IOException {
+		if (position < 0 || length < 0 || position + length > this.size)
+			throw new IndexOutOfBoundsException("Range " + position + "+" + length + " of " + this.size);
+		int index = (int) (position / this.chunkSize);
+		int offset = (int) (position - (long) index * this.chunkSize);
+		if (length == 0)
+			return ByteBuffer.allocate(0).asReadOnlyBuffer();
+		if (offset + (long) length <= this.chunkSize) {
+			ByteBuffer buffer = mapChunk(index).duplicate();
+			buffer.position(offset).limit(offset + length);
+			return buffer.slice();
+		}
+		return this.channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+	}
+
+	/**
+	 * Feed the whole file to a message digest
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void update(final MessageDigest digest) throws IOException {
+		for (int i = 0; i < this.chunks.length; i++) {
+			digest.update(getChunk(i));
+		}
+	}
+
+	/**
+	 * Write the whole file to a channel, for example a socket channel
+	 *
+	 * @return The number of bytes written
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public long writeTo(final WritableByteChannel target) throws IOException {
+		for (int i = 0; i < this.chunks.length; i++) {
+			ByteBuffer chunk = getChunk(i);
+			while (chunk.hasRemaining()) {
+				target.write(chunk);
+			}
+		}
+		return this.size;
+	}
+
+	/**
+	 * @return A new input stream over the whole file, for APIs that only
+	 *         accept streams. Closing it does not close this file.
+	 */
+	public InputStream newInputStream() {
+		return new ChunkInputStream();
+	}
+
+	/**
+	 * Close the file channel. Chunks that are already mapped stay readable.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	private MappedByteBuffer mapChunk(final int index) throws IOException {
+		synchronized (this.chunks) {
+			MappedByteBuffer chunk = this.chunks[index];
+			if (chunk == null) {
+				long position = (long) index * this.chunkSize;
+				chunk = this.channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(this.chunkSize, this.size - position));
+				this.chunks[index] = chunk;
+			}
+			return chunk;
+		}
+	}
+
+	/**
+	 * Reads the chunks one after the other
+	 */
+	private class ChunkInputStream extends InputStream {
+
+		private int index = -1;
+		private ByteBuffer current = ByteBuffer.allocate(0);
+
+		@Override
+		public int read() throws IOException {
+			if (!nextChunk())
+				return -1;
+			return this.current.get() & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!nextChunk())
+				return -1;
+			int length = Math.min(len, this.current.remaining());
+			this.current.get(b, off, length);
+			return length;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException {
+			long skipped = 0;
+			while (skipped < n && nextChunk()) {
+				int length = (int) Math.min(n - skipped, this.current.remaining());
+				this.current.position(this.current.position() + length);
+				skipped += length;
+			}
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return this.current.remaining();
+		}
+
+		private boolean nextChunk() throws IOException {
+			while (!this.current.hasRemaining()) {
+				if (this.index + 1 >= getChunkCount())
+					return false;
+				this.current = getChunk(++this.index);
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package it.tooly.shared.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * A bounded cache of compiled regular expressions, for code that gets its
+ * patterns at run time and uses them many times, like the regex helpers in
+ * {@link StringUtils}. Lookups do not lock; when the cache is full, the
+ * least recently used patterns are evicted (an eighth of the cache at a
+ * time, so eviction is rare).
+ * <p>
+ * Patterns that are known at compile time are better kept in a static final
+ * field.
+ */
+public class PatternCache {
+
+	/**
+	 * Maximum number of patterns in the {@link #getDefault() default cache}
+	 */
+	public static final int DEFAULT_MAX_SIZE = 512;
+
+	private static final PatternCache DEFAULT = new PatternCache(DEFAULT_MAX_SIZE);
+
+	private final int maxSize;
+	private final ConcurrentHashMap<Key, Entry> entries;
+	/**
+	 * Only advances on a miss: the entries used since the last miss share a
+	 * stamp, which is all eviction needs
+	 */
+	private final AtomicLong clock;
+	private final Object evictionLock;
+
+	/**
+	 * @param maxSize
+	 *            Maximum number of patterns in the cache
+	 */
+	public PatternCache(int maxSize) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("Maximum size must be at least 1");
+		this.maxSize = maxSize;
+		this.entries = new ConcurrentHashMap<Key, Entry>();
+		this.clock = new AtomicLong();
+		this.evictionLock = new Object();
+	}
+
+	/**
+	 * @return The cache that is shared by the helpers in this package
+	 */
+	public static PatternCache getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Get a pattern from the default cache
+	 *
+	 * @see #get(String)
+	 */
+	public static Pattern compile(String regex) {
+		return DEFAULT.get(regex, 0);
+	}
+
+	/**
+	 * Get a pattern with flags from the default cache
+	 *
+	 * @see #get(String, int)
+	 */
+	public static Pattern compile(String regex, int flags) {
+		return DEFAULT.get(regex, flags);
+	}
+
+	/**
+	 * @return The compiled regular expression
+	 * @throws java.util.regex.PatternSyntaxException
+	 *             If the expression is invalid
+	 */
+	public Pattern get(String regex) {
+		return get(regex, 0);
+	}
+
+	/**
+	 * @param regex
+	 *            The regular expression
+	 * @param flags
+	 *            The flags, see {@link Pattern#compile(String, int)}
+	 * @return The compiled regular expression
+	 * @throws java.util.regex.PatternSyntaxException
+	 *             If the expression is invalid
+	 */
+	public Pattern get(String regex, int flags) {
+		Key key = new Key(regex, flags);
+		Entry entry = this.entries.get(key);
+		if (entry != null) {
+			entry.lastUsed = this.clock.get();
+			return entry.pattern;
+		}
+		entry = new Entry(Pattern.compile(regex, flags), this.clock.incrementAndGet());
+		Entry existing = this.entries.putIfAbsent(key, entry);
+		if (existing != null)
+			return existing.pattern;
+		if (this.entries.size() > this.maxSize)
+			evict();
+		return entry.pattern;
+	}
+
+	public int getMaxSize() {
+		return this.maxSize;
+	}
+
+	/**
+	 * @return The number of patterns in the cache
+	 */
+	public int size() {
+		return this.entries.size();
+	}
+
+	public void clear() {
+		this.entries.clear();
+	}
+
+	/**
+	 * Remove the least recently used entries
+	 */
+	private void evict() {
+		synchronized (this.evictionLock) {
+			int excess = this.entries.size() - this.maxSize;
+			if (excess <= 0)
+				return;
+			// Snapshot the stamps, they may change while sorting
+			List<Candidate> candidates = new ArrayList<Candidate>(this.entries.size());
+			for (Map.Entry<Key, Entry> entry : this.entries.entrySet()) {
+				candidates.add(new Candidate(entry.getKey(), entry.getValue()));
+			}
+			Collections.sort(candidates, new Comparator<Candidate>() {
+				@Override
+				public int compare(Candidate c1, Candidate c2) {
+					return Long.compare(c1.lastUsed, c2.lastUsed);
+				}
+			});
+			int count = Math.min(candidates.size(), excess + Math.max(1, this.maxSize / 8) - 1);
+			for (int i = 0; i < count; i++) {
+				this.entries.remove(candidates.get(i).key, candidates.get(i).entry);
+			}
+		}
+	}
+
+	private static final class Key {
+		private final String regex;
+		private final int flags;
+
+		Key(String regex, int flags) {
+			this.regex = regex;
+			this.flags = flags;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * this.regex.hashCode() + this.flags;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return this.flags == other.flags && this.regex.equals(other.regex);
+		}
+	}
+
+	private static final class Entry {
+		final Pattern pattern;
+		volatile long lastUsed;
+
+		Entry(Pattern pattern, long lastUsed) {
+			this.pattern = pattern;
+			this.lastUsed = lastUsed;
+		}
+	}
+
+	private static final class Candidate {
+		final Key key;
+		final Entry entry;
+		final long lastUsed;
+
+		Candidate(Key key, Entry entry) {
+			this.key = key;
+			this.entry = entry;
+			this.lastUsed = entry.lastUsed;
+		}
+	}
+}
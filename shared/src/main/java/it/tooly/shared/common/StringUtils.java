@@ -20,6 +20,21 @@ public class StringUtils {
 	/** The Constant EMPTY_STRING_ARRAY. */
 	private static final String[] EMPTY_STRING_ARRAY = new String[0];
 
+	/** Matches HTML tags. */
+	private static final Pattern HTML_TAG_PATTERN = Pattern.compile("<.*?>");
+
+	/** Matches the number at the end of a string. */
+	private static final Pattern ENDING_NUMBER_PATTERN = Pattern.compile("\\d+$");
+
+	/** Matches commas outside double quotes. */
+	private static final Pattern COMMA_OUTSIDE_DOUBLE_QUOTES_PATTERN = Pattern.compile(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
+
+	/** Matches commas outside single quotes. */
+	private static final Pattern COMMA_OUTSIDE_SINGLE_QUOTES_PATTERN = Pattern.compile(",(?=([^\']*\'[^\']*\')*[^\']*$)");
+
+	/** Matches commas outside brackets, with the spaces around them. */
+	private static final Pattern COMMA_OUTSIDE_BRACKETS_PATTERN = Pattern.compile(" *, *(?![^()]*\\))");
+
 	/**
 	 * Matches pattern.
 	 *
@@ -30,11 +45,43 @@ public class StringUtils {
 	 * @return true, if successful
 	 */
 	public static boolean matchesPattern(final String string, final String regExPattern) {
-		final Pattern pattern = Pattern.compile(regExPattern);
+		final Pattern pattern = PatternCache.compile(regExPattern);
 		Matcher matcher = pattern.matcher(string);
 		return matcher.find();
 	}
 
+	/**
+	 * Same as {@link String#replaceAll(String, String)}, but the compiled
+	 * pattern is cached (see {@link PatternCache}).
+	 *
+	 * @param string
+	 *            the string
+	 * @param regExPattern
+	 *            the reg ex pattern
+	 * @param replacement
+	 *            the replacement, which may refer to groups
+	 * @return the string
+	 */
+	public static String replacePattern(final String string, final String regExPattern, final String replacement) {
+		return PatternCache.compile(regExPattern).matcher(string).replaceAll(replacement);
+	}
+
+	/**
+	 * Same as {@link String#split(String, int)}, but the compiled pattern is
+	 * cached (see {@link PatternCache}).
+	 *
+	 * @param string
+	 *            the string
+	 * @param regExPattern
+	 *            the reg ex pattern
+	 * @param limit
+	 *            the limit, see {@link Pattern#split(CharSequence, int)}
+	 * @return the string[]
+	 */
+	public static String[] splitPattern(final String string, final String regExPattern, final int limit) {
+		return PatternCache.compile(regExPattern).split(string, limit);
+	}
+
 	/**
 	 * Converts given list of strings to a single string with values quoted and
 	 * comma separated (e.g. 'value1','value2','value3')
@@ -262,7 +309,7 @@ public class StringUtils {
 		String result = inString;
 		if (inString != null && params != null) {
 			for (int i = 0; i < params.length; i++) {
-				result = result.replaceAll("\\{" + i + "\\}", params[i]);
+				result = replacePattern(result, "\\{" + i + "\\}", params[i]);
 			}
 		}
 
@@ -290,7 +337,7 @@ public class StringUtils {
 	 * @return the string
 	 */
 	public static String removeHtmlTags(final String str) {
-		return str.replaceAll("<.*?>", "");
+		return HTML_TAG_PATTERN.matcher(str).replaceAll("");
 	}
 
 	/**
@@ -468,7 +515,7 @@ public class StringUtils {
 				if (ignoredCharacters != null && ignoredCharacters.length > 0) {
 					for (String ignoredChar : ignoredCharacters) {
 						if (ignoredChar != null && ignoredChar.length() > 0) {
-							strValue = strValue.replaceAll(ignoredChar, "");
+							strValue = replacePattern(strValue, ignoredChar, "");
 						}
 					}
 				}
@@ -503,7 +550,7 @@ public class StringUtils {
 				if (ignoredCharacters != null && ignoredCharacters.length > 0) {
 					for (String ignoredChar : ignoredCharacters) {
 						if (ignoredChar != null && ignoredChar.length() > 0) {
-							strValue = strValue.replaceAll(ignoredChar, "");
+							strValue = replacePattern(strValue, ignoredChar, "");
 						}
 					}
 				}
@@ -529,8 +576,7 @@ public class StringUtils {
 	 */
 	public static int extractEndingNumber(final String str, final int defaultValue) {
 		if (str != null && str.trim().length() > 0) {
-			final Pattern pattern = Pattern.compile("\\d+$");
-			Matcher matcher = pattern.matcher(str);
+			Matcher matcher = ENDING_NUMBER_PATTERN.matcher(str);
 
 			if (matcher.find()) {
 				String group = matcher.group();
@@ -711,7 +757,7 @@ public class StringUtils {
 	 * @return the string
 	 */
 	public static String extractStringBetween(final String source, final String startMark, final String endMark) {
-		Pattern pattern = Pattern.compile(startMark + "(.*?)" + endMark);
+		Pattern pattern = PatternCache.compile(startMark + "(.*?)" + endMark);
 		Matcher matcher = pattern.matcher(source);
 		if (matcher.find()) {
 			return matcher.group(1);
@@ -4540,7 +4586,7 @@ public class StringUtils {
 		Map<String, Object> result = new HashMap<String, Object>();
 
 		if (line != null && line.trim().length() > 0) {
-			String[] attrValuePairs = line.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)", -1);
+			String[] attrValuePairs = COMMA_OUTSIDE_DOUBLE_QUOTES_PATTERN.split(line, -1);
 
 			for (String attrValuePair : attrValuePairs) {
 				if (attrValuePair.contains("=")) {
@@ -4551,7 +4597,7 @@ public class StringUtils {
 					rawValue = rawValue.trim();
 
 					if (rawValue.startsWith("'")) {
-						String[] values = rawValue.split(",(?=([^\']*\'[^\']*\')*[^\']*$)", -1);
+						String[] values = COMMA_OUTSIDE_SINGLE_QUOTES_PATTERN.split(rawValue, -1);
 						for (int j = 0; j < values.length; j++) {
 							values[j] = removeQuotes(values[j], "\'");
 						}
@@ -4574,7 +4620,7 @@ public class StringUtils {
 	 * @return the string[]
 	 */
 	public static String[] splitPreserveDoubleQuotes(String source) {
-		return source.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)", -1);
+		return COMMA_OUTSIDE_DOUBLE_QUOTES_PATTERN.split(source, -1);
 	}
 
 	/**
@@ -4585,7 +4631,7 @@ public class StringUtils {
 	 * @return the string[]
 	 */
 	public static String[] splitPreserveSingleQuotes(String source) {
-		return source.split(",(?=([^\']*\'[^\']*\')*[^\']*$)", -1);
+		return COMMA_OUTSIDE_SINGLE_QUOTES_PATTERN.split(source, -1);
 	}
 
 	/**
@@ -4596,7 +4642,7 @@ public class StringUtils {
 	 * @return the string[]
 	 */
 	public static String[] splitPreserveBrackets(String source) {
-		return source.split(" *, *(?![^()]*\\))", -1);
+		return COMMA_OUTSIDE_BRACKETS_PATTERN.split(source, -1);
 	}
 
 	/**
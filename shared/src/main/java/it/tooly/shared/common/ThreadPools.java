@@ -0,0 +1,95 @@
+package it.tooly.shared.common;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Executors for tasks that mostly wait for I/O, like calls to a repository.
+ * On a JDK with virtual threads (21 and later) every task gets its own virtual
+ * thread, so thousands of waiting tasks are cheap; on older JDKs the tasks
+ * share a bounded pool of daemon threads. The virtual thread executor is
+ * looked up with reflection, so this compiles and runs on Java 8.
+ */
+public final class ThreadPools {
+	private static final Logger LOGGER = Logger.getLogger(ThreadPools.class);
+
+	/**
+	 * <code>Executors.newVirtualThreadPerTaskExecutor()</code>, or null if the
+	 * JDK does not have virtual threads
+	 */
+	private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutorMethod();
+
+	private ThreadPools() {
+	}
+
+	/**
+	 * @return Whether the JDK supports virtual threads
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+	}
+
+	/**
+	 * @return An executor that starts a new virtual thread for each task, or
+	 *         null if the JDK does not support virtual threads
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor() {
+		if (NEW_VIRTUAL_THREAD_EXECUTOR == null)
+			return null;
+		try {
+			return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			LOGGER.warn("Could not create a virtual thread executor", e);
+			return null;
+		}
+	}
+
+	/**
+	 * @param name
+	 *            The prefix of the thread names
+	 * @param maxThreads
+	 *            The number of threads
+	 * @return A fixed pool of daemon threads
+	 */
+	public static ExecutorService newDaemonThreadPool(final String name, final int maxThreads) {
+		if (maxThreads < 1)
+			throw new IllegalArgumentException("At least one thread is required");
+		return Executors.newFixedThreadPool(maxThreads, new ThreadFactory() {
+			private final AtomicInteger threadNr = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + "-" + this.threadNr.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @param name
+	 *            The prefix of the thread names of the pool
+	 * @param maxThreads
+	 *            The number of threads of the pool
+	 * @return A virtual thread per task executor if the JDK supports it,
+	 *         otherwise a {@link #newDaemonThreadPool(String, int) pool} with
+	 *         the given number of threads
+	 */
+	public static ExecutorService newIoExecutor(final String name, final int maxThreads) {
+		ExecutorService executor = newVirtualThreadPerTaskExecutor();
+		return executor != null ? executor : newDaemonThreadPool(name, maxThreads);
+	}
+
+	private static Method findVirtualThreadExecutorMethod() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
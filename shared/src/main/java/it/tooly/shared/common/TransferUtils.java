@@ -0,0 +1,420 @@
+package it.tooly.shared.common;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Copies bytes between files, channels and streams. File channels use
+ * {@link FileChannel#transferTo} and {@link FileChannel#transferFrom}, so the
+ * operating system can copy file to file or file to socket without moving
+ * the data through the Java heap; other channels go through a large direct
+ * buffer, and plain streams through a heap buffer.
+ * <p>
+ * All methods copy an exact range: the <code>offset</code> is relative to
+ * the current position of the source, and at most <code>length</code> bytes
+ * are copied (use {@link Long#MAX_VALUE} to copy up to the end). None of the
+ * methods close the given streams or channels.
+ */
+public class TransferUtils {
+
+	/**
+	 * Size of the direct buffer used when channel data cannot be transferred
+	 * directly
+	 */
+	public static final int BUFFER_SIZE = 256 * 1024;
+
+	/**
+	 * Size of the buffer used to copy plain streams; allocated per copy
+	 */
+	public static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Maximum number of bytes for a single transferTo/transferFrom call; some
+	 * platforms transfer less than requested for larger counts anyway
+	 */
+	private static final long MAX_TRANSFER_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * Some virtual machines cannot allocate arrays of exactly
+	 * Integer.MAX_VALUE elements
+	 */
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	/**
+	 * Number of direct buffers that are kept for reuse
+	 */
+	private static final int MAX_POOLED_BUFFERS = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Direct buffers are expensive to allocate and are only freed by the
+	 * garbage collector, so they are reused. They are pooled rather than kept
+	 * per thread, because virtual threads (one per task) would each allocate
+	 * their own.
+	 */
+	private static final BlockingQueue<ByteBuffer> DIRECT_BUFFERS = new ArrayBlockingQueue<ByteBuffer>(MAX_POOLED_BUFFERS);
+
+	private TransferUtils() {
+	}
+
+	/**
+	 * @return A pooled direct buffer, or a new one if none is free; give it
+	 *         back with {@link #releaseBuffer(ByteBuffer)}
+	 */
+	private static ByteBuffer acquireBuffer() {
+		ByteBuffer buffer = DIRECT_BUFFERS.poll();
+		return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+	}
+
+	/**
+	 * Return a buffer to the pool; it is dropped if the pool is full
+	 */
+	private static void releaseBuffer(final ByteBuffer buffer) {
+		buffer.clear();
+		DIRECT_BUFFERS.offer(buffer);
+	}
+
+	/**
+	 * Copies a range of a file channel to another channel, for example a file
+	 * or socket channel. The position of the source channel is not changed.
+	 *
+	 * @param source
+	 *            The file to copy from
+	 * @param position
+	 *            The position in the file to start copying at
+	 * @param length
+	 *            The maximum number of bytes to copy
+	 * @param target
+	 *            The channel to copy to
+	 * @return The number of bytes that were copied; less than length only at
+	 *         the end of the file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static long transfer(final FileChannel source, final long position, final long length, final WritableByteChannel target) throws IOException {
+		long end = Math.min(source.size(), position + Math.min(length, Long.MAX_VALUE - position));
+		long current = position;
+		while (current < end) {
+			long transferred = source.transferTo(current, Math.min(end - current, MAX_TRANSFER_SIZE), target);
+			if (transferred <= 0) {
+				if (current >= source.size())
+					break;
+				// transferTo may not support this kind of target
+				return current - position + copyRange(source, current, end - current, target);
+			}
+			current += transferred;
+		}
+		return current - position;
+	}
+
+	/**
+	 * Copies bytes from a channel, for example a file or socket channel, to a
+	 * range of a file channel. The position of the target channel is not
+	 * changed; the file grows if needed.
+	 *
+	 * @param source
+	 *            The channel to copy from; it must be in blocking mode
+	 * @param target
+	 *            The file to copy to
+	 * @param position
+	 *            The position in the file to start writing at
+	 * @param length
+	 *            The maximum number of bytes to copy
+	 * @return The number of bytes that were copied; less than length only at
+	 *         the end of the source
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static long transfer(final ReadableByteChannel source, final FileChannel target, final long position, final long length) throws IOException {
+		if (source instanceof FileChannel) {
+			FileChannel fileSource = (FileChannel) source;
+			long available = Math.max(0, fileSource.size() - fileSource.position());
+			return transferFromFile(fileSource, target, position, Math.min(length, available));
+		}
+		long current = position;
+		long remaining = length;
+		ByteBuffer buffer = acquireBuffer();
+		try {
+			while (remaining > 0) {
+				buffer.clear();
+				if (remaining < buffer.capacity())
+					buffer.limit((int) remaining);
+				if (source.read(buffer) < 0)
+					break;
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					current += target.write(buffer, current);
+				}
+				remaining = length - (current - position);
+			}
+		} finally {
+			releaseBuffer(buffer);
+		}
+		return current - position;
+	}
+
+	/**
+	 * Copies bytes from one channel to another. If one of them is a file
+	 * channel, the bytes are transferred directly and the position of that
+	 * file channel is moved past them; otherwise they go through a direct
+	 * buffer.
+	 *
+	 * @param source
+	 *            The channel to copy from; it must be in blocking mode
+	 * @param target
+	 *            The channel to copy to; it must be in blocking mode
+	 * @param length
+	 *            The maximum number of bytes to copy
+	 * @return The number of bytes that were copied; less than length only at
+	 *         the end of the source
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static long transfer(final ReadableByteChannel source, final WritableByteChannel target, final long length) throws IOException {
+		if (source instanceof FileChannel) {
+			FileChannel fileSource = (FileChannel) source;
+			long copied = transfer(fileSource, fileSource.position(), length, target);
+			fileSource.position(fileSource.position() + copied);
+			return copied;
+		}
+		if (target instanceof FileChannel) {
+			FileChannel fileTarget = (FileChannel) target;
+			long copied = transfer(source, fileTarget, fileTarget.position(), length);
+			fileTarget.position(fileTarget.position() + copied);
+			return copied;
+		}
+		long total = 0;
+		ByteBuffer buffer = acquireBuffer();
+		try {
+			while (total < length) {
+				buffer.clear();
+				if (length - total < buffer.capacity())
+					buffer.limit((int) (length - total));
+				if (source.read(buffer) < 0)
+					break;
+				buffer.flip();
+				total += buffer.remaining();
+				while (buffer.hasRemaining()) {
+					target.write(buffer);
+				}
+			}
+		} finally {
+			releaseBuffer(buffer);
+		}
+		return total;
+	}
+
+	/**
+	 * Copies a range of an input stream to an output stream. File streams are
+	 * copied through their channels; see
+	 * {@link #transfer(ReadableByteChannel, WritableByteChannel, long)}.
+	 *
+	 * @param inputStream
+	 *            The stream to copy from
+	 * @param outputStream
+	 *            The stream to copy to
+	 * @param offset
+	 *            The number of bytes to skip in the input stream first
+	 * @param length
+	 *            The maximum number of bytes to copy
+	 * @return The number of bytes that were copied; less than length only at
+	 *         the end of the input stream
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static long copy(final InputStream inputStream, final OutputStream outputStream, final long offset, final long length) throws IOException {
+		if (inputStream instanceof FileInputStream && outputStream instanceof FileOutputStream) {
+			FileChannel source = ((FileInputStream) inputStream).getChannel();
+			long start = Math.min(source.size(), source.position() + offset);
+			source.position(start);
+			return transfer(source, ((FileOutputStream) outputStream).getChannel(), length);
+		}
+		skipFully(inputStream, offset);
+		long total = 0;
+		byte[] buffer = new byte[(int) Math.min(STREAM_BUFFER_SIZE, Math.max(1, length))];
+		while (total < length) {
+			int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, length - total));
+			if (read < 0)
+				break;
+			outputStream.write(buffer, 0, read);
+			total += read;
+		}
+		return total;
+	}
+
+	/**
+	 * Copies a range of an input stream to a channel. A file stream is
+	 * transferred through its channel, other streams go through a direct
+	 * buffer.
+	 *
+	 * @see #copy(InputStream, OutputStream, long, long)
+	 */
+	public static long copy(final InputStream inputStream, final WritableByteChannel target, final long offset, final long length) throws IOException {
+		if (inputStream instanceof FileInputStream) {
+			FileChannel source = ((FileInputStream) inputStream).getChannel();
+			source.position(Math.min(source.size(), source.position() + offset));
+			return transfer(source, target, length);
+		}
+		skipFully(inputStream, offset);
+		return transfer(Channels.newChannel(inputStream), target, length);
+	}
+
+	/**
+	 * Copies a range of a channel to an output stream. A file stream is
+	 * written through its channel, other streams are given the bytes from a
+	 * direct buffer.
+	 *
+	 * @param source
+	 *            The channel to copy from; it must be in blocking mode
+	 * @param outputStream
+	 *            The stream to copy to
+	 * @param length
+	 *            The maximum number of bytes to copy
+	 * @return The number of bytes that were copied; less than length only at
+	 *         the end of the source
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static long copy(final ReadableByteChannel source, final OutputStream outputStream, final long length) throws IOException {
+		if (outputStream instanceof FileOutputStream)
+			return transfer(source, ((FileOutputStream) outputStream).getChannel(), length);
+		return transfer(source, Channels.newChannel(outputStream), length);
+	}
+
+	/**
+	 * Skips exactly the given number of bytes, or up to the end of the stream.
+	 * Unlike {@link InputStream#skip(long)}, this does not give up when the
+	 * stream skips less than requested.
+	 *
+	 * @return The number of bytes skipped; less than count only at the end of
+	 *         the stream
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static long skipFully(final InputStream inputStream, final long count) throws IOException {
+		long remaining = count;
+		while (remaining > 0) {
+			long skipped = inputStream.skip(remaining);
+			if (skipped <= 0) {
+				// Either the end of the stream or a stream that cannot skip
+				if (inputStream.read() < 0)
+					break;
+				skipped = 1;
+			}
+			remaining -= skipped;
+		}
+		return count - remaining;
+	}
+
+	/**
+	 * Reads the rest of an input stream into a byte array. A file input stream
+	 * is read into an array of exactly the remaining file size; other streams
+	 * into an array of the expected length, which is only grown (and trimmed
+	 * once at the end) if the guess was wrong.
+	 *
+	 * @param inputStream
+	 *            The stream to read
+	 * @param expectedLength
+	 *            The expected number of bytes; -1 if unknown
+	 * @return The bytes
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred, or there are too
+	 *             many bytes for an array.
+	 */
+	public static byte[] readAll(final InputStream inputStream, final long expectedLength) throws IOException {
+		long expected = expectedLength;
+		if (inputStream instanceof FileInputStream) {
+			FileChannel channel = ((FileInputStream) inputStream).getChannel();
+			expected = Math.max(0, channel.size() - channel.position());
+		}
+		if (expected > MAX_ARRAY_SIZE)
+			throw new IOException(expected + " bytes do not fit in an array");
+		byte[] result = new byte[expected < 0 ? STREAM_BUFFER_SIZE : (int) expected];
+		int length = 0;
+		while (true) {
+			while (length < result.length) {
+				int read = inputStream.read(result, length, result.length - length);
+				if (read < 0)
+					return length == result.length ? result : Arrays.copyOf(result, length);
+				length += read;
+			}
+			// Full: check whether there is more before growing
+			int next = inputStream.read();
+			if (next < 0)
+				return result;
+			if (result.length == MAX_ARRAY_SIZE)
+				throw new IOException("Stream has too many bytes for an array");
+			result = Arrays.copyOf(result, (int) Math.min(MAX_ARRAY_SIZE, Math.max(STREAM_BUFFER_SIZE, 2L * result.length)));
+			result[length++] = (byte) next;
+		}
+	}
+
+	/**
+	 * Reads exactly the given range of a file channel into a byte array
+	 *
+	 * @throws EOFException
+	 *             If the file ends before the range does
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void readFully(final FileChannel source, final long position, final byte[] target, final int offset, final int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(target, offset, length);
+		long current = position;
+		while (buffer.hasRemaining()) {
+			int read = source.read(buffer, current);
+			if (read < 0)
+				throw new EOFException("Unexpected end of file at position " + current);
+			current += read;
+		}
+	}
+
+	private static long transferFromFile(final FileChannel source, final FileChannel target, final long position, final long length) throws IOException {
+		// transferFrom reads at, and moves, the position of the source
+		long current = position;
+		long end = position + length;
+		while (current < end) {
+			long transferred = target.transferFrom(source, current, Math.min(end - current, MAX_TRANSFER_SIZE));
+			if (transferred <= 0)
+				break;
+			current += transferred;
+		}
+		return current - position;
+	}
+
+	/**
+	 * Fallback for {@link #transfer(FileChannel, long, long, WritableByteChannel)}
+	 */
+	private static long copyRange(final FileChannel source, final long position, final long length, final WritableByteChannel target) throws IOException {
+		long current = position;
+		ByteBuffer buffer = acquireBuffer();
+		try {
+			while (current - position < length) {
+				buffer.clear();
+				if (length - (current - position) < buffer.capacity())
+					buffer.limit((int) (length - (current - position)));
+				int read = source.read(buffer, current);
+				if (read < 0)
+					break;
+				current += read;
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					target.write(buffer);
+				}
+			}
+		} finally {
+			releaseBuffer(buffer);
+		}
+		return current - position;
+	}
+}
@@ -0,0 +1,210 @@
+package it.tooly.shared.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A cache of values which expire after a time-to-live (TTL). A value that is
+ * older than the TTL but younger than the TTL plus the maximum staleness is
+ * still returned, while a fresh value is loaded in the background
+ * (stale-while-revalidate). Only when there is no value, or it is too stale,
+ * does the caller wait for the value to be loaded. Concurrent callers asking
+ * for the same missing key wait for a single load.
+ *
+ * @param <K>
+ *            Type of the keys
+ * @param <V>
+ *            Type of the values
+ * @param <E>
+ *            Type of exception the loader may throw
+ */
+public class TtlCache<K, V, E extends Exception> {
+	private static final Logger LOGGER = Logger.getLogger(TtlCache.class);
+
+	/**
+	 * Loads the value for a key, for example from a remote server
+	 */
+	public interface Loader<K, V, E extends Exception> {
+		V load(K key) throws E;
+	}
+
+	private static final class Entry<V> {
+		private final V value;
+		private final long loadedAt;
+		private final AtomicBoolean refreshing;
+
+		private Entry(V value) {
+			this.value = value;
+			this.loadedAt = System.currentTimeMillis();
+			this.refreshing = new AtomicBoolean(false);
+		}
+	}
+
+	private final Loader<K, V, E> loader;
+	private final Executor refreshExecutor;
+	private final ConcurrentHashMap<K, Entry<V>> entries;
+	private final ConcurrentHashMap<K, Object> loadLocks;
+	private volatile long ttlMillis;
+	private volatile long maxStaleMillis;
+
+	/**
+	 * @param loader
+	 *            Loads values which are not (or no longer) in the cache
+	 * @param ttl
+	 *            Time after which a value must be refreshed. Specify
+	 *            <code>0</code> to disable caching.
+	 * @param maxStale
+	 *            Time after the TTL during which the old value is still
+	 *            returned while it is being refreshed in the background.
+	 *            Specify <code>0</code> to always refresh synchronously.
+	 * @param unit
+	 *            Unit of the TTL and maximum staleness
+	 * @param refreshExecutor
+	 *            Executor for background refreshes. If null, values are always
+	 *            refreshed synchronously.
+	 */
+	public TtlCache(Loader<K, V, E> loader, long ttl, long maxStale, TimeUnit unit, Executor refreshExecutor) {
+		this.loader = loader;
+		this.refreshExecutor = refreshExecutor;
+		this.entries = new ConcurrentHashMap<>();
+		this.loadLocks = new ConcurrentHashMap<>();
+		setTtl(ttl, maxStale, unit);
+	}
+
+	/**
+	 * Change the time-to-live and maximum staleness. Values already in the
+	 * cache are not reloaded, but expire based on the new settings.
+	 */
+	public void setTtl(long ttl, long maxStale, TimeUnit unit) {
+		this.ttlMillis = unit.toMillis(ttl);
+		this.maxStaleMillis = unit.toMillis(maxStale);
+	}
+
+	public long getTtlMillis() {
+		return this.ttlMillis;
+	}
+
+	public long getMaxStaleMillis() {
+		return this.maxStaleMillis;
+	}
+
+	/**
+	 * Get the value for a key, loading it if necessary (see class
+	 * documentation).
+	 *
+	 * @param key
+	 *            The key
+	 * @return The cached or loaded value
+	 * @throws E
+	 *             When the value had to be loaded synchronously and loading
+	 *             failed
+	 */
+	public V get(K key) throws E {
+		long ttl = this.ttlMillis;
+		if (ttl <= 0) {
+			return this.loader.load(key);
+		}
+		Entry<V> entry = this.entries.get(key);
+		if (entry != null) {
+			long age = System.currentTimeMillis() - entry.loadedAt;
+			if (age < ttl) {
+				return entry.value;
+			}
+			if (age < ttl + this.maxStaleMillis && refreshInBackground(key, entry)) {
+				return entry.value;
+			}
+		}
+		return loadSynchronized(key, entry);
+	}
+
+	/**
+	 * Get the value for a key only if it is in the cache (fresh or stale),
+	 * without loading it.
+	 */
+	public V getIfPresent(K key) {
+		Entry<V> entry = this.entries.get(key);
+		return entry == null ? null : entry.value;
+	}
+
+	/**
+	 * Put a value in the cache, for example one that was loaded in some other
+	 * way
+	 */
+	public void put(K key, V value) {
+		this.entries.put(key, new Entry<V>(value));
+	}
+
+	/**
+	 * Remove the value for a key, so the next {@link #get(Object)} loads it
+	 */
+	public void invalidate(K key) {
+		this.entries.remove(key);
+	}
+
+	/**
+	 * Remove all values
+	 */
+	public void invalidateAll() {
+		this.entries.clear();
+	}
+
+	private V loadSynchronized(K key, Entry<V> staleEntry) throws E {
+		Object lock = this.loadLocks.get(key);
+		if (lock == null) {
+			Object newLock = new Object();
+			lock = this.loadLocks.putIfAbsent(key, newLock);
+			if (lock == null)
+				lock = newLock;
+		}
+		synchronized (lock) {
+			Entry<V> entry = this.entries.get(key);
+			if (entry != null && entry != staleEntry
+					&& System.currentTimeMillis() - entry.loadedAt < this.ttlMillis) {
+				// Loaded by another thread while we were waiting
+				return entry.value;
+			}
+			V value = this.loader.load(key);
+			this.entries.put(key, new Entry<V>(value));
+			return value;
+		}
+	}
+
+	/**
+	 * Start a background refresh, unless one is already running for this
+	 * entry.
+	 *
+	 * @return true if the stale value may be used
+	 */
+	private boolean refreshInBackground(final K key, final Entry<V> entry) {
+		if (this.refreshExecutor == null)
+			return false;
+		if (!entry.refreshing.compareAndSet(false, true))
+			return true;
+		try {
+			this.refreshExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						V value = TtlCache.this.loader.load(key);
+						// Don't resurrect an entry that was invalidated meanwhile
+						if (TtlCache.this.entries.replace(key, entry, new Entry<V>(value))) {
+							LOGGER.debug("Refreshed cached value for " + key);
+						}
+					} catch (Exception e) {
+						LOGGER.warn("Could not refresh cached value for " + key, e);
+						entry.refreshing.set(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			entry.refreshing.set(false);
+			return false;
+		}
+		return true;
+	}
+}
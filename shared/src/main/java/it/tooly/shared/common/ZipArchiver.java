@@ -0,0 +1,916 @@
+package it.tooly.shared.common;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes a ZIP archive whose entries are compressed at the same time on a
+ * thread pool. The entries are written to the output in the order they were
+ * added, as soon as they (and all entries before them) are compressed, so
+ * the archive is streamed and only a limited number of compressed entries
+ * wait (see {@link #setMaxPending(int)}). Compressed entries wait in memory
+ * up to {@link #setMaxBufferedBytes(long)} for all entries together, and up
+ * to {@link #setSpillThreshold(long)} for one entry; beyond that they wait in
+ * a temporary file.
+ * <p>
+ * Each entry is deflated with the default level of the archiver, or with its
+ * own level. Entries whose MIME type is already compressed (images, video,
+ * audio, archives, Office Open XML documents; see
+ * {@link #setStoredMimeTypes(Collection)}) are stored as they are, as are
+ * entries that would not get smaller. Archives with more than 65535 entries
+ * or over 4 GB are written in the ZIP64 format.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * try (ZipArchiver archiver = new ZipArchiver(new FileOutputStream(zipFile))) {
+ * 	for (File file : files) {
+ * 		archiver.addFile(file, file.getName());
+ * 	}
+ * }
+ * </pre>
+ *
+ * An archiver is not thread safe: add the entries from one thread.
+ */
+public class ZipArchiver implements AutoCloseable {
+	private static final Logger LOGGER = Logger.getLogger(ZipArchiver.class);
+
+	/**
+	 * Entry level: the default level of the archiver, or stored if the MIME
+	 * type is already compressed
+	 */
+	public static final int AUTO = -1;
+
+	/**
+	 * Entry level: store the entry without compression
+	 */
+	public static final int STORED = -2;
+
+	/**
+	 * Default maximum size of a compressed entry kept in memory
+	 */
+	public static final long DEFAULT_SPILL_THRESHOLD = 16L * 1024 * 1024;
+
+	/**
+	 * Default maximum size of all compressed entries kept in memory
+	 */
+	public static final long DEFAULT_MAX_BUFFERED_BYTES = 64L * 1024 * 1024;
+
+	/**
+	 * MIME types (or prefixes ending with '/' or '.') that are stored by
+	 * default
+	 */
+	public static final Set<String> DEFAULT_STORED_MIME_TYPES = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+			"image/jpeg", "image/png", "image/gif", "image/webp", "video/", "audio/", "application/zip",
+			"application/gzip", "application/x-gzip", "application/x-bzip2", "application/x-xz",
+			"application/x-7z-compressed", "application/x-rar-compressed", "application/java-archive",
+			"application/vnd.openxmlformats-officedocument.", "application/vnd.oasis.opendocument.")));
+
+	/**
+	 * Extensions of compressed formats that {@link URLConnection} does not know
+	 */
+	private static final Map<String, String> EXTENSION_MIME_TYPES = new HashMap<String, String>();
+
+	static {
+		String[][] mimeTypes = new String[][] { { "jpg", "image/jpeg" }, { "jpeg", "image/jpeg" }, { "png", "image/png" },
+				{ "gif", "image/gif" }, { "webp", "image/webp" }, { "mp3", "audio/mpeg" }, { "m4a", "audio/mp4" },
+				{ "ogg", "audio/ogg" }, { "mp4", "video/mp4" }, { "m4v", "video/mp4" }, { "mov", "video/quicktime" },
+				{ "avi", "video/x-msvideo" }, { "mkv", "video/x-matroska" }, { "webm", "video/webm" },
+				{ "zip", "application/zip" }, { "gz", "application/gzip" }, { "tgz", "application/gzip" },
+				{ "bz2", "application/x-bzip2" }, { "xz", "application/x-xz" }, { "7z", "application/x-7z-compressed" },
+				{ "rar", "application/x-rar-compressed" }, { "jar", "application/java-archive" },
+				{ "docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document" },
+				{ "xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet" },
+				{ "pptx", "application/vnd.openxmlformats-officedocument.presentationml.presentation" },
+				{ "odt", "application/vnd.oasis.opendocument.text" },
+				{ "ods", "application/vnd.oasis.opendocument.spreadsheet" },
+				{ "odp", "application/vnd.oasis.opendocument.presentation" } };
+		for (String[] mimeType : mimeTypes) {
+			EXTENSION_MIME_TYPES.put(mimeType[0], mimeType[1]);
+		}
+	}
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+	private static final int ZIP64_COUNT_LIMIT = 0xFFFF;
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_DEFLATED = 8;
+	/**
+	 * General purpose flag: the name is UTF-8
+	 */
+	private static final int FLAG_UTF8 = 0x800;
+
+	private static final AtomicInteger ARCHIVER_NR = new AtomicInteger();
+
+	private final CountingOutputStream out;
+	private final ExecutorService executor;
+	private final boolean ownExecutor;
+	private final Deque<PendingEntry> pending;
+	private final List<WrittenEntry> written;
+	private final Set<String> names;
+	private int level;
+	private int maxPending;
+	private long spillThreshold;
+	private long maxBufferedBytes;
+	/** The bytes of compressed entries in memory, shared by all entries */
+	private final AtomicLong bufferedBytes;
+	private Set<String> storedMimeTypes;
+	private boolean finished;
+
+	/**
+	 * Create an archiver with a thread per processor
+	 *
+	 * @param out
+	 *            The stream to write the archive to
+	 */
+	public ZipArchiver(OutputStream out) {
+		this(out, null);
+	}
+
+	/**
+	 * Create an archiver that writes to a channel, with a thread per processor
+	 *
+	 * @param out
+	 *            The channel to write the archive to
+	 */
+	public ZipArchiver(WritableByteChannel out) {
+		this(Channels.newOutputStream(out), null);
+	}
+
+	/**
+	 * @param out
+	 *            The stream to write the archive to
+	 * @param executor
+	 *            The executor to compress the entries on; it is not shut down
+	 *            by the archiver. Null for a pool with a thread per processor,
+	 *            which is shut down when the archive is finished.
+	 */
+	public ZipArchiver(OutputStream out, ExecutorService executor) {
+		this.out = new CountingOutputStream(out);
+		if (executor == null) {
+			final int archiverNr = ARCHIVER_NR.incrementAndGet();
+			this.executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private final AtomicInteger threadNr = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ZipArchiver-" + archiverNr + "-" + this.threadNr.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.ownExecutor = true;
+		} else {
+			this.executor = executor;
+			this.ownExecutor = false;
+		}
+		this.pending = new ArrayDeque<PendingEntry>();
+		this.written = new ArrayList<WrittenEntry>();
+		this.names = new HashSet<String>();
+		this.level = Deflater.DEFAULT_COMPRESSION;
+		this.maxPending = 4 * Runtime.getRuntime().availableProcessors();
+		this.spillThreshold = DEFAULT_SPILL_THRESHOLD;
+		this.maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
+		this.bufferedBytes = new AtomicLong();
+		this.storedMimeTypes = DEFAULT_STORED_MIME_TYPES;
+		this.finished = false;
+	}
+
+	public int getLevel() {
+		return this.level;
+	}
+
+	/**
+	 * @param level
+	 *            The default compression level, 0-9, or
+	 *            {@link Deflater#DEFAULT_COMPRESSION}
+	 */
+	public void setLevel(int level) {
+		if (level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9))
+			throw new IllegalArgumentException("Invalid compression level " + level);
+		this.level = level;
+	}
+
+	public int getMaxPending() {
+		return this.maxPending;
+	}
+
+	/**
+	 * @param maxPending
+	 *            Maximum number of entries that are compressed or wait to be
+	 *            written; adding more entries blocks until the oldest is
+	 *            written
+	 */
+	public void setMaxPending(int maxPending) {
+		if (maxPending < 1)
+			throw new IllegalArgumentException("At least one pending entry is required");
+		this.maxPending = maxPending;
+	}
+
+	public long getSpillThreshold() {
+		return this.spillThreshold;
+	}
+
+	/**
+	 * @param spillThreshold
+	 *            Maximum size of a compressed entry that waits in memory;
+	 *            larger entries wait in a temporary file
+	 */
+	public void setSpillThreshold(long spillThreshold) {
+		if (spillThreshold < 0)
+			throw new IllegalArgumentException("Spill threshold cannot be negative");
+		this.spillThreshold = spillThreshold;
+	}
+
+	public long getMaxBufferedBytes() {
+		return this.maxBufferedBytes;
+	}
+
+	/**
+	 * @param maxBufferedBytes
+	 *            Maximum size of all compressed entries that wait in memory
+	 *            together; entries that do not fit wait in a temporary file
+	 */
+	public void setMaxBufferedBytes(long maxBufferedBytes) {
+		if (maxBufferedBytes < 0)
+			throw new IllegalArgumentException("Maximum buffered bytes cannot be negative");
+		this.maxBufferedBytes = maxBufferedBytes;
+	}
+
+	public Set<String> getStoredMimeTypes() {
+		return this.storedMimeTypes;
+	}
+
+	/**
+	 * @param storedMimeTypes
+	 *            MIME types of entries with level {@link #AUTO} that are
+	 *            stored instead of compressed. A type ending with '/' or '.'
+	 *            is a prefix.
+	 */
+	public void setStoredMimeTypes(Collection<String> storedMimeTypes) {
+		this.storedMimeTypes = Collections.unmodifiableSet(new HashSet<String>(storedMimeTypes));
+	}
+
+	/**
+	 * Add a file, with level {@link #AUTO}
+	 *
+	 * @param file
+	 *            The file
+	 * @param name
+	 *            The name of the entry; use '/' between folders
+	 * @throws IOException
+	 *             If an entry that was compressed earlier could not be
+	 *             written, or this one has a duplicate name
+	 */
+	public void addFile(File file, String name) throws IOException {
+		addFile(file, name, AUTO);
+	}
+
+	/**
+	 * Add a file
+	 *
+	 * @param file
+	 *            The file
+	 * @param name
+	 *            The name of the entry; use '/' between folders
+	 * @param level
+	 *            {@link #AUTO}, {@link #STORED} or a compression level 0-9
+	 * @throws IOException
+	 *             If an entry that was compressed earlier could not be
+	 *             written, or this one has a duplicate name
+	 */
+	public void addFile(final File file, String name, int level) throws IOException {
+		add(new EntrySource(name, file.lastModified(), level) {
+			@Override
+			InputStream open() throws IOException {
+				return new FileInputStream(file);
+			}
+		});
+	}
+
+	/**
+	 * Add an entry with data in memory
+	 *
+	 * @param name
+	 *            The name of the entry; use '/' between folders
+	 * @param data
+	 *            The data; must not be changed until the archive is finished
+	 * @param level
+	 *            {@link #AUTO}, {@link #STORED} or a compression level 0-9
+	 * @throws IOException
+	 *             If an entry that was compressed earlier could not be
+	 *             written, or this one has a duplicate name
+	 */
+	public void addEntry(String name, final byte[] data, int level) throws IOException {
+		add(new EntrySource(name, System.currentTimeMillis(), level) {
+			@Override
+			InputStream open() {
+				return new ByteArrayInputStream(data);
+			}
+		});
+	}
+
+	/**
+	 * Wait for all entries and write the end of the archive, without closing
+	 * the output stream
+	 *
+	 * @throws IOException
+	 *             If an entry could not be read or compressed, or the archive
+	 *             could not be written
+	 */
+	public void finish() throws IOException {
+		if (this.finished)
+			return;
+		this.finished = true;
+		try {
+			while (!this.pending.isEmpty()) {
+				writeNext();
+			}
+			writeCentralDirectory();
+		} finally {
+			cleanUp();
+		}
+	}
+
+	/**
+	 * Finish the archive and close the output stream
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			this.out.close();
+		}
+	}
+
+	private void add(final EntrySource source) throws IOException {
+		if (this.finished)
+			throw new IOException("Archive is finished");
+		if (source.level != AUTO && source.level != STORED && (source.level < 0 || source.level > 9))
+			throw new IllegalArgumentException("Invalid compression level " + source.level);
+		if (!this.names.add(source.name))
+			throw new IOException("Duplicate entry " + source.name);
+		final boolean store = source.level == STORED || (source.level == AUTO && isStoredMimeType(source.name));
+		final int entryLevel = source.level == AUTO ? this.level : source.level;
+		final long threshold = this.spillThreshold;
+		final long maxBuffered = this.maxBufferedBytes;
+		Future<EntryData> future = this.executor.submit(new Callable<EntryData>() {
+			@Override
+			public EntryData call() throws IOException {
+				return compress(source, store, entryLevel, new SpillBuffer(threshold, bufferedBytes, maxBuffered));
+			}
+		});
+		this.pending.add(new PendingEntry(source, future));
+		try {
+			while (this.pending.size() > this.maxPending || (!this.pending.isEmpty() && this.pending.peek().future.isDone())) {
+				writeNext();
+			}
+		} catch (IOException e) {
+			this.finished = true;
+			cleanUp();
+			throw e;
+		}
+	}
+
+	private boolean isStoredMimeType(String name) {
+		String mimeType = null;
+		int dot = name.lastIndexOf('.');
+		if (dot >= 0) {
+			mimeType = EXTENSION_MIME_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+		}
+		if (mimeType == null) {
+			mimeType = URLConnection.guessContentTypeFromName(name);
+		}
+		if (mimeType == null)
+			return false;
+		if (this.storedMimeTypes.contains(mimeType))
+			return true;
+		for (String storedMimeType : this.storedMimeTypes) {
+			if ((storedMimeType.endsWith("/") || storedMimeType.endsWith(".")) && mimeType.startsWith(storedMimeType))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Runs on the executor: compute the CRC and compress the data. For a
+	 * stored entry only the CRC and size are computed; the data is copied
+	 * from the source again when it is written.
+	 */
+	private static EntryData compress(EntrySource source, boolean store, int level, SpillBuffer compressed) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long size = 0;
+		InputStream in = source.open();
+		try {
+			if (store) {
+				int read;
+				while ((read = in.read(buffer)) >= 0) {
+					crc.update(buffer, 0, read);
+					size += read;
+				}
+				return new EntryData(crc.getValue(), size, null);
+			}
+			Deflater deflater = new Deflater(level, true);
+			try {
+				DeflaterOutputStream deflaterOut = new DeflaterOutputStream(compressed, deflater, BUFFER_SIZE);
+				int read;
+				while ((read = in.read(buffer)) >= 0) {
+					crc.update(buffer, 0, read);
+					size += read;
+					deflaterOut.write(buffer, 0, read);
+				}
+				deflaterOut.finish();
+				compressed.close();
+			} catch (IOException e) {
+				compressed.delete();
+				throw e;
+			} finally {
+				deflater.end();
+			}
+			if (compressed.size() >= size) {
+				// Compression does not help, store the data instead
+				compressed.delete();
+				return new EntryData(crc.getValue(), size, null);
+			}
+			return new EntryData(crc.getValue(), size, compressed);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Wait for the oldest pending entry and write it
+	 */
+	private void writeNext() throws IOException {
+		PendingEntry entry = this.pending.poll();
+		EntryData data;
+		try {
+			data = entry.future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing " + entry.source.name, e);
+		} catch (ExecutionException e) {
+			throw new IOException("Could not compress " + entry.source.name, e.getCause());
+		}
+		try {
+			writeEntry(entry.source, data);
+		} finally {
+			if (data.compressed != null)
+				data.compressed.delete();
+		}
+	}
+
+	private void writeEntry(EntrySource source, EntryData data) throws IOException {
+		WrittenEntry entry = new WrittenEntry();
+		entry.name = source.name.getBytes(StandardCharsets.UTF_8);
+		entry.dosTime = toDosTime(source.lastModified);
+		entry.crc = data.crc;
+		entry.size = data.size;
+		entry.method = data.compressed == null ? METHOD_STORED : METHOD_DEFLATED;
+		entry.compressedSize = data.compressed == null ? data.size : data.compressed.size();
+		entry.offset = this.out.getCount();
+		boolean zip64 = entry.size >= ZIP64_LIMIT || entry.compressedSize >= ZIP64_LIMIT;
+
+		HeaderBuffer header = new HeaderBuffer(30 + entry.name.length + 20);
+		header.putInt(LOCAL_HEADER_SIGNATURE);
+		header.putShort(zip64 ? 45 : 20);
+		header.putShort(FLAG_UTF8);
+		header.putShort(entry.method);
+		header.putInt((int) entry.dosTime);
+		header.putInt((int) entry.crc);
+		header.putInt((int) (zip64 ? ZIP64_LIMIT : entry.compressedSize));
+		header.putInt((int) (zip64 ? ZIP64_LIMIT : entry.size));
+		header.putShort(entry.name.length);
+		header.putShort(zip64 ? 20 : 0);
+		header.put(entry.name);
+		if (zip64) {
+			header.putShort(0x0001);
+			header.putShort(16);
+			header.putLong(entry.size);
+			header.putLong(entry.compressedSize);
+		}
+		header.writeTo(this.out);
+
+		long copied;
+		if (data.compressed != null) {
+			copied = data.compressed.writeTo(this.out);
+		} else {
+			InputStream in = source.open();
+			try {
+				copied = TransferUtils.copy(in, this.out, 0, entry.size);
+			} finally {
+				in.close();
+			}
+		}
+		if (copied != entry.compressedSize)
+			throw new IOException("Entry " + source.name + " changed while it was archived");
+		this.written.add(entry);
+	}
+
+	private void writeCentralDirectory() throws IOException {
+		long start = this.out.getCount();
+		// Only flushed, closing it would close the archive
+		OutputStream directory = new BufferedOutputStream(this.out, BUFFER_SIZE);
+		for (WrittenEntry entry : this.written) {
+			boolean sizes64 = entry.size >= ZIP64_LIMIT || entry.compressedSize >= ZIP64_LIMIT;
+			boolean offset64 = entry.offset >= ZIP64_LIMIT;
+			int extraLength = (sizes64 || offset64) ? 4 + (sizes64 ? 16 : 0) + (offset64 ? 8 : 0) : 0;
+			HeaderBuffer header = new HeaderBuffer(46 + entry.name.length + extraLength);
+			header.putInt(CENTRAL_HEADER_SIGNATURE);
+			header.putShort(extraLength > 0 ? 45 : 20);
+			header.putShort(extraLength > 0 ? 45 : 20);
+			header.putShort(FLAG_UTF8);
+			header.putShort(entry.method);
+			header.putInt((int) entry.dosTime);
+			header.putInt((int) entry.crc);
+			header.putInt((int) (sizes64 ? ZIP64_LIMIT : entry.compressedSize));
+			header.putInt((int) (sizes64 ? ZIP64_LIMIT : entry.size));
+			header.putShort(entry.name.length);
+			header.putShort(extraLength);
+			// Comment length, disk number, internal and external attributes
+			header.putShort(0);
+			header.putShort(0);
+			header.putShort(0);
+			header.putInt(0);
+			header.putInt((int) (offset64 ? ZIP64_LIMIT : entry.offset));
+			header.put(entry.name);
+			if (extraLength > 0) {
+				header.putShort(0x0001);
+				header.putShort(extraLength - 4);
+				if (sizes64) {
+					header.putLong(entry.size);
+					header.putLong(entry.compressedSize);
+				}
+				if (offset64)
+					header.putLong(entry.offset);
+			}
+			header.writeTo(directory);
+		}
+		directory.flush();
+		long end = this.out.getCount();
+		long size = end - start;
+		int count = this.written.size();
+		boolean zip64 = count >= ZIP64_COUNT_LIMIT || start >= ZIP64_LIMIT || size >= ZIP64_LIMIT;
+
+		HeaderBuffer trailer = new HeaderBuffer(56 + 20 + 22);
+		if (zip64) {
+			trailer.putInt(ZIP64_END_SIGNATURE);
+			trailer.putLong(44);
+			trailer.putShort(45);
+			trailer.putShort(45);
+			trailer.putInt(0);
+			trailer.putInt(0);
+			trailer.putLong(count);
+			trailer.putLong(count);
+			trailer.putLong(size);
+			trailer.putLong(start);
+			trailer.putInt(ZIP64_LOCATOR_SIGNATURE);
+			trailer.putInt(0);
+			trailer.putLong(end);
+			trailer.putInt(1);
+		}
+		trailer.putInt(END_SIGNATURE);
+		trailer.putShort(0);
+		trailer.putShort(0);
+		trailer.putShort(zip64 ? ZIP64_COUNT_LIMIT : count);
+		trailer.putShort(zip64 ? ZIP64_COUNT_LIMIT : count);
+		trailer.putInt((int) (zip64 ? ZIP64_LIMIT : size));
+		trailer.putInt((int) (zip64 ? ZIP64_LIMIT : start));
+		trailer.putShort(0);
+		trailer.writeTo(this.out);
+		this.out.flush();
+		LOGGER.debug("ZIP archive with " + count + " entries written, " + end + " bytes");
+	}
+
+	/**
+	 * Cancel the entries that were not written and shut down the own executor
+	 */
+	private void cleanUp() {
+		for (PendingEntry entry : this.pending) {
+			if (!entry.future.cancel(true)) {
+				try {
+					EntryData data = entry.future.get();
+					if (data.compressed != null)
+						data.compressed.delete();
+				} catch (Exception e) {
+					// Already failed, nothing to clean up
+				}
+			}
+		}
+		this.pending.clear();
+		if (this.ownExecutor)
+			this.executor.shutdownNow();
+	}
+
+	private static long toDosTime(long millis) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(millis);
+		int year = calendar.get(Calendar.YEAR);
+		if (year < 1980)
+			return (1 << 21) | (1 << 16);
+		return ((long) (year - 1980) << 25) | ((calendar.get(Calendar.MONTH) + 1) << 21) | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+				| (calendar.get(Calendar.HOUR_OF_DAY) << 11) | (calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+	}
+
+	/**
+	 * Where the data of an entry comes from
+	 */
+	private abstract static class EntrySource {
+		final String name;
+		final long lastModified;
+		final int level;
+
+		EntrySource(String name, long lastModified, int level) {
+			this.name = name;
+			this.lastModified = lastModified;
+			this.level = level;
+		}
+
+		abstract InputStream open() throws IOException;
+	}
+
+	/**
+	 * The result of compressing an entry
+	 */
+	private static class EntryData {
+		final long crc;
+		final long size;
+		/**
+		 * The deflated data, or null to store the data from the source
+		 */
+		final SpillBuffer compressed;
+
+		EntryData(long crc, long size, SpillBuffer compressed) {
+			this.crc = crc;
+			this.size = size;
+			this.compressed = compressed;
+		}
+	}
+
+	private static class PendingEntry {
+		final EntrySource source;
+		final Future<EntryData> future;
+
+		PendingEntry(EntrySource source, Future<EntryData> future) {
+			this.source = source;
+			this.future = future;
+		}
+	}
+
+	/**
+	 * What the central directory needs to know about a written entry
+	 */
+	private static class WrittenEntry {
+		byte[] name;
+		long dosTime;
+		long crc;
+		long size;
+		long compressedSize;
+		long offset;
+		int method;
+	}
+
+	/**
+	 * Keeps data in memory up to a threshold, and in a temporary file beyond
+	 * it or when the memory shared with the other entries is used up
+	 */
+	private static class SpillBuffer extends OutputStream {
+		private final long threshold;
+		private final AtomicLong bufferedBytes;
+		private final long maxBufferedBytes;
+		/** The part of the shared memory taken by the chunks of this buffer */
+		private long reserved;
+		private final List<byte[]> chunks;
+		private byte[] chunk;
+		private int chunkLength;
+		private long size;
+		private File file;
+		private OutputStream fileOut;
+
+		SpillBuffer(long threshold, AtomicLong bufferedBytes, long maxBufferedBytes) {
+			this.threshold = threshold;
+			this.bufferedBytes = bufferedBytes;
+			this.maxBufferedBytes = maxBufferedBytes;
+			this.chunks = new ArrayList<byte[]>();
+			this.size = 0;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (this.fileOut == null && (this.size + len > this.threshold || !reserveChunks(len))) {
+				this.file = File.createTempFile("zip", ".tmp");
+				this.fileOut = new BufferedOutputStream(new FileOutputStream(this.file), BUFFER_SIZE);
+				writeChunks(this.fileOut);
+				this.chunks.clear();
+				this.chunk = null;
+				release();
+			}
+			this.size += len;
+			if (this.fileOut != null) {
+				this.fileOut.write(b, off, len);
+				return;
+			}
+			int start = off;
+			int end = off + len;
+			while (start < end) {
+				if (this.chunk == null || this.chunkLength == this.chunk.length) {
+					this.chunk = new byte[BUFFER_SIZE];
+					this.chunkLength = 0;
+					this.chunks.add(this.chunk);
+				}
+				int length = Math.min(end - start, this.chunk.length - this.chunkLength);
+				System.arraycopy(b, start, this.chunk, this.chunkLength, length);
+				this.chunkLength += length;
+				start += length;
+			}
+		}
+
+		/**
+		 * Take the memory of the chunks needed for more bytes from the shared
+		 * memory
+		 *
+		 * @return False if there is not enough memory left
+		 */
+		private boolean reserveChunks(int len) {
+			int free = this.chunk == null ? 0 : this.chunk.length - this.chunkLength;
+			if (len <= free)
+				return true;
+			long needed = (len - free + BUFFER_SIZE - 1) / BUFFER_SIZE * (long) BUFFER_SIZE;
+			long current = this.bufferedBytes.get();
+			while (current + needed <= this.maxBufferedBytes) {
+				if (this.bufferedBytes.compareAndSet(current, current + needed)) {
+					this.reserved += needed;
+					return true;
+				}
+				current = this.bufferedBytes.get();
+			}
+			return false;
+		}
+
+		private void release() {
+			this.bufferedBytes.addAndGet(-this.reserved);
+			this.reserved = 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (this.fileOut != null)
+				this.fileOut.close();
+		}
+
+		long size() {
+			return this.size;
+		}
+
+		long writeTo(OutputStream out) throws IOException {
+			if (this.file == null)
+				return writeChunks(out);
+			FileInputStream in = new FileInputStream(this.file);
+			try {
+				return TransferUtils.copy(in, out, 0, Long.MAX_VALUE);
+			} finally {
+				in.close();
+			}
+		}
+
+		private long writeChunks(OutputStream out) throws IOException {
+			long written = 0;
+			for (byte[] c : this.chunks) {
+				int length = c == this.chunk ? this.chunkLength : c.length;
+				out.write(c, 0, length);
+				written += length;
+			}
+			return written;
+		}
+
+		void delete() {
+			this.chunks.clear();
+			this.chunk = null;
+			release();
+			if (this.file != null) {
+				try {
+					this.fileOut.close();
+				} catch (IOException e) {
+					// Only closed to delete the file
+				}
+				if (!this.file.delete())
+					this.file.deleteOnExit();
+				this.file = null;
+			}
+		}
+	}
+
+	/**
+	 * A header in little-endian byte order
+	 */
+	private static class HeaderBuffer {
+		private final byte[] bytes;
+		private int length;
+
+		HeaderBuffer(int capacity) {
+			this.bytes = new byte[capacity];
+			this.length = 0;
+		}
+
+		void putShort(int value) {
+			this.bytes[this.length++] = (byte) value;
+			this.bytes[this.length++] = (byte) (value >>> 8);
+		}
+
+		void putInt(int value) {
+			putShort(value);
+			putShort(value >>> 16);
+		}
+
+		void putLong(long value) {
+			putInt((int) value);
+			putInt((int) (value >>> 32));
+		}
+
+		void put(byte[] value) {
+			System.arraycopy(value, 0, this.bytes, this.length, value.length);
+			this.length += value.length;
+		}
+
+		void writeTo(OutputStream out) throws IOException {
+			out.write(this.bytes, 0, this.length);
+		}
+	}
+
+	/**
+	 * Keeps track of the offset in the archive
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		private long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+			this.count = 0;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.count += len;
+		}
+
+		long getCount() {
+			return this.count;
+		}
+	}
+}
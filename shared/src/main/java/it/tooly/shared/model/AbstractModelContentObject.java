@@ -14,6 +14,7 @@ import java.nio.file.Path;
 
 import org.apache.commons.io.FileUtils;
 
+import it.tooly.shared.common.MappedFile;
 import it.tooly.shared.common.ToolyException;
 import it.tooly.shared.settings.ModelContentSettings;
 
@@ -65,6 +66,27 @@ public abstract class AbstractModelContentObject extends AbstractModelObject imp
 		return fis;
 	}
 
+	/**
+	 * Maps the local content file read-only into memory, for hashing, scanning
+	 * or uploading large content without loading it on the heap. The result
+	 * should be closed.
+	 *
+	 * @return The mapped content, or null if there is no content
+	 * @throws ToolyException
+	 *             If the content file could not be mapped
+	 */
+	public MappedFile getMappedContent() throws ToolyException {
+		File contentFile = getContentFile();
+		if (contentFile == null || !contentFile.exists()) {
+			return null;
+		}
+		try {
+			return MappedFile.open(contentFile);
+		} catch (IOException e) {
+			throw new ToolyException("Could not map content file " + contentFile.getName(), e);
+		}
+	}
+
 	@Override
 	public void setContent(byte[] content) throws ToolyException {
 		File contentFile = getContentFile();
@@ -2,25 +2,38 @@ package it.tooly.shared.model;
 
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.Set;
 
 import it.tooly.shared.common.ToolyException;
 import it.tooly.shared.model.attribute.AttrType;
+import it.tooly.shared.model.attribute.AttributeSchema;
 import it.tooly.shared.model.attribute.IModelObjectAttribute;
 import it.tooly.shared.model.attribute.ModelObjectAttribute;
 
 /**
  * An object with an id and a name. Subclasses can safely implement
  * {@link IModelObject}
+ * <p>
+ * The attributes of an object are described by an {@link AttributeSchema},
+ * which is shared by all objects that have the same attributes. The object
+ * itself only holds the attribute values, in an array in the order of the
+ * schema.
+ * <p>
+ * A subclass can add its attributes on first access instead of in its
+ * constructor by overriding {@link #loadAttributes()}. The name attribute is
+ * always available without loading the other attributes.
  */
 public abstract class AbstractModelObject implements IModelObjectListenable {
 	protected String id;
-	protected Map<String, IModelObjectAttribute<?>> attributes;
-	protected Map<IModelObjectAttribute<?>, Object> attributeValues;
-	private final PropertyChangeSupport propertyChangeSupport;
+	private AttributeSchema schema;
+	private Object[] values;
+
+	/**
+	 * Created when the first listener is added
+	 */
+	private volatile PropertyChangeSupport propertyChangeSupport;
 
 	public AbstractModelObject(String id) {
 		this(id, "Object[" + id + "]", null);
@@ -37,12 +50,8 @@ public abstract class AbstractModelObject implements IModelObjectListenable {
 	 */
 	public AbstractModelObject(String id, String name, Set<String> strAttrs) {
 		this.id = id;
-		/*
-		 * Create attributes and attributeValues maps. They are both
-		 * LinkedHashMap because they should be in the same order.
-		 */
-		this.attributes = new LinkedHashMap<>();
-		this.attributeValues = new LinkedHashMap<>();
+		this.schema = AttributeSchema.EMPTY;
+		this.values = new Object[strAttrs == null ? 1 : strAttrs.size() + 1];
 
 		/*
 		 * By default this object has a name attribute
@@ -54,12 +63,24 @@ public abstract class AbstractModelObject implements IModelObjectListenable {
 				addStringAttribute(attrName, "");
 			}
 		}
+	}
 
-		/*
-		 * Create property change support so this object can be used as the
-		 * source for events
-		 */
-		propertyChangeSupport = new PropertyChangeSupport(this);
+	/**
+	 * @return The schema with the attributes of this object
+	 */
+	protected AttributeSchema getSchema() {
+		loadAttributes();
+		return this.schema;
+	}
+
+	/**
+	 * Called before the attributes of this object are read or changed, except
+	 * for {@link #getName()}. Subclasses that add their attributes lazily
+	 * override this to add them (with the addAttribute methods) the first time
+	 * it is called; it must be cheap once the attributes have been added. The
+	 * default implementation does nothing.
+	 */
+	protected void loadAttributes() {
 	}
 
 	/**
@@ -74,8 +95,15 @@ public abstract class AbstractModelObject implements IModelObjectListenable {
 	 *            - The attribute value (may be null)
 	 */
 	protected <T> void addAttribute(IModelObjectAttribute<T> attribute, T aValue) {
-		this.attributes.put(attribute.getName(), attribute);
-		this.attributeValues.put(attribute, aValue);
+		this.schema = this.schema.withAttribute(attribute);
+		setValueAt(this.schema.indexOf(attribute.getName()), aValue);
+	}
+
+	private void setValueAt(int index, Object value) {
+		if (index >= this.values.length) {
+			this.values = Arrays.copyOf(this.values, Math.max(index + 1, this.values.length * 2));
+		}
+		this.values[index] = value;
 	}
 
 	/**
@@ -93,8 +121,8 @@ public abstract class AbstractModelObject implements IModelObjectListenable {
 	 * @throws ToolyException
 	 */
 	protected <T> void addAttribute(String aName, AttrType aType, T aValue) {
-		IModelObjectAttribute<T> attribute = new ModelObjectAttribute<>(aName, aType);
-		addAttribute(attribute, aValue);
+		this.schema = this.schema.withAttribute(aName, aType);
+		setValueAt(this.schema.indexOf(aName), aValue);
 	}
 
 	/**
@@ -115,37 +143,48 @@ public abstract class AbstractModelObject implements IModelObjectListenable {
 	}
 
 	public Collection<IModelObjectAttribute<?>> getAttrs() {
-		return this.attributes.values();
+		loadAttributes();
+		return this.schema.getAttributes();
 	}
 
 	public Set<String> getAttrNames() {
-		return this.attributes.keySet();
+		loadAttributes();
+		return this.schema.getNames();
+	}
+
+	public int getAttrCount() {
+		loadAttributes();
+		return this.schema.size();
+	}
+
+	public int getAttrIndex(String attrName) {
+		loadAttributes();
+		return this.schema.indexOf(attrName);
 	}
 
 	public String getAttrName(int index) {
-		Set<String> attrNames = getAttrNames();
-		if (attrNames != null && !attrNames.isEmpty() && attrNames.size() > index) {
-			String[] attrNamesArray = new String[attrNames.size()];
-			attrNames.toArray(attrNamesArray);
-			return attrNamesArray[index];
-		} else {
+		loadAttributes();
+		if (index < 0 || index >= this.schema.size())
 			return null;
-		}
+		return this.schema.getAttribute(index).getName();
 	}
 
 	public IModelObjectAttribute<?> getAttr(String attrName) {
-		return this.attributes.get(attrName);
+		loadAttributes();
+		return this.schema.getAttribute(attrName);
 	}
 
 	public AttrType getAttrType(String attrName) {
-		IModelObjectAttribute<?> objAttr = this.attributes.get(attrName);
+		loadAttributes();
+		IModelObjectAttribute<?> objAttr = this.schema.getAttribute(attrName);
 		return objAttr == null ? null : objAttr.getType();
 	}
 
 	@SuppressWarnings("unchecked")
 	public <T> T getAttrValue(IModelObjectAttribute<T> attribute) {
-		Object attrValue = this.attributeValues.get(attribute);
-		return (T) attrValue;
+		loadAttributes();
+		int index = this.schema.indexOf(attribute.getName());
+		return index < 0 ? null : (T) this.values[index];
 	}
 
 	public Object getAttrValue(String attributeName) {
@@ -156,12 +195,14 @@ public abstract class AbstractModelObject implements IModelObjectListenable {
 	}
 
 	public Object getAttrValueAt(int index) {
-		String attrName = getAttrName(index);
-		return attrName == null ? null : this.getAttrValue(attrName);
+		loadAttributes();
+		if (index < 0 || index >= this.schema.size())
+			return null;
+		return this.values[index];
 	}
 
 	public String getAttrValueAsString(IModelObjectAttribute<?> attribute) {
-		Object attrValue = this.attributeValues.get(attribute);
+		Object attrValue = getAttrValue(attribute);
 		return getAttrValueAsString(attribute.getType(), attrValue);
 	}
 
@@ -183,10 +224,18 @@ public abstract class AbstractModelObject implements IModelObjectListenable {
 	}
 
 	public <T> boolean setAttrValue(IModelObjectAttribute<T> attribute, T attrValue) {
+		loadAttributes();
 		AttrType aType = attribute.getType();
+		int index = this.schema.indexOf(attribute.getName());
+		if (index < 0)
+			return false;
 		if (aType.getValueClass().isAssignableFrom(attrValue.getClass())) {
-			Object oldValue = this.attributeValues.put(attribute, attrValue);
-			this.propertyChangeSupport.firePropertyChange(attribute.getName(), oldValue, attrValue);
+			Object oldValue = this.values[index];
+			this.values[index] = attrValue;
+			PropertyChangeSupport pcs = this.propertyChangeSupport;
+			if (pcs != null) {
+				pcs.firePropertyChange(attribute.getName(), oldValue, attrValue);
+			}
 			return true;
 		} else {
 			return false;
@@ -194,7 +243,8 @@ public abstract class AbstractModelObject implements IModelObjectListenable {
 	}
 
 	public boolean hasAttr(String attrName) {
-		return this.attributes.containsKey(attrName);
+		loadAttributes();
+		return this.schema.indexOf(attrName) >= 0;
 	}
 
 	public String getId() {
@@ -213,8 +263,10 @@ public abstract class AbstractModelObject implements IModelObjectListenable {
 	 * @return the name
 	 */
 	public String getName() {
-		IModelObjectAttribute<?> attribute = getAttr("name");
-		return attribute == null ? null : this.getAttrValueAsString(attribute);
+		// Read directly, so lazily loaded objects can be listed by name
+		int index = this.schema.indexOf("name");
+		return index < 0 ? null
+				: getAttrValueAsString(this.schema.getAttribute(index).getType(), this.values[index]);
 	}
 
 	/**
@@ -225,20 +277,42 @@ public abstract class AbstractModelObject implements IModelObjectListenable {
 		setAttrValue("name", name);
 	}
 
+	/**
+	 * Get the property change support, creating it if it doesn't exist yet.
+	 * Most objects never get a listener, so it is only created when needed.
+	 */
+	private PropertyChangeSupport getPropertyChangeSupport() {
+		PropertyChangeSupport pcs = this.propertyChangeSupport;
+		if (pcs == null) {
+			synchronized (this) {
+				pcs = this.propertyChangeSupport;
+				if (pcs == null) {
+					pcs = new PropertyChangeSupport(this);
+					this.propertyChangeSupport = pcs;
+				}
+			}
+		}
+		return pcs;
+	}
+
 	public void addPropertyChangeListener(PropertyChangeListener listener) {
-		this.propertyChangeSupport.addPropertyChangeListener(listener);
+		getPropertyChangeSupport().addPropertyChangeListener(listener);
 	}
 
 	public void addPropertyChangeListener(IModelObjectAttribute<?> attribute, PropertyChangeListener listener) {
-		this.propertyChangeSupport.addPropertyChangeListener(attribute.getName(), listener);
+		getPropertyChangeSupport().addPropertyChangeListener(attribute.getName(), listener);
 	}
 
 	public void removePropertyChangeListener(PropertyChangeListener listener) {
-		this.propertyChangeSupport.removePropertyChangeListener(listener);
+		PropertyChangeSupport pcs = this.propertyChangeSupport;
+		if (pcs != null)
+			pcs.removePropertyChangeListener(listener);
 	}
 
 	public void removePropertyChangeListener(IModelObjectAttribute<?> attribute, PropertyChangeListener listener) {
-		this.propertyChangeSupport.removePropertyChangeListener(attribute.getName(), listener);
+		PropertyChangeSupport pcs = this.propertyChangeSupport;
+		if (pcs != null)
+			pcs.removePropertyChangeListener(attribute.getName(), listener);
 	}
 
 	public int compareTo(IModelObject o) {
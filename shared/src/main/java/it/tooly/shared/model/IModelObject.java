@@ -24,6 +24,30 @@ public interface IModelObject extends Comparable<IModelObject>  {
 
 	public Set<String> getAttrNames();
 
+	/**
+	 * @return The number of attributes of this object
+	 */
+	public int getAttrCount();
+
+	/**
+	 * Get the position of an attribute. Objects with the same attributes
+	 * (added in the same order) have their attributes at the same positions,
+	 * so the position can be looked up once and used for many objects.
+	 *
+	 * @param attrName
+	 *            Name of the attribute
+	 * @return The position of the attribute, or -1 if this object doesn't have
+	 *         it
+	 */
+	public int getAttrIndex(String attrName);
+
+	/**
+	 * @param index
+	 *            Position of the attribute
+	 * @return The name of the attribute at the position, or null
+	 */
+	public String getAttrName(int index);
+
 	/**
 	 * Get an attribute with a given name
 	 *
@@ -56,6 +80,17 @@ public interface IModelObject extends Comparable<IModelObject>  {
 
 	public <T> T getAttrValue(IModelObjectAttribute<T> attribute);
 
+	/**
+	 * Get the value of the attribute at a position (see
+	 * {@link #getAttrIndex(String)}) without looking up its name.
+	 *
+	 * @param index
+	 *            Position of the attribute
+	 * @return The attribute value, or null if there is no attribute at the
+	 *         position
+	 */
+	public Object getAttrValueAt(int index);
+
 	public <T> boolean setAttrValue(String attrName, T attrValue);
 
 	public boolean hasAttr(String attrName);
@@ -0,0 +1,255 @@
+package it.tooly.shared.model.attribute;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ordered set of attributes of a model object. A schema is immutable and
+ * interned: every schema is reached from {@link #EMPTY} by adding attributes
+ * one at a time with {@link #withAttribute(IModelObjectAttribute)}, and adding
+ * the same attribute to the same schema always returns the same schema. So all
+ * objects that add the same attributes in the same order share one schema, and
+ * each object only needs to store its values (see
+ * {@link it.tooly.shared.model.AbstractModelObject}).
+ * <p>
+ * Two attributes are considered the same when they have the same name, type
+ * and value class.
+ */
+public final class AttributeSchema {
+
+	/**
+	 * The schema without attributes, from which all schemas are derived
+	 */
+	public static final AttributeSchema EMPTY = new AttributeSchema(new IModelObjectAttribute<?>[0]);
+
+	private final IModelObjectAttribute<?>[] attributes;
+	private final Map<String, Integer> indexes;
+	private final List<IModelObjectAttribute<?>> attributeList;
+	private final Set<String> names;
+	private final int namesHash;
+
+	/**
+	 * Schemas derived from this one by adding or replacing an attribute
+	 */
+	private final ConcurrentHashMap<AttributeKey, AttributeSchema> transitions;
+
+	private AttributeSchema(IModelObjectAttribute<?>[] attributes) {
+		this.attributes = attributes;
+		this.indexes = new HashMap<>(attributes.length * 2);
+		for (int i = 0; i < attributes.length; i++) {
+			this.indexes.put(attributes[i].getName(), i);
+		}
+		this.attributeList = Collections.unmodifiableList(Arrays.asList(attributes));
+		this.names = new NameSet();
+		int hash = 0;
+		for (IModelObjectAttribute<?> attribute : attributes) {
+			hash += attribute.getName().hashCode();
+		}
+		this.namesHash = hash;
+		this.transitions = new ConcurrentHashMap<>(4);
+	}
+
+	/**
+	 * Get the schema with an attribute added at the end, or, if this schema
+	 * already has an attribute with the same name, the schema with that
+	 * attribute replaced.
+	 *
+	 * @param attribute
+	 *            The attribute to add
+	 * @return The (shared) schema with the attribute
+	 */
+	public AttributeSchema withAttribute(IModelObjectAttribute<?> attribute) {
+		AttributeKey key = new AttributeKey(attribute);
+		AttributeSchema schema = findSchema(key);
+		return schema != null ? schema : createSchema(key, attribute);
+	}
+
+	/**
+	 * Get the schema with a {@link ModelObjectAttribute} of the given name and
+	 * type added or replaced. Unlike
+	 * {@link #withAttribute(IModelObjectAttribute)} this does not create an
+	 * attribute object if the schema already exists.
+	 */
+	public AttributeSchema withAttribute(String name, AttrType type) {
+		AttributeKey key = new AttributeKey(name, type, null);
+		AttributeSchema schema = findSchema(key);
+		if (schema != null)
+			return schema;
+		// The schema is derived for the key of the attribute itself, so both
+		// withAttribute methods find it
+		IModelObjectAttribute<?> attribute = new ModelObjectAttribute<>(name, type);
+		schema = withAttribute(attribute);
+		if (!key.equals(new AttributeKey(attribute))) {
+			// Also find it by name and type next time, without creating an
+			// attribute
+			AttributeSchema existing = this.transitions.putIfAbsent(key, schema);
+			if (existing != null)
+				return existing;
+		}
+		return schema;
+	}
+
+	/**
+	 * @return This schema if it already has the attribute, the schema that was
+	 *         derived earlier for the attribute, or null
+	 */
+	private AttributeSchema findSchema(AttributeKey key) {
+		Integer index = this.indexes.get(key.name);
+		if (index != null && key.equals(new AttributeKey(this.attributes[index]))) {
+			return this;
+		}
+		return this.transitions.get(key);
+	}
+
+	private AttributeSchema createSchema(AttributeKey key, IModelObjectAttribute<?> attribute) {
+		Integer index = this.indexes.get(attribute.getName());
+		IModelObjectAttribute<?>[] newAttributes;
+		if (index == null) {
+			newAttributes = Arrays.copyOf(this.attributes, this.attributes.length + 1);
+			newAttributes[this.attributes.length] = attribute;
+		} else {
+			newAttributes = this.attributes.clone();
+			newAttributes[index] = attribute;
+		}
+		AttributeSchema newSchema = new AttributeSchema(newAttributes);
+		AttributeSchema schema = this.transitions.putIfAbsent(key, newSchema);
+		return schema == null ? newSchema : schema;
+	}
+
+	/**
+	 * @return The number of attributes
+	 */
+	public int size() {
+		return this.attributes.length;
+	}
+
+	/**
+	 * @return The position of an attribute, or -1 if there is no attribute
+	 *         with this name
+	 */
+	public int indexOf(String attrName) {
+		Integer index = this.indexes.get(attrName);
+		return index == null ? -1 : index.intValue();
+	}
+
+	/**
+	 * @return The attribute at a position
+	 * @throws IndexOutOfBoundsException
+	 *             If there is no attribute at this position
+	 */
+	public IModelObjectAttribute<?> getAttribute(int index) {
+		return this.attributes[index];
+	}
+
+	/**
+	 * @return The attribute with the given name, or null
+	 */
+	public IModelObjectAttribute<?> getAttribute(String attrName) {
+		Integer index = this.indexes.get(attrName);
+		return index == null ? null : this.attributes[index];
+	}
+
+	/**
+	 * @return The attributes in order, as an unmodifiable list
+	 */
+	public List<IModelObjectAttribute<?>> getAttributes() {
+		return this.attributeList;
+	}
+
+	/**
+	 * @return The attribute names in order, as an unmodifiable set
+	 */
+	public Set<String> getNames() {
+		return this.names;
+	}
+
+	@Override
+	public String toString() {
+		return "AttributeSchema" + this.attributeList;
+	}
+
+	/**
+	 * Read-only, ordered view of the attribute names
+	 */
+	private final class NameSet extends AbstractSet<String> {
+		@Override
+		public Iterator<String> iterator() {
+			return new Iterator<String>() {
+				private int next = 0;
+
+				@Override
+				public boolean hasNext() {
+					return this.next < AttributeSchema.this.attributes.length;
+				}
+
+				@Override
+				public String next() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+					return AttributeSchema.this.attributes[this.next++].getName();
+				}
+			};
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return AttributeSchema.this.indexes.containsKey(o);
+		}
+
+		@Override
+		public int size() {
+			return AttributeSchema.this.attributes.length;
+		}
+
+		/**
+		 * Precomputed, and the same as the hash code of any other set with
+		 * these names
+		 */
+		@Override
+		public int hashCode() {
+			return AttributeSchema.this.namesHash;
+		}
+	}
+
+	/**
+	 * Identifies an attribute in the transitions of a schema
+	 */
+	private static final class AttributeKey {
+		private final String name;
+		private final AttrType type;
+		private final Class<?> valueClass;
+
+		private AttributeKey(IModelObjectAttribute<?> attribute) {
+			this(attribute.getName(), attribute.getType(), attribute.getValueClass());
+		}
+
+		private AttributeKey(String name, AttrType type, Class<?> valueClass) {
+			this.name = name;
+			this.type = type;
+			this.valueClass = valueClass;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = this.name.hashCode();
+			hash = 31 * hash + (this.type == null ? 0 : this.type.hashCode());
+			return 31 * hash + (this.valueClass == null ? 0 : this.valueClass.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof AttributeKey))
+				return false;
+			AttributeKey other = (AttributeKey) obj;
+			return this.name.equals(other.name) && this.type == other.type && this.valueClass == other.valueClass;
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package it.tooly.shared.model.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.StringUtils;
+
+import it.tooly.shared.model.IModelObject;
+
+/**
+ * A thread-safe registry of model objects, keyed by their id (see
+ * {@link IModelObject#getId()}). Lookups go to a {@link ConcurrentHashMap} and
+ * never block. Iteration uses an ordered snapshot (in insertion order, like
+ * {@link ModelMap}) which is copied on every change, so readers never block
+ * and never see a {@link java.util.ConcurrentModificationException}. This
+ * makes it suitable for data that is read often and changed rarely, such as
+ * the known servers of a client.
+ *
+ * @param <T>
+ *            The type of objects in this registry
+ */
+public class ModelRegistry<T extends IModelObject> {
+
+	private final ConcurrentHashMap<String, T> objects;
+	private final Object writeLock;
+
+	/**
+	 * Ordered copy of the objects. It is replaced (never modified) on every
+	 * change.
+	 */
+	private volatile Map<String, T> snapshot;
+
+	public ModelRegistry() {
+		this.objects = new ConcurrentHashMap<>();
+		this.writeLock = new Object();
+		this.snapshot = Collections.unmodifiableMap(new ModelMap<T>());
+	}
+
+	/**
+	 * Get an object by its id
+	 *
+	 * @param id
+	 *            The id of the object
+	 * @return The object, or null if there is no object with this id
+	 */
+	public T get(String id) {
+		return id == null ? null : this.objects.get(id);
+	}
+
+	public boolean containsKey(String id) {
+		return id != null && this.objects.containsKey(id);
+	}
+
+	/**
+	 * Put an object in the registry, replacing an object with the same id
+	 *
+	 * @param object
+	 *            The object to put in the registry
+	 * @return The object that was replaced, or null
+	 */
+	public T put(T object) {
+		String id = getKey(object);
+		synchronized (this.writeLock) {
+			T previous = this.objects.put(id, object);
+			if (previous != object) {
+				publish(id, object);
+			}
+			return previous;
+		}
+	}
+
+	/**
+	 * Put an object in the registry, but only if there is no object with the
+	 * same id yet
+	 *
+	 * @param object
+	 *            The object to put in the registry
+	 * @return The object that is registered with the id of the given object
+	 *         after this call; either the existing object or the given one
+	 */
+	public T putIfAbsent(T object) {
+		String id = getKey(object);
+		T existing = this.objects.get(id);
+		if (existing != null)
+			return existing;
+		synchronized (this.writeLock) {
+			existing = this.objects.putIfAbsent(id, object);
+			if (existing != null)
+				return existing;
+			publish(id, object);
+			return object;
+		}
+	}
+
+	/**
+	 * Remove an object from the registry
+	 *
+	 * @param id
+	 *            The id of the object to remove
+	 * @return The removed object, or null
+	 */
+	public T remove(String id) {
+		if (id == null)
+			return null;
+		synchronized (this.writeLock) {
+			T removed = this.objects.remove(id);
+			if (removed != null) {
+				ModelMap<T> copy = new ModelMap<>();
+				copy.putAll(this.snapshot);
+				copy.remove(id);
+				this.snapshot = Collections.unmodifiableMap(copy);
+			}
+			return removed;
+		}
+	}
+
+	public void clear() {
+		synchronized (this.writeLock) {
+			this.objects.clear();
+			this.snapshot = Collections.unmodifiableMap(new ModelMap<T>());
+		}
+	}
+
+	public int size() {
+		return this.objects.size();
+	}
+
+	public boolean isEmpty() {
+		return this.objects.isEmpty();
+	}
+
+	/**
+	 * @return An unmodifiable, ordered view of the objects at the time of the
+	 *         call. Later changes to the registry are not visible in it.
+	 */
+	public Map<String, T> snapshot() {
+		return this.snapshot;
+	}
+
+	/**
+	 * @return The objects at the time of the call, in insertion order
+	 * @see #snapshot()
+	 */
+	public Collection<T> values() {
+		return this.snapshot.values();
+	}
+
+	/**
+	 * @return A new, modifiable {@link ModelMap} with the current objects
+	 */
+	public ModelMap<T> toModelMap() {
+		ModelMap<T> map = new ModelMap<>();
+		map.putAll(this.snapshot);
+		return map;
+	}
+
+	/**
+	 * Publish a copy of the snapshot with the given object added or replaced.
+	 * Must be called while holding the write lock.
+	 */
+	private void publish(String id, T object) {
+		ModelMap<T> copy = new ModelMap<>();
+		copy.putAll(this.snapshot);
+		copy.put(id, object);
+		this.snapshot = Collections.unmodifiableMap(copy);
+	}
+
+	private static String getKey(IModelObject object) {
+		if (StringUtils.isBlank(object.getId()))
+			throw new IllegalArgumentException("Object key is blank");
+		return object.getId();
+	}
+}
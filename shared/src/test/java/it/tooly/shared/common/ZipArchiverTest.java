@@ -0,0 +1,221 @@
+package it.tooly.shared.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Round trips of {@link ZipArchiver} archives through java.util.zip
+ */
+public class ZipArchiverTest extends TestCase {
+
+	private File archive;
+
+	@Override
+	protected void setUp() throws IOException {
+		this.archive = File.createTempFile("ZipArchiverTest", ".zip");
+	}
+
+	@Override
+	protected void tearDown() {
+		this.archive.delete();
+	}
+
+	public void testRoundTrip() throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			text.append("Line ").append(i).append('\n');
+		}
+		entries.put("text.txt", text.toString().getBytes(StandardCharsets.UTF_8));
+		entries.put("folder/random.bin", randomBytes(100000, 1));
+		entries.put("image.jpg", text.toString().getBytes(StandardCharsets.UTF_8));
+		entries.put("empty.txt", new byte[0]);
+		entries.put("folder/\u00e9t\u00e9 \u65e5\u672c.txt", "UTF-8 name".getBytes(StandardCharsets.UTF_8));
+
+		File file = File.createTempFile("ZipArchiverTest", ".txt");
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			try {
+				out.write(entries.get("text.txt"));
+			} finally {
+				out.close();
+			}
+			ZipArchiver archiver = new ZipArchiver(new FileOutputStream(this.archive));
+			try {
+				for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+					archiver.addEntry(entry.getKey(), entry.getValue(), ZipArchiver.AUTO);
+				}
+				archiver.addFile(file, "file.txt");
+				archiver.addEntry("stored.txt", entries.get("text.txt"), ZipArchiver.STORED);
+			} finally {
+				archiver.close();
+			}
+		} finally {
+			file.delete();
+		}
+		entries.put("file.txt", entries.get("text.txt"));
+		entries.put("stored.txt", entries.get("text.txt"));
+
+		assertEquals(new ByteArrayMap(entries), readWithZipFile());
+		assertEquals(new ByteArrayMap(entries), readWithZipInputStream());
+
+		ZipFile zipFile = new ZipFile(this.archive);
+		try {
+			assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("text.txt").getMethod());
+			assertEquals(ZipEntry.STORED, zipFile.getEntry("folder/random.bin").getMethod());
+			assertEquals(ZipEntry.STORED, zipFile.getEntry("image.jpg").getMethod());
+			assertEquals(ZipEntry.STORED, zipFile.getEntry("stored.txt").getMethod());
+		} finally {
+			zipFile.close();
+		}
+	}
+
+	public void testSpilledEntries() throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		ZipArchiver archiver = new ZipArchiver(new FileOutputStream(this.archive));
+		try {
+			// Every entry waits in a temporary file
+			archiver.setMaxBufferedBytes(0);
+			archiver.setMaxPending(2);
+			for (int i = 0; i < 20; i++) {
+				byte[] data = new byte[300000];
+				Arrays.fill(data, 0, 200000, (byte) i);
+				System.arraycopy(randomBytes(100000, i), 0, data, 200000, 100000);
+				entries.put("entry" + i + ".bin", data);
+				archiver.addEntry("entry" + i + ".bin", data, ZipArchiver.AUTO);
+			}
+		} finally {
+			archiver.close();
+		}
+		assertEquals(new ByteArrayMap(entries), readWithZipFile());
+	}
+
+	public void testZip64EntryCount() throws IOException {
+		int count = 70000;
+		ZipArchiver archiver = new ZipArchiver(new FileOutputStream(this.archive));
+		try {
+			for (int i = 0; i < count; i++) {
+				archiver.addEntry("entries/" + i + ".txt", Integer.toString(i).getBytes(StandardCharsets.UTF_8), ZipArchiver.AUTO);
+			}
+		} finally {
+			archiver.close();
+		}
+		Map<String, byte[]> read = readWithZipFile();
+		assertEquals(count, read.size());
+		assertEquals("69999", new String(read.get("entries/69999.txt"), StandardCharsets.UTF_8));
+		assertEquals(count, readWithZipInputStream().size());
+	}
+
+	public void testDuplicateName() throws IOException {
+		ZipArchiver archiver = new ZipArchiver(new FileOutputStream(this.archive));
+		try {
+			archiver.addEntry("a.txt", new byte[] { 1 }, ZipArchiver.AUTO);
+			try {
+				archiver.addEntry("a.txt", new byte[] { 2 }, ZipArchiver.AUTO);
+				fail("Duplicate entry was added");
+			} catch (IOException e) {
+				// Expected
+			}
+		} finally {
+			archiver.close();
+		}
+		assertEquals(1, readWithZipFile().size());
+	}
+
+	private Map<String, byte[]> readWithZipFile() throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		ZipFile zipFile = new ZipFile(this.archive);
+		try {
+			Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+			while (zipEntries.hasMoreElements()) {
+				ZipEntry entry = zipEntries.nextElement();
+				InputStream in = zipFile.getInputStream(entry);
+				try {
+					entries.put(entry.getName(), readAll(in));
+				} finally {
+					in.close();
+				}
+			}
+		} finally {
+			zipFile.close();
+		}
+		return new ByteArrayMap(entries);
+	}
+
+	private Map<String, byte[]> readWithZipInputStream() throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		ZipInputStream in = new ZipInputStream(new FileInputStream(this.archive), StandardCharsets.UTF_8);
+		try {
+			ZipEntry entry;
+			while ((entry = in.getNextEntry()) != null) {
+				entries.put(entry.getName(), readAll(in));
+			}
+		} finally {
+			in.close();
+		}
+		return new ByteArrayMap(entries);
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] randomBytes(int length, long seed) {
+		byte[] bytes = new byte[length];
+		new Random(seed).nextBytes(bytes);
+		return bytes;
+	}
+
+	/**
+	 * A map that compares its byte array values by content, so maps of
+	 * entries can be compared with assertEquals
+	 */
+	private static class ByteArrayMap extends LinkedHashMap<String, byte[]> {
+		private static final long serialVersionUID = 1L;
+
+		ByteArrayMap(Map<String, byte[]> entries) {
+			super(entries);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Map))
+				return false;
+			Map<?, ?> other = (Map<?, ?>) obj;
+			if (other.size() != size())
+				return false;
+			for (Map.Entry<String, byte[]> entry : entrySet()) {
+				Object value = other.get(entry.getKey());
+				if (!(value instanceof byte[]) || !Arrays.equals(entry.getValue(), (byte[]) value))
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			return keySet().hashCode();
+		}
+	}
+}